@@ -0,0 +1,631 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.scheduler;
+
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.fiber.PausableFiber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+/**
+ * Scheduler based on a hierarchical hashed timing wheel.
+ *
+ * The wheel consists of {@value #LEVELS} levels of {@value #SLOTS} slots each. A slot on the
+ * lowest level covers a single millisecond, a slot on every higher level covers a whole rotation
+ * of the level below. Tasks are placed into the lowest level covering their deadline and are
+ * cascaded to the lower levels once the time of their slot has come. Scheduling and cancelling a
+ * task are constant time operations and, since the occupied slots of every level are tracked in a
+ * bitmap, the worker thread sleeps until the next occupied slot instead of polling for ready tasks.
+ *
+ * Once the deadline of a task has expired, it is handed to the thread pool if it is ready. Tasks
+ * which are not ready yet are checked again after the retry delay.
+ *
+ * If spreading is enabled, the deadlines of tasks scheduled with the same interval are aligned
+ * to a phase derived from the task, so that tasks started at the same time are spread across their
+ * interval after their first run, instead of running in bursts. The aligned deadline may be up to
+ * half of the interval before, or after, the end of the interval.
+ */
+public class TimingWheelScheduler implements Runnable, PausableFiber, Scheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TimingWheelScheduler.class);
+
+    /**
+     * The default delay before checking a task, which was not ready on its deadline, again.
+     */
+    public static final long DEFAULT_RETRY_DELAY = 1000;
+
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int LEVELS = 5;
+
+    /**
+     * Pseudo level holding the tasks which are due.
+     */
+    private static final int DUE = LEVELS;
+
+    /**
+     * Pseudo level holding the tasks which are beyond the range of the wheel.
+     */
+    private static final int OVERFLOW = LEVELS + 1;
+
+    private static final long NEVER = Long.MAX_VALUE;
+
+    /**
+     * A task in the wheel.
+     */
+    public final class Timeout {
+        private final ReadyRunnable m_runnable;
+        private long m_deadline;
+
+        private int m_level = -1;
+        private int m_slot;
+        private Timeout m_prev;
+        private Timeout m_next;
+
+        private volatile boolean m_cancelled = false;
+
+        private Timeout(final ReadyRunnable runnable, final long deadline) {
+            m_runnable = runnable;
+            m_deadline = deadline;
+        }
+
+        /**
+         * Removes the task from the scheduler.
+         *
+         * @return false if the task was already handed to the thread pool, is being checked for
+         *         readiness or was cancelled before
+         */
+        public boolean cancel() {
+            synchronized (TimingWheelScheduler.this) {
+                m_cancelled = true;
+                if (m_level < 0) {
+                    return false;
+                }
+                unlink(this);
+                m_scheduled--;
+                return true;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return m_runnable.toString() + " (ready in " + Math.max(0, m_deadline - elapsed()) + "ms)";
+        }
+    }
+
+    /**
+     * The heads of the task lists of every slot, followed by the due and the overflow lists.
+     */
+    private final Timeout[][] m_lists = new Timeout[LEVELS + 2][SLOTS];
+
+    /**
+     * The bitmaps of the occupied slots of every level.
+     */
+    private final long[] m_occupied = new long[LEVELS];
+
+    /**
+     * The reference for the time of the wheel, which is independent of changes to the wall clock.
+     */
+    private final long m_startNanos = System.nanoTime();
+
+    /**
+     * The time of the wheel in milliseconds. All slots up to and including this time have been expired.
+     */
+    private long m_now = 0;
+
+    /**
+     * The time the worker thread will wake up.
+     */
+    private long m_wakeTime = NEVER;
+
+    /**
+     * The total number of tasks currently scheduled.
+     */
+    private volatile int m_scheduled = 0;
+
+    private final boolean m_spread;
+
+    private final long m_retryDelay;
+
+    /**
+     * The pool of threads that are used to executed the runnable instances
+     * scheduled by the class' instance.
+     */
+    private final ExecutorService m_runner;
+
+    /**
+     * The status for this fiber.
+     */
+    private volatile int m_status;
+
+    /**
+     * The worker thread that executes this instance.
+     */
+    private volatile Thread m_worker;
+
+    /**
+     * Used to keep track of the number of tasks that have been executed.
+     */
+    private volatile long m_numTasksExecuted = 0;
+
+    /**
+     * Constructs a new instance of the scheduler, spreading the tasks across their intervals.
+     *
+     * @param parent
+     *            String prepended to "Scheduler" to create fiber name
+     * @param maxSize
+     *            The maximum size of the thread pool.
+     */
+    public TimingWheelScheduler(final String parent, final int maxSize) {
+        this(parent, maxSize, true, DEFAULT_RETRY_DELAY);
+    }
+
+    /**
+     * Constructs a new instance of the scheduler.
+     *
+     * @param parent
+     *            String prepended to "Scheduler" to create fiber name
+     * @param maxSize
+     *            The maximum size of the thread pool.
+     * @param spread
+     *            Whether to spread the tasks across their intervals.
+     * @param retryDelay
+     *            The delay in milliseconds before checking a task, which was not ready on its deadline, again.
+     */
+    public TimingWheelScheduler(final String parent, final int maxSize, final boolean spread, final long retryDelay) {
+        Assert.isTrue(retryDelay > 0, "retryDelay must be positive");
+        m_status = START_PENDING;
+        m_runner = Executors.newFixedThreadPool(maxSize, new LogPreservingThreadFactory(parent, maxSize));
+        m_spread = spread;
+        m_retryDelay = retryDelay;
+        m_worker = null;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void schedule(final long interval, final ReadyRunnable runnable) {
+        scheduleTimeout(interval, runnable);
+    }
+
+    /**
+     * Schedules the runnable to be run once the interval has expired and the runnable is ready.
+     *
+     * @return the task, which can be used to cancel it
+     */
+    public synchronized Timeout scheduleTimeout(final long interval, final ReadyRunnable runnable) {
+        Objects.requireNonNull(runnable);
+        LOG.debug("schedule: Adding ready runnable {} at interval {}", runnable, interval);
+
+        // Round up, so that without spreading the task never runs before the interval has expired
+        final long now = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - m_startNanos + TimeUnit.MILLISECONDS.toNanos(1) - 1);
+        final Timeout timeout = new Timeout(runnable, m_spread ? spread(runnable, now, interval) : now + Math.max(0, interval));
+        add(timeout);
+        m_scheduled++;
+
+        if (timeout.m_deadline < m_wakeTime) {
+            notifyAll();
+        }
+        return timeout;
+    }
+
+    /**
+     * Returns the deadline closest to the end of the interval, which is aligned to the phase of the runnable.
+     *
+     * The deadline is therefore up to half of the interval before, or after, the end of the interval:
+     * the first run of a task may be early. Rescheduling a runnable with the same interval after it has
+     * run results in the same phase, as long as running it took less than half of the interval, so that
+     * the following runs are exactly one interval apart. Only ever delaying the deadline would move the
+     * phase by a whole interval whenever running the task took any time at all.
+     */
+    static long spread(final ReadyRunnable runnable, final long now, final long interval) {
+        final long deadline = now + Math.max(0, interval);
+        if (interval <= 1) {
+            return deadline;
+        }
+
+        // Scramble the identity hash code, as it tends to be aligned
+        final long phase = Math.floorMod(System.identityHashCode(runnable) * 0x9E3779B97F4A7C15L, interval);
+        long aligned = deadline - Math.floorMod(deadline - phase, interval);
+        if (deadline - aligned > interval / 2) {
+            aligned += interval;
+        }
+        return aligned;
+    }
+
+    /**
+     * Returns the time of the wheel.
+     */
+    private long elapsed() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - m_startNanos);
+    }
+
+    private void add(final Timeout timeout) {
+        final long deadline = timeout.m_deadline;
+        if (deadline <= m_now) {
+            link(timeout, DUE, 0);
+            return;
+        }
+
+        // Use the lowest level on which the deadline lies within the current rotation
+        for (int level = 0; level < LEVELS; level++) {
+            final int shift = BITS * (level + 1);
+            if ((deadline >>> shift) == (m_now >>> shift)) {
+                link(timeout, level, (int) (deadline >>> (BITS * level)) & (SLOTS - 1));
+                return;
+            }
+        }
+
+        link(timeout, OVERFLOW, 0);
+    }
+
+    private void link(final Timeout timeout, final int level, final int slot) {
+        final Timeout head = m_lists[level][slot];
+        timeout.m_level = level;
+        timeout.m_slot = slot;
+        timeout.m_prev = null;
+        timeout.m_next = head;
+        if (head != null) {
+            head.m_prev = timeout;
+        }
+        m_lists[level][slot] = timeout;
+
+        if (level < LEVELS) {
+            m_occupied[level] |= 1L << slot;
+        }
+    }
+
+    private void unlink(final Timeout timeout) {
+        final int level = timeout.m_level;
+        final int slot = timeout.m_slot;
+        if (timeout.m_prev != null) {
+            timeout.m_prev.m_next = timeout.m_next;
+        } else {
+            m_lists[level][slot] = timeout.m_next;
+        }
+        if (timeout.m_next != null) {
+            timeout.m_next.m_prev = timeout.m_prev;
+        }
+        timeout.m_level = -1;
+        timeout.m_prev = null;
+        timeout.m_next = null;
+
+        if (level < LEVELS && m_lists[level][slot] == null) {
+            m_occupied[level] &= ~(1L << slot);
+        }
+    }
+
+    /**
+     * Removes all tasks from the given list and returns its former head.
+     */
+    private Timeout clear(final int level, final int slot) {
+        final Timeout head = m_lists[level][slot];
+        for (Timeout timeout = head; timeout != null; timeout = timeout.m_next) {
+            timeout.m_level = -1;
+        }
+        m_lists[level][slot] = null;
+        if (level < LEVELS) {
+            m_occupied[level] &= ~(1L << slot);
+        }
+        return head;
+    }
+
+    /**
+     * Re-adds all tasks of the given list relative to the current time of the wheel.
+     */
+    private void cascade(final int level, final int slot) {
+        Timeout timeout = clear(level, slot);
+        while (timeout != null) {
+            final Timeout next = timeout.m_next;
+            add(timeout);
+            timeout = next;
+        }
+    }
+
+    /**
+     * Returns the time of the next occupied slot after the current time of the wheel.
+     */
+    private long nextExpiration() {
+        long next = NEVER;
+        for (int level = 0; level < LEVELS; level++) {
+            // All occupied slots are ahead of the current position within the current rotation
+            final int position = (int) (m_now >>> (BITS * level)) & (SLOTS - 1);
+            final long ahead = position == SLOTS - 1 ? 0 : m_occupied[level] & (-1L << (position + 1));
+            if (ahead != 0) {
+                final int shift = BITS * (level + 1);
+                final long rotation = (m_now >>> shift) << shift;
+                next = Math.min(next, rotation + ((long) Long.numberOfTrailingZeros(ahead) << (BITS * level)));
+            }
+        }
+
+        if (m_lists[OVERFLOW][0] != null) {
+            final int shift = BITS * LEVELS;
+            next = Math.min(next, ((m_now >>> shift) + 1) << shift);
+        }
+
+        return next;
+    }
+
+    /**
+     * Advances the wheel to the given time, moving all expired tasks to the due list.
+     */
+    private void advance(final long now) {
+        long next;
+        while ((next = nextExpiration()) <= now) {
+            m_now = next;
+
+            if ((next & ((1L << (BITS * LEVELS)) - 1)) == 0) {
+                cascade(OVERFLOW, 0);
+            }
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((next & ((1L << (BITS * level)) - 1)) == 0) {
+                    cascade(level, (int) (next >>> (BITS * level)) & (SLOTS - 1));
+                }
+            }
+            cascade(0, (int) next & (SLOTS - 1));
+        }
+        m_now = Math.max(m_now, now);
+    }
+
+    /**
+     * <p>getCurrentTime</p>
+     *
+     * @return a long.
+     */
+    @Override
+    public long getCurrentTime() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * <p>start</p>
+     */
+    @Override
+    public synchronized void start() {
+        Assert.state(m_worker == null, "The fiber has already run or is running");
+
+        m_worker = new Thread(this, getName());
+        m_worker.start();
+        m_status = STARTING;
+
+        LOG.info("start: scheduler started");
+    }
+
+    /**
+     * <p>stop</p>
+     */
+    @Override
+    public synchronized void stop() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+
+        m_status = STOP_PENDING;
+        m_worker.interrupt();
+        m_runner.shutdown();
+
+        LOG.info("stop: scheduler stopped");
+    }
+
+    /**
+     * <p>pause</p>
+     */
+    @Override
+    public synchronized void pause() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+        Assert.state(m_status != STOPPED && m_status != STOP_PENDING, "The fiber is not running or a stop is pending");
+
+        if (m_status == PAUSED) {
+            return;
+        }
+
+        m_status = PAUSE_PENDING;
+        notifyAll();
+    }
+
+    /**
+     * <p>resume</p>
+     */
+    @Override
+    public synchronized void resume() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+        Assert.state(m_status != STOPPED && m_status != STOP_PENDING, "The fiber is not running or a stop is pending");
+
+        if (m_status == RUNNING) {
+            return;
+        }
+
+        m_status = RESUME_PENDING;
+        notifyAll();
+    }
+
+    /**
+     * <p>getStatus</p>
+     *
+     * @return a int.
+     */
+    @Override
+    public synchronized int getStatus() {
+        if (m_worker != null && m_worker.isAlive() == false) {
+            m_status = STOPPED;
+        }
+        return m_status;
+    }
+
+    /**
+     * Returns the name of this fiber.
+     *
+     * @return a {@link java.lang.String} object.
+     */
+    @Override
+    public String getName() {
+        return m_runner.toString();
+    }
+
+    /**
+     * Returns total number of tasks currently scheduled.
+     *
+     * @return the number of tasks waiting for their deadline or to become ready
+     */
+    public int getScheduled() {
+        return m_scheduled;
+    }
+
+    /**
+     * Returns the pool of threads that are used to executed the runnable
+     * instances scheduled by the class' instance.
+     *
+     * @return thread pool
+     */
+    public ExecutorService getRunner() {
+        return m_runner;
+    }
+
+    /**
+     * The main method of the scheduler. This method is responsible for advancing
+     * the wheel and handing the expired tasks, which are ready, to the thread pool.
+     */
+    @Override
+    public void run() {
+        synchronized (this) {
+            m_status = RUNNING;
+        }
+
+        LOG.debug("run: scheduler running");
+
+        final List<Timeout> expired = new ArrayList<>();
+        for (;;) {
+            synchronized (this) {
+                if (m_status != RUNNING && m_status != PAUSED && m_status != PAUSE_PENDING && m_status != RESUME_PENDING) {
+                    LOG.debug("run: status = {}, time to exit", m_status);
+                    break;
+                }
+
+                // if paused or pause pending then block
+                if (m_status == PAUSE_PENDING || m_status == PAUSED) {
+                    if (m_status == PAUSE_PENDING) {
+                        LOG.debug("run: pausing.");
+                    }
+                    m_status = PAUSED;
+                    try {
+                        wait();
+                    } catch (InterruptedException ex) {
+                        break;
+                    }
+                    continue;
+                }
+
+                // if resume pending then change to running
+                if (m_status == RESUME_PENDING) {
+                    LOG.debug("run: resuming.");
+                    m_status = RUNNING;
+                }
+
+                final long now = elapsed();
+                advance(now);
+
+                if (m_lists[DUE][0] == null) {
+                    m_wakeTime = nextExpiration();
+                    try {
+                        if (m_wakeTime == NEVER) {
+                            LOG.debug("run: no ready runnables scheduled, waiting...");
+                            wait();
+                        } else {
+                            wait(Math.max(1, m_wakeTime - now));
+                        }
+                    } catch (InterruptedException ex) {
+                        break;
+                    } finally {
+                        m_wakeTime = NEVER;
+                    }
+                    continue;
+                }
+
+                for (Timeout timeout = clear(DUE, 0); timeout != null; timeout = timeout.m_next) {
+                    expired.add(timeout);
+                }
+            }
+
+            // Check the readiness outside of the lock, as the runnables may reschedule themselves
+            final List<Timeout> ready = new ArrayList<>(expired.size());
+            final List<Timeout> notReady = new ArrayList<>();
+            for (final Timeout timeout : expired) {
+                if (timeout.m_cancelled) {
+                    continue;
+                }
+                if (timeout.m_runnable.isReady()) {
+                    ready.add(timeout);
+                } else {
+                    notReady.add(timeout);
+                }
+            }
+
+            synchronized (this) {
+                m_scheduled -= expired.size() - notReady.size();
+                for (final Timeout timeout : notReady) {
+                    if (timeout.m_cancelled) {
+                        m_scheduled--;
+                        continue;
+                    }
+                    timeout.m_deadline = m_now + m_retryDelay;
+                    add(timeout);
+                }
+            }
+
+            for (final Timeout timeout : ready) {
+                LOG.debug("run: found ready runnable {}", timeout.m_runnable);
+                m_numTasksExecuted++;
+                try {
+                    m_runner.execute(timeout.m_runnable);
+                } catch (RejectedExecutionException e) {
+                    throw new UndeclaredThrowableException(e);
+                }
+            }
+            expired.clear();
+        }
+
+        LOG.debug("run: scheduler exiting, state = STOPPED");
+        synchronized (this) {
+            m_status = STOPPED;
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getNumTasksExecuted() {
+        return m_numTasksExecuted;
+    }
+}
@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TimingWheelSchedulerTest {
+
+    private TimingWheelScheduler m_scheduler;
+
+    @Before
+    public void setUp() {
+        m_scheduler = new TimingWheelScheduler("TimingWheelSchedulerTest", 4, false, 20);
+        m_scheduler.start();
+    }
+
+    @After
+    public void tearDown() {
+        m_scheduler.stop();
+    }
+
+    @Test(timeout = 30000)
+    public void canRunTasksNotBeforeTheirDeadline() throws InterruptedException {
+        final Random random = new Random(1);
+        final int count = 500;
+        final CountDownLatch latch = new CountDownLatch(count);
+        final List<String> early = Collections.synchronizedList(new ArrayList<>());
+
+        for (int i = 0; i < count; i++) {
+            // Spans several rotations of the lowest level
+            final long interval = random.nextInt(1500);
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(interval);
+            m_scheduler.schedule(interval, new Task(() -> {
+                if (System.nanoTime() < deadline) {
+                    early.add("task with interval " + interval);
+                }
+                latch.countDown();
+            }));
+        }
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(Collections.emptyList(), early);
+        assertEquals(count, m_scheduler.getNumTasksExecuted());
+        assertEquals(0, m_scheduler.getScheduled());
+    }
+
+    @Test(timeout = 30000)
+    public void canRetryTasksWhichAreNotReady() throws InterruptedException {
+        final AtomicInteger checks = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(1);
+        m_scheduler.schedule(0, new ReadyRunnable() {
+            @Override
+            public boolean isReady() {
+                return checks.incrementAndGet() >= 3;
+            }
+
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        });
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(3, checks.get());
+    }
+
+    @Test(timeout = 30000)
+    public void canCancelTasks() throws InterruptedException {
+        final AtomicBoolean cancelledRan = new AtomicBoolean(false);
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        final TimingWheelScheduler.Timeout cancelled = m_scheduler.scheduleTimeout(100, new Task(() -> cancelledRan.set(true)));
+        final TimingWheelScheduler.Timeout distant = m_scheduler.scheduleTimeout(TimeUnit.DAYS.toMillis(30), new Task(() -> cancelledRan.set(true)));
+        m_scheduler.schedule(200, new Task(latch::countDown));
+        assertEquals(3, m_scheduler.getScheduled());
+
+        assertTrue(cancelled.cancel());
+        assertTrue(distant.cancel());
+        assertFalse(cancelled.cancel());
+        assertEquals(1, m_scheduler.getScheduled());
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertFalse(cancelledRan.get());
+        assertEquals(1, m_scheduler.getNumTasksExecuted());
+    }
+
+    @Test
+    public void canSpreadTasksAcrossTheirInterval() {
+        final long interval = 300000;
+        final int[] buckets = new int[10];
+        for (int i = 0; i < 10000; i++) {
+            final ReadyRunnable task = new Task(() -> {});
+            final long deadline = TimingWheelScheduler.spread(task, 1000, interval);
+            assertTrue(deadline > 1000 + interval / 2 - 1);
+            assertTrue(deadline <= 1000 + interval + interval / 2);
+
+            // Rescheduling after running keeps the phase
+            assertEquals(deadline + interval, TimingWheelScheduler.spread(task, deadline + 250, interval));
+
+            buckets[(int) (deadline % interval * buckets.length / interval)]++;
+        }
+
+        for (final int bucket : buckets) {
+            assertTrue(bucket > 800);
+        }
+    }
+
+    private static class Task implements ReadyRunnable {
+        private final Runnable m_runnable;
+
+        private Task(final Runnable runnable) {
+            m_runnable = runnable;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void run() {
+            m_runnable.run();
+        }
+    }
+}
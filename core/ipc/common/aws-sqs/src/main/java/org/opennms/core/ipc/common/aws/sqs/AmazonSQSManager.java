@@ -28,6 +28,8 @@
 
 package org.opennms.core.ipc.common.aws.sqs;
 
+import java.util.List;
+
 import com.amazon.sqs.javamessaging.SQSConnectionFactory;
 import com.amazonaws.services.sqs.AmazonSQS;
 
@@ -107,4 +109,17 @@ public interface AmazonSQSManager {
      */
     String sendMessage(String queueUrl, String body) throws InterruptedException;
 
+    /**
+     * Send many messages, using as few requests as possible.
+     *
+     * <p>This is a blocking operation. If AWS is unreachable, or some of the
+     * messages were not accepted, the method will keep retrying indefinitely until all of the
+     * messages are delivered or the thread is interrupted.</p>
+     *
+     * @param queueUrl the queue URL
+     * @param bodies the message bodies
+     * @return the message IDs, in the same order as the bodies
+     */
+    List<String> sendMessages(String queueUrl, List<String> bodies) throws InterruptedException;
+
 }
@@ -37,7 +37,13 @@ import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.services.sqs.AmazonSQS;
 import com.amazonaws.services.sqs.AmazonSQSClientBuilder;
 import com.amazonaws.services.sqs.model.CreateQueueRequest;
+import com.amazonaws.services.sqs.model.AmazonSQSException;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
 import com.amazonaws.services.sqs.model.QueueNameExistsException;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchResultEntry;
 import com.amazonaws.services.sqs.model.SendMessageRequest;
 import com.amazonaws.services.sqs.model.SetQueueAttributesRequest;
 import com.google.common.base.Strings;
@@ -52,6 +58,10 @@ import org.slf4j.LoggerFactory;
 
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.ExecutionException;
@@ -60,6 +70,12 @@ public class DefaultAmazonSQSManager implements AmazonSQSManager {
 
     private static final Logger LOG = LoggerFactory.getLogger(DefaultAmazonSQSManager.class);
 
+    /** Maximum number of entries in a single SendMessageBatch request. */
+    private static final int MAX_BATCH_ENTRIES = 10;
+
+    /** Maximum size of all of the message bodies in a single SendMessageBatch request. */
+    private static final int MAX_BATCH_PAYLOAD_SIZE = 256 * 1024;
+
     private final AmazonSQSConfig sqsConfig;
 
     /**
@@ -168,6 +184,77 @@ public class DefaultAmazonSQSManager implements AmazonSQSManager {
         }
     }
 
+    @Override
+    public List<String> sendMessages(String queueUrl, List<String> bodies) throws InterruptedException {
+        final String[] messageIds = new String[bodies.size()];
+        int start = 0;
+        while (start < bodies.size()) {
+            // A batch request is limited both in number of entries, and in total payload size
+            int end = start;
+            int payloadSize = 0;
+            while (end < bodies.size() && end - start < MAX_BATCH_ENTRIES) {
+                final int size = bodies.get(end).getBytes(StandardCharsets.UTF_8).length;
+                if (end > start && payloadSize + size > MAX_BATCH_PAYLOAD_SIZE) {
+                    break;
+                }
+                payloadSize += size;
+                end++;
+            }
+            sendMessageBatch(queueUrl, bodies, start, end, messageIds);
+            start = end;
+        }
+        return Arrays.asList(messageIds);
+    }
+
+    private void sendMessageBatch(String queueUrl, List<String> bodies, int start, int end, String[] messageIds) throws InterruptedException {
+        List<SendMessageBatchRequestEntry> entries = new ArrayList<>(end - start);
+        for (int i = start; i < end; i++) {
+            // Use the index of the message as the ID of the entry, so we can map the results back
+            final SendMessageBatchRequestEntry entry = new SendMessageBatchRequestEntry(Integer.toString(i), bodies.get(i));
+            if (sqsConfig.getSinkQueueConfig().isFifoEnabled()) {
+                entry.setMessageGroupId(queueUrl);
+                if (!sqsConfig.getSinkQueueConfig().isFifoContentDedupEnabled()) {
+                    entry.setMessageDeduplicationId(Long.toString(System.nanoTime()) + "-" + i);
+                }
+            }
+            entries.add(entry);
+        }
+        while (!entries.isEmpty()) {
+            final SendMessageBatchResult result;
+            try {
+                result = getSQSClient().sendMessageBatch(new SendMessageBatchRequest(queueUrl, entries));
+            } catch (RuntimeException ex) {
+                if (isCause(UnknownHostException.class, ex) || isCause(SocketException.class, ex)) {
+                    LOG.warn("Cannot reach AWS at {} while trying to send {} messages, trying again in 5 seconds...", queueUrl, entries.size());
+                    Thread.sleep(5000);
+                    continue;
+                } else {
+                    throw ex;
+                }
+            }
+            for (SendMessageBatchResultEntry successful : result.getSuccessful()) {
+                messageIds[Integer.parseInt(successful.getId())] = successful.getMessageId();
+            }
+            // Retry the entries which failed due to an error on the server side
+            final List<SendMessageBatchRequestEntry> failedEntries = new ArrayList<>();
+            for (BatchResultErrorEntry failed : result.getFailed()) {
+                if (Boolean.TRUE.equals(failed.getSenderFault())) {
+                    throw new AmazonSQSException(String.format("Failed to send message to %s: %s (%s)", queueUrl, failed.getMessage(), failed.getCode()));
+                }
+                for (SendMessageBatchRequestEntry entry : entries) {
+                    if (entry.getId().equals(failed.getId())) {
+                        failedEntries.add(entry);
+                    }
+                }
+            }
+            if (!failedEntries.isEmpty()) {
+                LOG.warn("{} messages could not be sent to {}, trying again in 1 second...", failedEntries.size(), queueUrl);
+                Thread.sleep(1000);
+            }
+            entries = failedEntries;
+        }
+    }
+
     private AmazonSQS createSQSClient() {
         final AmazonSQSClientBuilder builder = AmazonSQSClientBuilder.standard()
                 .withRegion(sqsConfig.getRegion());
@@ -66,4 +66,17 @@ public interface AsyncPolicy {
      * should block when the queue is full
      */
     boolean isBlockWhenFull();
+
+    /**
+     * Maximum number of messages that are dispatched together.
+     *
+     * When greater than 1, the background threads drain the queue in batches of up to
+     * this many messages and hand them to {@link SyncDispatcher#sendBatch(java.util.List)}.
+     * Otherwise every message is dispatched individually.
+     *
+     * @return the batch size, or 0 if batching is disabled
+     */
+    default int getBatchSize() {
+        return 0;
+    }
 }
@@ -28,6 +28,8 @@
 
 package org.opennms.core.ipc.sink.api;
 
+import java.util.List;
+
 /**
  * Used to synchronously dispatch messages.
  *
@@ -36,4 +38,20 @@ package org.opennms.core.ipc.sink.api;
  * @author jwhite
  */
 public interface SyncDispatcher<S extends Message> extends MessageDispatcher<S> {
+
+    /**
+     * Dispatches all of the given messages.
+     *
+     * Implementations that are able to send several messages with a single
+     * call to the underlying transport should override this method.
+     * The call must only return once all of the messages were dispatched,
+     * and must throw an exception if any of them could not be dispatched.
+     *
+     * @param messages the messages to dispatch
+     */
+    default void sendBatch(List<S> messages) {
+        for (S message : messages) {
+            send(message);
+        }
+    }
 }
@@ -30,6 +30,8 @@ package org.opennms.core.ipc.sink.aws.sqs.client;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.opennms.core.ipc.common.aws.sqs.AmazonSQSManager;
 import org.opennms.core.ipc.sink.api.Message;
@@ -82,6 +84,29 @@ public class AmazonSQSRemoteMessageDispatcherFactory extends AbstractMessageDisp
         }
     }
 
+    /* (non-Javadoc)
+     * @see org.opennms.core.ipc.sink.common.AbstractMessageDispatcherFactory#dispatchBatch(org.opennms.core.ipc.sink.api.SinkModule, java.lang.Object, java.util.List)
+     */
+    @Override
+    public <S extends Message, T extends Message> void dispatchBatch(SinkModule<S, T> module, String topic, List<T> messages) {
+        try (MDCCloseable mdc = Logging.withPrefixCloseable(MessageConsumerManager.LOG_PREFIX)) {
+            LOG.trace("dispatchBatch({}): sending {} messages", topic, messages.size());
+            try {
+                final String queueUrl = awsSqsManager.getSinkQueueUrlAndCreateIfNecessary(module.getId());
+                final List<String> bodies = new ArrayList<>(messages.size());
+                for (T message : messages) {
+                    bodies.add(new String(module.marshal(message), StandardCharsets.UTF_8));
+                }
+                final List<String> messageIds = awsSqsManager.sendMessages(queueUrl, bodies);
+                LOG.debug("SQS Messages with IDs {} have been successfully sent to {}", messageIds, queueUrl);
+            } catch (InterruptedException ex) {
+                // The messages were not all sent, let the caller know rather than dropping them silently
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while trying to send messages for module " + module.getId() + ".", ex);
+            }
+        }
+    }
+
     /**
      * Initializes the producers.
      *
@@ -28,12 +28,18 @@
 
 package org.opennms.core.ipc.sink.camel.client;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
+import org.apache.camel.CamelExecutionException;
 import org.apache.camel.Endpoint;
 import org.apache.camel.EndpointInject;
+import org.apache.camel.Exchange;
 import org.apache.camel.ProducerTemplate;
 import org.opennms.core.camel.JmsQueueNameFactory;
 import org.opennms.core.ipc.sink.api.Message;
@@ -73,6 +79,40 @@ public class CamelRemoteMessageDispatcherFactory extends AbstractMessageDispatch
         template.sendBodyAndHeaders(endpoint, module.marshal((T)message), headers);
     }
 
+    @Override
+    public <S extends Message, T extends Message> void dispatchBatch(SinkModule<S, T> module, Map<String, Object> headers, List<T> messages) {
+        // JMS has no notion of a batch send, but we can hand all of the messages to the
+        // producer before waiting for any of them, instead of waiting for each in turn
+        final List<Future<Exchange>> futures = new ArrayList<>(messages.size());
+        for (T message : messages) {
+            final byte[] body = module.marshal(message);
+            futures.add(template.asyncSend(endpoint, exchange -> {
+                exchange.getIn().setBody(body);
+                exchange.getIn().setHeaders(new HashMap<>(headers));
+            }));
+        }
+
+        CamelExecutionException failure = null;
+        for (Future<Exchange> future : futures) {
+            try {
+                final Exchange exchange = future.get();
+                if (exchange.getException() != null && failure == null) {
+                    failure = new CamelExecutionException("Failed to dispatch message", exchange, exchange.getException());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CamelExecutionException("Interrupted while dispatching messages", null, e);
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = new CamelExecutionException("Failed to dispatch message", null, e.getCause());
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
     @Override
     public String getMetricDomain() {
         return CamelLocalMessageDispatcherFactory.class.getPackage().getName();
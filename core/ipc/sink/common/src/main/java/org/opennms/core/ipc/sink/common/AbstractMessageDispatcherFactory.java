@@ -30,6 +30,7 @@ package org.opennms.core.ipc.sink.common;
 
 import java.util.Dictionary;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Objects;
 
 import org.opennms.core.ipc.sink.aggregation.AggregatingSinkMessageProducer;
@@ -68,6 +69,19 @@ public abstract class AbstractMessageDispatcherFactory<W> implements MessageDisp
 
     public abstract <S extends Message, T extends Message> void dispatch(SinkModule<S, T> module, W metadata, T message);
 
+    /**
+     * Dispatches several messages at once.
+     *
+     * The default implementation dispatches the messages one at a time. Implementations
+     * should override this when the underlying transport can send many messages with a single call.
+     * This must only return once all of the messages were dispatched, and throw an exception otherwise.
+     */
+    public <S extends Message, T extends Message> void dispatchBatch(SinkModule<S, T> module, W metadata, List<T> messages) {
+        for (T message : messages) {
+            dispatch(module, metadata, message);
+        }
+    }
+
     public abstract String getMetricDomain();
 
     public abstract BundleContext getBundleContext();
@@ -81,6 +95,15 @@ public abstract class AbstractMessageDispatcherFactory<W> implements MessageDisp
         }
     }
 
+    /**
+     * Invokes dispatchBatch within a timer context.
+     */
+    private <S extends Message, T extends Message> void timedDispatchBatch(DispatcherState<W, S,T> state, List<T> messages) {
+        try (Context ctx = state.getDispatchTimer().time()) {
+            dispatchBatch(state.getModule(), state.getMetaData(), messages);
+        }
+    }
+
     /**
      * Optionally build meta-data or state information for the module which will
      * be passed on all the calls to {@link #dispatch}.
@@ -147,6 +170,12 @@ public abstract class AbstractMessageDispatcherFactory<W> implements MessageDisp
             AbstractMessageDispatcherFactory.this.timedDispatch(state, (T)message);
         }
 
+        @SuppressWarnings("unchecked")
+        @Override
+        public void sendBatch(List<S> messages) {
+            AbstractMessageDispatcherFactory.this.timedDispatchBatch(state, (List<T>)(List<?>)messages);
+        }
+
         @Override
         public void close() throws Exception {
             state.close();
@@ -29,8 +29,11 @@
 package org.opennms.core.ipc.sink.common;
 
 import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
@@ -43,6 +46,8 @@ import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
 
 import org.joda.time.Duration;
 import org.opennms.core.concurrent.LogPreservingThreadFactory;
@@ -60,12 +65,22 @@ import org.slf4j.LoggerFactory;
 
 import com.codahale.metrics.Counter;
 import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.swrve.ratelimitedlogger.RateLimitedLog;
 
 public class AsyncDispatcherImpl<W, S extends Message, T extends Message> implements AsyncDispatcher<S> {
 
     private static final Logger LOG = LoggerFactory.getLogger(AsyncDispatcherImpl.class);
+
+    /**
+     * Default batch size used for modules whose {@link AsyncPolicy} does not specify one.
+     */
+    public static final String BATCH_SIZE_SYS_PROP = "org.opennms.core.ipc.sink.batchSize";
+
+    private static final int MAX_IDLE_SPINS = 100;
+
     private final SyncDispatcher<S> syncDispatcher;
     private OffHeapAdapter offHeapAdapter;
     private ExecutorService offHeapAdapterExecutor = Executors.newSingleThreadExecutor();
@@ -80,9 +95,13 @@ public class AsyncDispatcherImpl<W, S extends Message, T extends Message> implem
             .maxRate(5).every(Duration.standardSeconds(30))
             .build();
 
+    // Only used when messages are dispatched individually
     final LinkedBlockingQueue<Runnable> queue;
     final ExecutorService executor;
 
+    // Only used when messages are dispatched in batches
+    private final BatchingDispatcher batchingDispatcher;
+
     public AsyncDispatcherImpl(DispatcherState<W, S, T> state, AsyncPolicy asyncPolicy,
             SyncDispatcher<S> syncDispatcher) {
         Objects.requireNonNull(state);
@@ -99,43 +118,53 @@ public class AsyncDispatcherImpl<W, S extends Message, T extends Message> implem
             }
         }
         
-        final RejectedExecutionHandler rejectedExecutionHandler;
-        if (asyncPolicy.isBlockWhenFull()) {
-            // This queue ensures that calling thread is blocked when the queue is full
-            // See the implementation of OfferBlockingQueue for details
-            queue = new OfferBlockingQueue<>(asyncPolicy.getQueueSize());
-            rejectedExecutionHandler = new ThreadPoolExecutor.AbortPolicy();
+        final Counter droppedCounter = state.getMetrics().counter(MetricRegistry.name(state.getModule().getId(), "dropped"));
+        final int batchSize = asyncPolicy.getBatchSize() > 0 ? asyncPolicy.getBatchSize() : Integer.getInteger(BATCH_SIZE_SYS_PROP, 0);
+        if (batchSize > 1) {
+            LOG.info("Dispatching messages for sink module {} in batches of up to {} messages.", sinkModule.getId(), batchSize);
+            queue = null;
+            executor = null;
+            batchingDispatcher = new BatchingDispatcher(batchSize, droppedCounter);
         } else {
-            queue = new LinkedBlockingQueue<Runnable>(asyncPolicy.getQueueSize());
-            // Reject and increase the dropped counter when the queue is full
-            final Counter droppedCounter = state.getMetrics().counter(MetricRegistry.name(state.getModule().getId(), "dropped"));
-            rejectedExecutionHandler = new RejectedExecutionHandler() {
-                @Override
-                public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
-                    droppedCounter.inc();
-                    throw new RejectedExecutionException("Task " + r.toString() +
-                            " rejected from " +
-                            e.toString());
-                }
-            };
+            batchingDispatcher = null;
+
+            final RejectedExecutionHandler rejectedExecutionHandler;
+            if (asyncPolicy.isBlockWhenFull()) {
+                // This queue ensures that calling thread is blocked when the queue is full
+                // See the implementation of OfferBlockingQueue for details
+                queue = new OfferBlockingQueue<>(asyncPolicy.getQueueSize());
+                rejectedExecutionHandler = new ThreadPoolExecutor.AbortPolicy();
+            } else {
+                queue = new LinkedBlockingQueue<Runnable>(asyncPolicy.getQueueSize());
+                // Reject and increase the dropped counter when the queue is full
+                rejectedExecutionHandler = new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+                        droppedCounter.inc();
+                        throw new RejectedExecutionException("Task " + r.toString() +
+                                " rejected from " +
+                                e.toString());
+                    }
+                };
+            }
+
+            executor = new ThreadPoolExecutor(
+                    asyncPolicy.getNumThreads(),
+                    asyncPolicy.getNumThreads(),
+                    1000L,
+                    TimeUnit.MILLISECONDS,
+                    queue,
+                    new LogPreservingThreadFactory(SystemInfoUtils.DEFAULT_INSTANCE_ID + ".Sink.AsyncDispatcher." + state.getModule().getId(), Integer.MAX_VALUE),
+                    rejectedExecutionHandler
+                );
         }
 
         state.getMetrics().register(MetricRegistry.name(state.getModule().getId(), "queue-size"), new Gauge<Integer>() {
             @Override
             public Integer getValue() {
-                return queue.size();
+                return getQueueSize();
             }
         });
-
-        executor = new ThreadPoolExecutor(
-                asyncPolicy.getNumThreads(),
-                asyncPolicy.getNumThreads(),
-                1000L,
-                TimeUnit.MILLISECONDS,
-                queue,
-                new LogPreservingThreadFactory(SystemInfoUtils.DEFAULT_INSTANCE_ID + ".Sink.AsyncDispatcher." + state.getModule().getId(), Integer.MAX_VALUE),
-                rejectedExecutionHandler
-            );
     }
 
     /**
@@ -195,6 +224,9 @@ public class AsyncDispatcherImpl<W, S extends Message, T extends Message> implem
                 rateLimittedLogger.error("OffHeap write failed ", e);
             }
         }
+        if (batchingDispatcher != null) {
+            return batchingDispatcher.enqueue(message, new CompletableFuture<>());
+        }
         try {
             return CompletableFuture.supplyAsync(() -> {
                 syncDispatcher.send(message);
@@ -209,13 +241,20 @@ public class AsyncDispatcherImpl<W, S extends Message, T extends Message> implem
     
     @Override
     public int getQueueSize() {
+        if (batchingDispatcher != null) {
+            return batchingDispatcher.ringBuffer.size();
+        }
         return queue.size();
     }
 
     @Override
     public void close() throws Exception {
         syncDispatcher.close();
-        executor.shutdown();
+        if (batchingDispatcher != null) {
+            batchingDispatcher.shutdown();
+        } else {
+            executor.shutdown();
+        }
         if (offHeapAdapter != null) {
             offHeapAdapter.shutdown();
             offHeapAdapterExecutor.shutdown();
@@ -250,7 +289,13 @@ public class AsyncDispatcherImpl<W, S extends Message, T extends Message> implem
                     //retrieve key,value entry from top of queue.
                     AbstractMap.SimpleImmutableEntry<String, byte[]> keyValue = offHeapQueue
                             .readNextMessage(sinkModule.getId());
-                    if (keyValue != null) {
+                    if (keyValue != null && batchingDispatcher != null) {
+                        final S message = sinkModule.unmarshalSingleMessage(keyValue.getValue());
+                        final CompletableFuture<S> future = offHeapFutureMap.get(keyValue.getKey());
+                        // Remove the entry only once the message is queued, so new messages keep going to the OffHeapQueue
+                        batchingDispatcher.enqueueBlocking(message, future);
+                        offHeapFutureMap.remove(keyValue.getKey());
+                    } else if (keyValue != null) {
                         queue.put(() -> {
                             S message = sinkModule.unmarshalSingleMessage(keyValue.getValue());
                             syncDispatcher.send(message);
@@ -289,4 +334,153 @@ public class AsyncDispatcherImpl<W, S extends Message, T extends Message> implem
 
     }
 
+    /**
+     * Dispatches the messages in batches using a fixed set of threads which drain a bounded lock-free ring.
+     *
+     * Compared to submitting a task per message to an executor, this avoids allocating a task and a queue
+     * node for every message, and allows the {@link SyncDispatcher} to send many messages with a single call.
+     */
+    private class BatchingDispatcher {
+        private final int batchSize;
+        private final MessageRingBuffer<S> ringBuffer;
+        private final Counter droppedCounter;
+        private final Histogram batchSizeHistogram;
+        private final Timer batchLatencyTimer;
+        private final List<Thread> threads = new ArrayList<>();
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+        // Dispatch threads waiting for messages, and producers waiting for room in the ring
+        private final ParkedThreads waitingForMessages = new ParkedThreads();
+        private final ParkedThreads waitingForRoom = new ParkedThreads();
+
+        public BatchingDispatcher(int batchSize, Counter droppedCounter) {
+            this.batchSize = batchSize;
+            this.ringBuffer = new MessageRingBuffer<>(asyncPolicy.getQueueSize());
+            this.droppedCounter = droppedCounter;
+            batchSizeHistogram = state.getMetrics().histogram(MetricRegistry.name(state.getModule().getId(), "batch-size"));
+            batchLatencyTimer = state.getMetrics().timer(MetricRegistry.name(state.getModule().getId(), "batch-latency"));
+
+            final LogPreservingThreadFactory threadFactory = new LogPreservingThreadFactory(SystemInfoUtils.DEFAULT_INSTANCE_ID
+                    + ".Sink.AsyncDispatcher." + state.getModule().getId(), Integer.MAX_VALUE);
+            for (int i = 0; i < asyncPolicy.getNumThreads(); i++) {
+                final Thread thread = threadFactory.newThread(this::dispatchLoop);
+                threads.add(thread);
+                thread.start();
+            }
+        }
+
+        public CompletableFuture<S> enqueue(S message, CompletableFuture<S> future) {
+            if (offer(message, future)) {
+                return future;
+            }
+            if (!asyncPolicy.isBlockWhenFull()) {
+                droppedCounter.inc();
+                future.completeExceptionally(new RejectedExecutionException("Message rejected from full queue of sink module "
+                        + state.getModule().getId()));
+                return future;
+            }
+            try {
+                enqueueBlocking(message, future);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                future.completeExceptionally(e);
+            }
+            return future;
+        }
+
+        public void enqueueBlocking(S message, CompletableFuture<S> future) throws InterruptedException {
+            int idleCount = 0;
+            while (!offer(message, future)) {
+                if (closed.get()) {
+                    throw new RejectedExecutionException("Dispatcher for sink module " + state.getModule().getId() + " is closed.");
+                }
+                idle(idleCount, waitingForRoom, () -> ringBuffer.size() < ringBuffer.capacity() || closed.get());
+                idleCount = Math.min(idleCount + 1, MAX_IDLE_SPINS);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        }
+
+        private boolean offer(S message, CompletableFuture<S> future) {
+            if (ringBuffer.offer(message, future)) {
+                waitingForMessages.unparkAll();
+                return true;
+            }
+            return false;
+        }
+
+        private void dispatchLoop() {
+            final List<S> messages = new ArrayList<>(batchSize);
+            final List<CompletableFuture<S>> futures = new ArrayList<>(batchSize);
+            int idleCount = 0;
+            while (!closed.get() || !ringBuffer.isEmpty()) {
+                if (ringBuffer.drainTo(messages, futures, batchSize) == 0) {
+                    idle(idleCount, waitingForMessages, () -> !ringBuffer.isEmpty() || closed.get());
+                    idleCount = Math.min(idleCount + 1, MAX_IDLE_SPINS);
+                    continue;
+                }
+                idleCount = 0;
+                waitingForRoom.unparkAll();
+                batchSizeHistogram.update(messages.size());
+                try (Timer.Context ctx = batchLatencyTimer.time()) {
+                    syncDispatcher.sendBatch(messages);
+                    for (int i = 0; i < messages.size(); i++) {
+                        futures.get(i).complete(messages.get(i));
+                    }
+                } catch (Throwable t) {
+                    for (CompletableFuture<S> future : futures) {
+                        future.completeExceptionally(t);
+                    }
+                } finally {
+                    messages.clear();
+                    futures.clear();
+                }
+            }
+        }
+
+        // Spin briefly, then park until signalled
+        private void idle(int idleCount, ParkedThreads parkedThreads, BooleanSupplier ready) {
+            if (idleCount < MAX_IDLE_SPINS) {
+                Thread.yield();
+            } else {
+                parkedThreads.parkUnless(ready);
+            }
+        }
+
+        public void shutdown() {
+            closed.set(true);
+            waitingForMessages.unparkAll();
+            waitingForRoom.unparkAll();
+        }
+    }
+
+    /**
+     * Threads parked until another thread signals them, which is cheaper than polling while idle.
+     */
+    private static class ParkedThreads {
+        private final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+
+        /**
+         * Parks the current thread until it is signalled, unless the condition holds once it was registered.
+         *
+         * Registering before checking the condition ensures that a signal is never lost.
+         */
+        public void parkUnless(BooleanSupplier condition) {
+            final Thread current = Thread.currentThread();
+            threads.add(current);
+            try {
+                if (!condition.getAsBoolean()) {
+                    LockSupport.park(this);
+                }
+            } finally {
+                threads.remove(current);
+            }
+        }
+
+        public void unparkAll() {
+            if (!threads.isEmpty()) {
+                threads.forEach(LockSupport::unpark);
+            }
+        }
+    }
 }
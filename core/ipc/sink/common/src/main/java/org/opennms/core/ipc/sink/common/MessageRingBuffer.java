@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.common;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded, lock-free, multi-producer multi-consumer queue of messages and their associated futures.
+ *
+ * The implementation follows Dmitry Vyukov's bounded MPMC queue: every slot carries a sequence number
+ * which tells producers and consumers whether the slot is free for the current lap, so neither
+ * side needs to take a lock, and no node is allocated per message.
+ *
+ * The ring itself is sized to the next power of two, but no more than the requested capacity
+ * of messages are accepted.
+ *
+ * @param <S> type of message
+ */
+public class MessageRingBuffer<S> {
+
+    public static final int MAX_CAPACITY = 1 << 30;
+
+    private final int capacity;
+    private final int ringSize;
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final Object[] messages;
+    private final Object[] futures;
+    private final AtomicLong enqueuePosition = new AtomicLong();
+    private final AtomicLong dequeuePosition = new AtomicLong();
+
+    public MessageRingBuffer(int requestedCapacity) {
+        if (requestedCapacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive, got: " + requestedCapacity);
+        }
+        if (requestedCapacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("Capacity must not exceed " + MAX_CAPACITY + ", got: " + requestedCapacity);
+        }
+        capacity = requestedCapacity;
+        int size = 1;
+        while (size < requestedCapacity) {
+            size <<= 1;
+        }
+        ringSize = size;
+        mask = ringSize - 1;
+        sequences = new AtomicLongArray(ringSize);
+        for (int i = 0; i < ringSize; i++) {
+            sequences.set(i, i);
+        }
+        messages = new Object[ringSize];
+        futures = new Object[ringSize];
+    }
+
+    /**
+     * Adds the message to the queue.
+     *
+     * @return false if the queue is full
+     */
+    public boolean offer(S message, CompletableFuture<S> future) {
+        long position = enqueuePosition.get();
+        while (true) {
+            if (position - dequeuePosition.get() >= capacity) {
+                return false;
+            }
+            final int index = (int) (position & mask);
+            final long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (enqueuePosition.compareAndSet(position, position + 1)) {
+                    messages[index] = message;
+                    futures[index] = future;
+                    // Publish the slot, this orders the writes above before the sequence update
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+                position = enqueuePosition.get();
+            } else if (difference < 0) {
+                // The slot still holds an element from the previous lap
+                return false;
+            } else {
+                position = enqueuePosition.get();
+            }
+        }
+    }
+
+    /**
+     * Removes up to maxElements messages from the queue, in order, adding them and their futures to the given lists.
+     *
+     * @return the number of messages that were removed
+     */
+    @SuppressWarnings("unchecked")
+    public int drainTo(List<S> messageList, List<CompletableFuture<S>> futureList, int maxElements) {
+        int count = 0;
+        long position = dequeuePosition.get();
+        while (count < maxElements) {
+            final int index = (int) (position & mask);
+            final long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (dequeuePosition.compareAndSet(position, position + 1)) {
+                    messageList.add((S) messages[index]);
+                    futureList.add((CompletableFuture<S>) futures[index]);
+                    messages[index] = null;
+                    futures[index] = null;
+                    // Free the slot for the next lap
+                    sequences.lazySet(index, position + ringSize);
+                    count++;
+                    position++;
+                } else {
+                    position = dequeuePosition.get();
+                }
+            } else if (difference < 0) {
+                // Nothing published at this position yet
+                break;
+            } else {
+                position = dequeuePosition.get();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns an estimate of the number of queued messages.
+     */
+    public int size() {
+        // Read the consumer position first, so the result can never be negative
+        final long dequeued = dequeuePosition.get();
+        final long enqueued = enqueuePosition.get();
+        return (int) Math.min(Math.max(0, enqueued - dequeued), capacity);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+}
@@ -28,10 +28,12 @@
 
 package org.opennms.core.ipc.sink.offheap;
 
+import java.util.Collection;
 import java.util.Dictionary;
 
 import org.opennms.core.ipc.sink.api.OffHeapQueue;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
 import org.osgi.service.cm.ConfigurationAdmin;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -44,6 +46,8 @@ public class OffHeapServiceLoader {
     private static OffHeapQueue offHeapQueue;
     public static final String OFFHEAP_CONFIG = "org.opennms.core.ipc.sink.offheap";
     public static final String ENABLE_OFFHEAP = "enableOffHeap";
+    public static final String OFFHEAP_TYPE = "offHeapType";
+    public static final String DEFAULT_OFFHEAP_TYPE = "h2";
 
     public BundleContext getBundleContext() {
         return context;
@@ -82,7 +86,22 @@ public class OffHeapServiceLoader {
         }
         if (context != null) {
             try {
-                offHeapQueue = context.getService(context.getServiceReference(OffHeapQueue.class));
+                // Select the implementation by the configured type, e.g. h2 or file
+                String offHeapType = DEFAULT_OFFHEAP_TYPE;
+                ConfigurationAdmin configAdmin = context
+                        .getService(context.getServiceReference(ConfigurationAdmin.class));
+                Dictionary<String, Object> properties = configAdmin.getConfiguration(OFFHEAP_CONFIG).getProperties();
+                if (properties != null && properties.get(OFFHEAP_TYPE) instanceof String) {
+                    offHeapType = (String) properties.get(OFFHEAP_TYPE);
+                }
+                Collection<ServiceReference<OffHeapQueue>> references = context.getServiceReferences(OffHeapQueue.class,
+                        String.format("(type=%s)", offHeapType));
+                if (references.isEmpty()) {
+                    LOG.error("No OffHeapQueue Service of type {} available", offHeapType);
+                    return null;
+                }
+                offHeapQueue = context.getService(references.iterator().next());
+                LOG.info("Using OffHeapQueue of type {}", offHeapType);
                 return offHeapQueue;
             } catch (Exception e) {
                 LOG.error("Exception while retrieving OffHeapQueue Service from registry", e);
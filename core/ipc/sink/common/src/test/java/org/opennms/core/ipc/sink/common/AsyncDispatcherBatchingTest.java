@@ -0,0 +1,256 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.common;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.opennms.core.ipc.sink.api.AsyncDispatcher;
+import org.opennms.core.ipc.sink.api.AsyncPolicy;
+import org.opennms.core.ipc.sink.api.Message;
+import org.opennms.core.ipc.sink.api.SinkModule;
+import org.osgi.framework.BundleContext;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AsyncDispatcherBatchingTest {
+
+    private static final String MODULE_ID = "batching";
+
+    @Mock
+    private SinkModule<MyMessage, MyMessage> module;
+
+    private static class MyMessage implements Message { }
+
+    /**
+     * Records the size of every batch, and optionally blocks or fails the dispatch.
+     */
+    private static class BatchRecordingDispatcherFactory extends AbstractMessageDispatcherFactory<Void> {
+        private final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+        private final AtomicInteger numMessageDispatched = new AtomicInteger(0);
+        private final CountDownLatch dispatching = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final AtomicBoolean fail = new AtomicBoolean(false);
+
+        @Override
+        public <S extends Message, T extends Message> void dispatch(SinkModule<S, T> module, Void metadata, T message) {
+            throw new IllegalStateException("Messages should be dispatched in batches.");
+        }
+
+        @Override
+        public <S extends Message, T extends Message> void dispatchBatch(SinkModule<S, T> module, Void metadata, List<T> messages) {
+            dispatching.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            if (fail.get()) {
+                throw new RuntimeException("Dispatch failed.");
+            }
+            batchSizes.add(messages.size());
+            numMessageDispatched.addAndGet(messages.size());
+        }
+
+        @Override
+        public String getMetricDomain() {
+            return BatchRecordingDispatcherFactory.class.getPackage().getName();
+        }
+
+        @Override
+        public BundleContext getBundleContext() {
+            return null;
+        }
+    }
+
+    private void setAsyncPolicy(int queueSize, int numThreads, boolean blockWhenFull, int batchSize) {
+        when(module.getId()).thenReturn(MODULE_ID);
+        when(module.getAsyncPolicy()).thenReturn(new AsyncPolicy() {
+            @Override
+            public int getQueueSize() {
+                return queueSize;
+            }
+
+            @Override
+            public int getNumThreads() {
+                return numThreads;
+            }
+
+            @Override
+            public boolean isBlockWhenFull() {
+                return blockWhenFull;
+            }
+
+            @Override
+            public int getBatchSize() {
+                return batchSize;
+            }
+        });
+    }
+
+    @Test(timeout=3*60*1000)
+    public void canDispatchInBatches() throws Exception {
+        setAsyncPolicy(1000, 2, true, 10);
+        final BatchRecordingDispatcherFactory factory = new BatchRecordingDispatcherFactory();
+        final AsyncDispatcher<MyMessage> asyncDispatcher = factory.createAsyncDispatcher(module);
+
+        // Queue up messages while the first batch is blocked
+        final List<CompletableFuture<MyMessage>> futures = new ArrayList<>();
+        futures.add(asyncDispatcher.send(new MyMessage()));
+        factory.dispatching.await();
+        for (int i = 0; i < 499; i++) {
+            futures.add(asyncDispatcher.send(new MyMessage()));
+        }
+        factory.release.countDown();
+
+        // All of the futures should be completed with their message
+        for (CompletableFuture<MyMessage> future : futures) {
+            future.get();
+        }
+        await().atMost(1, MINUTES).until(() -> asyncDispatcher.getQueueSize(), equalTo(0));
+        assertEquals(500, factory.numMessageDispatched.get());
+
+        // The queued messages should have been dispatched in batches, and no batch should exceed the limit
+        assertTrue(factory.batchSizes.size() < 500);
+        for (Integer batchSize : factory.batchSizes) {
+            assertTrue("batch too large: " + batchSize, batchSize <= 10);
+        }
+        assertEquals(factory.batchSizes.size(), factory.getMetrics().histogram(MODULE_ID + ".batch-size").getCount());
+
+        asyncDispatcher.close();
+    }
+
+    @Test(timeout=3*60*1000)
+    public void canRejectWhenFull() throws Exception {
+        setAsyncPolicy(20, 1, false, 10);
+        final BatchRecordingDispatcherFactory factory = new BatchRecordingDispatcherFactory();
+        final AsyncDispatcher<MyMessage> asyncDispatcher = factory.createAsyncDispatcher(module);
+
+        // Block the single dispatcher thread
+        final List<CompletableFuture<MyMessage>> futures = new ArrayList<>();
+        futures.add(asyncDispatcher.send(new MyMessage()));
+        factory.dispatching.await();
+
+        // Fill up the queue
+        for (int i = 0; i < 20; i++) {
+            futures.add(asyncDispatcher.send(new MyMessage()));
+        }
+        assertEquals(20, asyncDispatcher.getQueueSize());
+        assertEquals(20, factory.getMetrics().getGauges().get(MODULE_ID + ".queue-size").getValue());
+
+        // The next dispatch should return a failed future, and be counted as dropped
+        final CompletableFuture<MyMessage> rejected = asyncDispatcher.send(new MyMessage());
+        assertTrue("future should have failed!", rejected.isCompletedExceptionally());
+        assertEquals(1, factory.getMetrics().counter(MODULE_ID + ".dropped").getCount());
+
+        // Release the thread, all of the queued messages should be dispatched
+        factory.release.countDown();
+        for (CompletableFuture<MyMessage> future : futures) {
+            future.get();
+        }
+        assertEquals(21, factory.numMessageDispatched.get());
+
+        asyncDispatcher.close();
+    }
+
+    @Test(timeout=3*60*1000)
+    public void canWakeUpParkedThreads() throws Exception {
+        setAsyncPolicy(5, 1, true, 10);
+        final BatchRecordingDispatcherFactory factory = new BatchRecordingDispatcherFactory();
+        final AsyncDispatcher<MyMessage> asyncDispatcher = factory.createAsyncDispatcher(module);
+
+        // Block the single dispatcher thread and fill up the queue
+        final List<CompletableFuture<MyMessage>> futures = new CopyOnWriteArrayList<>();
+        futures.add(asyncDispatcher.send(new MyMessage()));
+        factory.dispatching.await();
+        for (int i = 0; i < 5; i++) {
+            futures.add(asyncDispatcher.send(new MyMessage()));
+        }
+
+        // The producer should park until there is room in the queue
+        final Thread producer = new Thread(() -> futures.add(asyncDispatcher.send(new MyMessage())));
+        producer.start();
+        await().atMost(1, MINUTES).until(() -> producer.getState(), equalTo(Thread.State.WAITING));
+
+        factory.release.countDown();
+        producer.join();
+        for (CompletableFuture<MyMessage> future : futures) {
+            future.get();
+        }
+
+        // Once idle, the dispatcher thread should park until a message is sent
+        Thread.sleep(100);
+        asyncDispatcher.send(new MyMessage()).get();
+        assertEquals(8, factory.numMessageDispatched.get());
+
+        asyncDispatcher.close();
+    }
+
+    @Test(timeout=3*60*1000)
+    public void canFailAllFuturesOfBatch() throws Exception {
+        setAsyncPolicy(100, 1, true, 10);
+        final BatchRecordingDispatcherFactory factory = new BatchRecordingDispatcherFactory();
+        factory.fail.set(true);
+        final AsyncDispatcher<MyMessage> asyncDispatcher = factory.createAsyncDispatcher(module);
+
+        final List<CompletableFuture<MyMessage>> futures = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            futures.add(asyncDispatcher.send(new MyMessage()));
+        }
+        factory.release.countDown();
+
+        for (CompletableFuture<MyMessage> future : futures) {
+            try {
+                future.get();
+                assertFalse("future should have failed!", true);
+            } catch (ExecutionException e) {
+                assertEquals("Dispatch failed.", e.getCause().getMessage());
+            }
+        }
+
+        asyncDispatcher.close();
+    }
+}
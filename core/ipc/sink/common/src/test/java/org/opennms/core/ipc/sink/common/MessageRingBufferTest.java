@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class MessageRingBufferTest {
+
+    @Test
+    public void canEnforceCapacityAndOrder() {
+        // The capacity is not a power of two
+        final MessageRingBuffer<Integer> ringBuffer = new MessageRingBuffer<>(5);
+        final List<Integer> messages = new ArrayList<>();
+        final List<CompletableFuture<Integer>> futures = new ArrayList<>();
+
+        // Go around the ring a few times
+        int next = 0;
+        int expected = 0;
+        for (int lap = 0; lap < 10; lap++) {
+            for (int i = 0; i < 5; i++) {
+                assertTrue(ringBuffer.offer(next++, new CompletableFuture<>()));
+            }
+            assertFalse(ringBuffer.offer(next, new CompletableFuture<>()));
+            assertEquals(5, ringBuffer.size());
+
+            assertEquals(3, ringBuffer.drainTo(messages, futures, 3));
+            assertEquals(2, ringBuffer.size());
+            assertEquals(2, ringBuffer.drainTo(messages, futures, 10));
+            assertTrue(ringBuffer.isEmpty());
+            assertEquals(0, ringBuffer.drainTo(messages, futures, 10));
+
+            for (Integer message : messages) {
+                assertEquals(expected++, message.intValue());
+            }
+            assertEquals(messages.size(), futures.size());
+            messages.clear();
+            futures.clear();
+        }
+    }
+
+    @Test(timeout=60*1000)
+    public void canHandleConcurrentProducersAndConsumers() throws Exception {
+        final int numProducers = 4;
+        final int numConsumers = 4;
+        final int messagesPerProducer = 100000;
+        final MessageRingBuffer<Integer> ringBuffer = new MessageRingBuffer<>(1000);
+        final ConcurrentHashMap<Integer, Boolean> received = new ConcurrentHashMap<>();
+        final AtomicInteger numReceived = new AtomicInteger(0);
+        final AtomicBoolean producing = new AtomicBoolean(true);
+
+        final List<Thread> consumers = new ArrayList<>();
+        for (int i = 0; i < numConsumers; i++) {
+            final Thread consumer = new Thread(() -> {
+                final List<Integer> messages = new ArrayList<>();
+                final List<CompletableFuture<Integer>> futures = new ArrayList<>();
+                while (producing.get() || !ringBuffer.isEmpty()) {
+                    ringBuffer.drainTo(messages, futures, 16);
+                    for (int k = 0; k < messages.size(); k++) {
+                        assertEquals(messages.get(k), futures.get(k).getNow(null));
+                        received.put(messages.get(k), Boolean.TRUE);
+                        numReceived.incrementAndGet();
+                    }
+                    messages.clear();
+                    futures.clear();
+                }
+            });
+            consumer.start();
+            consumers.add(consumer);
+        }
+
+        final List<Thread> producers = new ArrayList<>();
+        for (int i = 0; i < numProducers; i++) {
+            final int offset = i * messagesPerProducer;
+            final Thread producer = new Thread(() -> {
+                for (int k = offset; k < offset + messagesPerProducer; k++) {
+                    while (!ringBuffer.offer(k, CompletableFuture.completedFuture(k))) {
+                        Thread.yield();
+                    }
+                }
+            });
+            producer.start();
+            producers.add(producer);
+        }
+
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        producing.set(false);
+        for (Thread consumer : consumers) {
+            consumer.join();
+        }
+
+        // Every message should have been received exactly once
+        assertEquals(numProducers * messagesPerProducer, numReceived.get());
+        assertEquals(numProducers * messagesPerProducer, received.size());
+    }
+}
@@ -29,6 +29,8 @@
 package org.opennms.core.ipc.sink.kafka.client;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
@@ -95,6 +97,41 @@ public class KafkaRemoteMessageDispatcherFactory extends AbstractMessageDispatch
         }
     }
 
+    @Override
+    public <S extends Message, T extends Message> void dispatchBatch(SinkModule<S, T> module, String topic, List<T> messages) {
+        try (MDCCloseable mdc = Logging.withPrefixCloseable(MessageConsumerManager.LOG_PREFIX)) {
+            LOG.trace("dispatchBatch({}): sending {} messages", topic, messages.size());
+            List<ProducerRecord<String,byte[]>> pendingRecords = new ArrayList<>(messages.size());
+            for (T message : messages) {
+                pendingRecords.add(new ProducerRecord<>(topic, module.marshal(message)));
+            }
+            // Hand all of the records to the producer before waiting, so that they can be sent together,
+            // and keep re-sending the ones that failed till all of them are delivered.
+            while (!pendingRecords.isEmpty()) {
+                final List<Future<RecordMetadata>> futures = new ArrayList<>(pendingRecords.size());
+                for (ProducerRecord<String,byte[]> record : pendingRecords) {
+                    futures.add(producer.send(record));
+                }
+                final List<ProducerRecord<String,byte[]>> failedRecords = new ArrayList<>();
+                for (int i = 0; i < futures.size(); i++) {
+                    try {
+                        futures.get(i).get();
+                    } catch (InterruptedException e) {
+                        // The messages were not all sent, let the caller know rather than dropping them silently
+                        Thread.currentThread().interrupt();
+                        throw new RuntimeException("Interrupted while sending messages to topic " + topic + ".", e);
+                    } catch (ExecutionException e) {
+                        failedRecords.add(pendingRecords.get(i));
+                    }
+                }
+                if (!failedRecords.isEmpty()) {
+                    LOG.warn("Timeout occured while sending {} messages to topic {}, they will be attempted again.", failedRecords.size(), topic);
+                }
+                pendingRecords = failedRecords;
+            }
+        }
+    }
+
     public void init() throws IOException {
         try (MDCCloseable mdc = Logging.withPrefixCloseable(MessageConsumerManager.LOG_PREFIX)) {
             // Defaults
@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.offheap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Parses human readable sizes like "10MB" used in the off-heap configuration.
+ */
+final class ByteSizes {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ByteSizes.class);
+
+    private ByteSizes() {
+    }
+
+    static long convertByteSizes(String size, String defaultSize) {
+        long bytes = 0;
+        if (size != null && size.length() > 2) {
+            String suffix = size.substring(size.length() - 2, size.length());
+            double value = 0;
+            try {
+                value = Double.parseDouble(size.substring(0, size.length() - 2));
+            } catch (NumberFormatException e) {
+                //pass
+            }
+            switch (suffix) {
+                case "KB":
+                    bytes = (long) (value * 1024);
+                    break;
+                case "MB":
+                    bytes = (long) (value * 1024 * 1024);
+                    break;
+                case "GB":
+                    bytes = (long) (value * 1024 * 1024 * 1024);
+                    break;
+            }
+        }
+        if (bytes == 0) {
+            LOG.error("Provided offheap size '{}' is invalid, using default as {}", size, defaultSize);
+            return convertByteSizes(defaultSize, defaultSize);
+        }
+        return bytes;
+    }
+}
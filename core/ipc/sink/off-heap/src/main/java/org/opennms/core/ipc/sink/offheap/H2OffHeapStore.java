@@ -81,7 +81,7 @@ public class H2OffHeapStore implements OffHeapQueue {
         Dictionary<String, Object> properties = configAdmin.getConfiguration(OFFHEAP_CONFIG).getProperties();
         if (properties != null && properties.get(OFFHEAP_SIZE) != null) {
             if (properties.get(OFFHEAP_SIZE) instanceof String) {
-                maxSizeInBytes = convertByteSizes((String)properties.get(OFFHEAP_SIZE));
+                maxSizeInBytes = ByteSizes.convertByteSizes((String)properties.get(OFFHEAP_SIZE), DEFAULT_OFFHEAP_SIZE);
             }
         }
         reporter = JmxReporter.forRegistry(offheapMetrics).inDomain(this.getClass().getPackage().getName()).build();
@@ -152,33 +152,6 @@ public class H2OffHeapStore implements OffHeapQueue {
         reporter.stop();
     }
 
-    private long convertByteSizes(String size) {
-        String suffix = size.substring(size.length()-2, size.length());
-        double value = 0;
-        long bytes = 0;
-        try {
-            value = Double.parseDouble(size.substring(0, size.length() - 2));
-        } catch (NumberFormatException e) {
-            //pass
-        }
-        switch(suffix) {
-            case "KB":
-                bytes = (long) (value * 1024);
-                break;
-            case "MB":
-                bytes = (long) (value * 1024 * 1024);
-                break;
-            case "GB":
-                bytes = (long) (value * 1024 * 1024 * 1024);
-                break;
-        }
-        if (bytes == 0) {
-            LOG.error("Provided offheap size '{}' is invalid, using default as {}", size, DEFAULT_OFFHEAP_SIZE);
-            return convertByteSizes(DEFAULT_OFFHEAP_SIZE);
-        }
-        return bytes;
-    }
-
     public long getSize() {
         return store.getFileStore().size();
     }
@@ -0,0 +1,587 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.offheap;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.Dictionary;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import org.opennms.core.ipc.sink.api.OffHeapQueue;
+import org.opennms.core.ipc.sink.api.WriteFailedException;
+import org.osgi.service.cm.ConfigurationAdmin;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Strings;
+
+/**
+ * {@link OffHeapQueue} which persists the messages of each module in an append-only log of memory-mapped segment files.
+ *
+ * Each module uses its own directory, containing the segment files and a cursor file, which stores the read position.
+ * A record in a segment is laid out as follows:
+ *
+ * <pre>
+ * int length | int crc32 | short key length | key | message
+ * </pre>
+ *
+ * where length covers everything after the crc. A length of 0 marks the end of the data written so far
+ * and a length of -1 marks the end of a segment which has been rolled over.
+ * Segments are deleted as soon as they have been read completely.
+ *
+ * On startup all existing segments are scanned, so messages which were not read before a restart (or crash)
+ * are delivered afterwards. The disk usage of all segments is bounded by the configured off-heap size.
+ */
+public class SegmentedFileOffHeapStore implements OffHeapQueue {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SegmentedFileOffHeapStore.class);
+    private static final String OFFHEAP_CONFIG = "org.opennms.core.ipc.sink.offheap";
+    private final static String OFFHEAP_SIZE = "offHeapSize";
+    private final static String OFFHEAP_FILE_PATH = "offHeapFilePath";
+    private final static String OFFHEAP_SEGMENT_SIZE = "offHeapSegmentSize";
+    private final static String DEFAULT_OFFHEAP_SIZE = "10MB";
+    private final static String DEFAULT_SEGMENT_SIZE = "1MB";
+    // Default wait time for each poll is 1000msec.
+    private final static long DEFAULT_WAIT_FOR_POLL = 1000L;
+
+    private static final String SEGMENT_SUFFIX = ".segment";
+    private static final String CURSOR_FILE = "cursor";
+    // Size of the length and crc fields
+    private static final int HEADER_SIZE = 8;
+    private static final int END_OF_DATA = 0;
+    private static final int END_OF_SEGMENT = -1;
+
+    private JmxReporter reporter = null;
+    private MetricRegistry offheapMetrics = new MetricRegistry();
+    private final ConfigurationAdmin configAdmin;
+    private Path baseDirectory;
+    private long maxSizeInBytes;
+    private int segmentSizeInBytes;
+    private final AtomicLong diskUsage = new AtomicLong();
+    // Map of ModuleName and corresponding log.
+    private final Map<String, ModuleLog> moduleLogs = new ConcurrentHashMap<>();
+
+    public SegmentedFileOffHeapStore(ConfigurationAdmin configAdmin) {
+        this.configAdmin = configAdmin;
+    }
+
+    public void init() throws IOException {
+        Dictionary<String, Object> properties = configAdmin.getConfiguration(OFFHEAP_CONFIG).getProperties();
+        maxSizeInBytes = ByteSizes.convertByteSizes(getProperty(properties, OFFHEAP_SIZE, DEFAULT_OFFHEAP_SIZE), DEFAULT_OFFHEAP_SIZE);
+        segmentSizeInBytes = (int) Math.min(Integer.MAX_VALUE, Math.min(maxSizeInBytes,
+                ByteSizes.convertByteSizes(getProperty(properties, OFFHEAP_SEGMENT_SIZE, DEFAULT_SEGMENT_SIZE), DEFAULT_SEGMENT_SIZE)));
+        baseDirectory = Paths.get(getProperty(properties, OFFHEAP_FILE_PATH,
+                Paths.get(System.getProperty("karaf.data", System.getProperty("java.io.tmpdir")), "offheap").toString()));
+        Files.createDirectories(baseDirectory);
+
+        // Recover the logs of all modules, which have been written before
+        try (DirectoryStream<Path> moduleDirectories = Files.newDirectoryStream(baseDirectory, Files::isDirectory)) {
+            for (Path moduleDirectory : moduleDirectories) {
+                final String moduleName = URLDecoder.decode(moduleDirectory.getFileName().toString(), StandardCharsets.UTF_8.name());
+                final ModuleLog moduleLog = new ModuleLog(moduleDirectory);
+                moduleLogs.put(moduleName, moduleLog);
+                LOG.info("recovered {} messages for module : {} ", moduleLog.getNumOfMessages(), moduleName);
+            }
+        }
+
+        reporter = JmxReporter.forRegistry(offheapMetrics).inDomain(this.getClass().getPackage().getName()).build();
+        offheapMetrics.register(MetricRegistry.name("offHeapSize"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return getSize();
+            }
+        });
+        reporter.start();
+        LOG.info("initializing segmented file OffHeapStore at {} with max size : {}, segment size : {} ",
+                baseDirectory, maxSizeInBytes, segmentSizeInBytes);
+    }
+
+    @Override
+    public boolean writeMessage(byte[] message, String moduleName, String key) throws WriteFailedException {
+        if (message == null || Strings.isNullOrEmpty(moduleName) || key == null) {
+            throw new WriteFailedException("Invalid message");
+        }
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        if (keyBytes.length > 0xFFFF) {
+            throw new WriteFailedException("Invalid key");
+        }
+        final ModuleLog moduleLog;
+        try {
+            moduleLog = moduleLogs.computeIfAbsent(moduleName, name -> {
+                try {
+                    final ModuleLog log = new ModuleLog(baseDirectory.resolve(URLEncoder.encode(name, StandardCharsets.UTF_8.name())));
+                    LOG.info("initialized log for module : {} ", name);
+                    return log;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            LOG.error("Failed to initialize log for module : {}", moduleName, e);
+            throw new WriteFailedException("Failed to initialize log for module " + moduleName + ": " + e.getMessage());
+        }
+        moduleLog.append(keyBytes, message);
+        return true;
+    }
+
+    @Override
+    public AbstractMap.SimpleImmutableEntry<String, byte[]> readNextMessage(String moduleName)
+            throws InterruptedException {
+        final ModuleLog moduleLog = moduleLogs.get(moduleName);
+        if (moduleLog == null) {
+            LOG.warn("No data was ever written for this module {}", moduleName);
+            return null;
+        }
+        // Poll for an item to be available, max wait is 1 second.
+        return moduleLog.poll(DEFAULT_WAIT_FOR_POLL, TimeUnit.MILLISECONDS);
+    }
+
+    public void destroy() {
+        moduleLogs.forEach((module, moduleLog) -> moduleLog.close());
+        LOG.info("closing segmented file OffHeapStore, size = {} ", getSize());
+        if (reporter != null) {
+            reporter.stop();
+        }
+    }
+
+    @Override
+    public long getSize() {
+        return diskUsage.get();
+    }
+
+    /**
+     * Checks and adds the capacity of a new segment to the disk usage at once,
+     * since the logs of several modules may roll over concurrently.
+     *
+     * @return false if the segment would exceed the maximum size
+     */
+    private boolean reserveDiskUsage(long capacity) {
+        while (true) {
+            final long usage = diskUsage.get();
+            if (usage + capacity > maxSizeInBytes) {
+                return false;
+            }
+            if (diskUsage.compareAndSet(usage, usage + capacity)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public int getNumOfMessages(String moduleName) {
+        final ModuleLog moduleLog = moduleLogs.get(moduleName);
+        if (moduleLog != null) {
+            return moduleLog.getNumOfMessages();
+        }
+        return 0;
+    }
+
+    private static String getProperty(Dictionary<String, Object> properties, String key, String defaultValue) {
+        if (properties != null && properties.get(key) instanceof String) {
+            return (String) properties.get(key);
+        }
+        return defaultValue;
+    }
+
+    /** The log of a single module. Writes may happen concurrently, reads are performed by a single drain thread. **/
+    private class ModuleLog {
+        private final Path directory;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notEmpty = lock.newCondition();
+        private final TreeMap<Long, Segment> segments = new TreeMap<>();
+        private final AtomicInteger numOfMessages = new AtomicInteger();
+        // Segment id followed by the position of the next record to read
+        private final MappedByteBuffer cursor;
+        private Segment writeSegment;
+        private Segment readSegment;
+        private int readPosition;
+
+        private ModuleLog(Path directory) throws IOException {
+            this.directory = Files.createDirectories(directory);
+            try (FileChannel channel = FileChannel.open(directory.resolve(CURSOR_FILE),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                cursor = channel.map(FileChannel.MapMode.READ_WRITE, 0, 16);
+            }
+            recover();
+        }
+
+        private void recover() throws IOException {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+                for (Path file : files) {
+                    final String fileName = file.getFileName().toString();
+                    try {
+                        final long id = Long.parseLong(fileName.substring(0, fileName.length() - SEGMENT_SUFFIX.length()));
+                        segments.put(id, Segment.open(file, id));
+                    } catch (NumberFormatException e) {
+                        LOG.warn("Ignoring unexpected file {} in {}", fileName, directory);
+                    }
+                }
+            }
+
+            // Segments before the cursor have already been read
+            final long cursorSegment = cursor.getLong(0);
+            while (!segments.isEmpty() && segments.firstKey() < cursorSegment) {
+                segments.pollFirstEntry().getValue().delete();
+            }
+            if (segments.isEmpty()) {
+                return;
+            }
+            readSegment = segments.firstEntry().getValue();
+            readPosition = readSegment.id == cursorSegment ? (int) cursor.getLong(8) : 0;
+
+            for (Segment segment : segments.values()) {
+                diskUsage.addAndGet(segment.capacity());
+                final boolean last = segment == segments.lastEntry().getValue();
+                int position = 0;
+                while (true) {
+                    final int length = segment.validRecordLength(position);
+                    if (length <= 0) {
+                        break;
+                    }
+                    if (segment != readSegment || position >= readPosition) {
+                        numOfMessages.incrementAndGet();
+                    }
+                    position += HEADER_SIZE + length;
+                }
+                if (segment == readSegment && readPosition > position) {
+                    readPosition = position;
+                }
+                if (last) {
+                    // Discard partially written data, so new records can be appended at the end of the valid data
+                    segment.truncate(position);
+                    writeSegment = segment;
+                } else {
+                    segment.markEndOfSegment(position);
+                }
+            }
+            updateCursor();
+        }
+
+        private void append(byte[] key, byte[] message) throws WriteFailedException {
+            final int length = 2 + key.length + message.length;
+            final int recordSize = HEADER_SIZE + length;
+            final CRC32 crc = new CRC32();
+            crc.update(key);
+            crc.update(message);
+
+            lock.lock();
+            try {
+                if (writeSegment == null || !writeSegment.hasCapacity(recordSize)) {
+                    rollOver(recordSize);
+                }
+                writeSegment.append(length, (int) crc.getValue(), key, message);
+                numOfMessages.incrementAndGet();
+                notEmpty.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void rollOver(int recordSize) throws WriteFailedException {
+            // Always leave room for the end of segment marker
+            final int capacity = Math.max(segmentSizeInBytes, recordSize + 4);
+            if (!reserveDiskUsage(capacity)) {
+                throw new WriteFailedException("Offheap storage exhausted, size = " + maxSizeInBytes);
+            }
+            final long id = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+            final Segment segment;
+            try {
+                segment = Segment.create(directory.resolve(String.format("%020d%s", id, SEGMENT_SUFFIX)), id, capacity);
+            } catch (IOException e) {
+                diskUsage.addAndGet(-capacity);
+                LOG.error("Failed to create segment {} in {}", id, directory, e);
+                throw new WriteFailedException("Failed to create segment: " + e.getMessage());
+            }
+            if (writeSegment != null) {
+                writeSegment.markEndOfSegment(writeSegment.writePosition);
+                writeSegment.force();
+            }
+            segments.put(id, segment);
+            writeSegment = segment;
+            if (readSegment == null) {
+                readSegment = segment;
+                readPosition = 0;
+                updateCursor();
+            }
+        }
+
+        private AbstractMap.SimpleImmutableEntry<String, byte[]> poll(long timeout, TimeUnit unit) throws InterruptedException {
+            long nanos = unit.toNanos(timeout);
+            lock.lockInterruptibly();
+            try {
+                while (true) {
+                    final AbstractMap.SimpleImmutableEntry<String, byte[]> entry = read();
+                    if (entry != null) {
+                        return entry;
+                    }
+                    if (nanos <= 0) {
+                        return null;
+                    }
+                    nanos = notEmpty.awaitNanos(nanos);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private AbstractMap.SimpleImmutableEntry<String, byte[]> read() {
+            while (readSegment != null) {
+                final int length = readSegment.recordLength(readPosition);
+                if (length > 0) {
+                    final ByteBuffer buffer = readSegment.buffer.duplicate();
+                    buffer.position(readPosition + HEADER_SIZE);
+                    final byte[] key = new byte[buffer.getShort() & 0xFFFF];
+                    final byte[] message = new byte[length - 2 - key.length];
+                    buffer.get(key);
+                    buffer.get(message);
+                    readPosition += HEADER_SIZE + length;
+                    updateCursor();
+                    numOfMessages.decrementAndGet();
+                    return new AbstractMap.SimpleImmutableEntry<>(new String(key, StandardCharsets.UTF_8), message);
+                }
+                if (readSegment == writeSegment) {
+                    // Nothing written yet
+                    return null;
+                }
+                // Segment was read completely, continue with the next one
+                final Segment completed = readSegment;
+                readSegment = segments.higherEntry(completed.id).getValue();
+                readPosition = 0;
+                updateCursor();
+                segments.remove(completed.id);
+                completed.delete();
+                diskUsage.addAndGet(-completed.capacity());
+            }
+            return null;
+        }
+
+        // Update the position first, so a crash in between results in re-delivery rather than loss of messages
+        private void updateCursor() {
+            cursor.putLong(8, readPosition);
+            cursor.putLong(0, readSegment != null ? readSegment.id : 0);
+        }
+
+        private int getNumOfMessages() {
+            return numOfMessages.get();
+        }
+
+        private void close() {
+            lock.lock();
+            try {
+                if (writeSegment != null) {
+                    writeSegment.force();
+                }
+                cursor.force();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /** A single memory-mapped segment file. **/
+    private static class Segment {
+        private final Path path;
+        private final long id;
+        private final MappedByteBuffer buffer;
+        private int writePosition;
+
+        private Segment(Path path, long id, MappedByteBuffer buffer) {
+            this.path = path;
+            this.id = id;
+            this.buffer = buffer;
+        }
+
+        private static Segment create(Path path, long id, int capacity) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                return new Segment(path, id, channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity));
+            }
+        }
+
+        private static Segment open(Path path, long id) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                return new Segment(path, id, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+            }
+        }
+
+        private int capacity() {
+            return buffer.capacity();
+        }
+
+        private boolean hasCapacity(int recordSize) {
+            return writePosition + recordSize + 4 <= capacity();
+        }
+
+        private void append(int length, int crc, byte[] key, byte[] message) {
+            final ByteBuffer record = buffer.duplicate();
+            record.position(writePosition + 4);
+            record.putInt(crc);
+            record.putShort((short) key.length);
+            record.put(key);
+            record.put(message);
+            // The length is written last, so readers never see partially written records
+            buffer.putInt(writePosition, length);
+            writePosition = record.position();
+        }
+
+        // Returns the length of the record at the given position, or a value <= 0 if there is no record
+        private int recordLength(int position) {
+            if (position + HEADER_SIZE + 2 > capacity()) {
+                return END_OF_SEGMENT;
+            }
+            final int length = buffer.getInt(position);
+            if (length > 0 && position + HEADER_SIZE + length > capacity()) {
+                return END_OF_SEGMENT;
+            }
+            return length;
+        }
+
+        // Same as recordLength(), but also verifies the checksum of the record
+        private int validRecordLength(int position) {
+            final int length = recordLength(position);
+            if (length <= 0) {
+                return length;
+            }
+            final ByteBuffer record = buffer.duplicate();
+            record.position(position + 4);
+            final int expectedCrc = record.getInt();
+            final int keyLength = record.getShort() & 0xFFFF;
+            if (keyLength > length - 2) {
+                return END_OF_SEGMENT;
+            }
+            record.limit(position + HEADER_SIZE + length);
+            final CRC32 crc = new CRC32();
+            crc.update(record);
+            return (int) crc.getValue() == expectedCrc ? length : END_OF_SEGMENT;
+        }
+
+        private void markEndOfSegment(int position) {
+            if (position + 4 <= capacity()) {
+                buffer.putInt(position, END_OF_SEGMENT);
+            }
+            writePosition = position;
+        }
+
+        private void truncate(int position) {
+            for (int i = position; i < capacity(); i++) {
+                buffer.put(i, (byte) END_OF_DATA);
+            }
+            writePosition = position;
+        }
+
+        private void force() {
+            buffer.force();
+        }
+
+        // The segment must not be accessed afterwards, since its buffer is unmapped
+        private void delete() {
+            BufferUnmapper.unmap(buffer);
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                LOG.warn("Failed to delete segment {}", path, e);
+            }
+        }
+    }
+
+    /**
+     * Releases the memory mapping of a buffer right away, instead of once the buffer is garbage collected,
+     * so that the deleted segments don't keep holding on to their file and address space.
+     *
+     * There is no public API for this, so the JDK internals are used if they are available.
+     */
+    private static class BufferUnmapper {
+        private static final Consumer<MappedByteBuffer> UNMAPPER = lookupUnmapper();
+
+        private static void unmap(MappedByteBuffer buffer) {
+            try {
+                UNMAPPER.accept(buffer);
+            } catch (RuntimeException e) {
+                LOG.debug("Failed to unmap buffer, it will be unmapped once it is garbage collected.", e);
+            }
+        }
+
+        private static Consumer<MappedByteBuffer> lookupUnmapper() {
+            try {
+                // Java 9 and later
+                final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                final Object unsafe = theUnsafe.get(null);
+                return buffer -> invoke(invokeCleaner, unsafe, buffer);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                LOG.debug("sun.misc.Unsafe.invokeCleaner() is not available.", e);
+            }
+            try {
+                // Java 8
+                final Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+                final Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+                return buffer -> invoke(clean, invoke(cleaner, buffer));
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                LOG.debug("sun.misc.Cleaner is not available.", e);
+            }
+            LOG.info("Unmapping buffers is not supported, segments will be unmapped once they are garbage collected.");
+            return buffer -> {};
+        }
+
+        private static Object invoke(Method method, Object target, Object... args) {
+            try {
+                return method.invoke(target, args);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
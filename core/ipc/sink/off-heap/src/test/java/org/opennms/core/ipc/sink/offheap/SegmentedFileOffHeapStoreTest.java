@@ -0,0 +1,244 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.offheap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.core.ipc.sink.api.OffHeapQueue;
+import org.opennms.core.ipc.sink.api.WriteFailedException;
+import org.osgi.service.cm.ConfigurationAdmin;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class SegmentedFileOffHeapStoreTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SegmentedFileOffHeapStoreTest.class);
+    public static final String OFFHEAP_CONFIG = "org.opennms.core.ipc.sink.offheap";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private SegmentedFileOffHeapStore queue;
+
+    @After
+    public void destroy() {
+        if (queue != null) {
+            queue.destroy();
+        }
+    }
+
+    @Test
+    public void testWriteAndReadAcrossSegments() throws Exception {
+        queue = createQueue("1MB", "4KB");
+        for (int i = 0; i < 1000; i++) {
+            queue.writeMessage(("This is " + i + " trap message").getBytes(), "traps-test", Integer.toString(i));
+            queue.writeMessage(("This is " + i + " syslog message").getBytes(), "syslog-test", Integer.toString(i));
+        }
+        assertEquals(1000, queue.getNumOfMessages("traps-test"));
+        assertEquals(1000, queue.getNumOfMessages("syslog-test"));
+
+        for (int i = 0; i < 1000; i++) {
+            AbstractMap.SimpleImmutableEntry<String, byte[]> keyValue = queue.readNextMessage("traps-test");
+            assertEquals(Integer.toString(i), keyValue.getKey());
+            assertEquals("This is " + i + " trap message", new String(keyValue.getValue()));
+        }
+        for (int i = 0; i < 1000; i++) {
+            AbstractMap.SimpleImmutableEntry<String, byte[]> keyValue = queue.readNextMessage("syslog-test");
+            assertEquals(Integer.toString(i), keyValue.getKey());
+            assertEquals("This is " + i + " syslog message", new String(keyValue.getValue()));
+        }
+        assertEquals(0, queue.getNumOfMessages("traps-test"));
+        assertNull(queue.readNextMessage("traps-test"));
+
+        // Completely read segments are deleted, only the current segment of each module remains
+        assertEquals(2 * 4096, queue.getSize());
+    }
+
+    @Test
+    public void testRecoveryAfterRestart() throws Exception {
+        queue = createQueue("1MB", "4KB");
+        for (int i = 0; i < 500; i++) {
+            queue.writeMessage(("message " + i).getBytes(), "events-test", Integer.toString(i));
+        }
+        for (int i = 0; i < 200; i++) {
+            assertEquals("message " + i, new String(queue.readNextMessage("events-test").getValue()));
+        }
+        queue.destroy();
+
+        // Unread messages must be available after a restart
+        queue = createQueue("1MB", "4KB");
+        assertEquals(300, queue.getNumOfMessages("events-test"));
+        for (int i = 200; i < 500; i++) {
+            AbstractMap.SimpleImmutableEntry<String, byte[]> keyValue = queue.readNextMessage("events-test");
+            assertEquals(Integer.toString(i), keyValue.getKey());
+            assertEquals("message " + i, new String(keyValue.getValue()));
+        }
+
+        // Writes continue after the recovered data
+        queue.writeMessage("after restart".getBytes(), "events-test", "500");
+        assertEquals("after restart", new String(queue.readNextMessage("events-test").getValue()));
+    }
+
+    @Test
+    public void testSizeIsBounded() throws Exception {
+        queue = createQueue("16KB", "4KB");
+        final byte[] message = new byte[1000];
+        int written = 0;
+        try {
+            while (written < 100) {
+                queue.writeMessage(message, "flows-test", Integer.toString(written));
+                written++;
+            }
+            fail("Storage should be exhausted");
+        } catch (WriteFailedException e) {
+            // expected
+        }
+        assertTrue(written > 0);
+        assertTrue(queue.getSize() <= 16 * 1024);
+
+        // Draining frees up space again
+        for (int i = 0; i < written; i++) {
+            assertEquals(Integer.toString(i), queue.readNextMessage("flows-test").getKey());
+        }
+        queue.writeMessage(message, "flows-test", Integer.toString(written));
+    }
+
+    @Test(timeout = 60000)
+    public void testSizeIsBoundedWithConcurrentWriters() throws Exception {
+        queue = createQueue("64KB", "4KB");
+        final byte[] message = new byte[1000];
+        final int numModules = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Thread> writers = new ArrayList<>();
+        for (int i = 0; i < numModules; i++) {
+            final String moduleName = "module-" + i;
+            final Thread writer = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int j = 0; ; j++) {
+                        queue.writeMessage(message, moduleName, Integer.toString(j));
+                    }
+                } catch (WriteFailedException | InterruptedException e) {
+                    // storage exhausted
+                }
+            });
+            writer.start();
+            writers.add(writer);
+        }
+        start.countDown();
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        assertEquals(64 * 1024, queue.getSize());
+
+        // Read segments are deleted and unmapped, which frees up space for the other modules
+        for (int i = 0; i < numModules; i++) {
+            final String moduleName = "module-" + i;
+            for (int j = queue.getNumOfMessages(moduleName); j > 0; j--) {
+                assertEquals(message.length, queue.readNextMessage(moduleName).getValue().length);
+            }
+        }
+        // Only the current segment of each module remains, if it got one at all
+        assertTrue(queue.getSize() <= numModules * 4096);
+        queue.writeMessage(message, "module-0", "last");
+        assertEquals("last", queue.readNextMessage("module-0").getKey());
+    }
+
+    @Test
+    public void benchmarkAgainstH2OffHeapStore() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("runBenchmarkTests"));
+
+        final int numMessages = 200000;
+        final byte[] message = new byte[512];
+
+        final H2OffHeapStore h2Store = new H2OffHeapStore(mockConfigAdmin("1GB", null, null));
+        h2Store.init();
+        try {
+            benchmark("h2", h2Store, numMessages, message);
+        } finally {
+            h2Store.destroy();
+        }
+
+        queue = createQueue("1GB", "64MB");
+        benchmark("file", queue, numMessages, message);
+    }
+
+    private void benchmark(String name, OffHeapQueue offHeapQueue, int numMessages, byte[] message) throws Exception {
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < numMessages; i++) {
+            offHeapQueue.writeMessage(message, "benchmark", UUID.randomUUID().toString());
+        }
+        long afterWrite = System.currentTimeMillis();
+        for (int i = 0; i < numMessages; i++) {
+            offHeapQueue.readNextMessage("benchmark");
+        }
+        long afterRead = System.currentTimeMillis();
+        LOG.info("{}: wrote {} messages/sec, read {} messages/sec", name,
+                numMessages * 1000L / Math.max(1, afterWrite - start), numMessages * 1000L / Math.max(1, afterRead - afterWrite));
+    }
+
+    private SegmentedFileOffHeapStore createQueue(String size, String segmentSize) throws IOException {
+        final SegmentedFileOffHeapStore store = new SegmentedFileOffHeapStore(mockConfigAdmin(size, segmentSize, tempFolder.getRoot().getAbsolutePath()));
+        store.init();
+        return store;
+    }
+
+    private static ConfigurationAdmin mockConfigAdmin(String size, String segmentSize, String path) throws IOException {
+        Hashtable<String, Object> configProperties = new Hashtable<>();
+        configProperties.put("offHeapSize", size);
+        if (segmentSize != null) {
+            configProperties.put("offHeapSegmentSize", segmentSize);
+        }
+        if (path != null) {
+            configProperties.put("offHeapFilePath", path);
+        }
+        ConfigurationAdmin configAdmin = mock(ConfigurationAdmin.class, RETURNS_DEEP_STUBS);
+        when(configAdmin.getConfiguration(OFFHEAP_CONFIG).getProperties()).thenReturn(configProperties);
+        return configAdmin;
+    }
+}
@@ -110,6 +110,8 @@ public class Snmp4JStrategy implements SnmpStrategy {
 
     private Snmp4JValueFactory m_valueFactory;
 
+    private final Snmp4JTransportPool m_transportPool;
+
     private static ScheduledExecutorService s_sessionStatsExecutor;
     private static ConcurrentHashMap<Snmp, SessionInfo> s_sessions;
     private static boolean s_trackSessions = Boolean.getBoolean("org.opennms.core.snmp.trackSessions");
@@ -151,6 +153,16 @@ public class Snmp4JStrategy implements SnmpStrategy {
     
     public Snmp4JStrategy() {
         initialize();
+        m_transportPool = Snmp4JTransportPool.getDefault();
+    }
+
+    /**
+     * Sends the SNMPv1 and SNMPv2c requests through the given shared transports,
+     * or uses a session per request if they are null.
+     */
+    Snmp4JStrategy(final Snmp4JTransportPool transportPool) {
+        initialize();
+        m_transportPool = transportPool;
     }
     
     public void clearUsers() {
@@ -168,7 +180,7 @@ public class Snmp4JStrategy implements SnmpStrategy {
      */
         @Override
     public SnmpWalker createWalker(SnmpAgentConfig snmpAgentConfig, String name, CollectionTracker tracker) {
-        return new Snmp4JWalker(new Snmp4JAgentConfig(snmpAgentConfig), name, tracker);
+        return new Snmp4JWalker(new Snmp4JAgentConfig(snmpAgentConfig), name, tracker, m_transportPool);
     }
     
     /**
@@ -303,6 +315,11 @@ public class Snmp4JStrategy implements SnmpStrategy {
     }
 
     private void send(Snmp4JAgentConfig agentConfig, PDU pdu, boolean expectResponse, CompletableFuture<SnmpValue[]> future) {
+        if (expectResponse && m_transportPool != null && m_transportPool.supports(agentConfig)) {
+            send(m_transportPool, agentConfig, pdu, future);
+            return;
+        }
+
         Snmp session;
 
         try {
@@ -367,6 +384,26 @@ public class Snmp4JStrategy implements SnmpStrategy {
         }
     }
 
+    private static void send(final Snmp4JTransportPool transportPool, final Snmp4JAgentConfig agentConfig, final PDU pdu, final CompletableFuture<SnmpValue[]> future) {
+        try {
+            transportPool.send(pdu, agentConfig.getTarget(), new ResponseListener() {
+                @Override
+                public void onResponse(final ResponseEvent responseEvent) {
+                    // The session outlives the request, so we need to release the request ourselves
+                    transportPool.cancel(responseEvent.getRequest(), this);
+                    try {
+                        future.complete(processResponse(agentConfig, responseEvent));
+                    } catch (final Exception e) {
+                        future.completeExceptionally(new SnmpException(e));
+                    }
+                }
+            });
+        } catch (final Exception e) {
+            LOG.error("send: error during SNMP operation", e);
+            future.completeExceptionally(e);
+        }
+    }
+
     protected PDU buildPdu(Snmp4JAgentConfig agentConfig, int pduType, SnmpObjId[] oids, SnmpValue[] values) {
         PDU pdu = agentConfig.createPdu(pduType);
         
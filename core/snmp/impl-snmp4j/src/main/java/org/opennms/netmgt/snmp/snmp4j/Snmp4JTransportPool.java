@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snmp4j.MessageDispatcherImpl;
+import org.snmp4j.PDU;
+import org.snmp4j.Snmp;
+import org.snmp4j.Target;
+import org.snmp4j.TransportMapping;
+import org.snmp4j.event.ResponseListener;
+import org.snmp4j.mp.MPv1;
+import org.snmp4j.mp.MPv2c;
+import org.snmp4j.smi.UdpAddress;
+import org.snmp4j.transport.DefaultUdpTransportMapping;
+import org.snmp4j.util.MultiThreadedMessageDispatcher;
+import org.snmp4j.util.ThreadPool;
+
+/**
+ * A small number of long-lived UDP transports which are shared by the SNMPv1 and SNMPv2c
+ * requests and walks, instead of opening a new socket with its own listener thread for every
+ * one of them.
+ *
+ * All of the transports belong to a single {@link Snmp} session, which correlates the responses
+ * with the outstanding requests by their request IDs and handles the retries and timeouts of all
+ * of the requests with its timer. The requests are spread over the transports in a round-robin
+ * fashion and the received messages are handed off to a {@link MultiThreadedMessageDispatcher},
+ * so that slow response listeners don't hold up the transports.
+ *
+ * SNMPv3 requests keep using a session per request, since every agent comes with its own USM user.
+ *
+ * The shared transports are disabled by default and are enabled by setting the
+ * {@value #TRANSPORTS_PROPERTY} system property to the number of transports to use.
+ */
+public class Snmp4JTransportPool {
+    private static final transient Logger LOG = LoggerFactory.getLogger(Snmp4JTransportPool.class);
+
+    public static final String TRANSPORTS_PROPERTY = "org.opennms.snmp.snmp4j.sharedTransports";
+
+    public static final String DISPATCHER_THREADS_PROPERTY = "org.opennms.snmp.snmp4j.sharedTransports.dispatcherThreads";
+
+    public static final int DEFAULT_DISPATCHER_THREADS = 4;
+
+    private static boolean s_defaultInitialized = false;
+
+    private static Snmp4JTransportPool s_default;
+
+    private final MultiThreadedMessageDispatcher m_dispatcher;
+
+    private final Snmp m_session;
+
+    private final List<TransportMapping<UdpAddress>> m_transports;
+
+    private final AtomicInteger m_nextTransport = new AtomicInteger(0);
+
+    public Snmp4JTransportPool(final int numTransports, final int numDispatcherThreads) throws IOException {
+        if (numTransports < 1) {
+            throw new IllegalArgumentException("At least one transport is required, got " + numTransports);
+        }
+        if (numDispatcherThreads < 1) {
+            throw new IllegalArgumentException("At least one dispatcher thread is required, got " + numDispatcherThreads);
+        }
+
+        final MessageDispatcherImpl dispatcher = new MessageDispatcherImpl();
+        dispatcher.addMessageProcessingModel(new MPv1());
+        dispatcher.addMessageProcessingModel(new MPv2c());
+        m_dispatcher = new MultiThreadedMessageDispatcher(ThreadPool.create("SNMP4J-Shared-Dispatcher", numDispatcherThreads), dispatcher);
+        m_session = new Snmp(m_dispatcher);
+
+        m_transports = new ArrayList<>(numTransports);
+        try {
+            for (int i = 0; i < numTransports; i++) {
+                final DefaultUdpTransportMapping transport = new DefaultUdpTransportMapping();
+                m_session.addTransportMapping(transport);
+                m_transports.add(transport);
+            }
+            m_session.listen();
+        } catch (final IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the transports configured by the system properties, or null if the shared
+     * transports are disabled or could not be opened.
+     */
+    public static synchronized Snmp4JTransportPool getDefault() {
+        if (!s_defaultInitialized) {
+            s_defaultInitialized = true;
+
+            final int numTransports = Integer.getInteger(TRANSPORTS_PROPERTY, 0);
+            if (numTransports > 0) {
+                final int numDispatcherThreads = Integer.getInteger(DISPATCHER_THREADS_PROPERTY, DEFAULT_DISPATCHER_THREADS);
+                try {
+                    s_default = new Snmp4JTransportPool(numTransports, numDispatcherThreads);
+                    LOG.info("Using {} shared SNMP transports with {} dispatcher threads for SNMPv1 and SNMPv2c requests.", numTransports, numDispatcherThreads);
+                } catch (final IOException|RuntimeException e) {
+                    LOG.error("Failed to open the shared SNMP transports. Using a session per request instead.", e);
+                }
+            }
+        }
+        return s_default;
+    }
+
+    /**
+     * Whether the requests to the given agent can be sent through the shared transports.
+     */
+    public boolean supports(final Snmp4JAgentConfig agentConfig) {
+        return !agentConfig.isSnmpV3();
+    }
+
+    /**
+     * Sends the request through the next transport. The listener must {@link #cancel(PDU, ResponseListener)}
+     * the request once it received the response, otherwise the session would keep track of it forever.
+     */
+    public void send(final PDU pdu, final Target target, final ResponseListener listener) throws IOException {
+        m_session.send(pdu, target, nextTransport(), null, listener);
+    }
+
+    public void cancel(final PDU request, final ResponseListener listener) {
+        m_session.cancel(request, listener);
+    }
+
+    public int getNumTransports() {
+        return m_transports.size();
+    }
+
+    public void close() {
+        try {
+            m_session.close();
+        } catch (final IOException e) {
+            LOG.warn("Failed to close the shared SNMP transports.", e);
+        } finally {
+            m_dispatcher.stop();
+        }
+    }
+
+    private TransportMapping<UdpAddress> nextTransport() {
+        return m_transports.get(Math.floorMod(m_nextTransport.getAndIncrement(), m_transports.size()));
+    }
+}
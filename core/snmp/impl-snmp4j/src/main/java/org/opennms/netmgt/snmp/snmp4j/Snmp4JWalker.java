@@ -163,7 +163,8 @@ public class Snmp4JWalker extends SnmpWalker {
         @Override
         public void onResponse(ResponseEvent responseEvent) {
             // need to cancel the request here otherwise SNMP4J Keeps it around forever... go figure
-            m_session.cancel(responseEvent.getRequest(), this);
+            ((Snmp)responseEvent.getSource()).cancel(responseEvent.getRequest(), this);
+            m_pendingPdu = null;
 
             // Check to see if we got an interrupted exception
             if (responseEvent.getError() instanceof InterruptedException) {
@@ -192,11 +193,22 @@ public class Snmp4JWalker extends SnmpWalker {
     private final Target m_tgt;
     private final ResponseListener m_listener;
     private final Snmp4JAgentConfig m_agentConfig;
+    private final Snmp4JTransportPool m_transportPool;
+    private volatile PDU m_pendingPdu;
 
     public Snmp4JWalker(Snmp4JAgentConfig agentConfig, String name, CollectionTracker tracker) {
+        this(agentConfig, name, tracker, null);
+    }
+
+    /**
+     * Walks the agent through the given shared transports when they support it,
+     * or through a session of its own otherwise.
+     */
+    public Snmp4JWalker(Snmp4JAgentConfig agentConfig, String name, CollectionTracker tracker, Snmp4JTransportPool transportPool) {
         super(agentConfig.getInetAddress(), name, agentConfig.getMaxVarsPerPdu(), agentConfig.getMaxRepetitions(), agentConfig.getRetries(), tracker);
         
         m_agentConfig = agentConfig;
+        m_transportPool = transportPool != null && transportPool.supports(agentConfig) ? transportPool : null;
         
         m_tgt = agentConfig.getTarget();
         m_listener = new Snmp4JResponseListener();
@@ -220,6 +232,11 @@ public class Snmp4JWalker extends SnmpWalker {
         @Override
     protected void sendNextPdu(WalkerPduBuilder pduBuilder) throws SnmpException {
         Snmp4JPduBuilder snmp4JPduBuilder = (Snmp4JPduBuilder)pduBuilder;
+        if (m_transportPool != null) {
+            sendNextPdu(m_transportPool, snmp4JPduBuilder.getPdu());
+            return;
+        }
+
         try {
             if (m_session == null) {
                 m_session = m_agentConfig.createSnmpSession();
@@ -241,12 +258,30 @@ public class Snmp4JWalker extends SnmpWalker {
         }
     }
     
+    private void sendNextPdu(Snmp4JTransportPool transportPool, PDU pdu) throws SnmpException {
+        LOG.debug("Sending tracker pdu of size {} through the shared transports", pdu.size());
+        try {
+            m_pendingPdu = pdu;
+            transportPool.send(pdu, m_tgt, m_listener);
+        } catch (final IOException e) {
+            LOG.debug("Failed to send pdu of size {}", pdu.size(), e);
+            close();
+            throw new SnmpException(e);
+        }
+    }
+
     protected int getVersion() {
         return m_tgt.getVersion();
     }
 
     @Override
     public void close() {
+        // The shared transports stay open, only the outstanding request is dropped
+        final PDU pendingPdu = m_pendingPdu;
+        if (m_transportPool != null && pendingPdu != null) {
+            m_transportPool.cancel(pendingPdu, m_listener);
+            m_pendingPdu = null;
+        }
         if (m_session != null) {
             try {
                 m_session.close();
@@ -0,0 +1,282 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.net.DatagramSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.snmp.ColumnTracker;
+import org.opennms.netmgt.snmp.SnmpAgentConfig;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpResult;
+import org.opennms.netmgt.snmp.SnmpValue;
+import org.opennms.netmgt.snmp.SnmpWalker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tests the SNMP4J strategy using shared transports against the mock agent.
+ */
+public class Snmp4JTransportPoolIT extends MockSnmpAgentITCase {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Snmp4JTransportPoolIT.class);
+
+    private static final SnmpObjId INT32_OID = SnmpObjId.get(".1.3.5.1.1.3.0");
+    private static final SnmpObjId BASE_OID = SnmpObjId.get(".1.3.5.1.1");
+    private static final int NUM_VALUES = 9;
+
+    private static final int BENCHMARK_THREADS = 100;
+    private static final int BENCHMARK_GETS = 20000;
+    private static final int BENCHMARK_WALKS = 2000;
+
+    private Snmp4JTransportPool m_transportPool;
+
+    @Override
+    protected boolean usingMockStrategy() {
+        return false;
+    }
+
+    @Before
+    public void setUpTransportPool() throws Exception {
+        m_transportPool = new Snmp4JTransportPool(2, 2);
+    }
+
+    @After
+    public void tearDownTransportPool() {
+        m_transportPool.close();
+    }
+
+    @Test
+    public void canGetThroughSharedTransports() throws Exception {
+        final Snmp4JStrategy strategy = new Snmp4JStrategy(m_transportPool);
+        assertInt32(strategy.get(getAgentConfig(), INT32_OID));
+
+        final List<CompletableFuture<SnmpValue[]>> futures = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            futures.add(strategy.getAsync(getAgentConfig(), new SnmpObjId[] { INT32_OID }));
+        }
+        for (final CompletableFuture<SnmpValue[]> future : futures) {
+            final SnmpValue[] values = future.get(30, TimeUnit.SECONDS);
+            assertEquals(1, values.length);
+            assertInt32(values[0]);
+        }
+    }
+
+    @Test
+    public void canWalkThroughSharedTransports() throws Exception {
+        final Snmp4JStrategy strategy = new Snmp4JStrategy(m_transportPool);
+        final SnmpAgentConfig agentConfig = getAgentConfig();
+        agentConfig.setVersion(SnmpAgentConfig.VERSION2C);
+
+        final List<SnmpWalker> walkers = new ArrayList<>();
+        final List<AtomicInteger> counts = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            final AtomicInteger count = new AtomicInteger(0);
+            final SnmpWalker walker = strategy.createWalker(agentConfig, "walk" + i, new CountingTracker(count));
+            walker.start();
+            walkers.add(walker);
+            counts.add(count);
+        }
+
+        for (int i = 0; i < walkers.size(); i++) {
+            try (final SnmpWalker walker = walkers.get(i)) {
+                assertTrue(walker.waitFor(30000));
+                assertFalse(walker.getErrorMessage(), walker.failed());
+                assertEquals(NUM_VALUES, counts.get(i).get());
+            }
+        }
+    }
+
+    @Test
+    public void canTimeOutThroughSharedTransports() throws Exception {
+        final Snmp4JStrategy strategy = new Snmp4JStrategy(m_transportPool);
+
+        // Nobody answers on this socket
+        try (final DatagramSocket socket = new DatagramSocket(0, getAgentAddress())) {
+            final SnmpAgentConfig agentConfig = getAgentConfig();
+            agentConfig.setPort(socket.getLocalPort());
+            agentConfig.setTimeout(200);
+            agentConfig.setRetries(0);
+
+            final SnmpValue[] values = strategy.get(agentConfig, new SnmpObjId[] { INT32_OID });
+            assertEquals(1, values.length);
+            assertNull(values[0]);
+
+            try (final SnmpWalker walker = strategy.createWalker(agentConfig, "timeout", new CountingTracker(new AtomicInteger()))) {
+                walker.start();
+                assertTrue(walker.waitFor(30000));
+                assertTrue(walker.failed());
+                assertTrue(walker.timedOut());
+            }
+        }
+
+        // The transports are still usable afterwards
+        assertInt32(strategy.get(getAgentConfig(), INT32_OID));
+    }
+
+    @Test
+    public void benchmark() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("runBenchmarkTests"));
+
+        final Snmp4JTransportPool benchmarkPool = new Snmp4JTransportPool(4, 4);
+        try {
+            for (final Snmp4JTransportPool transportPool : new Snmp4JTransportPool[] { null, benchmarkPool }) {
+                final Snmp4JStrategy strategy = new Snmp4JStrategy(transportPool);
+                final String mode = transportPool == null ? "session per request" : transportPool.getNumTransports() + " shared transports";
+                final SnmpAgentConfig agentConfig = getAgentConfig();
+                agentConfig.setVersion(SnmpAgentConfig.VERSION2C);
+
+                // Warm up
+                run(BENCHMARK_GETS / 10, () -> assertInt32(strategy.get(agentConfig, INT32_OID)));
+
+                final ResourceSampler getSampler = new ResourceSampler();
+                final long getMillis = run(BENCHMARK_GETS, () -> assertInt32(strategy.get(agentConfig, INT32_OID)));
+                getSampler.stop();
+
+                final ResourceSampler walkSampler = new ResourceSampler();
+                final long walkMillis = run(BENCHMARK_WALKS, () -> {
+                    final AtomicInteger count = new AtomicInteger(0);
+                    try (final SnmpWalker walker = strategy.createWalker(agentConfig, "benchmark", new CountingTracker(count))) {
+                        walker.start();
+                        assertTrue(walker.waitFor(30000));
+                        assertFalse(walker.getErrorMessage(), walker.failed());
+                        assertEquals(NUM_VALUES, count.get());
+                    }
+                });
+                walkSampler.stop();
+
+                LOG.info("{}: {} gets in {}ms with at most {} open file descriptors and {} threads",
+                        mode, BENCHMARK_GETS, getMillis, getSampler.getMaxFileDescriptors(), getSampler.getMaxThreads());
+                LOG.info("{}: {} walks in {}ms with at most {} open file descriptors and {} threads",
+                        mode, BENCHMARK_WALKS, walkMillis, walkSampler.getMaxFileDescriptors(), walkSampler.getMaxThreads());
+            }
+        } finally {
+            benchmarkPool.close();
+        }
+    }
+
+    private static void assertInt32(final SnmpValue value) {
+        assertNotNull(value);
+        assertEquals(SnmpValue.SNMP_INT32, value.getType());
+        assertEquals(42, value.toInt());
+    }
+
+    /**
+     * Runs the task the given number of times on the benchmark threads and returns the elapsed milliseconds.
+     */
+    private static long run(final int count, final Task task) throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(BENCHMARK_THREADS);
+        try {
+            final long start = System.nanoTime();
+            final List<Future<Void>> futures = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                futures.add(executor.submit(() -> {
+                    task.run();
+                    return null;
+                }));
+            }
+            for (final Future<Void> future : futures) {
+                future.get();
+            }
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private interface Task {
+        void run() throws Exception;
+    }
+
+    private static class CountingTracker extends ColumnTracker {
+        private final AtomicInteger m_count;
+
+        private CountingTracker(final AtomicInteger count) {
+            super(BASE_OID);
+            m_count = count;
+        }
+
+        @Override
+        protected void storeResult(final SnmpResult res) {
+            m_count.incrementAndGet();
+        }
+    }
+
+    /**
+     * Keeps track of the highest number of open file descriptors and live threads.
+     */
+    private static class ResourceSampler {
+        private final ScheduledExecutorService m_executor = Executors.newSingleThreadScheduledExecutor();
+        private final AtomicLong m_maxFileDescriptors = new AtomicLong(-1);
+        private final AtomicLong m_maxThreads = new AtomicLong(0);
+
+        private ResourceSampler() {
+            final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+            m_executor.scheduleAtFixedRate(() -> {
+                if (os instanceof com.sun.management.UnixOperatingSystemMXBean) {
+                    m_maxFileDescriptors.accumulateAndGet(((com.sun.management.UnixOperatingSystemMXBean) os).getOpenFileDescriptorCount(), Math::max);
+                }
+                m_maxThreads.accumulateAndGet(ManagementFactory.getThreadMXBean().getThreadCount(), Math::max);
+            }, 0, 10, TimeUnit.MILLISECONDS);
+        }
+
+        private void stop() {
+            m_executor.shutdownNow();
+        }
+
+        private long getMaxFileDescriptors() {
+            return m_maxFileDescriptors.get();
+        }
+
+        private long getMaxThreads() {
+            return m_maxThreads.get();
+        }
+    }
+}
@@ -39,12 +39,18 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NavigableMap;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Function;
@@ -75,17 +81,33 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import edu.uci.ics.jung.algorithms.layout.KKLayout;
 import edu.uci.ics.jung.algorithms.layout.Layout;
 import edu.uci.ics.jung.visualization.VisualizationImageServer;
 
+/**
+ * Maintains the operational status of the business services in a {@link BusinessServiceGraph}.
+ *
+ * By default, every alarm update is propagated through the graph as soon as it is received.
+ * When a batch interval is set, the alarm updates are instead collected for the given interval,
+ * coalesced by reduction key and propagated together: the affected vertices are marked dirty
+ * and every one of them is reduced once, starting with the deepest level of the graph, so that
+ * a parent is only reduced after all of its children were updated. The resulting statuses are
+ * published as an immutable snapshot, which is used by {@link #getOperationalStatus(BusinessService)}
+ * and friends without acquiring any locks. The state change handlers are notified once for every
+ * business service whose status differs from the one before the batch was applied.
+ */
 public class DefaultBusinessServiceStateMachine implements BusinessServiceStateMachine {
     private static final Logger LOG = LoggerFactory.getLogger(DefaultBusinessServiceStateMachine.class);
     public static final Status MIN_SEVERITY = Status.NORMAL;
 
+    public static final String BATCH_INTERVAL_KEY = "org.opennms.features.bsm.batchInterval";
+
     @Autowired
     private AlarmProvider m_alarmProvider;
 
@@ -93,6 +115,99 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
     private final ReadWriteLock m_rwLock = new ReentrantReadWriteLock();
     private BusinessServiceGraph m_g = new BusinessServiceGraphImpl(Collections.emptyList());
 
+    /**
+     * Alarm updates are collected and propagated together for this many milliseconds, if > 0.
+     */
+    private volatile long m_batchInterval = 0;
+
+    /**
+     * Status of the alarms received since the last batch was applied, keyed by reduction key.
+     * Guarded by itself.
+     */
+    private final Map<String, Status> m_pendingAlarms = new LinkedHashMap<>();
+    private boolean m_batchScheduled = false;
+    private ScheduledExecutorService m_batchExecutor;
+
+    /**
+     * Serializes the application of the batches, so that the handlers are notified in order.
+     */
+    private final Object m_batchLock = new Object();
+
+    /**
+     * The statuses as of the last batch, only used when batching is enabled.
+     */
+    private volatile StatusSnapshot m_snapshot;
+
+    /**
+     * An immutable copy of the statuses of all the vertices of a graph.
+     */
+    private static class StatusSnapshot {
+        private final BusinessServiceGraph m_graph;
+        private final Map<GraphVertex, Status> m_statuses;
+
+        private StatusSnapshot(BusinessServiceGraph graph) {
+            m_graph = graph;
+            final ImmutableMap.Builder<GraphVertex, Status> statuses = ImmutableMap.builder();
+            for (GraphVertex vertex : graph.getVertices()) {
+                statuses.put(vertex, vertex.getStatus());
+            }
+            m_statuses = statuses.build();
+        }
+
+        private Status getStatus(Function<BusinessServiceGraph, GraphVertex> lookup) {
+            final GraphVertex vertex = lookup.apply(m_graph);
+            return vertex != null ? m_statuses.get(vertex) : null;
+        }
+    }
+
+    private static class StateChange {
+        private final BusinessService m_businessService;
+        private final Status m_newStatus;
+        private final Status m_previousStatus;
+
+        private StateChange(BusinessService businessService, Status newStatus, Status previousStatus) {
+            m_businessService = businessService;
+            m_newStatus = newStatus;
+            m_previousStatus = previousStatus;
+        }
+    }
+
+    /**
+     * Sets the interval in milliseconds over which the alarm updates are collected
+     * before being propagated. Alarm updates are propagated immediately when <= 0,
+     * which is the default.
+     */
+    public void setBatchInterval(long batchInterval) {
+        m_rwLock.writeLock().lock();
+        try {
+            m_batchInterval = batchInterval;
+            m_snapshot = batchInterval > 0 ? new StatusSnapshot(m_g) : null;
+        } finally {
+            m_rwLock.writeLock().unlock();
+        }
+        if (batchInterval <= 0) {
+            // Apply the updates which are still pending
+            flush();
+        }
+    }
+
+    public long getBatchInterval() {
+        return m_batchInterval;
+    }
+
+    /**
+     * Stops the thread used to apply the batches.
+     */
+    public void destroy() {
+        synchronized (m_pendingAlarms) {
+            if (m_batchExecutor != null) {
+                m_batchExecutor.shutdown();
+                m_batchExecutor = null;
+            }
+            m_batchScheduled = false;
+        }
+    }
+
     @Override
     public void setBusinessServices(List<BusinessService> businessServices) {
         m_rwLock.writeLock().lock();
@@ -126,6 +241,7 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
                 }
             }
             m_g = g;
+            publishSnapshot();
         } finally {
             m_rwLock.writeLock().unlock();
         }
@@ -133,6 +249,18 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
 
     @Override
     public void handleNewOrUpdatedAlarm(AlarmWrapper alarm) {
+        if (m_batchInterval > 0) {
+            synchronized (m_pendingAlarms) {
+                // Only the most recent status of every reduction key matters
+                m_pendingAlarms.put(alarm.getReductionKey(), alarm.getStatus());
+                if (!m_batchScheduled) {
+                    m_batchScheduled = true;
+                    getBatchExecutor().schedule(this::flush, m_batchInterval, TimeUnit.MILLISECONDS);
+                }
+            }
+            return;
+        }
+
         m_rwLock.writeLock().lock();
         try {
             // Recursively propagate the status
@@ -144,6 +272,20 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
 
     @Override
     public void handleAllAlarms(List<AlarmWrapper> alarms) {
+        if (m_batchInterval > 0) {
+            // Apply the updates received before
+            flush();
+
+            final Map<String, Status> statusesByReductionKey = new LinkedHashMap<>();
+            for (AlarmWrapper alarm : alarms) {
+                statusesByReductionKey.put(alarm.getReductionKey(), alarm.getStatus());
+            }
+            synchronized (m_batchLock) {
+                applyBatch(statusesByReductionKey, true);
+            }
+            return;
+        }
+
         final Set<String> reductionKeysFromGivenAlarms = new HashSet<>(alarms.size());
         m_rwLock.writeLock().lock();
         try {
@@ -164,6 +306,126 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
         }
     }
 
+    /**
+     * Applies the pending alarm updates. This is called periodically when batching is enabled.
+     */
+    public void flush() {
+        synchronized (m_batchLock) {
+            final Map<String, Status> statusesByReductionKey;
+            synchronized (m_pendingAlarms) {
+                statusesByReductionKey = new LinkedHashMap<>(m_pendingAlarms);
+                m_pendingAlarms.clear();
+                m_batchScheduled = false;
+            }
+            if (!statusesByReductionKey.isEmpty()) {
+                applyBatch(statusesByReductionKey, false);
+            }
+        }
+    }
+
+    private void applyBatch(Map<String, Status> statusesByReductionKey, boolean allAlarms) {
+        final List<StateChange> stateChanges = Lists.newArrayList();
+        final List<BusinessServiceStateChangeHandler> handlers;
+        m_rwLock.writeLock().lock();
+        try {
+            if (allAlarms) {
+                for (String missingReductionKey : Sets.difference(m_g.getReductionKeys(), statusesByReductionKey.keySet()).immutableCopy()) {
+                    // There is a vertex on the graph that corresponds to this reduction key
+                    // but no alarm with this reduction key exists
+                    statusesByReductionKey.put(missingReductionKey, Status.INDETERMINATE);
+                }
+            }
+            for (Entry<GraphVertex, Status> entry : updateAndPropagateVertices(m_g, statusesByReductionKey).entrySet()) {
+                final GraphVertex vertex = entry.getKey();
+                stateChanges.add(new StateChange(vertex.getBusinessService(), vertex.getStatus(), entry.getValue()));
+            }
+            publishSnapshot();
+            handlers = Lists.newArrayList(m_handlers);
+        } finally {
+            m_rwLock.writeLock().unlock();
+        }
+
+        LOG.debug("Applied {} alarm updates, resulting in {} business service state changes.", statusesByReductionKey.size(), stateChanges.size());
+
+        // Notify the listeners, without blocking the readers
+        for (StateChange stateChange : stateChanges) {
+            for (BusinessServiceStateChangeHandler handler : handlers) {
+                handler.handleBusinessServiceStateChanged(stateChange.m_businessService, stateChange.m_newStatus, stateChange.m_previousStatus);
+            }
+        }
+    }
+
+    /**
+     * Updates the status of the vertices for the given reduction keys and reduces every vertex
+     * affected by these changes exactly once, starting with the ones on the highest level.
+     *
+     * @return the previous status of the business services whose status changed
+     */
+    private static Map<GraphVertex, Status> updateAndPropagateVertices(BusinessServiceGraph graph, Map<String, Status> statusesByReductionKey) {
+        final Map<GraphVertex, Status> previousStatuses = new LinkedHashMap<>();
+        final NavigableMap<Integer, Set<GraphVertex>> dirtyVerticesByLevel = new TreeMap<>();
+
+        for (Entry<String, Status> entry : statusesByReductionKey.entrySet()) {
+            final GraphVertex vertex = graph.getVertexByReductionKey(entry.getKey());
+            if (vertex != null) {
+                updateVertex(graph, vertex, entry.getValue(), previousStatuses, dirtyVerticesByLevel);
+            }
+        }
+
+        // The parents are always on a lower level than their children, so that every
+        // vertex is reduced after all of its children have been updated
+        Entry<Integer, Set<GraphVertex>> dirtyVertices;
+        while ((dirtyVertices = dirtyVerticesByLevel.pollLastEntry()) != null) {
+            for (GraphVertex vertex : dirtyVertices.getValue()) {
+                updateVertex(graph, vertex, reduce(graph, vertex), previousStatuses, dirtyVerticesByLevel);
+            }
+        }
+
+        // Ignore the business services which went back to their previous status
+        previousStatuses.entrySet().removeIf(entry -> entry.getKey().getStatus().equals(entry.getValue()));
+        return previousStatuses;
+    }
+
+    private static void updateVertex(BusinessServiceGraph graph, GraphVertex vertex, Status newStatus,
+            Map<GraphVertex, Status> previousStatuses, NavigableMap<Integer, Set<GraphVertex>> dirtyVerticesByLevel) {
+        // Apply lower bound
+        newStatus = newStatus.isLessThan(MIN_SEVERITY) ? MIN_SEVERITY : newStatus;
+
+        // Update the status if necessary
+        final Status previousStatus = vertex.getStatus();
+        if (previousStatus.equals(newStatus)) {
+            return;
+        }
+        vertex.setStatus(newStatus);
+
+        // Remember the status before the batch for business services
+        if (vertex.getBusinessService() != null) {
+            previousStatuses.putIfAbsent(vertex, previousStatus);
+        }
+
+        // Mark the parents of the updated edges
+        for (GraphEdge edge : updateEdges(graph, vertex, newStatus)) {
+            final GraphVertex parent = graph.getOpposite(vertex, edge);
+            dirtyVerticesByLevel.computeIfAbsent(parent.getLevel(), level -> new LinkedHashSet<>()).add(parent);
+        }
+    }
+
+    private void publishSnapshot() {
+        if (m_batchInterval > 0) {
+            m_snapshot = new StatusSnapshot(m_g);
+        }
+    }
+
+    private ScheduledExecutorService getBatchExecutor() {
+        if (m_batchExecutor == null) {
+            m_batchExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("bsm-state-machine-batch")
+                    .setDaemon(true)
+                    .build());
+        }
+        return m_batchExecutor;
+    }
+
     private void updateAndPropagateVertex(BusinessServiceGraph graph, GraphVertex vertex, Status newStatus) {
         if (vertex == null) {
             // Nothing to do here
@@ -185,6 +447,20 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
         onStatusUpdated(graph, vertex, previousStatus);
 
         // Update the edges with the mapped status
+        List<GraphEdge> updatedEges = updateEdges(graph, vertex, newStatus);
+
+        // Propagate once all of the edges have been updated
+        for (GraphEdge edge : updatedEges) {
+            reduceUpdateAndPropagateVertex(graph, graph.getOpposite(vertex, edge));
+        }
+    }
+
+    /**
+     * Updates the edges leading to the given vertex with the mapped status.
+     *
+     * @return the edges whose status changed
+     */
+    private static List<GraphEdge> updateEdges(BusinessServiceGraph graph, GraphVertex vertex, Status newStatus) {
         List<GraphEdge> updatedEges = Lists.newArrayList();
         for (GraphEdge edge : graph.getInEdges(vertex)) {
             Status mappedStatus = newStatus;
@@ -204,11 +480,7 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
             edge.setStatus(mappedStatus);
             updatedEges.add(edge);
         }
-
-        // Propagate once all of the edges have been updated
-        for (GraphEdge edge : updatedEges) {
-            reduceUpdateAndPropagateVertex(graph, graph.getOpposite(vertex, edge));
-        }
+        return updatedEges;
     }
 
     private void reduceUpdateAndPropagateVertex(BusinessServiceGraph graph, GraphVertex vertex) {
@@ -217,21 +489,22 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
             return;
         }
 
+        // Update and propagate
+        updateAndPropagateVertex(graph, vertex, reduce(graph, vertex));
+    }
+
+    private static Status reduce(BusinessServiceGraph graph, GraphVertex vertex) {
         // Calculate the weighed statuses from the child edges
         List<StatusWithIndex> statuses = weighEdges(graph.getOutEdges(vertex));
 
         // Reduce
         Optional<StatusWithIndices> reducedStatus = vertex.getReductionFunction().reduce(statuses);
 
-        Status newStatus;
         if (reducedStatus.isPresent()) {
-            newStatus = reducedStatus.get().getStatus();
+            return reducedStatus.get().getStatus();
         } else {
-            newStatus = MIN_SEVERITY;
+            return MIN_SEVERITY;
         }
-
-        // Update and propagate
-        updateAndPropagateVertex(graph, vertex, newStatus);
     }
 
     public static List<StatusWithIndex> weighEdges(Collection<GraphEdge> edges) {
@@ -296,6 +569,10 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
     @Override
     public Status getOperationalStatus(BusinessService businessService) {
         Objects.requireNonNull(businessService);
+        final StatusSnapshot snapshot = m_snapshot;
+        if (snapshot != null) {
+            return snapshot.getStatus(g -> g.getVertexByBusinessServiceId(businessService.getId()));
+        }
         m_rwLock.readLock().lock();
         try {
             GraphVertex vertex = m_g.getVertexByBusinessServiceId(businessService.getId());
@@ -310,6 +587,10 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
 
     @Override
     public Status getOperationalStatus(IpService ipService) {
+        final StatusSnapshot snapshot = m_snapshot;
+        if (snapshot != null) {
+            return snapshot.getStatus(g -> g.getVertexByIpServiceId(ipService.getId()));
+        }
         m_rwLock.readLock().lock();
         try {
             GraphVertex vertex = m_g.getVertexByIpServiceId(ipService.getId());
@@ -324,6 +605,10 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
 
     @Override
     public Status getOperationalStatus(String reductionKey) {
+        final StatusSnapshot snapshot = m_snapshot;
+        if (snapshot != null) {
+            return snapshot.getStatus(g -> g.getVertexByReductionKey(reductionKey));
+        }
         m_rwLock.readLock().lock();
         try {
             GraphVertex vertex = m_g.getVertexByReductionKey(reductionKey);
@@ -338,6 +623,10 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
 
     @Override
     public Status getOperationalStatus(Edge edge) {
+        final StatusSnapshot snapshot = m_snapshot;
+        if (snapshot != null) {
+            return snapshot.getStatus(g -> g.getVertexByEdgeId(edge.getId()));
+        }
         m_rwLock.readLock().lock();
         try {
             GraphVertex vertex = m_g.getVertexByEdgeId(edge.getId());
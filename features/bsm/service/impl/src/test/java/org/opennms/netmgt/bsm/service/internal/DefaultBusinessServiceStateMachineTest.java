@@ -33,10 +33,13 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Rule;
 import org.junit.Test;
@@ -54,6 +57,7 @@ import org.opennms.netmgt.bsm.service.model.functions.reduce.HighestSeverityAbov
 import org.opennms.netmgt.bsm.service.model.functions.reduce.Threshold;
 import org.opennms.netmgt.bsm.service.model.graph.GraphVertex;
 import org.opennms.netmgt.bsm.test.LoggingStateChangeHandler;
+import org.opennms.netmgt.bsm.test.LoggingStateChangeHandler.StateChange;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
@@ -260,4 +264,156 @@ public class DefaultBusinessServiceStateMachineTest {
         stateMachine.renderGraphToPng(pngFile);
         assertTrue(pngFile.getAbsolutePath() + " should exist.", pngFile.exists());
     }
+
+    @Test
+    public void canPropagateAlarmsInBatches() {
+        final MockBusinessServiceHierarchy h = createSharedHierarchy();
+        final List<String> reductionKeys = Arrays.asList("a1", "a2", "a3", "a4", "a5", "a6", "a7", "a8", "a9");
+
+        // Propagate every alarm immediately in one of the state machines and in batches in the other
+        final DefaultBusinessServiceStateMachine expected = new DefaultBusinessServiceStateMachine();
+        expected.setBusinessServices(h.getBusinessServices());
+
+        final DefaultBusinessServiceStateMachine actual = new DefaultBusinessServiceStateMachine();
+        final LoggingStateChangeHandler stateChangeHandler = new LoggingStateChangeHandler();
+        actual.addHandler(stateChangeHandler, Maps.newHashMap());
+        actual.setBusinessServices(h.getBusinessServices());
+        // Only apply the batches when flushing
+        actual.setBatchInterval(TimeUnit.HOURS.toMillis(1));
+
+        try {
+            final Random random = new Random(42);
+            for (int batch = 0; batch < 100; batch++) {
+                final Map<BusinessService, Status> statusesBefore = getStatuses(actual, h);
+
+                for (int i = random.nextInt(20); i >= 0; i--) {
+                    final MockAlarmWrapper alarm = new MockAlarmWrapper(reductionKeys.get(random.nextInt(reductionKeys.size())),
+                            Status.values()[random.nextInt(Status.values().length)]);
+                    expected.handleNewOrUpdatedAlarm(alarm);
+                    actual.handleNewOrUpdatedAlarm(alarm);
+                }
+
+                // Nothing changes until the batch is applied
+                assertEquals(statusesBefore, getStatuses(actual, h));
+
+                stateChangeHandler.getStateChanges().clear();
+                actual.flush();
+
+                // The statuses are the same as when propagating every alarm
+                final Map<BusinessService, Status> statusesAfter = getStatuses(actual, h);
+                assertEquals(getStatuses(expected, h), statusesAfter);
+                for (String reductionKey : reductionKeys) {
+                    assertEquals(expected.getOperationalStatus(reductionKey), actual.getOperationalStatus(reductionKey));
+                }
+
+                // There is exactly one notification for every business service whose status changed
+                final Map<BusinessService, StateChange> stateChanges = Maps.newHashMap();
+                for (StateChange stateChange : stateChangeHandler.getStateChanges()) {
+                    assertEquals(null, stateChanges.put(stateChange.getBusinessService(), stateChange));
+                }
+                for (BusinessService businessService : h.getBusinessServices()) {
+                    final StateChange stateChange = stateChanges.get(businessService);
+                    if (statusesBefore.get(businessService).equals(statusesAfter.get(businessService))) {
+                        assertEquals(null, stateChange);
+                    } else {
+                        assertEquals(statusesBefore.get(businessService), stateChange.getPrevSeverity());
+                        assertEquals(statusesAfter.get(businessService), stateChange.getNewSeverity());
+                    }
+                }
+            }
+        } finally {
+            actual.destroy();
+        }
+    }
+
+    @Test
+    public void canApplyBatchesPeriodically() throws InterruptedException {
+        final MockBusinessServiceHierarchy h = createSharedHierarchy();
+        final BusinessService b1 = h.getBusinessServiceById(1);
+
+        final DefaultBusinessServiceStateMachine expected = new DefaultBusinessServiceStateMachine();
+        final LoggingStateChangeHandler expectedStateChangeHandler = new LoggingStateChangeHandler();
+        expected.addHandler(expectedStateChangeHandler, Maps.newHashMap());
+        expected.setBusinessServices(h.getBusinessServices());
+
+        final DefaultBusinessServiceStateMachine actual = new DefaultBusinessServiceStateMachine();
+        final LoggingStateChangeHandler actualStateChangeHandler = new LoggingStateChangeHandler();
+        actual.addHandler(actualStateChangeHandler, Maps.newHashMap());
+        actual.setBusinessServices(h.getBusinessServices());
+        actual.setBatchInterval(50);
+
+        try {
+            final MockAlarmWrapper alarm = new MockAlarmWrapper("a4", Status.CRITICAL);
+            expected.handleNewOrUpdatedAlarm(alarm);
+            actual.handleNewOrUpdatedAlarm(alarm);
+
+            // The batch is applied without flushing
+            final long timeout = System.currentTimeMillis() + 10000;
+            while (actual.getOperationalStatus(b1) != Status.CRITICAL && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+            }
+            assertEquals(Status.CRITICAL, actual.getOperationalStatus(b1));
+            assertEquals(Status.CRITICAL, actual.getOperationalStatus("a4"));
+            assertEquals(getStatuses(expected, h), getStatuses(actual, h));
+            assertEquals(expectedStateChangeHandler.getStateChanges().size(), actualStateChangeHandler.getStateChanges().size());
+
+            // Alarms are propagated immediately once the batches are disabled
+            actual.setBatchInterval(0);
+            final MockAlarmWrapper clear = new MockAlarmWrapper("a4", Status.NORMAL);
+            expected.handleNewOrUpdatedAlarm(clear);
+            actual.handleNewOrUpdatedAlarm(clear);
+            assertEquals(Status.NORMAL, actual.getOperationalStatus(b1));
+            assertEquals(getStatuses(expected, h), getStatuses(actual, h));
+            assertEquals(expectedStateChangeHandler.getStateChanges().size(), actualStateChangeHandler.getStateChanges().size());
+        } finally {
+            actual.destroy();
+        }
+    }
+
+    /**
+     * Creates a hierarchy where b4 and the reduction key a4 are shared by multiple business services.
+     */
+    private static MockBusinessServiceHierarchy createSharedHierarchy() {
+        final Threshold threshold = new Threshold();
+        threshold.setThreshold(0.5f);
+        final HighestSeverityAbove highestSeverityAbove = new HighestSeverityAbove();
+        highestSeverityAbove.setThreshold(Status.MINOR);
+
+        return MockBusinessServiceHierarchy.builder()
+                .withBusinessService(1)
+                    .withReductionFunction(new HighestSeverity())
+                    .withBusinessService(2)
+                        .withReductionFunction(highestSeverityAbove)
+                        .withReductionKey(21, "a1")
+                        .withReductionKey(22, "a2")
+                        .withBusinessService(4)
+                            .withReductionFunction(threshold)
+                            .withReductionKey(41, "a4")
+                            .withReductionKey(45, "a5")
+                            .withReductionKey(46, "a6")
+                        .commit()
+                    .commit()
+                    .withBusinessService(3)
+                        .withReductionFunction(new HighestSeverity())
+                        .withReductionKey(33, "a3")
+                        .withReductionKey(34, "a4")
+                        .withReductionKey(37, "a7")
+                        .withBusinessService(4)
+                        .commit()
+                    .commit()
+                    .withReductionKey(18, "a8")
+                .commit()
+                .withBusinessService(5)
+                    .withReductionKey(59, "a9")
+                .commit()
+                .build();
+    }
+
+    private static Map<BusinessService, Status> getStatuses(BusinessServiceStateMachine stateMachine, MockBusinessServiceHierarchy h) {
+        final Map<BusinessService, Status> statuses = Maps.newHashMap();
+        for (BusinessService businessService : h.getBusinessServices()) {
+            statuses.put(businessService, stateMachine.getOperationalStatus(businessService));
+        }
+        return statuses;
+    }
 }
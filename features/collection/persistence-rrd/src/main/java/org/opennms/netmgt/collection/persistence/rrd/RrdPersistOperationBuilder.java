@@ -31,12 +31,9 @@ package org.opennms.netmgt.collection.persistence.rrd;
 
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.text.NumberFormat;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -57,6 +54,7 @@ import org.opennms.netmgt.rrd.RrdException;
 import org.opennms.netmgt.rrd.RrdMetaDataUtils;
 import org.opennms.netmgt.rrd.RrdRepository;
 import org.opennms.netmgt.rrd.RrdStrategy;
+import org.opennms.netmgt.rrd.RrdUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.util.Assert;
@@ -167,21 +165,7 @@ public class RrdPersistOperationBuilder implements PersistOperationBuilder {
     }
 
     public static String mapValue(Number num) {
-        if (num == null) {
-            return "U";
-        }
-
-        if (!Double.isFinite(num.doubleValue())) {
-            return "U";
-        }
-
-        NumberFormat nf = NumberFormat.getInstance(Locale.US);
-        nf.setGroupingUsed(false);
-        nf.setMinimumFractionDigits(0);
-        nf.setMaximumFractionDigits(Integer.MAX_VALUE);
-        nf.setMinimumIntegerDigits(0);
-        nf.setMaximumIntegerDigits(Integer.MAX_VALUE);
-        return nf.format(num);
+        return RrdUtils.formatValue(num);
     }
 
     /**
@@ -214,20 +198,8 @@ public class RrdPersistOperationBuilder implements PersistOperationBuilder {
         }
     }
 
-    private String getValues() {
-        boolean first = true;
-        final StringBuilder values = new StringBuilder();
-        for (Iterator<CollectionAttributeType> iter = m_declarations.keySet().iterator(); iter.hasNext();) {
-        	CollectionAttributeType attrDef = iter.next();
-            Number value = m_declarations.get(attrDef);
-            if (!first) {
-                values.append(':');
-            } else {
-                first = false;
-            }
-            values.append(mapValue(value));
-        }
-        return values.toString();
+    private Number[] getValues() {
+        return m_declarations.values().toArray(new Number[m_declarations.size()]);
     }
 
     private List<RrdDataSource> getDataSources() {
@@ -291,25 +263,27 @@ public class RrdPersistOperationBuilder implements PersistOperationBuilder {
      * @param rrdName the name for the rrd file.
      * @param timestamp the timestamp in millis to use for the rrd update (this
      * gets rounded to the nearest second)
-     * @param val a colon separated list of values representing the updates for
-     * datasources for this rrd
+     * @param values the values representing the updates for the datasources
+     * for this rrd, in the same order
      * @throws org.opennms.netmgt.rrd.RrdException if any.
      */
-    private static void updateRRD(RrdStrategy<?, ?> rrdStrategy, String owner, String repositoryDir, String rrdName, long timestamp, String val) throws RrdException {
+    private static void updateRRD(RrdStrategy<?, ?> rrdStrategy, String owner, String repositoryDir, String rrdName, long timestamp, Number[] values) throws RrdException {
         // Issue the RRD update
         String rrdFile = repositoryDir + File.separator + rrdName + rrdStrategy.getDefaultFileExtension();
         long time = (timestamp + 500L) / 1000L;
 
-        String updateVal = Long.toString(time) + ":" + val;
-
-        LOG.info("updateRRD: updating RRD file {} with values '{}'", rrdFile, updateVal);
+        // The values are passed on as numbers, so only format them when they're logged
+        if (LOG.isInfoEnabled()) {
+            LOG.info("updateRRD: updating RRD file {} with values '{}'", rrdFile, RrdUtils.formatUpdate(time, values));
+        }
 
         RrdStrategy<Object, Object> strategy = toGenericType(rrdStrategy);
         Object rrd = null;
         try {
             rrd = strategy.openFile(rrdFile);
-            strategy.updateFile(rrd, owner, updateVal);
+            strategy.updateFile(rrd, owner, time, values);
         } catch (Throwable e) {
+            final String updateVal = RrdUtils.formatUpdate(time, values);
             LOG.error("updateRRD: Error updating RRD file {} with values '{}'", rrdFile, updateVal, e);
             throw new org.opennms.netmgt.rrd.RrdException("Error updating RRD file " + rrdFile + " with values '" + updateVal + "': " + e, e);
         } finally {
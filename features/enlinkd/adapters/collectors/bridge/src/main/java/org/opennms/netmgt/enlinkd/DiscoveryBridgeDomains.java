@@ -33,6 +33,7 @@ import java.util.ConcurrentModificationException;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -42,11 +43,12 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
-import org.opennms.netmgt.enlinkd.service.api.BridgeForwardingTableEntry;
 import org.opennms.netmgt.enlinkd.service.api.BridgeTopologyException;
 import org.opennms.netmgt.enlinkd.service.api.BridgeTopologyService;
 import org.opennms.netmgt.enlinkd.service.api.BroadcastDomain;
+import org.opennms.netmgt.enlinkd.service.api.CompactBridgeForwardingTable;
 import org.opennms.netmgt.enlinkd.service.api.DiscoveryBridgeTopology;
+import org.opennms.netmgt.enlinkd.service.api.MacAddressSet;
 import org.opennms.netmgt.events.api.EventForwarder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -63,12 +65,13 @@ public class DiscoveryBridgeDomains extends Discovery {
         m_bridgeTopologyService = bridgeTopologyService;
     }
             
-    private BroadcastDomain find(Set<Integer> nodes, Set<String> setA) throws BridgeTopologyException {
+    private BroadcastDomain find(Set<Integer> nodes, MacAddressSet setA, Map<BroadcastDomain, MacAddressSet> domainMacs) throws BridgeTopologyException {
         
         BroadcastDomain domain = null;
         
         for (BroadcastDomain curBDomain : m_bridgeTopologyService.findAll()) {
-            if (BroadcastDomain.checkMacSets(setA, curBDomain.getMacsOnSegments())) {
+            MacAddressSet setB = domainMacs.computeIfAbsent(curBDomain, d -> MacAddressSet.of(d.getMacsOnSegments()));
+            if (BroadcastDomain.checkMacSets(setA, setB)) {
                 if (LOG.isDebugEnabled()) {
                     LOG.debug("find: node:{}, domain:{}",
                              nodes, 
@@ -96,6 +99,7 @@ public class DiscoveryBridgeDomains extends Discovery {
                 continue;
             }
             m_bridgeTopologyService.reconcile(olddomain, nodeid);
+            domainMacs.remove(olddomain);
             if (LOG.isDebugEnabled()) {
                 LOG.debug("find: node:[{}]. Removed from Old Domain \n{}", 
                      nodeid, olddomain.printTopology());
@@ -109,13 +113,17 @@ public class DiscoveryBridgeDomains extends Discovery {
     public void runDiscovery() {
         LOG.info("run: calculate topology on broadcast domains. Start");
         
-        Map<Integer, Map<Integer, Set<BridgeForwardingTableEntry>>> nodeondomainbft 
-            = new HashMap<Integer, Map<Integer, Set<BridgeForwardingTableEntry>>>();
-
-        Map<Integer, Set<BridgeForwardingTableEntry>> nodeBft 
-            = new HashMap<Integer, Set<BridgeForwardingTableEntry>>();
-        Map<Integer, Set<String>> nodeMacs 
-        = new HashMap<Integer, Set<String>>();
+        Map<Integer, Map<Integer, CompactBridgeForwardingTable>> nodeondomainbft 
+            = new HashMap<Integer, Map<Integer, CompactBridgeForwardingTable>>();
+
+        Map<Integer, CompactBridgeForwardingTable> nodeBft 
+            = new HashMap<Integer, CompactBridgeForwardingTable>();
+        Map<Integer, MacAddressSet> nodeMacs 
+        = new HashMap<Integer, MacAddressSet>();
+        // macs on the domains, the segments only change when a node is reconciled
+        // before the tasks are executed
+        Map<BroadcastDomain, MacAddressSet> domainMacs
+        = new IdentityHashMap<BroadcastDomain, MacAddressSet>();
 
         Set<Integer> nodeids 
         = new HashSet<Integer>(
@@ -124,17 +132,14 @@ public class DiscoveryBridgeDomains extends Discovery {
         LOG.debug("run: nodes with updated bft {}", nodeids);
 
         for (Integer nodeid : nodeids) {
-            Set<BridgeForwardingTableEntry> links = m_bridgeTopologyService.useBridgeTopologyUpdateBFT(nodeid);
+            CompactBridgeForwardingTable links = m_bridgeTopologyService.useBridgeTopologyUpdateBFT(nodeid);
 
             if (links == null || links.size() == 0) {
                 LOG.warn("run: node:[{}]. no updated bft. Return", nodeid);
                 continue;
             }
             nodeBft.put(nodeid, links);
-            Set<String> macs = new HashSet<String>();
-            for (BridgeForwardingTableEntry link : links) {
-                macs.add(link.getMacAddress());
-            }
+            MacAddressSet macs = links.getMacs();
             LOG.debug("run: node:[{}]. macs:{}", nodeid, macs);
             nodeMacs.put(nodeid, macs);
         }
@@ -146,7 +151,7 @@ public class DiscoveryBridgeDomains extends Discovery {
                 continue;
             }
             nodeondomainbft.put(nodeidA,
-                                new HashMap<Integer, Set<BridgeForwardingTableEntry>>());
+                                new HashMap<Integer, CompactBridgeForwardingTable>());
             nodeondomainbft.get(nodeidA).put(nodeidA, nodeBft.get(nodeidA));
             parsed.add(nodeidA);
             for (Integer nodeidB : nodeBft.keySet()) {
@@ -167,7 +172,8 @@ public class DiscoveryBridgeDomains extends Discovery {
             LOG.debug("run: nodes are on same domain {}",nodeondomainbft.get(nodeid).keySet());
             try {
                 BroadcastDomain domain = find(nodeondomainbft.get(nodeid).keySet(),
-                                              nodeMacs.get(nodeid));
+                                              nodeMacs.get(nodeid),
+                                              domainMacs);
                 DiscoveryBridgeTopology nodebridgetopology = new DiscoveryBridgeTopology(domain);
                 
                 synchronized (domain) {
@@ -30,8 +30,8 @@ package org.opennms.netmgt.enlinkd;
 
 import org.opennms.netmgt.events.api.EventForwarder;
 import org.opennms.netmgt.model.events.EventBuilder;
-import org.opennms.netmgt.scheduler.LegacyScheduler;
 import org.opennms.netmgt.scheduler.ReadyRunnable;
+import org.opennms.netmgt.scheduler.Scheduler;
 
 /**
  * This class is designed to collect the necessary SNMP information from the
@@ -45,7 +45,7 @@ public abstract class Discovery implements ReadyRunnable {
     /**
      * The scheduler object
      */
-    private LegacyScheduler m_scheduler;
+    private Scheduler m_scheduler;
 
     /**
      * The interval, default value 30 minutes
@@ -90,9 +90,9 @@ public abstract class Discovery implements ReadyRunnable {
      * getScheduler
      * </p>
      * 
-     * @return a {@link org.opennms.netmgt.enlinkd.scheduler.Scheduler} object.
+     * @return a {@link org.opennms.netmgt.scheduler.Scheduler} object.
      */
-    public LegacyScheduler getScheduler() {
+    public Scheduler getScheduler() {
         return m_scheduler;
     }
 
@@ -102,10 +102,10 @@ public abstract class Discovery implements ReadyRunnable {
      * </p>
      * 
      * @param scheduler
-     *            a {@link org.opennms.netmgt.enlinkd.scheduler.Scheduler}
+     *            a {@link org.opennms.netmgt.scheduler.Scheduler}
      *            object.
      */
-    public void setScheduler(LegacyScheduler scheduler) {
+    public void setScheduler(Scheduler scheduler) {
         m_scheduler = scheduler;
     }
 
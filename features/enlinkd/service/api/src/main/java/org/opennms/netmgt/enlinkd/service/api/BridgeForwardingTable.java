@@ -29,6 +29,7 @@
 package org.opennms.netmgt.enlinkd.service.api;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -71,7 +72,7 @@ public class BridgeForwardingTable implements Topology {
                 throw new BridgeTopologyException("create: bridge:["+ bridge.getNodeId()+ "] and forwarding table must have the same nodeid", link);                
             }
         }
-        final BridgeForwardingTable bridgeFt = new BridgeForwardingTable(bridge,entries);
+        final BridgeForwardingTable bridgeFt = new BridgeForwardingTable(bridge,entries, null);
 
         entries.stream().filter(link -> link.getBridgeDot1qTpFdbStatus() 
                                 == BridgeDot1qTpFdbStatus.DOT1D_TP_FDB_STATUS_SELF).
@@ -89,74 +90,157 @@ public class BridgeForwardingTable implements Topology {
                                 != BridgeDot1qTpFdbStatus.DOT1D_TP_FDB_STATUS_LEARNED ) {
                 continue;
             }
-            if (bridgeFt.getIdentifiers().contains(link.getMacAddress())) {
-                if (LOG.isDebugEnabled()) {
-                    LOG.debug("create: bridge:[{}] skip bid {}",
+            bridgeFt.addLearned(link.getMacAddress(), BridgePort.getFromBridgeForwardingTableEntry(link));
+        }
+        bridgeFt.removeDuplicated();
+        return bridgeFt;
+    }
+
+    /**
+     * Creates the table straight from the collected compact table, without
+     * materializing a {@link BridgeForwardingTableEntry} for every row.
+     */
+    public static BridgeForwardingTable create(Bridge bridge, CompactBridgeForwardingTable bft) throws BridgeTopologyException {
+        if (bridge == null) {
+            throw new BridgeTopologyException("bridge must not be null");
+        }
+        if (bft == null) {
+            throw new BridgeTopologyException("bridge forwarding table must not be null");
+        }
+        if (bft.getNodeId() != bridge.getNodeId().intValue()) {
+            throw new BridgeTopologyException("create: bridge:["+ bridge.getNodeId()+ "] and forwarding table must have the same nodeid");
+        }
+        final BridgeForwardingTable bridgeFt = new BridgeForwardingTable(bridge, null, bft);
+
+        for (int i = 0; i < bft.size(); i++) {
+            if (bft.getStatus(i) == BridgeDot1qTpFdbStatus.DOT1D_TP_FDB_STATUS_SELF) {
+                bridgeFt.getIdentifiers().add(bft.getMacAddress(i));
+                LOG.debug("create: bridge:[{}] adding bid [{}]",
                           bridge.getNodeId(),
-                          link.printTopology());
-                }
+                          bft.getMacAddress(i));
+            }
+        }
+
+        for (int i = 0; i < bft.size(); i++) {
+            if (bft.getStatus(i) != BridgeDot1qTpFdbStatus.DOT1D_TP_FDB_STATUS_LEARNED) {
                 continue;
             }
-                
-            BridgePort bridgeport = BridgePort.getFromBridgeForwardingTableEntry(link);
-                
-            BridgePortWithMacs bpwm = bridgeFt.getBridgePortWithMacs(bridgeport);
-            if (bpwm == null ) {
-                bridgeFt.getPorttomac().add(BridgePortWithMacs.create(bridgeport,new HashSet<String>()));
+            bridgeFt.addLearned(bft.getMacAddress(i), bft.getBridgePort(i));
+        }
+        bridgeFt.removeDuplicated();
+        return bridgeFt;
+    }
+
+    private void addLearned(String mac, BridgePort bridgeport) throws BridgeTopologyException {
+        if (getIdentifiers().contains(mac)) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("create: bridge:[{}] skip bid [{}] {}",
+                      getNodeId(),
+                      mac,
+                      bridgeport.printTopology());
             }
-            bridgeFt.getBridgePortWithMacs(bridgeport).getMacs().add(link.getMacAddress());
+            return;
+        }
 
-            if (bridgeFt.getMactoport().containsKey(link.getMacAddress())) {
-                bridgeFt.getDuplicated().put(link.getMacAddress(), new HashSet<BridgePort>());
-                bridgeFt.getDuplicated().get(link.getMacAddress()).add(bridgeport);
+        BridgePortWithMacs bpwm = getBridgePortWithMacs(bridgeport);
+        if (bpwm == null ) {
+            bpwm = BridgePortWithMacs.create(bridgeport,new HashSet<String>());
+            m_porttomac.add(bpwm);
+        }
+        bpwm.getMacs().add(mac);
+
+        if (m_mactoport.containsKey(mac)) {
+            m_duplicated.put(mac, new HashSet<BridgePort>());
+            m_duplicated.get(mac).add(bridgeport);
 
-                if (LOG.isDebugEnabled()) {
-                    LOG.debug("create: bridge:[{}] duplicated {}",
-                              bridge.getNodeId(),
-                              link.printTopology());
-                }
-                continue;
-            }
-            
             if (LOG.isDebugEnabled()) {
-                    LOG.debug("create: bridge:[{}] adding {}",
-                          bridge.getNodeId(),
-                          link.printTopology());
+                LOG.debug("create: bridge:[{}] duplicated [{}] {}",
+                          getNodeId(),
+                          mac,
+                          bridgeport.printTopology());
             }
-            bridgeFt.getMactoport().put(link.getMacAddress(), bridgeport);
+            return;
+        }
+
+        if (LOG.isDebugEnabled()) {
+                LOG.debug("create: bridge:[{}] adding [{}] {}",
+                      getNodeId(),
+                      mac,
+                      bridgeport.printTopology());
         }
+        m_mactoport.put(mac, bridgeport);
+    }
 
-        for (String mac: bridgeFt.getDuplicated().keySet()) {
-            BridgePort saved = bridgeFt.getMactoport().remove(mac);            
+    private void removeDuplicated() {
+        for (String mac: m_duplicated.keySet()) {
+            BridgePort saved = m_mactoport.remove(mac);            
             if (LOG.isDebugEnabled()) {
                 LOG.debug("create: bridge:[{}] remove duplicated [{}] from {}",
-                          bridge.getNodeId(),
+                          getNodeId(),
                           mac,
                           saved.printTopology());
             }
 
-            BridgePortWithMacs savedwithmacs = bridgeFt.getBridgePortWithMacs(saved);
+            BridgePortWithMacs savedwithmacs = getBridgePortWithMacs(saved);
             savedwithmacs.getMacs().remove(mac);
             
-            for (BridgePort dupli: bridgeFt.getDuplicated().get(mac)) {
-                BridgePortWithMacs dupliwithmacs = bridgeFt.getBridgePortWithMacs(dupli);
+            for (BridgePort dupli: m_duplicated.get(mac)) {
+                BridgePortWithMacs dupliwithmacs = getBridgePortWithMacs(dupli);
                 dupliwithmacs.getMacs().remove(mac);
             }
-            bridgeFt.getDuplicated().get(mac).add(saved);
+            m_duplicated.get(mac).add(saved);
         }
+        indexLearnedMacs();
+    }
 
-        return bridgeFt;
+    /**
+     * Indexes the learned macs as sorted arrays with the ports at the same
+     * position, so that the common macs of two tables are found by merging
+     * the arrays instead of probing the string map of the other table.
+     */
+    private void indexLearnedMacs() {
+        long[] macs = new long[m_mactoport.size()];
+        String[] others = new String[m_mactoport.size()];
+        int size = 0;
+        int othersSize = 0;
+        for (String mac : m_mactoport.keySet()) {
+            final long encoded = MacAddressSet.encode(mac);
+            if (encoded >= 0) {
+                macs[size++] = encoded;
+            } else {
+                others[othersSize++] = mac;
+            }
+        }
+        macs = Arrays.copyOf(macs, size);
+        others = Arrays.copyOf(others, othersSize);
+        Arrays.sort(macs);
+        Arrays.sort(others);
+
+        m_learnedMacs = macs;
+        m_otherLearnedMacs = others;
+        m_learnedPorts = new BridgePort[size + othersSize];
+        for (int i = 0; i < size; i++) {
+            m_learnedPorts[i] = m_mactoport.get(MacAddressSet.decode(macs[i]));
+        }
+        for (int i = 0; i < othersSize; i++) {
+            m_learnedPorts[size + i] = m_mactoport.get(others[i]);
+        }
     }
-    
+
     private final Bridge m_bridge;
     private final Set<BridgeForwardingTableEntry> m_entries;
+    private final CompactBridgeForwardingTable m_compact;
     private Map<String, BridgePort> m_mactoport = new HashMap<String, BridgePort>();
     private Map<String, Set<BridgePort>> m_duplicated = new HashMap<String, Set<BridgePort>>();
     private Set<BridgePortWithMacs> m_porttomac = new HashSet<BridgePortWithMacs>();
+    private long[] m_learnedMacs;
+    private String[] m_otherLearnedMacs;
+    private BridgePort[] m_learnedPorts;
 
-    private BridgeForwardingTable(Bridge bridge, Set<BridgeForwardingTableEntry> entries) {
+    private BridgeForwardingTable(Bridge bridge, Set<BridgeForwardingTableEntry> entries, CompactBridgeForwardingTable compact) {
         m_bridge = bridge;
         m_entries = entries;
+        m_compact = compact;
     }
 
     public Set<BridgePortWithMacs> getPorttomac() {
@@ -179,6 +263,32 @@ public class BridgeForwardingTable implements Topology {
 
     public void setMactoport(Map<String, BridgePort> mactoport) {
         m_mactoport = mactoport;
+        indexLearnedMacs();
+    }
+
+    /**
+     * Returns the sorted encoded learned macs, the port of the i-th mac is
+     * {@link #getLearnedPort(int)} at the same position.
+     */
+    long[] getLearnedMacs() {
+        return m_learnedMacs;
+    }
+
+    /**
+     * Returns the sorted learned macs that cannot be encoded, the port of
+     * the i-th mac is {@link #getLearnedPort(int)} at position
+     * getLearnedMacs().length + i.
+     */
+    String[] getOtherLearnedMacs() {
+        return m_otherLearnedMacs;
+    }
+
+    BridgePort getLearnedPort(int i) {
+        return m_learnedPorts[i];
+    }
+
+    String getLearnedMac(int i) {
+        return i < m_learnedMacs.length ? MacAddressSet.decode(m_learnedMacs[i]) : m_otherLearnedMacs[i - m_learnedMacs.length];
     }
 
     public Map<String, Set<BridgePort>> getDuplicated() {
@@ -193,12 +303,12 @@ public class BridgeForwardingTable implements Topology {
 
 
     public Set<BridgeForwardingTableEntry> getEntries() {
-        return m_entries;
+        return m_entries != null ? m_entries : m_compact.getEntries();
     }
 
 
     public int getBftSize() {
-        return m_entries.size();
+        return m_entries != null ? m_entries.size() : m_compact.size();
     }
     
     public Set<String> getBftMacs() {
@@ -240,7 +350,7 @@ public class BridgeForwardingTable implements Topology {
     public String printTopology() {
         final List<Topology> topologies = new ArrayList<>();
         topologies.add(m_bridge);
-        topologies.addAll(m_entries);
+        topologies.addAll(getEntries());
         final String topology = topologies.stream()
                 .map(Topology::printTopology)
                 .collect(Collectors.joining("\n"));
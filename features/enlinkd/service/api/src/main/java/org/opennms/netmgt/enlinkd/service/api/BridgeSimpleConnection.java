@@ -31,7 +31,6 @@ package org.opennms.netmgt.enlinkd.service.api;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import org.slf4j.Logger;
@@ -115,6 +114,93 @@ public class BridgeSimpleConnection implements Topology {
         return macsOnSegment;
     }
 
+    /**
+     * The macs learned on both bridges, found by merging the sorted learned
+     * mac arrays of the two tables, with the positions of each common mac
+     * in the two tables.
+     */
+    private static final class CommonLearnedMacs {
+
+        static CommonLearnedMacs of(BridgeForwardingTable xBridge, BridgeForwardingTable yBridge) {
+            final long[] xmacs = xBridge.getLearnedMacs();
+            final long[] ymacs = yBridge.getLearnedMacs();
+            final String[] xothers = xBridge.getOtherLearnedMacs();
+            final String[] yothers = yBridge.getOtherLearnedMacs();
+            final int capacity = Math.min(xmacs.length, ymacs.length) + Math.min(xothers.length, yothers.length);
+            final CommonLearnedMacs common = new CommonLearnedMacs(xBridge, yBridge, capacity);
+            int i = 0;
+            int j = 0;
+            while (i < xmacs.length && j < ymacs.length) {
+                if (xmacs[i] < ymacs[j]) {
+                    i++;
+                } else if (xmacs[i] > ymacs[j]) {
+                    j++;
+                } else {
+                    common.add(i++, j++);
+                }
+            }
+            i = 0;
+            j = 0;
+            while (i < xothers.length && j < yothers.length) {
+                final int cmp = xothers[i].compareTo(yothers[j]);
+                if (cmp < 0) {
+                    i++;
+                } else if (cmp > 0) {
+                    j++;
+                } else {
+                    common.add(xmacs.length + i++, ymacs.length + j++);
+                }
+            }
+            return common;
+        }
+
+        private final BridgeForwardingTable m_xBridge;
+        private final BridgeForwardingTable m_yBridge;
+        private final int[] m_xIndexes;
+        private final int[] m_yIndexes;
+        private int m_size;
+
+        private CommonLearnedMacs(BridgeForwardingTable xBridge, BridgeForwardingTable yBridge, int capacity) {
+            m_xBridge = xBridge;
+            m_yBridge = yBridge;
+            m_xIndexes = new int[capacity];
+            m_yIndexes = new int[capacity];
+        }
+
+        private void add(int x, int y) {
+            m_xIndexes[m_size] = x;
+            m_yIndexes[m_size] = y;
+            m_size++;
+        }
+
+        int size() {
+            return m_size;
+        }
+
+        String getMac(int i) {
+            return m_xBridge.getLearnedMac(m_xIndexes[i]);
+        }
+
+        BridgePort getPort(BridgeForwardingTable bridgeFt, int i) {
+            if (bridgeFt == m_xBridge) {
+                return m_xBridge.getLearnedPort(m_xIndexes[i]);
+            }
+            if (bridgeFt == m_yBridge) {
+                return m_yBridge.getLearnedPort(m_yIndexes[i]);
+            }
+            throw new IllegalArgumentException("bridge:[" + bridgeFt.getNodeId() + "] is not part of the connection");
+        }
+
+        @Override
+        public String toString() {
+            final List<String> macs = new ArrayList<String>(m_size);
+            for (int i = 0; i < m_size; i++) {
+                macs.add(getMac(i));
+            }
+            return macs.toString();
+        }
+    }
+
     static final Logger LOG = LoggerFactory.getLogger(BridgeSimpleConnection.class);
 
     private final BridgeForwardingTable m_xBridge;
@@ -196,8 +282,7 @@ public class BridgeSimpleConnection implements Topology {
         }
         
         
-        Set<String> commonlearnedmacs = new HashSet<String>(m_xBridge.getMactoport().keySet()); 
-        commonlearnedmacs.retainAll(new HashSet<String>(m_yBridge.getMactoport().keySet()));
+        CommonLearnedMacs commonlearnedmacs = CommonLearnedMacs.of(m_xBridge, m_yBridge);
         if (LOG.isDebugEnabled()) {
             LOG.debug("bridge: [{}] <-> [{}] common (learned mac): {}",
                   m_yBridge.getNodeId(),
@@ -244,7 +329,7 @@ public class BridgeSimpleConnection implements Topology {
         m_yxPort= ports.get(1);
     }
 
-    private static List<BridgePort> condition3(Set<String> commonlearnedmacs,
+    private static List<BridgePort> condition3(CommonLearnedMacs commonlearnedmacs,
                                                BridgeForwardingTable bridgexFt,
                                                BridgeForwardingTable bridgeyFt
                                                ) throws BridgeTopologyException {
@@ -260,9 +345,6 @@ public class BridgeSimpleConnection implements Topology {
     //                                                  m_3 belongs to FDB(xy,X) FDB(p3,Y)
     //
 
-        Map<String,BridgePort> xbft = bridgexFt.getMactoport();
-        Map<String,BridgePort> ybft = bridgeyFt.getMactoport();
-
         if (LOG.isDebugEnabled()) {
             LOG.debug("condition3: common (learned mac): -> {}",
                   commonlearnedmacs);
@@ -274,11 +356,13 @@ public class BridgeSimpleConnection implements Topology {
         BridgePort xp1=null;
         BridgePort xp2=null;
         List<BridgePort> bbports = new ArrayList<BridgePort>(2);
-        for (String mac: commonlearnedmacs) {
+        for (int i = 0; i < commonlearnedmacs.size(); i++) {
+            BridgePort yp = commonlearnedmacs.getPort(bridgeyFt, i);
+            BridgePort xp = commonlearnedmacs.getPort(bridgexFt, i);
             if (mac1 == null) {
-                mac1=mac;
-                yp1=ybft.get(mac);
-                xp1=xbft.get(mac);
+                mac1=commonlearnedmacs.getMac(i);
+                yp1=yp;
+                xp1=xp;
                 if (LOG.isDebugEnabled()) {
                     LOG.debug("condition3: mac:[{}] {} - {} ", mac1,
                               xp1.printTopology(),
@@ -286,14 +370,14 @@ public class BridgeSimpleConnection implements Topology {
                 }
                 continue;
             }
-            if (ybft.get(mac).getBridgePort() == yp1.getBridgePort()
-                    && xbft.get(mac).getBridgePort() == xp1.getBridgePort()) {
+            if (yp.getBridgePort() == yp1.getBridgePort()
+                    && xp.getBridgePort() == xp1.getBridgePort()) {
                 continue;
             }
             if (mac2 == null) {
-                mac2=mac;
-                yp2=ybft.get(mac);
-                xp2=xbft.get(mac);
+                mac2=commonlearnedmacs.getMac(i);
+                yp2=yp;
+                xp2=xp;
                 if (LOG.isDebugEnabled()) {
                     LOG.debug("condition3: mac:[{}], {} - {} ", mac2,
                           xp2.printTopology(),
@@ -301,14 +385,14 @@ public class BridgeSimpleConnection implements Topology {
                 }
                 continue;
             }
-            if (ybft.get(mac).getBridgePort() == yp2.getBridgePort() 
-                    && xbft.get(mac).getBridgePort() == xp2.getBridgePort()) {
+            if (yp.getBridgePort() == yp2.getBridgePort() 
+                    && xp.getBridgePort() == xp2.getBridgePort()) {
                 continue;
             }
-            BridgePort yp3 = ybft.get(mac);
-            BridgePort xp3 = xbft.get(mac);
+            BridgePort yp3 = yp;
+            BridgePort xp3 = xp;
             if (LOG.isDebugEnabled()) {
-                LOG.debug("condition3: mac:[{}], {} - {} ", mac,
+                LOG.debug("condition3: mac:[{}], {} - {} ", commonlearnedmacs.getMac(i),
                           xp3.printTopology(),
                           yp3.printTopology());
             }
@@ -400,13 +484,13 @@ public class BridgeSimpleConnection implements Topology {
     // condition 2 yx found                         m_x belongs to FDB(yx,Y)
     // if exists m_1 and m_2, p1 and p2 on Y :      m_1 belongs to FDB(p1,Y) FDB(xy,X)
     //                                              m_2 belongs to FDB(p2,Y) FDB(xy,X)
-    private static BridgePort condition2(Set<String> commonlearnedmacs, BridgePort bridge1port, 
+    private static BridgePort condition2(CommonLearnedMacs commonlearnedmacs, BridgePort bridge1port, 
             BridgeForwardingTable bridge1Ft, 
             BridgeForwardingTable bridge2Ft) throws BridgeTopologyException {
         
-        for (String mac: commonlearnedmacs) {
-            BridgePort bridge1port1 = bridge1Ft.getMactoport().get(mac);
-            BridgePort bridge2port1 = bridge2Ft.getMactoport().get(mac);
+        for (int i = 0; i < commonlearnedmacs.size(); i++) {
+            BridgePort bridge1port1 = commonlearnedmacs.getPort(bridge1Ft, i);
+            BridgePort bridge2port1 = commonlearnedmacs.getPort(bridge2Ft, i);
             if (bridge1port.getBridgePort().intValue() != bridge1port1.getBridgePort().intValue()) {
                 LOG.debug("condition2: bridge:[{}] <- {}", 
                           bridge1Ft.getNodeId(),
@@ -444,7 +528,7 @@ public class BridgeSimpleConnection implements Topology {
     
     // This is a particolar condition 
     // in which I get the port without intersection only if I have two forwarding port
-    public static BridgePort conditionB(Set<String> commonlearnedmacs, 
+    private static BridgePort conditionB(CommonLearnedMacs commonlearnedmacs, 
             BridgeForwardingTable bridge2Ft) throws BridgeTopologyException {
                 
         if (bridge2Ft.getPorttomac().size() != 2) {
@@ -452,8 +536,8 @@ public class BridgeSimpleConnection implements Topology {
         }
 
         Set<BridgePort> ports =  new HashSet<BridgePort>();
-        for (String mac: commonlearnedmacs) {
-            ports.add(bridge2Ft.getMactoport().get(mac));
+        for (int i = 0; i < commonlearnedmacs.size(); i++) {
+            ports.add(commonlearnedmacs.getPort(bridge2Ft, i));
         }
         
         if (ports.size() != 1) {
@@ -72,8 +72,8 @@ public interface BridgeTopologyService {
     
     BroadcastDomain getBroadcastDomain(int nodeId);
     
-    Map<Integer, Set<BridgeForwardingTableEntry>> getUpdateBftMap();
+    Map<Integer, CompactBridgeForwardingTable> getUpdateBftMap();
     
-    Set<BridgeForwardingTableEntry> useBridgeTopologyUpdateBFT(int nodeid);
+    CompactBridgeForwardingTable useBridgeTopologyUpdateBFT(int nodeid);
     
 }
@@ -42,7 +42,7 @@ public class BroadcastDomain implements Topology {
     public static final float DOMAIN_MATCH_MIN_RATIO = 0.5f;
         
     public static void addforwarders(BroadcastDomain domain, BridgeForwardingTable bridgeFT) {
-        Set<String> macs = new HashSet<String>(domain.getMacsOnSegments());
+        Set<String> macs = domain.getMacsOnSegments();
         domain.cleanForwarders(bridgeFT.getNodeId());
         for (String forward:  bridgeFT.getMactoport().keySet()) {
             if (macs.contains(forward)) {
@@ -53,12 +53,26 @@ public class BroadcastDomain implements Topology {
     }
 
     public static boolean checkMacSets(Set<String> setA, Set<String> setB) {
-        Set<String>retainedSet = new HashSet<String>(setB);
-        retainedSet.retainAll(setA);
+        Set<String> smaller = setA.size() <= setB.size() ? setA : setB;
+        Set<String> larger = smaller == setA ? setB : setA;
+        int retained = 0;
+        for (String mac: smaller) {
+            if (larger.contains(mac)) {
+                retained++;
+            }
+        }
+        return checkMacSets(retained, setA.size(), setB.size());
+    }
+
+    public static boolean checkMacSets(MacAddressSet setA, MacAddressSet setB) {
+        return checkMacSets(setA.intersectionSize(setB), setA.size(), setB.size());
+    }
+
+    private static boolean checkMacSets(int retained, int sizeA, int sizeB) {
         // should contain at list 20 or 50% of the all size
-        if (retainedSet.size() > DOMAIN_MATCH_MIN_SIZE
-            || retainedSet.size() > setA.size() * DOMAIN_MATCH_MIN_RATIO
-            || retainedSet.size() > setB.size() * DOMAIN_MATCH_MIN_RATIO
+        if (retained > DOMAIN_MATCH_MIN_SIZE
+            || retained > sizeA * DOMAIN_MATCH_MIN_RATIO
+            || retained > sizeB * DOMAIN_MATCH_MIN_RATIO
                 ) {
             return true;
         }
@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.enlinkd.service.api;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.opennms.netmgt.enlinkd.service.api.BridgeForwardingTableEntry.BridgeDot1qTpFdbStatus;
+
+/**
+ * The forwarding table of a bridge, packed into primitive arrays.
+ *
+ * Collected forwarding tables are held until the next broadcast domain
+ * calculation, for switches with tens of thousands of entries a set of
+ * {@link BridgeForwardingTableEntry} objects costs more than ten times
+ * the memory of this representation.
+ */
+public final class CompactBridgeForwardingTable {
+
+    private static final int NULL = Integer.MIN_VALUE;
+
+    public static CompactBridgeForwardingTable create(int nodeId, Collection<BridgeForwardingTableEntry> entries) {
+        final int size = entries.size();
+        final CompactBridgeForwardingTable bft = new CompactBridgeForwardingTable(nodeId, size);
+        final List<String> others = new ArrayList<>();
+        int i = 0;
+        for (BridgeForwardingTableEntry entry : entries) {
+            long mac = MacAddressSet.encode(entry.getMacAddress());
+            if (mac < 0) {
+                others.add(entry.getMacAddress());
+                mac = -others.size();
+            }
+            bft.m_macs[i] = mac;
+            bft.m_bridgePorts[i] = pack(entry.getBridgePort());
+            bft.m_ifIndexes[i] = pack(entry.getBridgePortIfIndex());
+            bft.m_vlans[i] = pack(entry.getVlan());
+            bft.m_status[i] = entry.getBridgeDot1qTpFdbStatus() == null ? 0 : entry.getBridgeDot1qTpFdbStatus().getValue().byteValue();
+            i++;
+        }
+        bft.m_others = others.toArray(new String[others.size()]);
+        return bft;
+    }
+
+    private static int pack(Integer value) {
+        return value == null ? NULL : value.intValue();
+    }
+
+    private static Integer unpack(int value) {
+        return value == NULL ? null : Integer.valueOf(value);
+    }
+
+    private final int m_nodeId;
+    private final long[] m_macs;
+    private final int[] m_bridgePorts;
+    private final int[] m_ifIndexes;
+    private final int[] m_vlans;
+    private final byte[] m_status;
+    private String[] m_others;
+
+    private CompactBridgeForwardingTable(int nodeId, int size) {
+        m_nodeId = nodeId;
+        m_macs = new long[size];
+        m_bridgePorts = new int[size];
+        m_ifIndexes = new int[size];
+        m_vlans = new int[size];
+        m_status = new byte[size];
+    }
+
+    public int getNodeId() {
+        return m_nodeId;
+    }
+
+    public int size() {
+        return m_macs.length;
+    }
+
+    String getMacAddress(int i) {
+        final long mac = m_macs[i];
+        return mac >= 0 ? MacAddressSet.decode(mac) : m_others[(int) -mac - 1];
+    }
+
+    BridgeDot1qTpFdbStatus getStatus(int i) {
+        return m_status[i] == 0 ? null : BridgeDot1qTpFdbStatus.get((int) m_status[i]);
+    }
+
+    BridgePort getBridgePort(int i) {
+        final BridgePort bp = new BridgePort();
+        bp.setNodeId(m_nodeId);
+        bp.setBridgePort(unpack(m_bridgePorts[i]));
+        bp.setBridgePortIfIndex(unpack(m_ifIndexes[i]));
+        bp.setVlan(unpack(m_vlans[i]));
+        return bp;
+    }
+
+    /**
+     * Returns the distinct mac addresses found in the table.
+     */
+    public MacAddressSet getMacs() {
+        final long[] macs = new long[m_macs.length];
+        int size = 0;
+        for (long mac : m_macs) {
+            if (mac >= 0) {
+                macs[size++] = mac;
+            }
+        }
+        if (m_others.length == 0) {
+            return MacAddressSet.of(macs, size);
+        }
+        final Set<String> all = new HashSet<>();
+        for (int i = 0; i < m_macs.length; i++) {
+            all.add(getMacAddress(i));
+        }
+        return MacAddressSet.of(all);
+    }
+
+    public Set<BridgeForwardingTableEntry> getEntries() {
+        final Integer nodeId = m_nodeId;
+        final Set<BridgeForwardingTableEntry> entries = new HashSet<>(m_macs.length * 4 / 3 + 1);
+        for (int i = 0; i < m_macs.length; i++) {
+            final BridgeForwardingTableEntry entry = new BridgeForwardingTableEntry();
+            entry.setNodeId(nodeId);
+            entry.setBridgePort(unpack(m_bridgePorts[i]));
+            entry.setBridgePortIfIndex(unpack(m_ifIndexes[i]));
+            entry.setMacAddress(getMacAddress(i));
+            entry.setVlan(unpack(m_vlans[i]));
+            entry.setBridgeDot1qTpFdbStatus(getStatus(i));
+            entries.add(entry);
+        }
+        return entries;
+    }
+}
@@ -73,6 +73,21 @@ public class DiscoveryBridgeTopology {
         }
     }
 
+    public void addUpdatedBFT(Integer bridgeid, CompactBridgeForwardingTable notYetParsedBFT) {
+        if (m_domain.getBridge(bridgeid) == null) {
+            Bridge.create(m_domain, bridgeid);
+        }
+        try {
+            m_bridgeFtMapUpdate.put(bridgeid, BridgeForwardingTable.create(m_domain.getBridge(bridgeid), notYetParsedBFT));
+        } catch (BridgeTopologyException e) {
+            LOG.warn("calculate:  node[{}], {}, topology:\n{}", 
+                      bridgeid,
+                      e.getMessage(),
+                      e.printTopology(),
+                      e);
+        }
+    }
+
     public DiscoveryBridgeTopology(BroadcastDomain domain) {
         Assert.notNull(domain);
         m_domain=domain;
@@ -0,0 +1,213 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.enlinkd.service.api;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * An immutable set of mac addresses, stored as a sorted array of longs.
+ *
+ * Mac addresses as collected from the forwarding tables are 12 lower case
+ * hex digits and are encoded into the lower 48 bits of a long, so that set
+ * operations are merges over primitive arrays instead of string hashing.
+ * Addresses in any other format are kept as sorted strings, so that
+ * {@link #toSet()} always returns the original addresses.
+ */
+public final class MacAddressSet {
+
+    public static final MacAddressSet EMPTY = new MacAddressSet(new long[0], new String[0]);
+
+    private static final int MAC_LENGTH = 12;
+
+    /**
+     * Encodes a mac address of 12 lower case hex digits.
+     *
+     * @return the encoded address, or -1 if the address has another format
+     */
+    public static long encode(String mac) {
+        if (mac == null || mac.length() != MAC_LENGTH) {
+            return -1L;
+        }
+        long encoded = 0L;
+        for (int i = 0; i < MAC_LENGTH; i++) {
+            final char c = mac.charAt(i);
+            final int digit;
+            if (c >= '0' && c <= '9') {
+                digit = c - '0';
+            } else if (c >= 'a' && c <= 'f') {
+                digit = c - 'a' + 10;
+            } else {
+                return -1L;
+            }
+            encoded = (encoded << 4) | digit;
+        }
+        return encoded;
+    }
+
+    public static String decode(long encoded) {
+        final char[] mac = new char[MAC_LENGTH];
+        for (int i = MAC_LENGTH - 1; i >= 0; i--) {
+            mac[i] = Character.forDigit((int) (encoded & 0xf), 16);
+            encoded >>>= 4;
+        }
+        return new String(mac);
+    }
+
+    public static MacAddressSet of(Collection<String> macs) {
+        if (macs.isEmpty()) {
+            return EMPTY;
+        }
+        final long[] encoded = new long[macs.size()];
+        int size = 0;
+        Set<String> others = null;
+        for (String mac : macs) {
+            final long value = encode(mac);
+            if (value >= 0) {
+                encoded[size++] = value;
+            } else if (mac != null) {
+                if (others == null) {
+                    others = new HashSet<>();
+                }
+                others.add(mac);
+            }
+        }
+        final String[] sortedOthers = others == null ? new String[0] : others.toArray(new String[others.size()]);
+        Arrays.sort(sortedOthers);
+        return new MacAddressSet(unique(encoded, size), sortedOthers);
+    }
+
+    /**
+     * Creates the set from the first size encoded addresses, the array is sorted in place.
+     */
+    static MacAddressSet of(long[] encoded, int size) {
+        if (size == 0) {
+            return EMPTY;
+        }
+        return new MacAddressSet(unique(encoded, size), new String[0]);
+    }
+
+    private static long[] unique(long[] values, int size) {
+        Arrays.sort(values, 0, size);
+        int unique = 0;
+        for (int i = 0; i < size; i++) {
+            if (unique == 0 || values[i] != values[unique - 1]) {
+                values[unique++] = values[i];
+            }
+        }
+        return unique == values.length ? values : Arrays.copyOf(values, unique);
+    }
+
+    private final long[] m_macs;
+    private final String[] m_others;
+
+    private MacAddressSet(long[] macs, String[] others) {
+        m_macs = macs;
+        m_others = others;
+    }
+
+    public int size() {
+        return m_macs.length + m_others.length;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public boolean contains(String mac) {
+        final long encoded = encode(mac);
+        if (encoded >= 0) {
+            return Arrays.binarySearch(m_macs, encoded) >= 0;
+        }
+        return mac != null && Arrays.binarySearch(m_others, mac) >= 0;
+    }
+
+    public int intersectionSize(MacAddressSet other) {
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        final long[] a = m_macs;
+        final long[] b = other.m_macs;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                count++;
+                i++;
+                j++;
+            }
+        }
+        i = 0;
+        j = 0;
+        while (i < m_others.length && j < other.m_others.length) {
+            final int cmp = m_others[i].compareTo(other.m_others[j]);
+            if (cmp < 0) {
+                i++;
+            } else if (cmp > 0) {
+                j++;
+            } else {
+                count++;
+                i++;
+                j++;
+            }
+        }
+        return count;
+    }
+
+    public Set<String> toSet() {
+        final Set<String> macs = new HashSet<>(size() * 4 / 3 + 1);
+        for (long mac : m_macs) {
+            macs.add(decode(mac));
+        }
+        macs.addAll(Arrays.asList(m_others));
+        return macs;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        MacAddressSet that = (MacAddressSet) o;
+        return Arrays.equals(m_macs, that.m_macs) && Arrays.equals(m_others, that.m_others);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(m_macs) + Arrays.hashCode(m_others);
+    }
+
+    @Override
+    public String toString() {
+        return toSet().toString();
+    }
+}
@@ -54,6 +54,7 @@ import org.opennms.netmgt.enlinkd.service.api.BridgePort;
 import org.opennms.netmgt.enlinkd.service.api.BridgeTopologyException;
 import org.opennms.netmgt.enlinkd.service.api.BridgeTopologyService;
 import org.opennms.netmgt.enlinkd.service.api.BroadcastDomain;
+import org.opennms.netmgt.enlinkd.service.api.CompactBridgeForwardingTable;
 import org.opennms.netmgt.enlinkd.service.api.SharedSegment;
 import org.opennms.netmgt.model.OnmsNode;
 import org.slf4j.Logger;
@@ -73,7 +74,7 @@ public class BridgeTopologyServiceImpl implements BridgeTopologyService {
     private BridgeMacLinkDao m_bridgeMacLinkDao;
     private BridgeStpLinkDao m_bridgeStpLinkDao;
 
-    volatile Map<Integer, Set<BridgeForwardingTableEntry>> m_nodetoBroadcastDomainMap= new HashMap<Integer, Set<BridgeForwardingTableEntry>>();
+    volatile Map<Integer, CompactBridgeForwardingTable> m_nodetoBroadcastDomainMap= new HashMap<Integer, CompactBridgeForwardingTable>();
     volatile Set<BroadcastDomain> m_domains;
     private volatile Set<Integer> m_bridgecollectionsscheduled = new HashSet<>();
 
@@ -416,12 +417,13 @@ public class BridgeTopologyServiceImpl implements BridgeTopologyService {
             link.setNodeId(nodeId);
             effectiveBFT.add(link);
         }
+        CompactBridgeForwardingTable compactBFT = CompactBridgeForwardingTable.create(nodeId, effectiveBFT);
         synchronized (m_nodetoBroadcastDomainMap) {
-            m_nodetoBroadcastDomainMap.put(nodeId, effectiveBFT);
+            m_nodetoBroadcastDomainMap.put(nodeId, compactBFT);
         }
     }
 
-    public synchronized Map<Integer,Set<BridgeForwardingTableEntry>> getUpdateBftMap() {
+    public synchronized Map<Integer,CompactBridgeForwardingTable> getUpdateBftMap() {
         return m_nodetoBroadcastDomainMap;
     }
 
@@ -447,7 +449,7 @@ public class BridgeTopologyServiceImpl implements BridgeTopologyService {
     }
     
     @Override
-    public Set<BridgeForwardingTableEntry> useBridgeTopologyUpdateBFT(int nodeid) {
+    public CompactBridgeForwardingTable useBridgeTopologyUpdateBFT(int nodeid) {
         synchronized (m_nodetoBroadcastDomainMap) {
             return m_nodetoBroadcastDomainMap.remove(nodeid);
         }
@@ -0,0 +1,378 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.enlinkd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.opennms.netmgt.enlinkd.service.api.Bridge;
+import org.opennms.netmgt.enlinkd.service.api.BridgeForwardingTable;
+import org.opennms.netmgt.enlinkd.service.api.BridgeForwardingTableEntry;
+import org.opennms.netmgt.enlinkd.service.api.BridgeForwardingTableEntry.BridgeDot1qTpFdbStatus;
+import org.opennms.netmgt.enlinkd.service.api.BridgeTopologyException;
+import org.opennms.netmgt.enlinkd.service.api.BroadcastDomain;
+import org.opennms.netmgt.enlinkd.service.api.CompactBridgeForwardingTable;
+import org.opennms.netmgt.enlinkd.service.api.DiscoveryBridgeTopology;
+import org.opennms.netmgt.enlinkd.service.api.MacAddressSet;
+import org.opennms.netmgt.model.OnmsNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class CompactBridgeForwardingTableTest extends EnLinkdTestHelper {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CompactBridgeForwardingTableTest.class);
+
+    @Test
+    public void testEncodeMacAddress() {
+        assertEquals(0L, MacAddressSet.encode("000000000000"));
+        assertEquals(0xffffffffffffL, MacAddressSet.encode("ffffffffffff"));
+        assertEquals(0x000daaaa0001L, MacAddressSet.encode("000daaaa0001"));
+        assertEquals("000daaaa0001", MacAddressSet.decode(MacAddressSet.encode("000daaaa0001")));
+
+        // only the format found in the forwarding tables is encoded
+        assertEquals(-1L, MacAddressSet.encode("000DAAAA0001"));
+        assertEquals(-1L, MacAddressSet.encode("00:0d:aa:aa:00:01"));
+        assertEquals(-1L, MacAddressSet.encode("000daaaa000"));
+        assertEquals(-1L, MacAddressSet.encode(null));
+    }
+
+    @Test
+    public void testMacAddressSet() {
+        MacAddressSet setA = MacAddressSet.of(Arrays.asList("000daaaa0003", "000daaaa0001", "000daaaa0002", "000daaaa0001", "NOT-A-MAC"));
+        MacAddressSet setB = MacAddressSet.of(Arrays.asList("000daaaa0002", "000daaaa0004", "NOT-A-MAC"));
+
+        assertEquals(4, setA.size());
+        assertTrue(setA.contains("000daaaa0001"));
+        assertTrue(setA.contains("NOT-A-MAC"));
+        assertFalse(setA.contains("000daaaa0004"));
+        assertEquals(new HashSet<>(Arrays.asList("000daaaa0001", "000daaaa0002", "000daaaa0003", "NOT-A-MAC")), setA.toSet());
+        assertEquals(2, setA.intersectionSize(setB));
+        assertEquals(0, setA.intersectionSize(MacAddressSet.EMPTY));
+    }
+
+    @Test
+    public void testCheckMacSets() {
+        for (int common : new int[] { 0, 5, 15, 21, 30 }) {
+            Set<String> setA = new HashSet<>();
+            Set<String> setB = new HashSet<>();
+            for (int i = 0; i < 40; i++) {
+                setA.add(mac(1, 0, i));
+                setB.add(i < common ? mac(1, 0, i) : mac(2, 0, i));
+            }
+            assertEquals(BroadcastDomain.checkMacSets(setA, setB),
+                         BroadcastDomain.checkMacSets(MacAddressSet.of(setA), MacAddressSet.of(setB)));
+        }
+    }
+
+    @Test
+    public void testCompactBridgeForwardingTable() {
+        OnmsNode node = new OnmsNode();
+        node.setId(10);
+        Set<BridgeForwardingTableEntry> bft = new HashSet<>();
+        bft.add(addBridgeForwardingTableEntry(node, 1, "000daaaa0001"));
+        bft.add(addBridgeForwardingTableEntry(node, 2, 102, "000daaaa0002", 1));
+        bft.add(addBridgeForwardingTableEntry(node, 2, 102, "000daaaa0003", 1));
+        bft.add(addBridgeForwardingTableEntry(node, 3, "00:0d:aa:aa:00:04"));
+        BridgeForwardingTableEntry self = addBridgeForwardingTableEntry(node, 4, "000daaaa0005");
+        self.setBridgeDot1qTpFdbStatus(BridgeDot1qTpFdbStatus.DOT1D_TP_FDB_STATUS_SELF);
+        bft.add(self);
+        BridgeForwardingTableEntry nostatus = addBridgeForwardingTableEntry(node, 4, "000daaaa0006");
+        nostatus.setBridgeDot1qTpFdbStatus(null);
+        bft.add(nostatus);
+
+        CompactBridgeForwardingTable compact = CompactBridgeForwardingTable.create(node.getId(), bft);
+        assertEquals(10, compact.getNodeId());
+        assertEquals(6, compact.size());
+        assertEquals(6, compact.getMacs().size());
+        assertTrue(compact.getMacs().contains("00:0d:aa:aa:00:04"));
+
+        Set<BridgeForwardingTableEntry> entries = compact.getEntries();
+        assertEquals(bft, entries);
+        Map<String, BridgeForwardingTableEntry> bymac = new HashMap<>();
+        entries.forEach(entry -> bymac.put(entry.getMacAddress(), entry));
+        for (BridgeForwardingTableEntry expected : bft) {
+            BridgeForwardingTableEntry actual = bymac.get(expected.getMacAddress());
+            assertEquals(expected.getBridgePortIfIndex(), actual.getBridgePortIfIndex());
+            assertEquals(expected.getVlan(), actual.getVlan());
+            assertEquals(expected.getBridgeDot1qTpFdbStatus(), actual.getBridgeDot1qTpFdbStatus());
+        }
+    }
+
+    @Test
+    public void testBridgeForwardingTableFromCompactTable() throws BridgeTopologyException {
+        TwentyNodeTopology topology = new TwentyNodeTopology();
+        BridgeForwardingTable fromEntries = BridgeForwardingTable.create(Bridge.create(new BroadcastDomain(), topology.spiazzomepe01Id),
+                                                                         topology.bftspiazzomepe01);
+        BridgeForwardingTable fromCompact = BridgeForwardingTable.create(Bridge.create(new BroadcastDomain(), topology.spiazzomepe01Id),
+                                                                         CompactBridgeForwardingTable.create(topology.spiazzomepe01Id, topology.bftspiazzomepe01));
+
+        assertEquals(5, fromCompact.getDuplicated().size());
+        assertEquals(fromEntries.getDuplicated(), fromCompact.getDuplicated());
+        assertEquals(fromEntries.getMactoport(), fromCompact.getMactoport());
+        assertEquals(fromEntries.getPorttomac(), fromCompact.getPorttomac());
+        assertEquals(fromEntries.getIdentifiers(), fromCompact.getIdentifiers());
+        assertEquals(fromEntries.getBftSize(), fromCompact.getBftSize());
+        assertEquals(fromEntries.getEntries(), fromCompact.getEntries());
+    }
+
+    @Test
+    public void testFiveSwitchTopologyFromCompactTables() throws BridgeTopologyException {
+        FiveSwitchTopology topology = new FiveSwitchTopology();
+
+        BroadcastDomain domain = new BroadcastDomain();
+        Bridge.create(domain,topology.nodeAId);
+        Bridge.create(domain,topology.nodeBId);
+        Bridge.create(domain,topology.nodeCId);
+        Bridge.create(domain,topology.nodeDId);
+        Bridge.create(domain,topology.nodeEId);
+        setBridgeElements(domain,topology.elemlist);
+
+        // same order as BroadcastDomainTest.testFiveSwitchTopologyBCADE
+        Map<Integer, Set<BridgeForwardingTableEntry>> bfts = new LinkedHashMap<>();
+        bfts.put(topology.nodeBId, topology.bftB);
+        bfts.put(topology.nodeCId, topology.bftC);
+        bfts.put(topology.nodeAId, topology.bftA);
+        bfts.put(topology.nodeDId, topology.bftD);
+        bfts.put(topology.nodeEId, topology.bftE);
+        for (Map.Entry<Integer, Set<BridgeForwardingTableEntry>> bft : bfts.entrySet()) {
+            DiscoveryBridgeTopology ndbt= new DiscoveryBridgeTopology(domain);
+            ndbt.addUpdatedBFT(bft.getKey(), CompactBridgeForwardingTable.create(bft.getKey(), bft.getValue()));
+            ndbt.calculate();
+            assertEquals(0, ndbt.getFailed().size());
+        }
+        topology.check(domain);
+    }
+
+    /**
+     * Measures the memory used by the collected forwarding tables and the time to group
+     * them into broadcast domains and to calculate the domains, on a synthetic topology of
+     * 500 switches in 50 independent broadcast domains.
+     */
+    @Test
+    public void testFiveHundredSwitchTopology() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("runBenchmarkTests"));
+
+        final SyntheticTopology topology = new SyntheticTopology(50, 10, 100);
+
+        long start = System.currentTimeMillis();
+        final long baseline = usedMemory();
+        Map<Integer, Set<BridgeForwardingTableEntry>> entries = topology.createBft();
+        final long entriesMemory = usedMemory() - baseline;
+        printSpeed("create bft entries", start);
+
+        start = System.currentTimeMillis();
+        Map<Integer, CompactBridgeForwardingTable> compact = new HashMap<>();
+        entries.forEach((nodeid, bft) -> compact.put(nodeid, CompactBridgeForwardingTable.create(nodeid, bft)));
+        printSpeed("compact bft entries", start);
+        entries = null;
+        final long compactMemory = usedMemory() - baseline;
+        LOG.info("bft of {} switches: {} entries, {}kB as entries, {}kB compacted",
+                 compact.size(), topology.getBftSize(), entriesMemory / 1024, compactMemory / 1024);
+
+        // group the switches as DiscoveryBridgeDomains does
+        final Map<Integer, Set<String>> stringMacs = new HashMap<>();
+        final Map<Integer, MacAddressSet> compactMacs = new HashMap<>();
+        compact.forEach((nodeid, bft) -> {
+            compactMacs.put(nodeid, bft.getMacs());
+            stringMacs.put(nodeid, bft.getMacs().toSet());
+        });
+
+        start = System.currentTimeMillis();
+        final Map<Integer, Set<Integer>> stringDomains = group(stringMacs, BroadcastDomain::checkMacSets);
+        printSpeed("group " + stringDomains.size() + " domains with string sets", start);
+
+        start = System.currentTimeMillis();
+        final Map<Integer, Set<Integer>> compactDomains = group(compactMacs, BroadcastDomain::checkMacSets);
+        printSpeed("group " + compactDomains.size() + " domains with mac address sets", start);
+
+        assertEquals(stringDomains, compactDomains);
+        assertEquals(topology.domains, compactDomains.size());
+
+        start = System.currentTimeMillis();
+        final List<Integer> sequential = new ArrayList<>();
+        for (Callable<Integer> task : createTasks(topology, compactDomains, compact)) {
+            sequential.add(task.call());
+        }
+        printSpeed("calculate " + compactDomains.size() + " domains sequentially", start);
+
+        start = System.currentTimeMillis();
+        final List<Integer> parallel = new ArrayList<>();
+        final ExecutorService executorService = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            for (Future<Integer> future : executorService.invokeAll(createTasks(topology, compactDomains, compact))) {
+                parallel.add(future.get());
+            }
+        } finally {
+            executorService.shutdown();
+        }
+        printSpeed("calculate " + compactDomains.size() + " domains in parallel", start);
+
+        assertEquals(sequential, parallel);
+        for (int segments : parallel) {
+            assertTrue(segments > topology.switches);
+        }
+    }
+
+    private interface MacSetCheck<T> {
+        boolean check(T setA, T setB);
+    }
+
+    private static <T> Map<Integer, Set<Integer>> group(Map<Integer, T> nodeMacs, MacSetCheck<T> check) {
+        final Map<Integer, Set<Integer>> domains = new HashMap<>();
+        final Set<Integer> parsed = new HashSet<>();
+        for (Integer nodeidA : nodeMacs.keySet()) {
+            if (!parsed.add(nodeidA)) {
+                continue;
+            }
+            domains.put(nodeidA, new HashSet<>());
+            domains.get(nodeidA).add(nodeidA);
+            for (Integer nodeidB : nodeMacs.keySet()) {
+                if (parsed.contains(nodeidB)) {
+                    continue;
+                }
+                if (check.check(nodeMacs.get(nodeidA), nodeMacs.get(nodeidB))) {
+                    domains.get(nodeidA).add(nodeidB);
+                    parsed.add(nodeidB);
+                }
+            }
+        }
+        return domains;
+    }
+
+    private static List<Callable<Integer>> createTasks(SyntheticTopology topology, Map<Integer, Set<Integer>> domains,
+            Map<Integer, CompactBridgeForwardingTable> bft) {
+        final List<Callable<Integer>> tasks = new ArrayList<>();
+        for (Set<Integer> nodeids : domains.values()) {
+            tasks.add(() -> {
+                final BroadcastDomain domain = new BroadcastDomain();
+                for (Integer nodeid : nodeids) {
+                    Bridge.create(domain, nodeid).getIdentifiers().add(topology.getBridgeAddress(nodeid));
+                }
+                final DiscoveryBridgeTopology ndbt = new DiscoveryBridgeTopology(domain);
+                for (Integer nodeid : nodeids) {
+                    ndbt.addUpdatedBFT(nodeid, bft.get(nodeid));
+                }
+                ndbt.calculate();
+                assertEquals(0, ndbt.getFailed().size());
+                return domain.getSharedSegments().size();
+            });
+        }
+        return tasks;
+    }
+
+    private static long usedMemory() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void printSpeed(String description, long start) {
+        LOG.info("{}: {}ms", description, System.currentTimeMillis() - start);
+    }
+
+    private static String mac(int domain, int bridge, int host) {
+        return String.format("%04x%04x%04x", domain, bridge, host);
+    }
+
+    /**
+     * Independent domains, each with a root switch whose ports 1..n connect to port 1 of
+     * the other switches of the domain. Every switch has its hosts on ports 100 to 109.
+     */
+    private class SyntheticTopology {
+        private final int domains;
+        private final int switches;
+        private final int hosts;
+
+        private SyntheticTopology(int domains, int switchesPerDomain, int hostsPerSwitch) {
+            this.domains = domains;
+            this.switches = switchesPerDomain;
+            this.hosts = hostsPerSwitch;
+        }
+
+        private int getNodeId(int domain, int bridge) {
+            return 1 + domain * switches + bridge;
+        }
+
+        private String getBridgeAddress(int nodeid) {
+            return String.format("fe%010x", nodeid);
+        }
+
+        private int getBftSize() {
+            return domains * switches * (switches * hosts + switches - 1);
+        }
+
+        private Map<Integer, Set<BridgeForwardingTableEntry>> createBft() {
+            final Map<Integer, Set<BridgeForwardingTableEntry>> bft = new HashMap<>();
+            for (int d = 0; d < domains; d++) {
+                for (int b = 0; b < switches; b++) {
+                    final OnmsNode node = new OnmsNode();
+                    node.setId(getNodeId(d, b));
+                    final Set<BridgeForwardingTableEntry> entries = new HashSet<>();
+                    for (int o = 0; o < switches; o++) {
+                        // the port on the way to the other switch
+                        final int port;
+                        if (o == b) {
+                            port = -1;
+                        } else if (b == 0) {
+                            port = o;
+                        } else {
+                            port = 1;
+                        }
+                        if (o != b) {
+                            entries.add(addBridgeForwardingTableEntry(node, port, getBridgeAddress(getNodeId(d, o))));
+                        }
+                        for (int h = 0; h < hosts; h++) {
+                            entries.add(addBridgeForwardingTableEntry(node, o == b ? 100 + h % 10 : port, mac(d, o, h)));
+                        }
+                    }
+                    bft.put(node.getId(), entries);
+                }
+            }
+            return bft;
+        }
+    }
+}
@@ -125,7 +125,7 @@ public class EnLinkdIT extends EnLinkdBuilderITCase {
         
         m_linkd.getBridgeTopologyService().store(topology.nodeAId, new ArrayList<BridgeForwardingTableEntry>(topology.bftA));
         
-        Set<BridgeForwardingTableEntry> links = m_linkd.getBridgeTopologyService().useBridgeTopologyUpdateBFT(topology.nodeAId);
+        Set<BridgeForwardingTableEntry> links = m_linkd.getBridgeTopologyService().useBridgeTopologyUpdateBFT(topology.nodeAId).getEntries();
         assertEquals(topology.bftA.size(), links.size());
         for (BridgeForwardingTableEntry link: links) {
             assertEquals(BridgeDot1qTpFdbStatus.DOT1D_TP_FDB_STATUS_LEARNED, link.getBridgeDot1qTpFdbStatus());
@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd.processor;
+
+import org.opennms.netmgt.config.api.EventdConfig;
+import org.springframework.beans.factory.FactoryBean;
+
+/**
+ * Selects the {@link EventWriter} implementation configured in
+ * eventd-configuration.xml.
+ */
+public class EventWriterFactoryBean implements FactoryBean<EventWriter> {
+
+    public static final String HIBERNATE = "hibernate";
+
+    public static final String JDBC = "jdbc";
+
+    private EventdConfig m_eventdConfig;
+
+    private EventWriter m_hibernateEventWriter;
+
+    private EventWriter m_jdbcEventWriter;
+
+    @Override
+    public EventWriter getObject() {
+        if (JDBC.equalsIgnoreCase(m_eventdConfig.getEventWriter())) {
+            return m_jdbcEventWriter;
+        }
+        return m_hibernateEventWriter;
+    }
+
+    @Override
+    public Class<?> getObjectType() {
+        return EventWriter.class;
+    }
+
+    @Override
+    public boolean isSingleton() {
+        return true;
+    }
+
+    public void setEventdConfig(EventdConfig eventdConfig) {
+        m_eventdConfig = eventdConfig;
+    }
+
+    public void setHibernateEventWriter(EventWriter hibernateEventWriter) {
+        m_hibernateEventWriter = hibernateEventWriter;
+    }
+
+    public void setJdbcEventWriter(EventWriter jdbcEventWriter) {
+        m_jdbcEventWriter = jdbcEventWriter;
+    }
+}
@@ -132,7 +132,7 @@ public class HibernateEventWriter implements EventWriter {
      * @param logPrefix a {@link java.lang.String} object.
      * @return a boolean.
      */
-    private static boolean checkEventSanityAndDoWeProcess(Event event, String logPrefix) {
+    static boolean checkEventSanityAndDoWeProcess(Event event, String logPrefix) {
         Assert.notNull(event, "event argument must not be null");
 
         /*
@@ -234,39 +234,17 @@ public class HibernateEventWriter implements EventWriter {
      */
     private OnmsEvent createOnmsEvent(final Header eventHeader, final Event event) {
 
-        OnmsEvent ovent = new OnmsEvent();
-
-        // eventID
-        //ovent.setId(event.getDbid());
-
-        // eventUEI
-        ovent.setEventUei(EventDatabaseConstants.format(event.getUei(), EVENT_UEI_FIELD_SIZE));
+        final OnmsEvent ovent = createOnmsEvent(event);
 
         // nodeID
         if (event.hasNodeid()) {
             ovent.setNode(nodeDao.get(event.getNodeid().intValue()));
         }
 
-        // eventTime
-        ovent.setEventTime(event.getTime());
-
         // eventHost
         // Resolve the event host to a hostname using the ipInterface table
         ovent.setEventHost(EventDatabaseConstants.format(eventUtil.getEventHost(event), EVENT_HOST_FIELD_SIZE));
 
-        // eventSource
-        ovent.setEventSource(EventDatabaseConstants.format(event.getSource(), EVENT_SOURCE_FIELD_SIZE));
-
-        // ipAddr
-        ovent.setIpAddr(event.getInterfaceAddress());
-
-        // ifindex
-        if (event.hasIfIndex()) {
-            ovent.setIfIndex(event.getIfIndex());
-        } else {
-            ovent.setIfIndex(null);
-        }
-
         // systemId
 
         // If available, use the header's distPoller
@@ -283,12 +261,46 @@ public class HibernateEventWriter implements EventWriter {
             ovent.setDistPoller(distPollerDao.whoami());
         }
 
-        // eventSnmpHost
-        ovent.setEventSnmpHost(EventDatabaseConstants.format(event.getSnmphost(), EVENT_SNMPHOST_FIELD_SIZE));
-
         // service
         ovent.setServiceType(serviceTypeDao.findByName(event.getService()));
 
+        return ovent;
+    }
+
+    /**
+     * Creates an OnmsEvent with all of the fields which can be derived from the
+     * event alone, that is without the fields which reference other entities
+     * or require lookups in the database.
+     */
+    static OnmsEvent createOnmsEvent(final Event event) {
+
+        OnmsEvent ovent = new OnmsEvent();
+
+        // eventID
+        //ovent.setId(event.getDbid());
+
+        // eventUEI
+        ovent.setEventUei(EventDatabaseConstants.format(event.getUei(), EVENT_UEI_FIELD_SIZE));
+
+        // eventTime
+        ovent.setEventTime(event.getTime());
+
+        // eventSource
+        ovent.setEventSource(EventDatabaseConstants.format(event.getSource(), EVENT_SOURCE_FIELD_SIZE));
+
+        // ipAddr
+        ovent.setIpAddr(event.getInterfaceAddress());
+
+        // ifindex
+        if (event.hasIfIndex()) {
+            ovent.setIfIndex(event.getIfIndex());
+        } else {
+            ovent.setIfIndex(null);
+        }
+
+        // eventSnmpHost
+        ovent.setEventSnmpHost(EventDatabaseConstants.format(event.getSnmphost(), EVENT_SNMPHOST_FIELD_SIZE));
+
         // eventSnmp
         ovent.setEventSnmp(event.getSnmp() == null ? null : SnmpInfo.format(event.getSnmp(), EVENT_SNMP_FIELD_SIZE));
 
@@ -0,0 +1,426 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd.processor;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.SessionFactoryImplementor;
+import org.hibernate.engine.SessionImplementor;
+import org.hibernate.id.IdentifierGenerator;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.dao.api.DistPollerDao;
+import org.opennms.netmgt.events.api.EventDatabaseConstants;
+import org.opennms.netmgt.events.api.EventProcessorException;
+import org.opennms.netmgt.model.OnmsEvent;
+import org.opennms.netmgt.model.OnmsEventParameter;
+import org.opennms.netmgt.model.OnmsMonitoringSystem;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Header;
+import org.opennms.netmgt.xml.event.Log;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionOperations;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.Timer.Context;
+
+/**
+ * An {@link EventWriter} which stores all of the events of a log, along with their
+ * parameters, using batched JDBC inserts in a single transaction.
+ *
+ * Unlike the {@link HibernateEventWriter}, the node, monitoring system, service and
+ * event host references are resolved with a handful of queries for the whole log
+ * instead of loading the entities for every single event, and none of the events
+ * end up in the Hibernate session.
+ *
+ * The event IDs are allocated by the same identifier generator Hibernate uses for
+ * {@link OnmsEvent}, which reserves them from the eventsNxtId sequence in blocks.
+ * This keeps the IDs unique while other components store events through Hibernate.
+ *
+ * The columns are populated exactly like the {@link HibernateEventWriter} does it.
+ */
+public class JdbcEventWriter implements EventWriter {
+    private static final Logger LOG = LoggerFactory.getLogger(JdbcEventWriter.class);
+
+    private static final String INSERT_EVENT = "INSERT INTO events (" +
+            "eventID, eventUei, nodeID, eventTime, eventHost, eventSource, ipAddr, systemId, eventSnmpHost, serviceID, " +
+            "eventSnmp, eventCreateTime, eventDescr, eventLogGroup, eventLogMsg, eventSeverity, eventPathOutage, " +
+            "eventCorrelation, eventSuppressedCount, eventOperInstruct, eventAutoAction, eventOperAction, " +
+            "eventOperActionMenuText, eventNotification, eventTTicket, eventTTicketState, eventForward, " +
+            "eventMouseOverText, eventLog, eventDisplay, ifIndex, eventAckUser, eventAckTime" +
+            ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String INSERT_EVENT_PARAMETER = "INSERT INTO event_parameters (eventID, name, value, type) VALUES (?, ?, ?, ?)";
+
+    @Autowired
+    private TransactionOperations m_transactionManager;
+
+    @Autowired
+    private JdbcTemplate m_jdbcTemplate;
+
+    @Autowired
+    private SessionFactory m_sessionFactory;
+
+    /**
+     * Services are practically never removed, so we keep the IDs of the ones we've seen.
+     */
+    private final ConcurrentMap<String, Integer> m_serviceIds = new ConcurrentHashMap<>();
+
+    private final Timer writeTimer;
+
+    public JdbcEventWriter(MetricRegistry registry) {
+        writeTimer = Objects.requireNonNull(registry).timer("eventlogs.process.write");
+    }
+
+    /**
+     * Event writing is always synchronous so this method just
+     * delegates to {@link #process(Log)}.
+     */
+    @Override
+    public void process(Log eventLog, boolean synchronous) throws EventProcessorException {
+        process(eventLog);
+    }
+
+    @Override
+    public void process(Log eventLog) throws EventProcessorException {
+        if (eventLog == null || eventLog.getEvents() == null || eventLog.getEvents().getEventCollection() == null) {
+            return;
+        }
+
+        // Find the events in the log that need to be persisted
+        final List<Event> eventsToPersist = eventLog.getEvents().getEventCollection().stream()
+                .filter(e -> HibernateEventWriter.checkEventSanityAndDoWeProcess(e, "JdbcEventWriter"))
+                .collect(Collectors.toList());
+
+        // If there are no events to persist, avoid creating a database transaction
+        if (eventsToPersist.isEmpty()) {
+            return;
+        }
+
+        try (Context context = writeTimer.time()) {
+            final List<Integer> eventIds = m_transactionManager.execute(status -> insert(eventLog.getHeader(), eventsToPersist));
+
+            // Update the events with the database IDs once they were committed
+            for (int i = 0; i < eventsToPersist.size(); i++) {
+                eventsToPersist.get(i).setDbid(eventIds.get(i));
+            }
+        } catch (DataAccessException e) {
+            throw new EventProcessorException("Encountered a database error when inserting " + eventsToPersist.size() + " events.", e);
+        } catch (Throwable e) {
+            throw new EventProcessorException("Unexpected exception while storing " + eventsToPersist.size() + " events.", e);
+        }
+    }
+
+    private List<Integer> insert(final Header eventHeader, final List<Event> events) {
+        final Set<Integer> nodeIds = findNodeIds(events);
+        final Map<String, String> systemTypes = findMonitoringSystemTypes(eventHeader, events);
+        final Map<String, String> hostNames = findHostNames(events);
+        final IdentifierGenerator idGenerator = getIdentifierGenerator();
+        final SessionImplementor session = (SessionImplementor) m_sessionFactory.getCurrentSession();
+
+        final List<Integer> eventIds = new ArrayList<>(events.size());
+        final List<Object[]> eventRows = new ArrayList<>(events.size());
+        final List<Object[]> parameterRows = new ArrayList<>();
+        for (final Event event : events) {
+            LOG.debug("JdbcEventWriter: processing {}, nodeid: {}, ipaddr: {}, serviceid: {}, time: {}", event.getUei(), event.getNodeid(), event.getInterface(), event.getService(), event.getTime());
+
+            final Integer eventId = ((Number) idGenerator.generate(session, null)).intValue();
+            eventIds.add(eventId);
+
+            final OnmsEvent ovent = HibernateEventWriter.createOnmsEvent(event);
+
+            // nodeID, which is left out if the node doesn't exist (anymore)
+            final Integer nodeId = event.hasNodeid() && nodeIds.contains(event.getNodeid().intValue()) ? event.getNodeid().intValue() : null;
+
+            // eventHost
+            final String eventHost = EventDatabaseConstants.format(getEventHost(event, hostNames), EVENT_HOST_FIELD_SIZE);
+
+            // systemId
+            final String systemId = getSystemId(eventHeader, event, systemTypes);
+
+            // service
+            final Integer serviceId = getServiceId(event.getService());
+
+            eventRows.add(new Object[] {
+                    eventId,
+                    ovent.getEventUei(),
+                    nodeId,
+                    ovent.getEventTime(),
+                    eventHost,
+                    ovent.getEventSource(),
+                    ovent.getIpAddr() != null ? InetAddressUtils.str(ovent.getIpAddr()) : null,
+                    systemId,
+                    ovent.getEventSnmpHost(),
+                    serviceId,
+                    ovent.getEventSnmp(),
+                    ovent.getEventCreateTime(),
+                    ovent.getEventDescr(),
+                    ovent.getEventLogGroup(),
+                    ovent.getEventLogMsg(),
+                    ovent.getEventSeverity(),
+                    ovent.getEventPathOutage(),
+                    ovent.getEventCorrelation(),
+                    ovent.getEventSuppressedCount(),
+                    ovent.getEventOperInstruct(),
+                    ovent.getEventAutoAction(),
+                    ovent.getEventOperAction(),
+                    ovent.getEventOperActionMenuText(),
+                    ovent.getEventNotification(),
+                    ovent.getEventTTicket(),
+                    ovent.getEventTTicketState(),
+                    ovent.getEventForward(),
+                    ovent.getEventMouseOverText(),
+                    ovent.getEventLog(),
+                    ovent.getEventDisplay(),
+                    ovent.getIfIndex(),
+                    ovent.getEventAckUser(),
+                    ovent.getEventAckTime()
+            });
+
+            for (final OnmsEventParameter parameter : ovent.getEventParameters()) {
+                parameterRows.add(new Object[] { eventId, parameter.getName(), parameter.getValue(), parameter.getType() });
+            }
+        }
+
+        batchUpdate(INSERT_EVENT, eventRows);
+        batchUpdate(INSERT_EVENT_PARAMETER, parameterRows);
+        return eventIds;
+    }
+
+    /**
+     * Uses the generator Hibernate uses for new {@link OnmsEvent}s, so that the IDs
+     * don't collide with the ones of the events stored through Hibernate.
+     */
+    private IdentifierGenerator getIdentifierGenerator() {
+        return ((SessionFactoryImplementor) m_sessionFactory).getIdentifierGenerator(OnmsEvent.class.getName());
+    }
+
+    /**
+     * Determines which of the nodes referenced by the events still exist.
+     */
+    private Set<Integer> findNodeIds(final List<Event> events) {
+        final Set<Integer> nodeIds = events.stream()
+                .filter(Event::hasNodeid)
+                .map(e -> e.getNodeid().intValue())
+                .collect(Collectors.toSet());
+        if (nodeIds.isEmpty()) {
+            return Collections.emptySet();
+        }
+        return new HashSet<>(m_jdbcTemplate.queryForList("SELECT nodeID FROM node WHERE nodeID IN (" + placeholders(nodeIds.size()) + ")",
+                nodeIds.toArray(), Integer.class));
+    }
+
+    /**
+     * Looks up the types of the monitoring systems referenced by the log and the events.
+     */
+    private Map<String, String> findMonitoringSystemTypes(final Header eventHeader, final List<Event> events) {
+        final Set<String> systemIds = new HashSet<>();
+        if (eventHeader != null && !isBlank(eventHeader.getDpName())) {
+            systemIds.add(eventHeader.getDpName());
+        }
+        for (final Event event : events) {
+            if (!isBlank(event.getDistPoller())) {
+                systemIds.add(event.getDistPoller());
+            }
+        }
+        if (systemIds.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        final Map<String, String> systemTypes = new HashMap<>();
+        m_jdbcTemplate.query("SELECT id, type FROM monitoringSystems WHERE id IN (" + placeholders(systemIds.size()) + ")",
+                systemIds.toArray(), rs -> {
+                    systemTypes.put(rs.getString("id"), rs.getString("type"));
+                });
+        return systemTypes;
+    }
+
+    /**
+     * Resolves the event hosts to host names using the ipInterface table.
+     *
+     * @return the host names keyed by node ID and IP address, see {@link #hostKey(int, String)}
+     */
+    private Map<String, String> findHostNames(final List<Event> events) {
+        final Set<String> keys = new HashSet<>();
+        final List<Object> args = new ArrayList<>();
+        for (final Event event : events) {
+            if (event.getHost() != null && event.hasNodeid()) {
+                final int nodeId = event.getNodeid().intValue();
+                final String ipAddr = normalize(event.getHost());
+                if (keys.add(hostKey(nodeId, ipAddr))) {
+                    args.add(nodeId);
+                    args.add(ipAddr);
+                }
+            }
+        }
+        if (keys.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        final Map<String, String> hostNames = new HashMap<>();
+        final Set<String> ambiguous = new HashSet<>();
+        m_jdbcTemplate.query("SELECT nodeID, ipAddr, ipHostname FROM ipInterface WHERE (nodeID, ipAddr) IN (" +
+                String.join(", ", Collections.nCopies(keys.size(), "(?, ?)")) + ")", args.toArray(), rs -> {
+                    final String key = hostKey(rs.getInt("nodeID"), rs.getString("ipAddr"));
+                    if (hostNames.containsKey(key)) {
+                        ambiguous.add(key);
+                    }
+                    hostNames.put(key, rs.getString("ipHostname"));
+                });
+        // Like the EventUtil, fall back to the address if the interface isn't unique
+        hostNames.keySet().removeAll(ambiguous);
+        return hostNames;
+    }
+
+    private static String getEventHost(final Event event, final Map<String, String> hostNames) {
+        // If the event doesn't have a node ID, we can't lookup the IP address and be sure we have the right one since we don't know what node it is on
+        if (event.getHost() == null || !event.hasNodeid()) {
+            return event.getHost();
+        }
+        final String hostName = hostNames.get(hostKey(event.getNodeid().intValue(), normalize(event.getHost())));
+        return hostName != null ? hostName : event.getHost();
+    }
+
+    private static String getSystemId(final Header eventHeader, final Event event, final Map<String, String> systemTypes) {
+        // If available, use the header's distPoller
+        if (eventHeader != null && !isBlank(eventHeader.getDpName())
+                && OnmsMonitoringSystem.TYPE_OPENNMS.equals(systemTypes.get(eventHeader.getDpName()))) {
+            return eventHeader.getDpName();
+        }
+        // Otherwise, use the event's distPoller
+        if (!isBlank(event.getDistPoller()) && systemTypes.containsKey(event.getDistPoller())) {
+            return event.getDistPoller();
+        }
+        // And if both are unavailable, use the local system as the event's source system
+        return DistPollerDao.DEFAULT_DIST_POLLER_ID;
+    }
+
+    private Integer getServiceId(final String serviceName) {
+        if (serviceName == null) {
+            return null;
+        }
+        final Integer serviceId = m_serviceIds.get(serviceName);
+        if (serviceId != null) {
+            return serviceId;
+        }
+        final List<Integer> serviceIds = m_jdbcTemplate.queryForList("SELECT serviceID FROM service WHERE serviceName = ?", Integer.class, serviceName);
+        if (serviceIds.isEmpty()) {
+            return null;
+        }
+        m_serviceIds.put(serviceName, serviceIds.get(0));
+        return serviceIds.get(0);
+    }
+
+    private void batchUpdate(final String sql, final List<Object[]> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        m_jdbcTemplate.batchUpdate(sql, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                final Object[] row = rows.get(i);
+                for (int j = 0; j < row.length; j++) {
+                    setValue(ps, j + 1, row[j]);
+                }
+            }
+
+            @Override
+            public int getBatchSize() {
+                return rows.size();
+            }
+        });
+    }
+
+    private static void setValue(final PreparedStatement ps, final int index, final Object value) throws SQLException {
+        if (value instanceof Date) {
+            ps.setTimestamp(index, new Timestamp(((Date) value).getTime()));
+        } else if (value instanceof Integer) {
+            ps.setInt(index, (Integer) value);
+        } else if (value != null) {
+            ps.setString(index, value.toString());
+        } else {
+            // Let the driver infer the type of the column
+            ps.setNull(index, Types.NULL);
+        }
+    }
+
+    private static String placeholders(final int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+
+    private static String hostKey(final int nodeId, final String ipAddr) {
+        return nodeId + ":" + ipAddr;
+    }
+
+    /**
+     * Formats the address like the ipInterface table does, if it is one.
+     */
+    private static String normalize(final String host) {
+        try {
+            return InetAddressUtils.normalize(host);
+        } catch (final IllegalArgumentException e) {
+            return host;
+        }
+    }
+
+    private static boolean isBlank(final String value) {
+        return value == null || "".equals(value.trim());
+    }
+
+    public void setTransactionManager(TransactionOperations transactionManager) {
+        m_transactionManager = transactionManager;
+    }
+
+    public void setJdbcTemplate(JdbcTemplate jdbcTemplate) {
+        m_jdbcTemplate = jdbcTemplate;
+    }
+
+    public void setSessionFactory(SessionFactory sessionFactory) {
+        m_sessionFactory = sessionFactory;
+    }
+}
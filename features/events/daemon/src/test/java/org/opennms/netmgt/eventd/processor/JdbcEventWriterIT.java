@@ -0,0 +1,256 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opennms.core.test.OpenNMSJUnit4ClassRunner;
+import org.opennms.core.test.db.annotations.JUnitTemporaryDatabase;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.dao.api.DistPollerDao;
+import org.opennms.netmgt.dao.api.MonitoringLocationDao;
+import org.opennms.netmgt.model.OnmsMonitoringSystem;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Events;
+import org.opennms.netmgt.xml.event.Log;
+import org.opennms.test.JUnitConfigurationEnvironment;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.IfProfileValue;
+import org.springframework.test.context.ContextConfiguration;
+
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Verifies that the {@link JdbcEventWriter} stores the events like the
+ * {@link HibernateEventWriter} does.
+ */
+@RunWith(OpenNMSJUnit4ClassRunner.class)
+@ContextConfiguration(locations={
+        "classpath:/META-INF/opennms/applicationContext-soa.xml",
+        "classpath:/META-INF/opennms/applicationContext-dao.xml",
+        "classpath:/META-INF/opennms/applicationContext-commonConfigs.xml",
+        "classpath:/META-INF/opennms/applicationContext-minimal-conf.xml",
+        "classpath*:/META-INF/opennms/component-dao.xml",
+        "classpath*:/META-INF/opennms/component-service.xml",
+        "classpath:/META-INF/opennms/applicationContext-daemon.xml",
+        "classpath:/META-INF/opennms/mockEventIpcManager.xml",
+        "classpath:/META-INF/opennms/applicationContext-eventDaemon.xml"
+})
+@JUnitConfigurationEnvironment
+@JUnitTemporaryDatabase(reuseDatabase=false)
+public class JdbcEventWriterIT {
+
+    @Autowired
+    private ApplicationContext m_context;
+
+    @Autowired
+    private EventWriter m_hibernateEventWriter;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private JdbcEventWriter m_eventWriter;
+
+    @Before
+    public void setUp() {
+        m_eventWriter = new JdbcEventWriter(new MetricRegistry());
+        m_context.getAutowireCapableBeanFactory().autowireBean(m_eventWriter);
+    }
+
+    @Test
+    public void testWriteEventWithParameters() throws Exception {
+        final EventBuilder builder = new EventBuilder("testUei", "testSource");
+        builder.setLogDest(HibernateEventWriter.LOG_MSG_DEST_LOG_AND_DISPLAY);
+        builder.addParam("param1", "value1");
+        builder.addParam("param2", 1337);
+        builder.addParam("param3", "valWith\u0000Null\u0000");
+        builder.addParam("param3", "value3"); // Test for duplicated values - last should win
+
+        m_eventWriter.process(builder.getLog());
+        assertTrue(builder.getEvent().getDbid() > 0);
+
+        final List<Map<String, Object>> parameters = jdbcTemplate.queryForList("SELECT name, value FROM event_parameters WHERE eventID = " + builder.getEvent().getDbid() + " ORDER BY name");
+        assertEquals(3, parameters.size());
+
+        assertEquals("param1", parameters.get(0).get("name"));
+        assertEquals("value1", parameters.get(0).get("value"));
+
+        assertEquals("param2", parameters.get(1).get("name"));
+        assertEquals("1337", parameters.get(1).get("value"));
+
+        assertEquals("param3", parameters.get(2).get("name"));
+        assertEquals("value3", parameters.get(2).get("value"));
+    }
+
+    /**
+     * Verifies that all of the events of a log are stored with distinct IDs,
+     * which don't collide with the ones of the events stored through Hibernate.
+     */
+    @Test
+    public void testWriteLogWithMultipleEvents() throws Exception {
+        final Log log = createLog(10);
+        m_eventWriter.process(log);
+        m_hibernateEventWriter.process(createLog(10));
+        m_eventWriter.process(createLog(10));
+
+        assertEquals(Integer.valueOf(30), jdbcTemplate.queryForObject("SELECT COUNT(DISTINCT eventID) FROM events", Integer.class));
+        for (Event event : log.getEvents().getEventCollection()) {
+            assertEquals(event.getUei(), jdbcTemplate.queryForObject("SELECT eventUei FROM events WHERE eventID = ?", String.class, event.getDbid()));
+        }
+    }
+
+    @Test
+    public void testWriteEventDescrWithNull() throws Exception {
+        EventBuilder bldr = new EventBuilder("testUei", "testSource");
+        bldr.setLogDest(HibernateEventWriter.LOG_MSG_DEST_LOG_AND_DISPLAY);
+        bldr.setDescription("abc\u0000def");
+
+        m_eventWriter.process(bldr.getLog());
+        assertTrue(bldr.getEvent().getDbid() > 0);
+
+        assertEquals("abc%0def", jdbcTemplate.queryForObject("SELECT eventDescr FROM events LIMIT 1", String.class));
+    }
+
+    @Test
+    public void testEventDistPoller() throws Exception {
+        String systemId = UUID.randomUUID().toString();
+        EventBuilder bldr = new EventBuilder("testUei", "testSource");
+        bldr.setDistPoller(systemId);
+        bldr.setLogMessage("test");
+
+        m_eventWriter.process(bldr.getLog());
+        assertEquals(DistPollerDao.DEFAULT_DIST_POLLER_ID, jdbcTemplate.queryForObject("SELECT systemId FROM events LIMIT 1", String.class));
+
+        jdbcTemplate.execute("DELETE FROM events");
+        jdbcTemplate.execute(String.format("INSERT INTO monitoringsystems (id, location, type) VALUES ('%s', 'Hello World', '%s')", systemId, OnmsMonitoringSystem.TYPE_MINION));
+
+        m_eventWriter.process(bldr.getLog());
+        assertEquals(systemId, jdbcTemplate.queryForObject("SELECT systemId FROM events LIMIT 1", String.class));
+    }
+
+    @Test
+    public void testEventNodeAndHost() throws Exception {
+        jdbcTemplate.update("INSERT INTO node (location, nodeId, nodeCreateTime) VALUES ('" + MonitoringLocationDao.DEFAULT_MONITORING_LOCATION_ID + "', nextVal('nodeNxtId'), now())");
+        int nodeId = jdbcTemplate.queryForObject("SELECT nodeId FROM node LIMIT 1", Integer.class);
+        jdbcTemplate.update("INSERT into ipInterface (nodeId, ipAddr, ipHostname) VALUES (?, ?, ?)", nodeId, "192.168.1.1", "First Interface");
+
+        EventBuilder bldr = new EventBuilder("testUei", "testSource");
+        bldr.setLogDest(HibernateEventWriter.LOG_MSG_DEST_LOG_AND_DISPLAY);
+        bldr.setNodeid(nodeId);
+        bldr.setHost("192.168.1.1");
+        Event e1 = bldr.getEvent();
+
+        // Events may reference nodes which were deleted in the meantime
+        bldr = new EventBuilder("testUei", "testSource");
+        bldr.setLogDest(HibernateEventWriter.LOG_MSG_DEST_LOG_AND_DISPLAY);
+        bldr.setNodeid(nodeId + 1);
+        bldr.setHost("192.168.1.1");
+        Event e2 = bldr.getEvent();
+
+        Events events = new Events();
+        events.setEvent(new Event[]{e1, e2});
+        Log log = new Log();
+        log.setEvents(events);
+        m_eventWriter.process(log);
+
+        assertEquals(Integer.valueOf(nodeId), jdbcTemplate.queryForObject("SELECT nodeID FROM events WHERE eventID = ?", Integer.class, e1.getDbid()));
+        assertEquals("First Interface", jdbcTemplate.queryForObject("SELECT eventHost FROM events WHERE eventID = ?", String.class, e1.getDbid()));
+        assertNull(jdbcTemplate.queryForObject("SELECT nodeID FROM events WHERE eventID = ?", Integer.class, e2.getDbid()));
+        assertEquals("192.168.1.1", jdbcTemplate.queryForObject("SELECT eventHost FROM events WHERE eventID = ?", String.class, e2.getDbid()));
+    }
+
+    @Test
+    public void testSendEventWithService() throws Exception {
+        int serviceId = 1;
+        String serviceName = "some bogus service";
+        jdbcTemplate.update("insert into service (serviceId, serviceName) values (?, ?)", new Object[] { serviceId, serviceName });
+
+        EventBuilder bldr = new EventBuilder("uei.opennms.org/foo", "someSource");
+        bldr.setLogMessage(HibernateEventWriter.LOG_MSG_DEST_LOG_AND_DISPLAY);
+        bldr.setService(serviceName);
+
+        m_eventWriter.process(bldr.getLog());
+        assertTrue(bldr.getEvent().getDbid() > 0);
+        assertEquals("event service ID", new Integer(serviceId), jdbcTemplate.queryForObject("select serviceID from events", Integer.class));
+    }
+
+    /**
+     * Compares the time it takes both writers to store the same logs.
+     */
+    @Test
+    @IfProfileValue(name="runBenchmarkTests", value="true")
+    public void testWriterPerformance() throws Exception {
+        final int numLogs = 200;
+        final int numEventsPerLog = 50;
+
+        // Warm up both writers
+        m_hibernateEventWriter.process(createLog(numEventsPerLog));
+        m_eventWriter.process(createLog(numEventsPerLog));
+
+        for (EventWriter writer : new EventWriter[] { m_hibernateEventWriter, m_eventWriter }) {
+            final long start = System.currentTimeMillis();
+            for (int i = 0; i < numLogs; i++) {
+                writer.process(createLog(numEventsPerLog));
+            }
+            final long elapsed = Math.max(1, System.currentTimeMillis() - start);
+            System.out.printf("%s: stored %d events in %d ms (%d events/s)%n", writer.getClass().getSimpleName(),
+                    numLogs * numEventsPerLog, elapsed, numLogs * numEventsPerLog * 1000L / elapsed);
+        }
+        assertEquals(Integer.valueOf(2 * (numLogs + 1) * numEventsPerLog), jdbcTemplate.queryForObject("SELECT COUNT(*) FROM events", Integer.class));
+    }
+
+    private static Log createLog(int numEvents) {
+        final Event[] eventArray = new Event[numEvents];
+        for (int i = 0; i < numEvents; i++) {
+            final EventBuilder bldr = new EventBuilder("uei.opennms.org/test/" + i, "testSource");
+            bldr.setLogDest(HibernateEventWriter.LOG_MSG_DEST_LOG_AND_DISPLAY);
+            bldr.setInterface(InetAddressUtils.addr("10.0.0." + (i % 250 + 1)));
+            bldr.addParam("index", i);
+            bldr.addParam("message", "Test message " + i);
+            eventArray[i] = bldr.getEvent();
+        }
+        final Events events = new Events();
+        events.setEvent(eventArray);
+        final Log log = new Log();
+        log.setEvents(events);
+        return log;
+    }
+}
@@ -33,9 +33,11 @@ import static org.opennms.core.utils.InetAddressUtils.str;
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -46,6 +48,7 @@ import org.opennms.netmgt.config.SyslogdConfig;
 import org.opennms.netmgt.config.syslogd.HideMatch;
 import org.opennms.netmgt.config.syslogd.HostaddrMatch;
 import org.opennms.netmgt.config.syslogd.HostnameMatch;
+import org.opennms.netmgt.config.syslogd.Match;
 import org.opennms.netmgt.config.syslogd.ParameterAssignment;
 import org.opennms.netmgt.config.syslogd.ProcessMatch;
 import org.opennms.netmgt.config.syslogd.UeiMatch;
@@ -56,6 +59,7 @@ import org.opennms.netmgt.xml.event.Event;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
@@ -97,6 +101,12 @@ public class ConvertToEvent {
         }
     );
 
+    /**
+     * The prefilters of the uei-match and hide-match lists, keyed by the identity of the
+     * lists, which are replaced when the configuration is reloaded.
+     */
+    private static final Cache<List<?>,MatchPrefilter> CACHED_PREFILTERS = CacheBuilder.newBuilder().weakKeys().build();
+
     /**
      * Reduce the limit of the buffer to trim trailing nulls from the value.
      * 
@@ -341,7 +351,10 @@ public class ConvertToEvent {
         EventBuilder bldr = toEventBuilder(message, systemId, location, receivedTimestamp);
 
         final List<UeiMatch> ueiMatch = (config.getUeiList() == null ? Collections.emptyList() : config.getUeiList());
-        for (final UeiMatch uei : ueiMatch) {
+        // Only consider the entries whose match can possibly succeed, in their configured order
+        final BitSet ueiCandidates = getPrefilter(ueiMatch, UeiMatch::getMatch).getCandidates(message.getMessage());
+        for (int i = ueiCandidates.nextSetBit(0); i >= 0; i = ueiCandidates.nextSetBit(i + 1)) {
+            final UeiMatch uei = ueiMatch.get(i);
             final boolean messageMatchesUeiListEntry = containsIgnoreCase(uei.getFacilities(), facilityTxt) &&
                                               containsIgnoreCase(uei.getSeverities(), priorityTxt) &&
                                               matchProcess(uei.getProcessMatch().orElse(null), message.getProcessName()) &&
@@ -368,7 +381,9 @@ public class ConvertToEvent {
             // Match this regex against the full string of the message
             final String fullText = message.asRfc3164Message();
 
-            for (final HideMatch hide : hideMatch) {
+            final BitSet hideCandidates = getPrefilter(hideMatch, HideMatch::getMatch).getCandidates(fullText);
+            for (int i = hideCandidates.nextSetBit(0); i >= 0; i = hideCandidates.nextSetBit(i + 1)) {
+                final HideMatch hide = hideMatch.get(i);
                 if (hide.getMatch().getType().equals("substr")) {
                     if (fullText.contains(hide.getMatch().getExpression())) {
                         // We should hide the message based on this match
@@ -445,6 +460,15 @@ public class ConvertToEvent {
         return CACHED_PATTERNS.getUnchecked(expression);
     }
 
+    private static <T> MatchPrefilter getPrefilter(final List<T> rules, final Function<T,Match> match) {
+        MatchPrefilter prefilter = CACHED_PREFILTERS.getIfPresent(rules);
+        if (prefilter == null || prefilter.size() != rules.size()) {
+            prefilter = MatchPrefilter.forRules(rules, match);
+            CACHED_PREFILTERS.put(rules, prefilter);
+        }
+        return prefilter;
+    }
+
     /**
      * Checks the message for substring matches to a {@link UeiMatch}. If the message
      * matches, then the UEI is updated (or the event is discarded if the discard
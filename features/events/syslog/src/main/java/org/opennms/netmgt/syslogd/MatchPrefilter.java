@@ -0,0 +1,425 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.opennms.netmgt.config.syslogd.Match;
+
+/**
+ * Determines which of a list of {@link Match} rules can possibly match a message,
+ * so that only those have to be evaluated.
+ *
+ * For every rule we extract a literal which must be contained in any message matched
+ * by the rule: the expression itself for substring matches, and one of the runs of
+ * literal characters which are required by the regular expression for regex matches.
+ * Rules often share common parts, so we pick the run which is shared by the fewest
+ * other rules, and the longest of those. All of the literals are compiled into a single Aho-Corasick automaton, which finds
+ * all of the literals contained in a message in one pass. Rules for which no literal
+ * can be extracted are always candidates.
+ *
+ * The prefilter never excludes a rule which could match, so evaluating the candidates
+ * in order yields the same first match as evaluating all of the rules.
+ */
+public class MatchPrefilter {
+
+    /**
+     * Shorter literals are contained in too many messages to be of any use.
+     */
+    protected static final int MIN_LITERAL_LENGTH = 3;
+
+    private final int m_size;
+
+    /**
+     * The rules without a literal, which are always candidates.
+     */
+    private final BitSet m_unfiltered;
+
+    // The automaton, with the transitions of every state sorted by character
+    private final char[][] m_chars;
+    private final int[][] m_next;
+    private final int[] m_fail;
+    private final int[][] m_outputs;
+
+    public static <T> MatchPrefilter forRules(List<T> rules, Function<T, Match> match) {
+        final List<List<String>> runs = new ArrayList<>(rules.size());
+        final Map<String, Integer> rulesByRun = new HashMap<>();
+        for (final T rule : rules) {
+            final List<String> runsOfRule = requiredLiterals(match.apply(rule));
+            runs.add(runsOfRule);
+            runsOfRule.stream().distinct().forEach(run -> rulesByRun.merge(run, 1, Integer::sum));
+        }
+
+        final List<String> literals = new ArrayList<>(rules.size());
+        for (final List<String> runsOfRule : runs) {
+            String literal = null;
+            for (final String run : runsOfRule) {
+                if (literal == null
+                        || rulesByRun.get(run) < rulesByRun.get(literal)
+                        || (rulesByRun.get(run).equals(rulesByRun.get(literal)) && run.length() > literal.length())) {
+                    literal = run;
+                }
+            }
+            literals.add(literal);
+        }
+        return new MatchPrefilter(literals);
+    }
+
+    protected MatchPrefilter(List<String> literals) {
+        m_size = literals.size();
+        m_unfiltered = new BitSet(m_size);
+
+        // Build the trie
+        final List<StringBuilder> chars = new ArrayList<>();
+        final List<List<Integer>> next = new ArrayList<>();
+        final List<List<Integer>> outputs = new ArrayList<>();
+        chars.add(new StringBuilder());
+        next.add(new ArrayList<>());
+        outputs.add(new ArrayList<>());
+        for (int i = 0; i < m_size; i++) {
+            final String literal = literals.get(i);
+            if (literal == null) {
+                m_unfiltered.set(i);
+                continue;
+            }
+            int state = 0;
+            for (int j = 0; j < literal.length(); j++) {
+                final char c = literal.charAt(j);
+                final int k = chars.get(state).indexOf(String.valueOf(c));
+                if (k >= 0) {
+                    state = next.get(state).get(k);
+                } else {
+                    chars.get(state).append(c);
+                    next.get(state).add(chars.size());
+                    state = chars.size();
+                    chars.add(new StringBuilder());
+                    next.add(new ArrayList<>());
+                    outputs.add(new ArrayList<>());
+                }
+            }
+            outputs.get(state).add(i);
+        }
+
+        final int numStates = chars.size();
+        m_chars = new char[numStates][];
+        m_next = new int[numStates][];
+        m_fail = new int[numStates];
+        m_outputs = new int[numStates][];
+        for (int state = 0; state < numStates; state++) {
+            // Sort the transitions so that we can binary search them
+            final char[] c = chars.get(state).toString().toCharArray();
+            final Integer[] order = new Integer[c.length];
+            for (int k = 0; k < c.length; k++) {
+                order[k] = k;
+            }
+            Arrays.sort(order, (a, b) -> Character.compare(c[a], c[b]));
+            m_chars[state] = new char[c.length];
+            m_next[state] = new int[c.length];
+            for (int k = 0; k < c.length; k++) {
+                m_chars[state][k] = c[order[k]];
+                m_next[state][k] = next.get(state).get(order[k]);
+            }
+        }
+
+        // Compute the failure links breadth first, and merge the outputs of the states they point to
+        final Deque<Integer> queue = new ArrayDeque<>();
+        for (int child : m_next[0]) {
+            m_fail[child] = 0;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            final int state = queue.poll();
+            for (int k = 0; k < m_chars[state].length; k++) {
+                final int child = m_next[state][k];
+                m_fail[child] = transition(m_fail[state], m_chars[state][k]);
+                outputs.get(child).addAll(outputs.get(m_fail[child]));
+                queue.add(child);
+            }
+        }
+        for (int state = 0; state < numStates; state++) {
+            m_outputs[state] = outputs.get(state).stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    /**
+     * @return the indexes of the rules which can possibly match the given input
+     */
+    public BitSet getCandidates(final String input) {
+        final BitSet candidates = (BitSet) m_unfiltered.clone();
+        if (input == null) {
+            // Let the rules deal with it
+            candidates.set(0, m_size);
+            return candidates;
+        }
+        int state = 0;
+        for (int i = 0; i < input.length(); i++) {
+            state = transition(state, input.charAt(i));
+            for (int rule : m_outputs[state]) {
+                candidates.set(rule);
+            }
+        }
+        return candidates;
+    }
+
+    public int size() {
+        return m_size;
+    }
+
+    private int transition(int state, final char c) {
+        while (true) {
+            final int k = Arrays.binarySearch(m_chars[state], c);
+            if (k >= 0) {
+                return m_next[state][k];
+            } else if (state == 0) {
+                return 0;
+            }
+            state = m_fail[state];
+        }
+    }
+
+    /**
+     * @return the literals which are contained in any input matched by the given rule,
+     *   which is empty if there are none
+     */
+    protected static List<String> requiredLiterals(final Match match) {
+        if (match == null || match.getType() == null || match.getExpression() == null) {
+            return Collections.emptyList();
+        }
+        final List<String> literals;
+        if (match.getType().equals("substr")) {
+            literals = Collections.singletonList(match.getExpression());
+        } else if (match.getType().startsWith("regex")) {
+            literals = requiredLiterals(match.getExpression());
+        } else {
+            literals = Collections.emptyList();
+        }
+        final List<String> usableLiterals = new ArrayList<>(literals.size());
+        for (final String literal : literals) {
+            if (literal.length() >= MIN_LITERAL_LENGTH) {
+                usableLiterals.add(literal);
+            }
+        }
+        return usableLiterals;
+    }
+
+    /**
+     * Extracts the runs of literal characters from the top level of the given regular
+     * expression, that is outside of any groups and character classes. This is
+     * deliberately conservative: whenever we can't be sure that a character is
+     * required, the run is broken, and expressions with alternations at the top level
+     * or with embedded flags have no runs at all.
+     */
+    protected static List<String> requiredLiterals(final String regex) {
+        final List<String> runs = new ArrayList<>();
+        final StringBuilder run = new StringBuilder();
+        int i = 0;
+        while (i < regex.length()) {
+            final char c = regex.charAt(i);
+            switch (c) {
+            case '\\':
+                if (i + 1 >= regex.length()) {
+                    return Collections.emptyList();
+                }
+                final char escaped = regex.charAt(i + 1);
+                if (escaped == 'Q') {
+                    // Quoted sequences are rare enough to not bother
+                    return Collections.emptyList();
+                } else if ("xu0ckpPN".indexOf(escaped) >= 0 || Character.isDigit(escaped)) {
+                    // Escapes spanning more than one character: hex, unicode, octal and control
+                    // characters, named and numbered back references and unicode properties.
+                    // Their length is not worth parsing, always run these rules.
+                    return Collections.emptyList();
+                } else if (Character.isLetterOrDigit(escaped)) {
+                    // Character classes, anchors, back references and the like
+                    endRun(runs, run);
+                } else {
+                    run.append(escaped);
+                }
+                i += 2;
+                break;
+            case '(':
+                if (regex.startsWith("(?", i) && i + 2 < regex.length() && "idmsuxU-".indexOf(regex.charAt(i + 2)) >= 0) {
+                    // Embedded flags, i.e. case insensitive matching
+                    return Collections.emptyList();
+                }
+                endRun(runs, run);
+                i = skipGroup(regex, i);
+                if (i < 0) {
+                    return Collections.emptyList();
+                }
+                break;
+            case '[':
+                endRun(runs, run);
+                i = skipClass(regex, i);
+                if (i < 0) {
+                    return Collections.emptyList();
+                }
+                break;
+            case '|':
+                return Collections.emptyList();
+            case '?':
+            case '*':
+            case '{':
+                // The preceding character is optional
+                if (run.length() > 0) {
+                    run.setLength(run.length() - 1);
+                }
+                endRun(runs, run);
+                i = skipQuantifier(regex, i);
+                if (i < 0) {
+                    return Collections.emptyList();
+                }
+                break;
+            case '+':
+                // The preceding character is required, but may be repeated
+                endRun(runs, run);
+                i = skipQuantifier(regex, i);
+                break;
+            case '.':
+            case '^':
+            case '$':
+            case ')':
+            case ']':
+            case '}':
+                endRun(runs, run);
+                i++;
+                break;
+            default:
+                run.append(c);
+                i++;
+            }
+        }
+        endRun(runs, run);
+        return runs;
+    }
+
+    private static void endRun(final List<String> runs, final StringBuilder run) {
+        if (run.length() > 0) {
+            runs.add(run.toString());
+            run.setLength(0);
+        }
+    }
+
+    /**
+     * @return the index after the group starting at the given index, or -1 if it isn't closed
+     */
+    private static int skipGroup(final String regex, int i) {
+        int depth = 0;
+        while (i < regex.length()) {
+            final char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            } else if (c == '[') {
+                i = skipClass(regex, i);
+                if (i < 0) {
+                    return -1;
+                }
+                continue;
+            } else if (c == '(') {
+                if (regex.startsWith("(?", i) && i + 2 < regex.length() && "idmsuxU-".indexOf(regex.charAt(i + 2)) >= 0) {
+                    return -1;
+                }
+                depth++;
+            } else if (c == ')') {
+                depth--;
+                if (depth == 0) {
+                    return skipQuantifier(regex, i + 1);
+                }
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the index after the character class starting at the given index, or -1 if it isn't closed
+     */
+    private static int skipClass(final String regex, int i) {
+        int depth = 0;
+        while (i < regex.length()) {
+            final char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            } else if (c == '[') {
+                depth++;
+                // A closing bracket right after the opening one is a literal
+                if (regex.startsWith("^", i + 1)) {
+                    i++;
+                }
+                if (regex.startsWith("]", i + 1)) {
+                    i++;
+                }
+            } else if (c == ']') {
+                depth--;
+                if (depth == 0) {
+                    return skipQuantifier(regex, i + 1);
+                }
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the index after the quantifier at the given index, including its greedy or
+     *   possessive modifier, or -1 if it isn't closed
+     */
+    private static int skipQuantifier(final String regex, int i) {
+        if (i >= regex.length()) {
+            return i;
+        }
+        final char c = regex.charAt(i);
+        if (c == '{') {
+            final int end = regex.indexOf('}', i);
+            if (end < 0) {
+                return -1;
+            }
+            i = end + 1;
+        } else if (c == '?' || c == '*' || c == '+') {
+            i++;
+        } else {
+            return i;
+        }
+        if (i < regex.length() && (regex.charAt(i) == '?' || regex.charAt(i) == '+')) {
+            i++;
+        }
+        return i;
+    }
+}
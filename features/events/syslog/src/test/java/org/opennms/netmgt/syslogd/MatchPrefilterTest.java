@@ -0,0 +1,222 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.opennms.core.test.ConfigurationTestUtils;
+import org.opennms.netmgt.config.SyslogdConfigFactory;
+import org.opennms.netmgt.config.syslogd.Match;
+import org.opennms.netmgt.config.syslogd.UeiMatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class MatchPrefilterTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MatchPrefilterTest.class);
+
+    @Test
+    public void canExtractRequiredLiterals() {
+        assertEquals(Arrays.asList("foo23: ", "load test ", " on "), MatchPrefilter.requiredLiterals(".*foo23: .*load test (\\S+) on ((pts\\/\\d+)|(tty\\d+)).*"));
+        assertEquals(Arrays.asList("1997"), MatchPrefilter.requiredLiterals("1997"));
+        assertEquals(Arrays.asList("%LINK-3-UPDOWN: Interface ", ", changed state to "), MatchPrefilter.requiredLiterals("^%LINK-3-UPDOWN: Interface ([^,]+), changed state to (up|down)$"));
+
+        // Escaped characters are literals, escaped letters aren't
+        assertEquals(Arrays.asList("a.b", "c"), MatchPrefilter.requiredLiterals("a\\.b\\sc"));
+
+        // Optional characters aren't required
+        assertEquals(Arrays.asList("colo", "r"), MatchPrefilter.requiredLiterals("colou?r"));
+        assertEquals(Arrays.asList("ab", "d"), MatchPrefilter.requiredLiterals("abc*d"));
+        assertEquals(Arrays.asList("ab", "d"), MatchPrefilter.requiredLiterals("abc{0,2}d"));
+        assertEquals(Arrays.asList("abc", "d"), MatchPrefilter.requiredLiterals("abc+d"));
+        assertEquals(Arrays.asList("ab", "d"), MatchPrefilter.requiredLiterals("ab(c)?d"));
+        assertEquals(Arrays.asList("ab", "d"), MatchPrefilter.requiredLiterals("ab[c]*?d"));
+
+        // Character classes and groups are skipped
+        assertEquals(Arrays.asList("foo", "bar"), MatchPrefilter.requiredLiterals("foo[]|(]bar"));
+        assertEquals(Arrays.asList("foo", "bar"), MatchPrefilter.requiredLiterals("foo(a|(b|c))bar"));
+
+        // We give up on alternations, embedded flags and quoting
+        assertEquals(Collections.emptyList(), MatchPrefilter.requiredLiterals("foo|bar"));
+        assertEquals(Collections.emptyList(), MatchPrefilter.requiredLiterals("(?i)foo"));
+        assertEquals(Collections.emptyList(), MatchPrefilter.requiredLiterals("foo(bar(?i)baz)"));
+        assertEquals(Collections.emptyList(), MatchPrefilter.requiredLiterals("\\Qfoo\\E"));
+
+        // and on escapes which span more than one character
+        for (String regex : new String[] {
+                "foo\\x41bar", "foo\\x{41}bar", "foo\\u0041bar", "foo\\0101bar", "foo\\cAbar",
+                "(?<n>ab)\\k<n>xyz", "(ab)\\1xyz", "foo\\p{Lu}bar", "foo\\P{Lu}bar", "foo\\N{LATIN CAPITAL LETTER A}bar" }) {
+            assertEquals(regex, Collections.emptyList(), MatchPrefilter.requiredLiterals(regex));
+        }
+    }
+
+    @Test
+    public void canMatchRulesWithMultiCharacterEscapes() {
+        final MatchPrefilter prefilter = MatchPrefilter.forRules(Arrays.asList(
+                match("regex", "foo\\x41bar"),
+                match("regex", "foo\\u0041bar"),
+                match("regex", "foo\\0101bar"),
+                match("regex", "(?<n>ab)\\k<n>xyz")), m -> m);
+        assertEquals(bits(0, 1, 2, 3), prefilter.getCandidates("xx fooAbar"));
+    }
+
+    @Test
+    public void canExtractRequiredLiteralsOfMatches() {
+        assertEquals(Arrays.asList("foo.*bar"), MatchPrefilter.requiredLiterals(match("substr", "foo.*bar")));
+        assertEquals(Arrays.asList("foo", "bar"), MatchPrefilter.requiredLiterals(match("regex", "foo.*bar")));
+
+        // Short literals are useless
+        assertEquals(Collections.emptyList(), MatchPrefilter.requiredLiterals(match("substr", "ab")));
+        assertEquals(Arrays.asList("bar"), MatchPrefilter.requiredLiterals(match("regex", "ab.*bar")));
+    }
+
+    @Test
+    public void canFilterCandidates() {
+        final List<Match> matches = Arrays.asList(
+                match("substr", "foo"),
+                match("regex", "bar\\d+"),
+                match("regex", "(foo|bar)"),
+                match("substr", "ba"),
+                match("regex", "fo+bar"),
+                match("substr", "oba"));
+        final MatchPrefilter prefilter = MatchPrefilter.forRules(matches, m -> m);
+
+        assertEquals(bits(2, 3), prefilter.getCandidates("nothing to see here"));
+        assertEquals(bits(0, 1, 2, 3, 4, 5), prefilter.getCandidates("foobar"));
+        assertEquals(bits(1, 2, 3, 4), prefilter.getCandidates("xbarx"));
+        assertEquals(bits(0, 1, 2, 3, 4, 5), prefilter.getCandidates(null));
+    }
+
+    @Test
+    public void canPickDistinctiveLiterals() {
+        final List<Match> matches = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            matches.add(match("regex", ".*host" + i + ": .*load test (\\S+) on tty"));
+        }
+        final MatchPrefilter prefilter = MatchPrefilter.forRules(matches, m -> m);
+
+        // The literal which is shared by all of the rules must not be picked
+        assertEquals(bits(3), prefilter.getCandidates("<6>main: 2010-08-19 localhost host3: load test 23 on tty1"));
+        assertEquals(bits(), prefilter.getCandidates("<6>main: 2010-08-19 localhost host23: load test 23 on tty1"));
+    }
+
+    @Test
+    public void canFindOverlappingLiterals() {
+        final MatchPrefilter prefilter = new MatchPrefilter(Arrays.asList("he", "she", "his", "hers", null));
+        assertEquals(bits(0, 1, 3, 4), prefilter.getCandidates("ushers"));
+        assertEquals(bits(2, 4), prefilter.getCandidates("ahis"));
+        assertEquals(bits(4), prefilter.getCandidates(""));
+    }
+
+    /**
+     * Compares the time it takes to find the first matching uei-match of the
+     * load test configuration with and without the prefilter.
+     */
+    @Test
+    public void testPrefilterPerformance() {
+        Assume.assumeTrue(Boolean.getBoolean("runBenchmarkTests"));
+
+        final InputStream stream = ConfigurationTestUtils.getInputStreamForResource(this, "/etc/syslogd-loadtest-configuration.xml");
+        final List<UeiMatch> ueiMatch = new SyslogdConfigFactory(stream).getUeiList();
+        final List<Pattern> patterns = new ArrayList<>(ueiMatch.size());
+        for (UeiMatch uei : ueiMatch) {
+            patterns.add(Pattern.compile(uei.getMatch().getExpression(), Pattern.MULTILINE));
+        }
+        final String[] messages = new String[] {
+            "<6>main: 2010-08-19 localhost foo23: load test 23 on tty1",
+            "<6>main: 2010-08-19 localhost foo9999: load test 9999 on pts/1",
+            "<6>main: 2010-08-19 localhost bar: no match to be found here"
+        };
+        final int count = 10;
+
+        long start = System.currentTimeMillis();
+        final MatchPrefilter prefilter = MatchPrefilter.forRules(ueiMatch, UeiMatch::getMatch);
+        printSpeed("build prefilter for " + ueiMatch.size() + " rules", 1, start, System.currentTimeMillis());
+
+        for (String message : messages) {
+            int expected = -1;
+            start = System.currentTimeMillis();
+            for (int n = 0; n < count; n++) {
+                expected = firstMatch(patterns, message, null);
+            }
+            printSpeed("all rules (" + message + ")", count, start, System.currentTimeMillis());
+
+            int actual = -1;
+            start = System.currentTimeMillis();
+            for (int n = 0; n < count; n++) {
+                actual = firstMatch(patterns, message, prefilter.getCandidates(message));
+            }
+            printSpeed("prefiltered rules (" + message + ")", count, start, System.currentTimeMillis());
+
+            assertEquals(expected, actual);
+        }
+    }
+
+    private static int firstMatch(List<Pattern> patterns, String message, BitSet candidates) {
+        for (int i = 0; i < patterns.size(); i++) {
+            if (candidates != null && !candidates.get(i)) {
+                continue;
+            }
+            if (patterns.get(i).matcher(message).find()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void printSpeed(String description, int count, long start, long end) {
+        final long total = end - start;
+        LOG.info("{}: {}ms for {} messages", description, total, count);
+    }
+
+    private static Match match(String type, String expression) {
+        final Match match = new Match();
+        match.setType(type);
+        match.setExpression(expression);
+        return match;
+    }
+
+    private static BitSet bits(int... indexes) {
+        final BitSet bits = new BitSet();
+        for (int index : indexes) {
+            bits.set(index);
+        }
+        return bits;
+    }
+}
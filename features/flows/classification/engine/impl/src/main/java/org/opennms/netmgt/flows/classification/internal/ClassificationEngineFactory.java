@@ -0,0 +1,56 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.classification.internal;
+
+import java.util.Objects;
+
+import org.opennms.netmgt.flows.classification.ClassificationEngine;
+import org.opennms.netmgt.flows.classification.ClassificationRuleProvider;
+import org.opennms.netmgt.flows.classification.FilterService;
+
+/**
+ * Creates the {@link ClassificationEngine} implementation selected by the configuration.
+ */
+public class ClassificationEngineFactory {
+
+    public static final String DEFAULT = "default";
+    public static final String COMPILED = "compiled";
+
+    public static ClassificationEngine createEngine(String type, ClassificationRuleProvider ruleProvider, FilterService filterService) {
+        Objects.requireNonNull(type);
+        switch (type.trim().toLowerCase()) {
+            case DEFAULT:
+                return new DefaultClassificationEngine(ruleProvider, filterService, false);
+            case COMPILED:
+                return new CompiledClassificationEngine(ruleProvider, filterService, false);
+            default:
+                throw new IllegalArgumentException("Unknown classification engine type '" + type + "'. Supported types are: " + DEFAULT + ", " + COMPILED);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.classification.internal.compiled;
+
+import java.util.BitSet;
+import java.util.Objects;
+
+import org.opennms.core.utils.IPLike;
+import org.opennms.netmgt.flows.classification.internal.value.StringValue;
+
+/**
+ * Pre-compiled form of a src or dst address definition of a rule.
+ * Behaves exactly as the {@link org.opennms.netmgt.flows.classification.internal.matcher.IpMatcher}, but
+ * IPv4 IPLIKE expressions are compiled into one bitset per octet, which allows to match
+ * an address without splitting or parsing it into intermediate objects.
+ * IPv6 expressions and addresses which cannot be parsed are delegated to {@link IPLike}.
+ */
+public class AddressPattern {
+
+    private final String value;
+    private final BitSet[] octets;
+
+    private AddressPattern(String value, BitSet[] octets) {
+        this.value = Objects.requireNonNull(value);
+        this.octets = octets;
+    }
+
+    /**
+     * Compiles the given address definition.
+     *
+     * @param input the address definition of the rule
+     * @return the compiled pattern, or null if the definition matches any address
+     */
+    public static AddressPattern compile(String input) {
+        final StringValue value = new StringValue(input);
+        if (value.isWildcard()) {
+            return null;
+        }
+        if (value.hasWildcard()) {
+            return new AddressPattern(input, compileIPv4(input));
+        }
+        return new AddressPattern(input, null);
+    }
+
+    public boolean matches(String address) {
+        if (address == null) {
+            return false;
+        }
+        if (octets != null) {
+            // Parse the address in place, falling back to IPLIKE if it is not a plain IPv4 address
+            int octet = 0;
+            int fieldValue = -1;
+            for (int i=0; i<address.length(); i++) {
+                final char c = address.charAt(i);
+                if (c >= '0' && c <= '9') {
+                    fieldValue = fieldValue == -1 ? c - '0' : fieldValue * 10 + (c - '0');
+                    if (fieldValue > 255) {
+                        return IPLike.matches(address, value);
+                    }
+                } else if (c == '.' && fieldValue != -1 && octet < 3) {
+                    if (!octets[octet].get(fieldValue)) {
+                        return false;
+                    }
+                    octet++;
+                    fieldValue = -1;
+                } else {
+                    return IPLike.matches(address, value);
+                }
+            }
+            if (octet != 3 || fieldValue == -1) {
+                return IPLike.matches(address, value);
+            }
+            return octets[3].get(fieldValue);
+        }
+        if (value.indexOf('*') != -1) {
+            return IPLike.matches(address, value);
+        }
+        return value.equals(address);
+    }
+
+    // Returns null if the expression is not an IPv4 expression, which can be compiled
+    private static BitSet[] compileIPv4(String expression) {
+        if (expression.indexOf(':') != -1) {
+            return null;
+        }
+        final String[] fields = expression.split("\\.", 0);
+        if (fields.length != 4) {
+            return null;
+        }
+        final BitSet[] octets = new BitSet[4];
+        for (int i=0; i<fields.length; i++) {
+            octets[i] = new BitSet(256);
+            for (String element : fields[i].split(",", 0)) {
+                if ("*".equals(element)) {
+                    octets[i].set(0, 256);
+                    continue;
+                }
+                final String[] range = element.split("-", -1);
+                try {
+                    if (range.length == 1) {
+                        setBits(octets[i], Long.parseLong(range[0]), Long.parseLong(range[0]));
+                    } else if (range.length == 2) {
+                        setBits(octets[i], Long.parseLong(range[0]), Long.parseLong(range[1]));
+                    }
+                } catch (NumberFormatException ex) {
+                    // Let IPLIKE decide how to handle malformed expressions
+                    return null;
+                }
+            }
+        }
+        return octets;
+    }
+
+    private static void setBits(BitSet bitSet, long start, long end) {
+        final long from = Math.max(0, start);
+        final long to = Math.min(255, end);
+        if (from <= to) {
+            bitSet.set((int) from, (int) to + 1);
+        }
+    }
+}
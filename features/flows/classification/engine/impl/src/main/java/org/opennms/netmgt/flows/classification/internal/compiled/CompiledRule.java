@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.classification.internal.compiled;
+
+import java.util.BitSet;
+import java.util.Objects;
+
+import org.opennms.netmgt.flows.classification.ClassificationRequest;
+import org.opennms.netmgt.flows.classification.FilterService;
+import org.opennms.netmgt.flows.classification.internal.value.PortValue;
+import org.opennms.netmgt.flows.classification.internal.value.StringValue;
+import org.opennms.netmgt.flows.classification.persistence.api.Protocol;
+import org.opennms.netmgt.flows.classification.persistence.api.Protocols;
+import org.opennms.netmgt.flows.classification.persistence.api.Rule;
+import org.opennms.netmgt.flows.classification.persistence.api.RuleDefinition;
+
+/**
+ * Immutable, pre-compiled representation of a {@link RuleDefinition}.
+ * All criteria are converted to bitsets or {@link AddressPattern}s, so matching a request does not allocate.
+ */
+public class CompiledRule {
+
+    private final String name;
+    private final BitSet protocols;
+    private final BitSet srcPorts;
+    private final BitSet dstPorts;
+    private final AddressPattern srcAddress;
+    private final AddressPattern dstAddress;
+    private final String exporterFilter;
+    private final FilterService filterService;
+
+    public CompiledRule(RuleDefinition rule, FilterService filterService) {
+        Objects.requireNonNull(rule);
+        this.name = rule.getName();
+        this.protocols = rule.hasProtocolDefinition() ? compileProtocols(rule.getProtocol()) : null;
+        this.srcPorts = rule.hasSrcPortDefinition() ? compilePorts(rule.getSrcPort()) : null;
+        this.dstPorts = rule.hasDstPortDefinition() ? compilePorts(rule.getDstPort()) : null;
+        this.srcAddress = rule.hasSrcAddressDefinition() ? AddressPattern.compile(rule.getSrcAddress()) : null;
+        this.dstAddress = rule.hasDstAddressDefinition() ? AddressPattern.compile(rule.getDstAddress()) : null;
+        this.exporterFilter = rule.hasExportFilterDefinition() ? rule.getExporterFilter() : null;
+        this.filterService = Objects.requireNonNull(filterService);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public BitSet getSrcPorts() {
+        return srcPorts;
+    }
+
+    public BitSet getDstPorts() {
+        return dstPorts;
+    }
+
+    // The checks are ordered from cheap to expensive
+    public boolean matches(ClassificationRequest request) {
+        if (protocols != null) {
+            final Protocol protocol = request.getProtocol();
+            if (protocol == null || protocol.getDecimal() < 0 || !protocols.get(protocol.getDecimal())) {
+                return false;
+            }
+        }
+        if (srcPorts != null && !matchesPort(srcPorts, request.getSrcPort())) {
+            return false;
+        }
+        if (dstPorts != null && !matchesPort(dstPorts, request.getDstPort())) {
+            return false;
+        }
+        if (srcAddress != null && !srcAddress.matches(request.getSrcAddress())) {
+            return false;
+        }
+        if (dstAddress != null && !dstAddress.matches(request.getDstAddress())) {
+            return false;
+        }
+        if (exporterFilter != null && !filterService.matches(request.getExporterAddress(), exporterFilter)) {
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean matchesPort(BitSet ports, Integer port) {
+        return port != null && port >= 0 && ports.get(port);
+    }
+
+    private static BitSet compilePorts(String input) {
+        final BitSet ports = new BitSet(Rule.MAX_PORT_VALUE);
+        for (Integer eachPort : new PortValue(input).getPorts()) {
+            if (eachPort >= 0) {
+                ports.set(eachPort);
+            }
+        }
+        return ports;
+    }
+
+    private static BitSet compileProtocols(String input) {
+        final BitSet protocols = new BitSet(256);
+        for (StringValue eachValue : new StringValue(input).splitBy(",")) {
+            final Protocol protocol = Protocols.getProtocol(eachValue.getValue());
+            if (protocol != null && protocol.getDecimal() >= 0) {
+                protocols.set(protocol.getDecimal());
+            }
+        }
+        return protocols;
+    }
+}
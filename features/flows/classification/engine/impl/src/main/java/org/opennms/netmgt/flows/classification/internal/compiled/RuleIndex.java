@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.classification.internal.compiled;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+import org.opennms.netmgt.flows.classification.ClassificationRequest;
+import org.opennms.netmgt.flows.classification.FilterService;
+import org.opennms.netmgt.flows.classification.persistence.api.Rule;
+import org.opennms.netmgt.flows.classification.persistence.api.RulePriorityComparator;
+
+/**
+ * Immutable port index over a set of {@link CompiledRule}s.
+ *
+ * The rules are sorted by priority once and afterwards only referenced by their position (rank).
+ * Each rule is stored in exactly one of the following buckets:
+ *
+ * - rules defining a dst port are indexed by each of their dst ports (the src port is verified when matching)
+ * - rules defining only a src port are indexed by each of their src ports
+ * - rules defining neither are stored in a single list, applicable to all ports
+ *
+ * As every bucket is a sorted array of ranks, the candidates of a request are visited in priority order by
+ * merging the three applicable buckets, without allocating a merged list.
+ */
+public class RuleIndex {
+
+    private static final int[] NO_RULES = new int[0];
+
+    public static final RuleIndex EMPTY = new RuleIndex(new CompiledRule[0], new int[Rule.MAX_PORT_VALUE][], new int[Rule.MAX_PORT_VALUE][], NO_RULES);
+
+    private final CompiledRule[] rules;
+    private final int[][] dstPortIndex;
+    private final int[][] srcPortIndex;
+    private final int[] anyPortRules;
+
+    private RuleIndex(CompiledRule[] rules, int[][] dstPortIndex, int[][] srcPortIndex, int[] anyPortRules) {
+        this.rules = Objects.requireNonNull(rules);
+        this.dstPortIndex = Objects.requireNonNull(dstPortIndex);
+        this.srcPortIndex = Objects.requireNonNull(srcPortIndex);
+        this.anyPortRules = Objects.requireNonNull(anyPortRules);
+    }
+
+    public static RuleIndex compile(List<Rule> rules, FilterService filterService) {
+        // Sort by priority. The sort is stable, so rules with the same priority keep their original order
+        final List<Rule> sortedRules = new ArrayList<>(rules);
+        Collections.sort(sortedRules, new RulePriorityComparator());
+
+        final CompiledRule[] compiledRules = new CompiledRule[sortedRules.size()];
+        final int[] dstPortCounts = new int[Rule.MAX_PORT_VALUE];
+        final int[] srcPortCounts = new int[Rule.MAX_PORT_VALUE];
+        int anyPortCount = 0;
+        for (int rank=0; rank<compiledRules.length; rank++) {
+            compiledRules[rank] = new CompiledRule(sortedRules.get(rank), filterService);
+            final BitSet indexPorts = getIndexPorts(compiledRules[rank]);
+            if (indexPorts == null) {
+                anyPortCount++;
+            } else {
+                final int[] counts = compiledRules[rank].getDstPorts() != null ? dstPortCounts : srcPortCounts;
+                for (int port = indexPorts.nextSetBit(0); port >= 0 && port < Rule.MAX_PORT_VALUE; port = indexPorts.nextSetBit(port + 1)) {
+                    counts[port]++;
+                }
+            }
+        }
+
+        // Allocate exactly sized buckets. As ranks are added in ascending order, each bucket is sorted
+        final int[][] dstPortIndex = allocate(dstPortCounts);
+        final int[][] srcPortIndex = allocate(srcPortCounts);
+        final int[] anyPortRules = anyPortCount == 0 ? NO_RULES : new int[anyPortCount];
+        final int[] dstPortFill = new int[Rule.MAX_PORT_VALUE];
+        final int[] srcPortFill = new int[Rule.MAX_PORT_VALUE];
+        int anyPortFill = 0;
+        for (int rank=0; rank<compiledRules.length; rank++) {
+            final BitSet indexPorts = getIndexPorts(compiledRules[rank]);
+            if (indexPorts == null) {
+                anyPortRules[anyPortFill++] = rank;
+            } else {
+                final boolean dst = compiledRules[rank].getDstPorts() != null;
+                final int[][] index = dst ? dstPortIndex : srcPortIndex;
+                final int[] fill = dst ? dstPortFill : srcPortFill;
+                for (int port = indexPorts.nextSetBit(0); port >= 0 && port < Rule.MAX_PORT_VALUE; port = indexPorts.nextSetBit(port + 1)) {
+                    index[port][fill[port]++] = rank;
+                }
+            }
+        }
+        return new RuleIndex(compiledRules, dstPortIndex, srcPortIndex, anyPortRules);
+    }
+
+    /**
+     * Returns the name of the first (highest priority) rule matching the given request, or null if none matches.
+     */
+    public String classify(ClassificationRequest request) {
+        final int[] dstRules = lookup(dstPortIndex, request.getDstPort());
+        final int[] srcRules = lookup(srcPortIndex, request.getSrcPort());
+        final int[] anyRules = anyPortRules;
+
+        // Each rank is contained in at most one of the buckets, so a simple three-way merge is sufficient
+        int d = 0, s = 0, a = 0;
+        while (d < dstRules.length || s < srcRules.length || a < anyRules.length) {
+            final int dstRank = d < dstRules.length ? dstRules[d] : Integer.MAX_VALUE;
+            final int srcRank = s < srcRules.length ? srcRules[s] : Integer.MAX_VALUE;
+            final int anyRank = a < anyRules.length ? anyRules[a] : Integer.MAX_VALUE;
+            final int rank;
+            if (dstRank < srcRank && dstRank < anyRank) {
+                rank = dstRank;
+                d++;
+            } else if (srcRank < anyRank) {
+                rank = srcRank;
+                s++;
+            } else {
+                rank = anyRank;
+                a++;
+            }
+            if (rules[rank].matches(request)) {
+                return rules[rank].getName();
+            }
+        }
+        return null;
+    }
+
+    public int size() {
+        return rules.length;
+    }
+
+    private static int[] lookup(int[][] index, Integer port) {
+        if (port == null || port < 0 || port >= index.length || index[port] == null) {
+            return NO_RULES;
+        }
+        return index[port];
+    }
+
+    private static BitSet getIndexPorts(CompiledRule rule) {
+        return rule.getDstPorts() != null ? rule.getDstPorts() : rule.getSrcPorts();
+    }
+
+    private static int[][] allocate(int[] counts) {
+        final int[][] index = new int[counts.length][];
+        for (int i=0; i<counts.length; i++) {
+            index[i] = counts[i] == 0 ? NO_RULES : new int[counts[i]];
+        }
+        return index;
+    }
+}
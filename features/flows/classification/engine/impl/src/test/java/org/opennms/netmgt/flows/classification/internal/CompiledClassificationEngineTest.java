@@ -0,0 +1,269 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.classification.internal;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.opennms.core.network.IPAddress;
+import org.opennms.core.network.IPAddressRange;
+import org.opennms.netmgt.flows.classification.ClassificationEngine;
+import org.opennms.netmgt.flows.classification.ClassificationRequest;
+import org.opennms.netmgt.flows.classification.ClassificationRequestBuilder;
+import org.opennms.netmgt.flows.classification.FilterService;
+import org.opennms.netmgt.flows.classification.persistence.api.GroupBuilder;
+import org.opennms.netmgt.flows.classification.persistence.api.ProtocolType;
+import org.opennms.netmgt.flows.classification.persistence.api.Rule;
+import org.opennms.netmgt.flows.classification.persistence.api.RuleBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+
+public class CompiledClassificationEngineTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CompiledClassificationEngineTest.class);
+
+    @Test
+    public void verifyRuleEngineBasic() {
+        final ClassificationEngine engine = new CompiledClassificationEngine(() ->
+            Lists.newArrayList(
+                    new RuleBuilder().withName("rule1").withSrcPort(80).build(),
+                    new RuleBuilder().withName("rule2").withDstPort(443).build(),
+                    new RuleBuilder().withName("rule3").withSrcPort(8888).withDstPort(9999).build(),
+                    new RuleBuilder().withName("rule4").withSrcPort(8888).withDstPort(80).build(),
+                    new RuleBuilder().withName("rule5").build()
+            ), FilterService.NOOP);
+
+        assertEquals("rule2", engine.classify(new ClassificationRequestBuilder().withSrcPort(9999).withDstPort(443).build()));
+        assertEquals("rule3", engine.classify(new ClassificationRequestBuilder().withSrcPort(8888).withDstPort(9999).build()));
+        assertEquals("rule4", engine.classify(new ClassificationRequestBuilder().withSrcPort(8888).withDstPort(80).build()));
+        assertEquals("rule1", engine.classify(new ClassificationRequestBuilder().withSrcPort(80).withDstPort(12345).build()));
+        assertEquals("rule5", engine.classify(new ClassificationRequestBuilder().withSrcPort(12345).withDstPort(80).build()));
+    }
+
+    @Test
+    public void verifyRuleEngineExtended() {
+        final ClassificationEngine engine = new CompiledClassificationEngine(() -> Lists.newArrayList(
+                new Rule("SSH", "22"),
+                new Rule("HTTP", "80"),
+                new Rule("HTTP_CUSTOM", "192.168.0.1", "80"),
+                new Rule("DUMMY", "192.168.1.*", "8000-9000,80,8080"),
+                new Rule("RANGE-TEST", "7000-8000"),
+                new Rule("OpenNMS", "8980"),
+                new RuleBuilder().withName("OpenNMS Monitor").withDstPort("1077").withSrcPort("5347").withSrcAddress("10.0.0.5").build()
+            ), FilterService.NOOP
+        );
+
+        // Verify concrete mappings
+        assertEquals("SSH",         engine.classify(new ClassificationRequest("Default", 0, null,  22, "127.0.0.1", ProtocolType.TCP)));
+        assertEquals("HTTP_CUSTOM", engine.classify(new ClassificationRequest("Default", 0, null, 80, "192.168.0.1", ProtocolType.TCP)));
+        assertEquals("HTTP",        engine.classify(new ClassificationRequest("Default", 0, null, 80, "192.168.0.2", ProtocolType.TCP)));
+        assertEquals(null,          engine.classify(new ClassificationRequest("Default", 0, null, 5000, "localhost", ProtocolType.UDP)));
+        assertEquals("OpenNMS",     engine.classify(new ClassificationRequest("Default", 0, null, 8980, "127.0.0.1", ProtocolType.TCP)));
+        assertEquals("OpenNMS Monitor", engine.classify(
+                new ClassificationRequestBuilder()
+                        .withLocation("Default")
+                        .withSrcAddress("10.0.0.5")
+                        .withSrcPort(5347)
+                        .withDstPort(1077)
+                        .withDstAddress("192.168.0.2")
+                        .withProtocol(ProtocolType.TCP).build()));
+        assertEquals("HTTP", engine.classify(
+                new ClassificationRequestBuilder()
+                        .withLocation("Default")
+                        .withSrcAddress("10.0.0.5")
+                        .withSrcPort(5347)
+                        .withDstPort(80)
+                        .withDstAddress("192.168.0.2")
+                        .withProtocol(ProtocolType.TCP).build()));
+
+        // Verify IP Range
+        final IPAddressRange ipAddresses = new IPAddressRange("192.168.1.0", "192.168.1.255");
+        for (IPAddress ipAddress : ipAddresses) {
+            final ClassificationRequest classificationRequest = new ClassificationRequest("Default", 0, null, 8080, ipAddress.toString(), ProtocolType.TCP);
+            assertEquals("DUMMY", engine.classify(classificationRequest));
+        }
+        assertEquals(null, engine.classify(new ClassificationRequest("Default", 0, null, 8080, "192.168.2.1", ProtocolType.TCP)));
+
+        // Verify Port Range
+        IntStream.range(7000, 8000).forEach(i -> assertEquals("RANGE-TEST", engine.classify(new ClassificationRequest("Default", 0, null,  i, "192.168.0.2", ProtocolType.TCP))));
+    }
+
+    @Test
+    public void verifyAddressRuleWins() {
+        final ClassificationEngine engine = new CompiledClassificationEngine(() -> Lists.newArrayList(
+            new RuleBuilder().withName("HTTP").withDstPort(80).build(),
+            new RuleBuilder().withName("XXX2").withSrcAddress("192.168.2.1").withSrcPort(4789).build(),
+            new RuleBuilder().withName("XXX").withDstAddress("192.168.2.1").build()
+        ), FilterService.NOOP);
+
+        assertEquals("XXX", engine.classify(new ClassificationRequest("Default", 0, null, 80, "192.168.2.1", ProtocolType.TCP)));
+        assertEquals("XXX2", engine.classify(new ClassificationRequestBuilder()
+                .withLocation("Default")
+                .withProtocol(ProtocolType.TCP)
+                .withSrcAddress("192.168.2.1").withSrcPort(4789)
+                .withDstAddress("52.31.45.219").withDstPort(80)
+                .build()));
+    }
+
+    @Test
+    public void verifyIpLikeExpressions() {
+        final ClassificationEngine engine = new CompiledClassificationEngine(() -> Lists.newArrayList(
+                new RuleBuilder().withName("IPV4").withDstAddress("10.1-2,5.*.1").build(),
+                new RuleBuilder().withName("IPV6").withDstAddress("fe80:*:*:*:*:*:*:1-a").build()
+        ), FilterService.NOOP);
+
+        assertEquals("IPV4", engine.classify(new ClassificationRequest("Default", 0, null, 80, "10.2.99.1", ProtocolType.TCP)));
+        assertEquals("IPV4", engine.classify(new ClassificationRequest("Default", 0, null, 80, "10.5.0.1", ProtocolType.TCP)));
+        assertEquals(null, engine.classify(new ClassificationRequest("Default", 0, null, 80, "10.3.0.1", ProtocolType.TCP)));
+        assertEquals(null, engine.classify(new ClassificationRequest("Default", 0, null, 80, "10.2.0.2", ProtocolType.TCP)));
+        assertEquals("IPV6", engine.classify(new ClassificationRequest("Default", 0, null, 80, "fe80:0:0:0:0:0:0:a", ProtocolType.TCP)));
+        assertEquals(null, engine.classify(new ClassificationRequest("Default", 0, null, 80, "fe80:0:0:0:0:0:0:b", ProtocolType.TCP)));
+    }
+
+    @Test
+    public void verifyReload() {
+        final List<Rule> rules = Lists.newArrayList(new RuleBuilder().withName("HTTP").withDstPort(80).build());
+        final ClassificationEngine engine = new CompiledClassificationEngine(() -> new ArrayList<>(rules), FilterService.NOOP);
+        assertEquals("HTTP", engine.classify(new ClassificationRequest("Default", 0, null, 80, "127.0.0.1", ProtocolType.TCP)));
+
+        rules.clear();
+        rules.add(new RuleBuilder().withName("HTTPS").withDstPort(443).build());
+        engine.reload();
+        assertEquals(null, engine.classify(new ClassificationRequest("Default", 0, null, 80, "127.0.0.1", ProtocolType.TCP)));
+        assertEquals("HTTPS", engine.classify(new ClassificationRequest("Default", 0, null, 443, "127.0.0.1", ProtocolType.TCP)));
+    }
+
+    @Test
+    public void verifySameResultsAsDefaultClassificationEngine() {
+        final Random random = new Random(42);
+        final List<Rule> rules = createRules(random, 500, 5);
+        final ClassificationEngine defaultEngine = new DefaultClassificationEngine(() -> rules, FilterService.NOOP);
+        final ClassificationEngine compiledEngine = new CompiledClassificationEngine(() -> rules, FilterService.NOOP);
+
+        final List<ClassificationRequest> requests = createRequests(random, 10000);
+        for (ClassificationRequest request : requests) {
+            assertEquals(defaultEngine.classify(request), compiledEngine.classify(request));
+        }
+    }
+
+    @Test
+    public void benchmark() {
+        Assume.assumeTrue(Boolean.getBoolean("runBenchmarkTests"));
+
+        final Random random = new Random(42);
+        final List<Rule> rules = createRules(random, 5000, 10);
+        final List<ClassificationRequest> requests = createRequests(random, 100000);
+
+        final ClassificationEngine defaultEngine = new DefaultClassificationEngine(() -> rules, FilterService.NOOP);
+        final ClassificationEngine compiledEngine = new CompiledClassificationEngine(() -> rules, FilterService.NOOP);
+        for (int run=0; run<5; run++) {
+            LOG.info("run {}: default engine classified {} flows per second", run, measure(defaultEngine, requests));
+            LOG.info("run {}: compiled engine classified {} flows per second", run, measure(compiledEngine, requests));
+        }
+    }
+
+    private static long measure(ClassificationEngine engine, List<ClassificationRequest> requests) {
+        final long start = System.nanoTime();
+        int classified = 0;
+        for (ClassificationRequest request : requests) {
+            if (engine.classify(request) != null) {
+                classified++;
+            }
+        }
+        final long elapsed = Math.max(1, System.nanoTime() - start);
+        assertEquals(true, classified > 0);
+        return requests.size() * 1000000000L / elapsed;
+    }
+
+    // Creates a rule set similar to the IANA service name and port registry, with some address and protocol specific rules.
+    // Each rule has its own group priority to have a well defined order.
+    // Rules define dst ports < 10000 and src ports >= 40000, which keeps src and dst port definitions disjoint
+    private static List<Rule> createRules(Random random, int count, int anyPortCount) {
+        final List<Integer> priorities = new ArrayList<>();
+        IntStream.range(0, count).forEach(priorities::add);
+        Collections.shuffle(priorities, random);
+
+        final List<Rule> rules = new ArrayList<>();
+        for (int i=0; i<count; i++) {
+            final RuleBuilder builder = new RuleBuilder()
+                    .withName("rule" + i)
+                    .withGroup(new GroupBuilder().withName("group" + i).withPriority(priorities.get(i)).build());
+            if (i < anyPortCount) {
+                builder.withDstAddress("10." + random.nextInt(4) + ".*.*");
+            } else {
+                switch (random.nextInt(5)) {
+                    case 0:
+                        builder.withSrcPort(40000 + random.nextInt(1000));
+                        break;
+                    case 1:
+                        final int start = random.nextInt(9000);
+                        builder.withDstPort(start + "-" + (start + random.nextInt(100) + 1));
+                        break;
+                    case 2:
+                        builder.withDstPort(random.nextInt(10000)).withSrcPort(40000 + random.nextInt(1000));
+                        break;
+                    default:
+                        builder.withDstPort(random.nextInt(10000));
+                }
+                if (random.nextInt(3) == 0) {
+                    builder.withProtocol(random.nextBoolean() ? "tcp" : "udp,tcp");
+                }
+                if (random.nextInt(10) == 0) {
+                    builder.withSrcAddress("192.168." + random.nextInt(4) + ".*");
+                }
+            }
+            rules.add(builder.build());
+        }
+        return rules;
+    }
+
+    private static List<ClassificationRequest> createRequests(Random random, int count) {
+        final List<ClassificationRequest> requests = new ArrayList<>();
+        for (int i=0; i<count; i++) {
+            requests.add(new ClassificationRequestBuilder()
+                    .withLocation("Default")
+                    .withProtocol(random.nextBoolean() ? ProtocolType.TCP : ProtocolType.UDP)
+                    .withSrcAddress("192.168." + random.nextInt(4) + "." + random.nextInt(256))
+                    .withSrcPort(40000 + random.nextInt(2000))
+                    .withDstAddress("10." + random.nextInt(8) + "." + random.nextInt(256) + "." + random.nextInt(256))
+                    .withDstPort(random.nextInt(12000))
+                    .build());
+        }
+        return requests;
+    }
+}
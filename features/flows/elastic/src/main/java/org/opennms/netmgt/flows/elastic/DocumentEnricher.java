@@ -29,9 +29,15 @@
 package org.opennms.netmgt.flows.elastic;
 
 import java.net.InetAddress;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 
@@ -71,6 +77,8 @@ public class DocumentEnricher {
 
     private final Timer nodeLoadTimer;
 
+    private final Timer nodeBatchLoadTimer;
+
     public DocumentEnricher(MetricRegistry metricRegistry, NodeDao nodeDao, InterfaceToNodeCache interfaceToNodeCache,
                             TransactionOperations transactionOperations, ClassificationEngine classificationEngine,
                             CacheConfig cacheConfig) {
@@ -84,10 +92,16 @@ public class DocumentEnricher {
                 .withCacheLoader(new CacheLoader<NodeInfoKey, Optional<NodeDocument>>() {
                     @Override
                     public Optional<NodeDocument> load(NodeInfoKey key) {
-                        return getNodeInfo(key.location, key.ipAddress);
+                        return getNodeInfos(Collections.singleton(key)).get(key);
+                    }
+
+                    @Override
+                    public Map<NodeInfoKey, Optional<NodeDocument>> loadAll(Iterable<? extends NodeInfoKey> keys) {
+                        return getNodeInfos(keys);
                     }
                 }).build();
         this.nodeLoadTimer = metricRegistry.timer("nodeLoadTime");
+        this.nodeBatchLoadTimer = metricRegistry.timer("nodeBatchLoadTime");
     }
 
     public void enrich(final List<FlowDocument> documents, final FlowSource source) {
@@ -97,26 +111,44 @@ public class DocumentEnricher {
         }
 
         transactionOperations.execute(callback -> {
+            // Gather the distinct addresses of the batch, so that all of the nodes
+            // missing from the cache can be loaded at once
+            final Set<NodeInfoKey> keys = new HashSet<>();
+            keys.add(new NodeInfoKey(source.getLocation(), source.getSourceAddress()));
+            for (FlowDocument document : documents) {
+                if (document.getDstAddr() != null) {
+                    keys.add(new NodeInfoKey(source.getLocation(), document.getDstAddr()));
+                }
+                if (document.getSrcAddr() != null) {
+                    keys.add(new NodeInfoKey(source.getLocation(), document.getSrcAddr()));
+                }
+            }
+            final Map<NodeInfoKey, Optional<NodeDocument>> nodeInfos = getNodeInfosFromCache(keys);
+            final Optional<NodeDocument> exporterNodeInfo = nodeInfos.get(new NodeInfoKey(source.getLocation(), source.getSourceAddress()));
+
+            // Addresses commonly re-appear within a batch, only determine their locality once
+            final Map<String, Locality> localities = new HashMap<>();
+
             documents.forEach(document -> {
                 // Metadata from message
                 document.setHost(source.getSourceAddress());
                 document.setLocation(source.getLocation());
 
                 // Node data
-                getNodeInfoFromCache(source.getLocation(), source.getSourceAddress()).ifPresent(document::setNodeExporter);
+                exporterNodeInfo.ifPresent(document::setNodeExporter);
                 if (document.getDstAddr() != null) {
-                    getNodeInfoFromCache(source.getLocation(), document.getDstAddr()).ifPresent(document::setNodeDst);
+                    nodeInfos.get(new NodeInfoKey(source.getLocation(), document.getDstAddr())).ifPresent(document::setNodeDst);
                 }
                 if (document.getSrcAddr() != null) {
-                    getNodeInfoFromCache(source.getLocation(), document.getSrcAddr()).ifPresent(document::setNodeSrc);
+                    nodeInfos.get(new NodeInfoKey(source.getLocation(), document.getSrcAddr())).ifPresent(document::setNodeSrc);
                 }
 
                 // Locality
                 if (document.getSrcAddr() != null) {
-                    document.setSrcLocality(isPrivateAddress(document.getSrcAddr()) ? Locality.PRIVATE : Locality.PUBLIC);
+                    document.setSrcLocality(localities.computeIfAbsent(document.getSrcAddr(), DocumentEnricher::getLocality));
                 }
                 if (document.getDstAddr() != null) {
-                    document.setDstLocality(isPrivateAddress(document.getDstAddr()) ? Locality.PRIVATE : Locality.PUBLIC);
+                    document.setDstLocality(localities.computeIfAbsent(document.getDstAddr(), DocumentEnricher::getLocality));
                 }
 
                 if (Locality.PUBLIC.equals(document.getDstLocality()) || Locality.PUBLIC.equals(document.getSrcLocality())) {
@@ -140,44 +172,56 @@ public class DocumentEnricher {
         });
     }
 
-    private static boolean isPrivateAddress(String ipAddress) {
+    private static Locality getLocality(String ipAddress) {
         final InetAddress inetAddress = InetAddressUtils.addr(ipAddress);
-        return inetAddress.isLoopbackAddress() || inetAddress.isLinkLocalAddress() || inetAddress.isSiteLocalAddress();
+        return inetAddress.isLoopbackAddress() || inetAddress.isLinkLocalAddress() || inetAddress.isSiteLocalAddress()
+                ? Locality.PRIVATE : Locality.PUBLIC;
     }
 
-    private Optional<NodeDocument> getNodeInfoFromCache(String location, String ipAddress) {
-        final NodeInfoKey key = new NodeInfoKey(location, ipAddress);
+    private Map<NodeInfoKey, Optional<NodeDocument>> getNodeInfosFromCache(Collection<NodeInfoKey> keys) {
         try {
-            return nodeInfoCache.get(key);
+            return nodeInfoCache.getAll(keys);
         } catch (ExecutionException e) {
             LOG.error("Error while retrieving NodeDocument from NodeInfoCache: {}.", e.getMessage(), e);
             throw new RuntimeException(e);
         }
     }
 
-    private Optional<NodeDocument> getNodeInfo(String location, String ipAddress) {
-        return getNodeInfo(location, InetAddressUtils.addr(ipAddress));
-    }
+    private Map<NodeInfoKey, Optional<NodeDocument>> getNodeInfos(Iterable<? extends NodeInfoKey> keys) {
+        try (Timer.Context batchCtx = nodeBatchLoadTimer.time()) {
+            // Resolve the node ids first, so that all of the nodes can be loaded with a single query
+            final Map<NodeInfoKey, Integer> nodeIds = new HashMap<>();
+            for (NodeInfoKey key : keys) {
+                interfaceToNodeCache.getFirstNodeId(key.location, InetAddressUtils.addr(key.ipAddress))
+                        .ifPresent(nodeId -> nodeIds.put(key, nodeId));
+            }
+
+            final Map<Integer, NodeDocument> nodeInfosById = new HashMap<>();
+            if (!nodeIds.isEmpty()) {
+                try (Timer.Context ctx = nodeLoadTimer.time()) {
+                    for (OnmsNode onmsNode : nodeDao.findAllByIdsWithCategories(new HashSet<>(nodeIds.values()))) {
+                        final NodeDocument nodeInfo = new NodeDocument();
+                        nodeInfo.setForeignSource(onmsNode.getForeignSource());
+                        nodeInfo.setForeignId(onmsNode.getForeignId());
+                        nodeInfo.setNodeId(onmsNode.getId());
+                        nodeInfo.setCategories(onmsNode.getCategories().stream().map(OnmsCategory::getName).collect(Collectors.toList()));
+                        nodeInfosById.put(onmsNode.getId(), nodeInfo);
+                    }
+                }
+            }
 
-    private Optional<NodeDocument> getNodeInfo(String location, InetAddress ipAddress) {
-        final Optional<Integer> nodeId = interfaceToNodeCache.getFirstNodeId(location, ipAddress);
-        if (nodeId.isPresent()) {
-            try (Timer.Context ctx = nodeLoadTimer.time()) {
-                final OnmsNode onmsNode = nodeDao.get(nodeId.get());
-                if (onmsNode != null) {
-                    final NodeDocument nodeInfo = new NodeDocument();
-                    nodeInfo.setForeignSource(onmsNode.getForeignSource());
-                    nodeInfo.setForeignId(onmsNode.getForeignId());
-                    nodeInfo.setNodeId(nodeId.get());
-                    nodeInfo.setCategories(onmsNode.getCategories().stream().map(OnmsCategory::getName).collect(Collectors.toList()));
-
-                    return Optional.of(nodeInfo);
-                } else {
-                    LOG.warn("Node with id: {} at location: {} with IP address: {} is in the interface to node cache, but wasn't found in the database.");
+            final Map<NodeInfoKey, Optional<NodeDocument>> nodeInfos = new HashMap<>();
+            for (NodeInfoKey key : keys) {
+                final Integer nodeId = nodeIds.get(key);
+                final NodeDocument nodeInfo = nodeId != null ? nodeInfosById.get(nodeId) : null;
+                if (nodeId != null && nodeInfo == null) {
+                    LOG.warn("Node with id: {} at location: {} with IP address: {} is in the interface to node cache, but wasn't found in the database.",
+                            nodeId, key.location, key.ipAddress);
                 }
+                nodeInfos.put(key, Optional.ofNullable(nodeInfo));
             }
+            return nodeInfos;
         }
-        return Optional.empty();
     }
 
     // Key class, which is used to cache NodeDocument objects
@@ -39,7 +39,11 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -60,32 +64,26 @@ import org.opennms.netmgt.flows.classification.persistence.api.Protocols;
 import org.opennms.netmgt.flows.elastic.index.IndexSelector;
 import org.opennms.netmgt.flows.filter.api.Filter;
 import org.opennms.netmgt.flows.filter.api.TimeRangeFilter;
-import org.opennms.netmgt.model.OnmsNode;
-import org.opennms.netmgt.model.OnmsSnmpInterface;
 import org.opennms.plugins.elasticsearch.rest.bulk.BulkException;
 import org.opennms.plugins.elasticsearch.rest.bulk.BulkRequest;
-import org.opennms.plugins.elasticsearch.rest.bulk.BulkWrapper;
 import org.opennms.plugins.elasticsearch.rest.index.IndexStrategy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.transaction.support.TransactionOperations;
 
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.google.common.collect.ImmutableTable;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
 import com.google.common.collect.Table;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import io.searchbox.action.Action;
 import io.searchbox.client.JestClient;
 import io.searchbox.client.JestResult;
 import io.searchbox.client.JestResultHandler;
-import io.searchbox.core.Bulk;
-import io.searchbox.core.Index;
 import io.searchbox.core.Search;
 import io.searchbox.core.SearchResult;
 import io.searchbox.core.search.aggregation.MetricAggregation;
@@ -100,6 +98,22 @@ public class ElasticFlowRepository implements FlowRepository {
 
     private static final String TYPE = "netflow";
 
+    private static final String ROLLUP_TYPE = "netflow_rollup";
+
+    /**
+     * Roll-ups are stored in a separate index family, still matching the template of the flows.
+     */
+    private static final String ROLLUP_INDEX_PREFIX = "netflow-rollup";
+
+    /**
+     * Roll-ups are used for queries with steps which are not a multiple of the window if
+     * the step is at least this many windows long. The error introduced by apportioning the
+     * roll-ups at the edges of the buckets is then at most 1%.
+     */
+    private static final long MIN_ROLLUP_WINDOWS_PER_STEP = 100;
+
+    private static final long DEFAULT_MARKER_FLUSH_INTERVAL_MS = 5000;
+
     private final JestClient client;
 
     private final IndexStrategy indexStrategy;
@@ -133,7 +147,7 @@ public class ElasticFlowRepository implements FlowRepository {
     private final Timer logPersistingTimer;
 
     /**
-     * Time taken to mark the flows in a log
+     * Time taken to queue the markers of the flows in a log
      */
     private final Timer logMarkingTimer;
 
@@ -144,17 +158,50 @@ public class ElasticFlowRepository implements FlowRepository {
 
     private final IndexSelector indexSelector;
 
+    private final IndexSelector rollupIndexSelector;
+
+    private FlowRollupAggregator rollupAggregator;
+
+    private volatile boolean rollupsEnabled = false;
+
+    /**
+     * Roll-ups are only queried for time ranges starting after this time.
+     */
+    private long rollupsAvailableSince = System.currentTimeMillis();
+
+    private volatile long rollupFlushIntervalMs = 10000;
+
+    /**
+     * Fraction of the raw flows which are persisted while roll-ups are enabled.
+     */
+    private volatile double rawFlowSampleRatio = 1.0;
+
+    private final ScheduledThreadPoolExecutor rollupExecutor;
+
+    /**
+     * The next background flush of the roll-ups. Guarded by rollupExecutor.
+     */
+    private ScheduledFuture<?> scheduledRollupFlush;
+
+    /**
+     * Roll-ups/second throughput
+     */
+    private final Meter rollupsPersistedMeter;
+
+    /**
+     * Time taken to aggregate the flows of a log into roll-ups
+     */
+    private final Timer logRollupTimer;
+
     private final TransactionOperations transactionOperations;
 
     private final NodeDao nodeDao;
     private final SnmpInterfaceDao snmpInterfaceDao;
 
     /**
-     * Cache for marking nodes and interfaces as having flows.
-     *
-     * This maps a node ID to a set if snmpInterface IDs.
+     * Marks nodes and interfaces as having flows, in the background.
      */
-    private final ConcurrentMap<Integer, Set<Integer>> markerCache = Maps.newConcurrentMap();
+    private final FlowMarker flowMarker;
 
     public ElasticFlowRepository(MetricRegistry metricRegistry, JestClient jestClient, IndexStrategy indexStrategy,
                                  DocumentEnricher documentEnricher, ClassificationEngine classificationEngine,
@@ -169,6 +216,7 @@ public class ElasticFlowRepository implements FlowRepository {
         this.snmpInterfaceDao = Objects.requireNonNull(snmpInterfaceDao);
         this.bulkRetryCount = bulkRetryCount;
         this.indexSelector = new IndexSelector(TYPE, indexStrategy, maxFlowDurationMs);
+        this.rollupIndexSelector = new IndexSelector(ROLLUP_INDEX_PREFIX, indexStrategy, maxFlowDurationMs);
 
         flowsPersistedMeter = metricRegistry.meter("flowsPersisted");
         logConversionTimer = metricRegistry.timer("logConversion");
@@ -176,17 +224,23 @@ public class ElasticFlowRepository implements FlowRepository {
         logPersistingTimer = metricRegistry.timer("logPersisting");
         logMarkingTimer = metricRegistry.timer("logMarking");
         flowsPerLog = metricRegistry.histogram("flowsPerLog");
-
-        // Pre-populate marker cache with values from DB
-        this.transactionOperations.execute(cb -> {
-            for (final OnmsNode node : this.nodeDao.findAllHavingFlows()) {
-                this.markerCache.put(node.getId(),
-                        this.snmpInterfaceDao.findAllHavingFlows(node.getId()).stream()
-                                .map(OnmsSnmpInterface::getIfIndex)
-                                .collect(Collectors.toCollection(Sets::newConcurrentHashSet)));
-            }
-            return null;
+        rollupsPersistedMeter = metricRegistry.meter("rollupsPersisted");
+        logRollupTimer = metricRegistry.timer("logRollup");
+        metricRegistry.register("openRollups", (Gauge<Integer>) () -> {
+            final FlowRollupAggregator aggregator = getRollupAggregator();
+            return aggregator != null ? aggregator.getNumOpenRollups() : 0;
         });
+
+        flowMarker = new FlowMarker(metricRegistry, transactionOperations, nodeDao, snmpInterfaceDao, DEFAULT_MARKER_FLUSH_INTERVAL_MS);
+        flowMarker.start();
+
+        // Completed windows are flushed in the background, so they are persisted even when no more flows arrive
+        rollupExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder()
+                .setNameFormat("flow-rollup-%d")
+                .setDaemon(true)
+                .build());
+        rollupExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        scheduleRollupFlush();
     }
 
     @Override
@@ -215,76 +269,196 @@ public class ElasticFlowRepository implements FlowRepository {
             documentEnricher.enrich(flowDocuments, source);
         }
 
-        LOG.debug("Persisting {} flow documents.", flowDocuments.size());
-        try (final Timer.Context ctx = logPersistingTimer.time()) {
-            final BulkRequest<FlowDocument> bulkRequest = new BulkRequest<>(client, flowDocuments, (documents) -> {
-                final Bulk.Builder bulkBuilder = new Bulk.Builder();
-                for (FlowDocument flowDocument : documents) {
-                   final String index = indexStrategy.getIndex(TYPE, Instant.ofEpochMilli(flowDocument.getTimestamp()));
-                   final Index.Builder indexBuilder = new Index.Builder(flowDocument)
-                        .index(index)
-                        .type(TYPE);
-                    bulkBuilder.addAction(indexBuilder.build());
+        final FlowRollupAggregator aggregator = getRollupAggregator();
+        final List<FlowDocument> rawDocuments = aggregator != null ? sampleRawFlows(flowDocuments) : flowDocuments;
+
+        if (!rawDocuments.isEmpty()) {
+            LOG.debug("Persisting {} of {} flow documents.", rawDocuments.size(), flowDocuments.size());
+            try (final Timer.Context ctx = logPersistingTimer.time()) {
+                final BulkRequest<FlowDocument> bulkRequest = new BulkRequest<>(client, rawDocuments, (documents) ->
+                        FlowDocumentBulk.of(documents, flowDocument -> indexStrategy.getIndex(TYPE, Instant.ofEpochMilli(flowDocument.getTimestamp())), TYPE),
+                        bulkRetryCount);
+                try {
+                    // the bulk request considers retries
+                    bulkRequest.execute();
+                } catch (BulkException ex) {
+                    throw new PersistenceException(ex.getMessage(), ex.getBulkResult().getFailedDocuments());
+                } catch (IOException ex) {
+                    LOG.error("An error occurred while executing the given request: {}", ex.getMessage(), ex);
+                    throw new FlowException(ex.getMessage(), ex);
                 }
-                return new BulkWrapper(bulkBuilder);
-            }, bulkRetryCount);
-            try {
-                // the bulk request considers retries
-                bulkRequest.execute();
-            } catch (BulkException ex) {
-                throw new PersistenceException(ex.getMessage(), ex.getBulkResult().getFailedDocuments());
-            } catch (IOException ex) {
-                LOG.error("An error occurred while executing the given request: {}", ex.getMessage(), ex);
-                throw new FlowException(ex.getMessage(), ex);
+                flowsPersistedMeter.mark(rawDocuments.size());
+            }
+        }
+
+        if (aggregator != null) {
+            // The roll-ups are persisted by the background flush
+            LOG.debug("Aggregating {} flow documents into roll-ups.", flowDocuments.size());
+            try (final Timer.Context ctx = logRollupTimer.time()) {
+                aggregator.aggregate(flowDocuments);
             }
-            flowsPersistedMeter.mark(flowDocuments.size());
         }
 
-        // Mark nodes and interfaces as having associated flows
+        // Mark nodes and interfaces as having associated flows, the database is updated in the background
         try (final Timer.Context ctx = logMarkingTimer.time()) {
-            final List<Integer> nodesToUpdate = Lists.newArrayListWithExpectedSize(flowDocuments.size());
-            final Map<Integer, List<Integer>> interfacesToUpdate = Maps.newHashMap();
+            flowMarker.mark(flowDocuments);
+        }
+    }
 
-            for (final FlowDocument flow : flowDocuments) {
-                if (flow.getNodeExporter() == null) continue;
-                if (flow.getNodeExporter().getNodeId() == null) continue;
+    private List<FlowDocument> sampleRawFlows(List<FlowDocument> flowDocuments) {
+        final double ratio = rawFlowSampleRatio;
+        if (ratio >= 1.0) {
+            return flowDocuments;
+        } else if (ratio <= 0.0) {
+            return Collections.emptyList();
+        }
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        return flowDocuments.stream()
+                .filter(flowDocument -> random.nextDouble() < ratio)
+                .collect(Collectors.toList());
+    }
 
-                final Integer nodeId = flow.getNodeExporter().getNodeId();
+    /**
+     * Persists the roll-ups which were updated since the last flush, and closes the completed ones.
+     */
+    public void flushRollups() {
+        final FlowRollupAggregator aggregator = getRollupAggregator();
+        if (aggregator == null) {
+            return;
+        }
+        try {
+            persistRollups(aggregator.flush(System.currentTimeMillis()));
+        } catch (FlowException ex) {
+            LOG.warn("Failed to persist the flow roll-ups. Queries may fall short until the affected windows are over.", ex);
+        }
+    }
 
-                Set<Integer> ifaceMarkerCache = this.markerCache.get(nodeId);
-                if (ifaceMarkerCache == null) {
-                    this.markerCache.put(nodeId, ifaceMarkerCache = Sets.newConcurrentHashSet());
-                    nodesToUpdate.add(nodeId);
-                }
+    private void scheduleRollupFlush() {
+        synchronized (rollupExecutor) {
+            try {
+                scheduledRollupFlush = rollupExecutor.schedule(() -> {
+                    try {
+                        flushRollups();
+                    } finally {
+                        scheduleRollupFlush();
+                    }
+                }, rollupFlushIntervalMs, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Destroyed
+            }
+        }
+    }
 
-                if (flow.getInputSnmp() != null &&
-                    flow.getInputSnmp() != 0 &&
-                    !ifaceMarkerCache.contains(flow.getInputSnmp())) {
-                    ifaceMarkerCache.add(flow.getInputSnmp());
-                    interfacesToUpdate.computeIfAbsent(nodeId, k -> Lists.newArrayList()).add(flow.getInputSnmp());
-                }
-                if (flow.getOutputSnmp() != null &&
-                    flow.getOutputSnmp() != 0 &&
-                    !ifaceMarkerCache.contains(flow.getOutputSnmp())) {
-                    ifaceMarkerCache.add(flow.getOutputSnmp());
-                    interfacesToUpdate.computeIfAbsent(nodeId, k -> Lists.newArrayList()).add(flow.getOutputSnmp());
-                }
+    private void persistRollups(List<FlowRollupAggregator.FlowRollup> rollups) throws FlowException {
+        if (rollups.isEmpty()) {
+            return;
+        }
+        LOG.debug("Persisting {} flow roll-ups.", rollups.size());
+        // Open roll-ups are updated in place, using their id
+        final BulkRequest<FlowRollupAggregator.FlowRollup> bulkRequest = new BulkRequest<>(client, rollups, (documents) ->
+                new FlowDocumentBulk<>(documents, FlowRollupAggregator.FlowRollup::getDocument,
+                        rollup -> indexStrategy.getIndex(ROLLUP_INDEX_PREFIX, Instant.ofEpochMilli(rollup.getDocument().getTimestamp())),
+                        FlowRollupAggregator.FlowRollup::getId, ROLLUP_TYPE),
+                bulkRetryCount);
+        try {
+            bulkRequest.execute();
+        } catch (BulkException ex) {
+            throw new FlowException(ex.getMessage(), ex);
+        } catch (IOException ex) {
+            LOG.error("An error occurred while persisting the flow roll-ups: {}", ex.getMessage(), ex);
+            throw new FlowException(ex.getMessage(), ex);
+        }
+        rollupsPersistedMeter.mark(rollups.size());
+    }
+
+    /**
+     * Persists all of the open roll-ups and the queued markers.
+     */
+    public void destroy() {
+        flowMarker.stop();
+        rollupExecutor.shutdown();
+        final FlowRollupAggregator aggregator = getRollupAggregator();
+        if (aggregator != null) {
+            try {
+                persistRollups(aggregator.flushAll());
+            } catch (FlowException ex) {
+                LOG.warn("Failed to persist the open flow roll-ups.", ex);
             }
+        }
+    }
 
-            if (!nodesToUpdate.isEmpty() || !interfacesToUpdate.isEmpty()) {
-                this.transactionOperations.execute(cb -> {
-                    if (!nodesToUpdate.isEmpty()) {
-                        this.nodeDao.markHavingFlows(nodesToUpdate);
-                    }
-                    for (final Map.Entry<Integer, List<Integer>> e : interfacesToUpdate.entrySet()) {
-                        this.snmpInterfaceDao.markHavingFlows(e.getKey(), e.getValue());
-                    }
-                    return null;
-                });
+    private FlowRollupAggregator getRollupAggregator() {
+        return rollupsEnabled ? rollupAggregator : null;
+    }
+
+    public void setMarkerFlushIntervalMs(long markerFlushIntervalMs) {
+        flowMarker.setFlushIntervalMs(markerFlushIntervalMs);
+    }
+
+    /**
+     * Writes the queued markers of the nodes and interfaces having flows to the database.
+     */
+    public void flushMarkers() {
+        flowMarker.flush();
+    }
+
+    public void setRollupAggregator(FlowRollupAggregator rollupAggregator) {
+        this.rollupAggregator = rollupAggregator;
+    }
+
+    public void setRollupsEnabled(boolean rollupsEnabled) {
+        this.rollupsEnabled = rollupsEnabled;
+    }
+
+    /**
+     * Sets the time, in milliseconds since the epoch, from which on roll-ups are available.
+     * Values <= 0 are ignored, in which case roll-ups are only used for time ranges after
+     * the repository was created.
+     */
+    public void setRollupsAvailableSince(long rollupsAvailableSince) {
+        if (rollupsAvailableSince > 0) {
+            this.rollupsAvailableSince = rollupsAvailableSince;
+        }
+    }
+
+    public void setRollupFlushIntervalMs(long rollupFlushIntervalMs) {
+        if (rollupFlushIntervalMs < 1) {
+            throw new IllegalArgumentException("rollupFlushIntervalMs must be positive, got: " + rollupFlushIntervalMs);
+        }
+        synchronized (rollupExecutor) {
+            this.rollupFlushIntervalMs = rollupFlushIntervalMs;
+            // Replace the pending flush so that the new interval applies right away
+            if (scheduledRollupFlush != null && scheduledRollupFlush.cancel(false)) {
+                scheduleRollupFlush();
             }
         }
     }
 
+    /**
+     * Sets the fraction, between 0 and 1, of the raw flows which are persisted while roll-ups are enabled.
+     * Queries which can't use the roll-ups, and flow counts, only see the persisted raw flows.
+     */
+    public void setRawFlowSampleRatio(double rawFlowSampleRatio) {
+        if (rawFlowSampleRatio < 0.0 || rawFlowSampleRatio > 1.0) {
+            throw new IllegalArgumentException("rawFlowSampleRatio must be between 0 and 1, got: " + rawFlowSampleRatio);
+        }
+        this.rawFlowSampleRatio = rawFlowSampleRatio;
+    }
+
+    /**
+     * Roll-ups can be used instead of the raw flows when they are available for the complete
+     * time range and the windows fit into the requested step.
+     */
+    private boolean canUseRollups(long step, List<Filter> filters) {
+        final FlowRollupAggregator aggregator = getRollupAggregator();
+        final TimeRangeFilter timeRangeFilter = extractTimeRangeFilter(filters);
+        if (aggregator == null || timeRangeFilter == null || timeRangeFilter.getStart() < rollupsAvailableSince) {
+            return false;
+        }
+        final long windowMs = aggregator.getWindowMs();
+        return step >= windowMs && (step % windowMs == 0 || step >= MIN_ROLLUP_WINDOWS_PER_STEP * windowMs);
+    }
+
     @Override
     public CompletableFuture<Long> getFlowCount(List<Filter> filters) {
         final String query = searchQueryProvider.getFlowCountQuery(filters);
@@ -324,7 +498,7 @@ public class ElasticFlowRepository implements FlowRepository {
         }));
     }
 
-    private CompletableFuture<List<String>> getTopN(int N, String groupByTerm, String keyForMissingTerm, List<Filter> filters) {
+    private CompletableFuture<List<String>> getTopN(int N, String groupByTerm, String keyForMissingTerm, boolean rollups, List<Filter> filters) {
         if (N < 1) {
             // Avoid a query and return an empty list
             return CompletableFuture.completedFuture(Collections.emptyList());
@@ -334,7 +508,7 @@ public class ElasticFlowRepository implements FlowRepository {
         // See https://www.elastic.co/guide/en/elasticsearch/reference/current/search-aggregations-bucket-terms-aggregation.html#_size
         final int multiplier = 2;
         final String query = searchQueryProvider.getTopNQuery(multiplier*N, groupByTerm, keyForMissingTerm, filters);
-        return searchAsync(query, extractTimeRangeFilter(filters))
+        return searchAsync(query, extractTimeRangeFilter(filters), rollups)
                 .thenApply(res -> {
                     final TermsAggregation groupedBy = res.getAggregations().getTermsAggregation("grouped_by");
                     if (groupedBy == null) {
@@ -350,7 +524,8 @@ public class ElasticFlowRepository implements FlowRepository {
 
     private CompletableFuture<Table<Directional<String>, Long, Double>> getSeriesFromTopN(List<String> topN, long step, String groupByTerm,
                                                                                           String keyForMissingTerm,
-                                                                                          boolean includeOther, List<Filter> filters) {
+                                                                                          boolean includeOther, boolean rollups,
+                                                                                          List<Filter> filters) {
         final TimeRangeFilter timeRangeFilter = getRequiredTimeRangeFilter(filters);
         final ImmutableTable.Builder<Directional<String>, Long, Double> builder = ImmutableTable.builder();
         CompletableFuture<Void> seriesFuture;
@@ -360,7 +535,7 @@ public class ElasticFlowRepository implements FlowRepository {
         } else {
             final String seriesFromTopNQuery = searchQueryProvider.getSeriesFromTopNQuery(topN, step, timeRangeFilter.getStart(),
                     timeRangeFilter.getEnd(), groupByTerm, filters);
-            seriesFuture = searchAsync(seriesFromTopNQuery, timeRangeFilter)
+            seriesFuture = searchAsync(seriesFromTopNQuery, timeRangeFilter, rollups)
                     .thenApply(res -> {
                         toTable(builder, res);
                         return null;
@@ -373,7 +548,7 @@ public class ElasticFlowRepository implements FlowRepository {
             final String seriesFromMissingQuery = searchQueryProvider.getSeriesFromMissingQuery(step,
                     timeRangeFilter.getStart(), timeRangeFilter.getEnd(), groupByTerm, keyForMissingTerm, filters);
             seriesFuture = seriesFuture
-                    .thenCombine(searchAsync(seriesFromMissingQuery, extractTimeRangeFilter(filters)), (ignored,res) -> {
+                    .thenCombine(searchAsync(seriesFromMissingQuery, timeRangeFilter, rollups), (ignored,res) -> {
                 toTable(builder, res);
                 return null;
             });
@@ -383,7 +558,7 @@ public class ElasticFlowRepository implements FlowRepository {
             // We also want to gather series for terms not part of the Top N
             final String seriesFromOthersQuery = searchQueryProvider.getSeriesFromOthersQuery(topN, step,
                     timeRangeFilter.getStart(), timeRangeFilter.getEnd(), groupByTerm, missingTermIncludedInTopN, filters);
-            seriesFuture = seriesFuture.thenCombine(searchAsync(seriesFromOthersQuery, timeRangeFilter), (ignored,res) -> {
+            seriesFuture = seriesFuture.thenCombine(searchAsync(seriesFromOthersQuery, timeRangeFilter, rollups), (ignored,res) -> {
                 final MetricAggregation aggs = res.getAggregations();
                 final TermsAggregation directionAgg = aggs.getTermsAggregation("direction");
                 for (TermsAggregation.Entry directionBucket : directionAgg.getBuckets()) {
@@ -419,13 +594,15 @@ public class ElasticFlowRepository implements FlowRepository {
     private CompletableFuture<Table<Directional<String>, Long, Double>> getSeriesFromTopN(int N, long step, String groupByTerm,
                                                                                           String keyForMissingTerm, boolean includeOther,
                                                                                           List<Filter> filters) {
-        return getTopN(N, groupByTerm, keyForMissingTerm, filters)
-                .thenCompose((topN) -> getSeriesFromTopN(topN, step, groupByTerm, keyForMissingTerm, includeOther, filters));
+        final boolean rollups = canUseRollups(step, filters);
+        return getTopN(N, groupByTerm, keyForMissingTerm, rollups, filters)
+                .thenCompose((topN) -> getSeriesFromTopN(topN, step, groupByTerm, keyForMissingTerm, includeOther, rollups, filters));
     }
 
     private CompletableFuture<List<TrafficSummary<String>>> getTotalBytesFromTopN(List<String> topN, String groupByTerm,
                                                                                   String keyForMissingTerm,
-                                                                                  boolean includeOther, List<Filter> filters) {
+                                                                                  boolean includeOther, boolean rollups,
+                                                                                  List<Filter> filters) {
         final TimeRangeFilter timeRangeFilter = getRequiredTimeRangeFilter(filters);
         final long start = timeRangeFilter.getStart();
         // Remove 1 from the end to make sure we have a single bucket
@@ -439,7 +616,7 @@ public class ElasticFlowRepository implements FlowRepository {
             summariesFuture = CompletableFuture.completedFuture(new LinkedHashMap<>());
         } else {
             final String bytesFromTopNQuery = searchQueryProvider.getSeriesFromTopNQuery(topN, step, start, end, groupByTerm, filters);
-            summariesFuture = searchAsync(bytesFromTopNQuery, timeRangeFilter).thenApply(ElasticFlowRepository::toTrafficSummaries);
+            summariesFuture = searchAsync(bytesFromTopNQuery, timeRangeFilter, rollups).thenApply(ElasticFlowRepository::toTrafficSummaries);
         }
 
         final boolean missingTermIncludedInTopN = keyForMissingTerm != null && topN.contains(keyForMissingTerm);
@@ -447,7 +624,7 @@ public class ElasticFlowRepository implements FlowRepository {
             // We also need to query for items with a missing term, this will require a separate query
             final String bytesFromMissingQuery = searchQueryProvider.getSeriesFromMissingQuery(step, start, end,
                     groupByTerm, keyForMissingTerm, filters);
-            summariesFuture = summariesFuture.thenCombine(searchAsync(bytesFromMissingQuery, timeRangeFilter), (summaries,results) -> {
+            summariesFuture = summariesFuture.thenCombine(searchAsync(bytesFromMissingQuery, timeRangeFilter, rollups), (summaries,results) -> {
                 summaries.putAll(toTrafficSummaries(results));
                 return summaries;
             });
@@ -457,7 +634,7 @@ public class ElasticFlowRepository implements FlowRepository {
             // We also want to tally up traffic from other elements not part of the Top N
             final String bytesFromOthersQuery = searchQueryProvider.getSeriesFromOthersQuery(topN, step, start, end,
                     groupByTerm, missingTermIncludedInTopN, filters);
-            summariesFuture = summariesFuture.thenCombine(searchAsync(bytesFromOthersQuery, timeRangeFilter), (summaries,results) -> {
+            summariesFuture = summariesFuture.thenCombine(searchAsync(bytesFromOthersQuery, timeRangeFilter, rollups), (summaries,results) -> {
                 final MetricAggregation aggs = results.getAggregations();
                 final TrafficSummary<String> trafficSummary = new TrafficSummary<>(OTHER_APPLICATION_NAME);
                 final TermsAggregation directionAgg = aggs.getTermsAggregation("direction");
@@ -525,8 +702,11 @@ public class ElasticFlowRepository implements FlowRepository {
     }
 
     private CompletableFuture<List<TrafficSummary<String>>> getTotalBytesFromTopN(int N, String groupByTerm, String keyForMissingTerm, boolean includeOther, List<Filter> filters) {
-        return getTopN(N, groupByTerm, keyForMissingTerm, filters)
-                .thenCompose((topN) -> getTotalBytesFromTopN(topN, groupByTerm, keyForMissingTerm, includeOther, filters));
+        // The totals are calculated using a single step spanning the whole time range
+        final TimeRangeFilter timeRangeFilter = extractTimeRangeFilter(filters);
+        final boolean rollups = timeRangeFilter != null && canUseRollups(timeRangeFilter.getEnd() - timeRangeFilter.getStart(), filters);
+        return getTopN(N, groupByTerm, keyForMissingTerm, rollups, filters)
+                .thenCompose((topN) -> getTotalBytesFromTopN(topN, groupByTerm, keyForMissingTerm, includeOther, rollups, filters));
     }
 
     /**
@@ -570,10 +750,14 @@ public class ElasticFlowRepository implements FlowRepository {
     }
 
     private CompletableFuture<SearchResult> searchAsync(String query, TimeRangeFilter timeRangeFilter) {
+        return searchAsync(query, timeRangeFilter, false);
+    }
+
+    private CompletableFuture<SearchResult> searchAsync(String query, TimeRangeFilter timeRangeFilter, boolean rollups) {
         Search.Builder builder = new Search.Builder(query)
-                .addType(TYPE);
+                .addType(rollups ? ROLLUP_TYPE : TYPE);
         if(timeRangeFilter != null) {
-            final List<String> indices = indexSelector.getIndexNames(timeRangeFilter);
+            final List<String> indices = (rollups ? rollupIndexSelector : indexSelector).getIndexNames(timeRangeFilter);
             builder.addIndices(indices);
             builder.setParameter("ignore_unavailable", "true"); // ignore unknown index
 
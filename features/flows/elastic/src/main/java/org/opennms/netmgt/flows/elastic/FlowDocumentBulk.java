@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.elastic;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+
+import org.opennms.plugins.elasticsearch.rest.bulk.BulkWrapper;
+
+import com.google.gson.Gson;
+
+import io.searchbox.core.Bulk;
+
+/**
+ * Bulk action which indexes {@link FlowDocument}s.
+ *
+ * Instead of serializing every document to a string using Gson and concatenating
+ * these, the whole body is written into a single, per thread, reusable buffer using the
+ * {@link FlowDocumentJsonWriter}.
+ *
+ * @param <T> type of the elements in the bulk request
+ */
+public class FlowDocumentBulk<T> extends BulkWrapper {
+
+    /**
+     * Buffers growing beyond this size are not kept for re-use.
+     */
+    private static final int MAX_POOLED_BUFFER_SIZE = 32 * 1024 * 1024;
+
+    private static final ThreadLocal<StringBuilder> BUFFERS = ThreadLocal.withInitial(() -> new StringBuilder(64 * 1024));
+
+    private final List<T> elements;
+    private final Function<T, FlowDocument> documentFn;
+    private final Function<T, String> indexFn;
+    private final Function<T, String> idFn;
+    private final String type;
+
+    /**
+     * @param elements the elements to index
+     * @param documentFn returns the document of an element
+     * @param indexFn returns the index of an element
+     * @param idFn returns the id of an element, or null to let Elasticsearch generate one.
+     * @param type the type of the documents
+     */
+    public FlowDocumentBulk(List<T> elements, Function<T, FlowDocument> documentFn, Function<T, String> indexFn,
+                            Function<T, String> idFn, String type) {
+        super(new Bulk.Builder());
+        this.elements = new ArrayList<>(Objects.requireNonNull(elements));
+        this.documentFn = Objects.requireNonNull(documentFn);
+        this.indexFn = Objects.requireNonNull(indexFn);
+        this.idFn = idFn;
+        this.type = Objects.requireNonNull(type);
+    }
+
+    public static FlowDocumentBulk<FlowDocument> of(List<FlowDocument> documents, Function<FlowDocument, String> indexFn, String type) {
+        return new FlowDocumentBulk<>(documents, Function.identity(), indexFn, null, type);
+    }
+
+    @Override
+    public String getData(Gson gson) {
+        final StringBuilder buffer = BUFFERS.get();
+        try {
+            writeTo(buffer);
+            return buffer.toString();
+        } finally {
+            buffer.setLength(0);
+            if (buffer.capacity() > MAX_POOLED_BUFFER_SIZE) {
+                BUFFERS.remove();
+            }
+        }
+    }
+
+    /**
+     * Appends the body of the bulk request, in the newline delimited format expected by Elasticsearch.
+     */
+    public void writeTo(StringBuilder out) {
+        final FlowDocumentJsonWriter writer = new FlowDocumentJsonWriter(out);
+        for (T element : elements) {
+            // Index, type and id are expected to be simple names, which don't require escaping
+            out.append("{\"index\":{\"_index\":\"").append(indexFn.apply(element))
+                    .append("\",\"_type\":\"").append(type).append('"');
+            final String id = idFn != null ? idFn.apply(element) : null;
+            if (id != null) {
+                out.append(",\"_id\":\"").append(id).append('"');
+            }
+            out.append("}}\n");
+            writer.write(documentFn.apply(element));
+            out.append('\n');
+        }
+    }
+
+    @Override
+    public int size() {
+        return elements.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return elements.isEmpty();
+    }
+}
@@ -0,0 +1,230 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.elastic;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * Writes {@link FlowDocument}s as JSON, without reflection or intermediate strings.
+ *
+ * The output is equivalent to the one of Gson: null values are omitted and the
+ * names of the fields and enum constants are taken from their {@link SerializedName} annotations.
+ * When adding fields to {@link FlowDocument}, these must be added here as well.
+ */
+public class FlowDocumentJsonWriter {
+
+    private static final Map<Direction, String> DIRECTIONS = getSerializedNames(Direction.class);
+    private static final Map<Locality, String> LOCALITIES = getSerializedNames(Locality.class);
+    private static final Map<NetflowVersion, String> NETFLOW_VERSIONS = getSerializedNames(NetflowVersion.class);
+    private static final Map<SamplingAlgorithm, String> SAMPLING_ALGORITHMS = getSerializedNames(SamplingAlgorithm.class);
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final StringBuilder out;
+
+    private boolean first;
+
+    public FlowDocumentJsonWriter(StringBuilder out) {
+        this.out = out;
+    }
+
+    public void write(FlowDocument doc) {
+        beginObject();
+        field("@timestamp", doc.getTimestamp());
+        field("@version", doc.getVersion());
+        field("host", doc.getHost());
+        field("location", doc.getLocation());
+        field("netflow.application", doc.getApplication());
+        field("netflow.bytes", doc.getBytes());
+        field("netflow.convo_key", doc.getConvoKey());
+        field("netflow.direction", DIRECTIONS, doc.getDirection());
+        field("netflow.dst_addr", doc.getDstAddr());
+        field("netflow.dst_as", doc.getDstAs());
+        field("netflow.dst_locality", LOCALITIES, doc.getDstLocality());
+        field("netflow.dst_mask_len", doc.getDstMaskLen());
+        field("netflow.dst_port", doc.getDstPort());
+        field("netflow.engine_id", doc.getEngineId());
+        field("netflow.engine_type", doc.getEngineType());
+        field("netflow.first_switched", doc.getFirstSwitched());
+        field("netflow.flow_locality", LOCALITIES, doc.getFlowLocality());
+        field("netflow.flow_records", doc.getFlowRecords());
+        field("netflow.flow_seq_num", doc.getFlowSeqNum());
+        field("netflow.input_snmp", doc.getInputSnmp());
+        field("netflow.ip_protocol_version", doc.getIpProtocolVersion());
+        field("netflow.last_switched", doc.getLastSwitched());
+        field("netflow.next_hop", doc.getNextHop());
+        field("netflow.output_snmp", doc.getOutputSnmp());
+        field("netflow.packets", doc.getPackets());
+        field("netflow.protocol", doc.getProtocol());
+        field("netflow.sampling_algorithm", SAMPLING_ALGORITHMS, doc.getSamplingAlgorithm());
+        field("netflow.sampling_interval", doc.getSamplingInterval());
+        field("netflow.src_addr", doc.getSrcAddr());
+        field("netflow.src_as", doc.getSrcAs());
+        field("netflow.src_locality", LOCALITIES, doc.getSrcLocality());
+        field("netflow.src_mask_len", doc.getSrcMaskLen());
+        field("netflow.src_port", doc.getSrcPort());
+        field("netflow.tcp_flags", doc.getTcpFlags());
+        field("netflow.tos", doc.getTos());
+        field("netflow.version", NETFLOW_VERSIONS, doc.getNetflowVersion());
+        field("netflow.vlan", doc.getVlan());
+        field("node_dst", doc.getNodeDst());
+        field("node_exporter", doc.getNodeExporter());
+        field("node_src", doc.getNodeSrc());
+        endObject();
+    }
+
+    private void write(NodeDocument node) {
+        beginObject();
+        field("foreign_source", node.getForeignSource());
+        field("foreign_id", node.getForeignId());
+        field("node_id", node.getNodeId());
+        final List<String> categories = node.getCategories();
+        if (categories != null) {
+            name("categories");
+            out.append('[');
+            for (int i = 0; i < categories.size(); i++) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                string(categories.get(i));
+            }
+            out.append(']');
+        }
+        endObject();
+    }
+
+    private void beginObject() {
+        out.append('{');
+        first = true;
+    }
+
+    private void endObject() {
+        out.append('}');
+        first = false;
+    }
+
+    private void name(String name) {
+        if (!first) {
+            out.append(',');
+        }
+        first = false;
+        // The names are constants, which don't require escaping
+        out.append('"').append(name).append("\":");
+    }
+
+    private void field(String name, long value) {
+        name(name);
+        out.append(value);
+    }
+
+    private void field(String name, Integer value) {
+        if (value != null) {
+            name(name);
+            out.append(value.intValue());
+        }
+    }
+
+    private void field(String name, Long value) {
+        if (value != null) {
+            name(name);
+            out.append(value.longValue());
+        }
+    }
+
+    private void field(String name, Double value) {
+        // JSON has no representation for NaN and infinite values
+        if (value != null && !value.isNaN() && !value.isInfinite()) {
+            name(name);
+            out.append(value.doubleValue());
+        }
+    }
+
+    private void field(String name, String value) {
+        if (value != null) {
+            name(name);
+            string(value);
+        }
+    }
+
+    private <E extends Enum<E>> void field(String name, Map<E, String> names, E value) {
+        if (value != null) {
+            name(name);
+            string(names.get(value));
+        }
+    }
+
+    private void field(String name, NodeDocument value) {
+        if (value != null) {
+            name(name);
+            write(value);
+        }
+    }
+
+    private void string(String value) {
+        out.append('"');
+        int start = 0;
+        final int length = value.length();
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\' && c != 0x2028 && c != 0x2029) {
+                continue;
+            }
+            out.append(value, start, i);
+            start = i + 1;
+            switch (c) {
+                case '"': out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\t': out.append("\\t"); break;
+                default:
+                    out.append("\\u").append(HEX[(c >> 12) & 0xF]).append(HEX[(c >> 8) & 0xF]).append(HEX[(c >> 4) & 0xF]).append(HEX[c & 0xF]);
+            }
+        }
+        out.append(value, start, length);
+        out.append('"');
+    }
+
+    private static <E extends Enum<E>> Map<E, String> getSerializedNames(Class<E> enumClass) {
+        final Map<E, String> names = new EnumMap<>(enumClass);
+        for (E constant : enumClass.getEnumConstants()) {
+            try {
+                final SerializedName serializedName = enumClass.getField(constant.name()).getAnnotation(SerializedName.class);
+                names.put(constant, serializedName != null ? serializedName.value() : constant.name());
+            } catch (NoSuchFieldException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return names;
+    }
+}
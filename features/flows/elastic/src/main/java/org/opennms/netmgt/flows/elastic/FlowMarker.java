@@ -0,0 +1,284 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.elastic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.netmgt.dao.api.NodeDao;
+import org.opennms.netmgt.dao.api.SnmpInterfaceDao;
+import org.opennms.netmgt.model.OnmsNode;
+import org.opennms.netmgt.model.OnmsSnmpInterface;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.support.TransactionOperations;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Marks nodes and interfaces as having flows.
+ *
+ * The exporters and interfaces seen in the flows are checked against a {@link MarkerSet} of the already marked ones,
+ * and only the new ones are queued. The queued markers are written to the database by a background thread, in a
+ * single transaction per flush, so persisting flows never waits on the database.
+ */
+public class FlowMarker {
+    private static final Logger LOG = LoggerFactory.getLogger(FlowMarker.class);
+
+    /**
+     * ifIndex used for the markers of the nodes themselves, interfaces with this index are never marked.
+     */
+    private static final int NODE_IF_INDEX = 0;
+
+    private final TransactionOperations transactionOperations;
+
+    private final NodeDao nodeDao;
+
+    private final SnmpInterfaceDao snmpInterfaceDao;
+
+    private final MarkerSet markers = new MarkerSet();
+
+    private final Object pendingLock = new Object();
+
+    private long[] pending = new long[64];
+
+    private int numPending = 0;
+
+    private long oldestPendingTime = 0;
+
+    private final Object flushLock = new Object();
+
+    private final ScheduledThreadPoolExecutor executor;
+
+    private volatile long flushIntervalMs;
+
+    /**
+     * The next background flush, null until started. Guarded by this.
+     */
+    private ScheduledFuture<?> scheduledFlush;
+
+    /**
+     * Time taken to write the queued markers to the database
+     */
+    private final Timer flushTimer;
+
+    public FlowMarker(MetricRegistry metricRegistry, TransactionOperations transactionOperations,
+                      NodeDao nodeDao, SnmpInterfaceDao snmpInterfaceDao, long flushIntervalMs) {
+        this.transactionOperations = Objects.requireNonNull(transactionOperations);
+        this.nodeDao = Objects.requireNonNull(nodeDao);
+        this.snmpInterfaceDao = Objects.requireNonNull(snmpInterfaceDao);
+        setFlushIntervalMs(flushIntervalMs);
+
+        flushTimer = metricRegistry.timer("markerFlush");
+        metricRegistry.register("markerFlushLag", (Gauge<Long>) this::getFlushLagMs);
+        metricRegistry.register("pendingMarkers", (Gauge<Integer>) this::getNumPending);
+
+        executor = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder()
+                .setNameFormat("flow-marker-%d")
+                .setDaemon(true)
+                .build());
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    /**
+     * Loads the nodes and interfaces which were already marked and starts the background flushes.
+     */
+    public void start() {
+        transactionOperations.execute(cb -> {
+            for (final OnmsNode node : nodeDao.findAllHavingFlows()) {
+                markers.add(node.getId(), NODE_IF_INDEX);
+                for (final OnmsSnmpInterface snmpInterface : snmpInterfaceDao.findAllHavingFlows(node.getId())) {
+                    if (snmpInterface.getIfIndex() != null) {
+                        markers.add(node.getId(), snmpInterface.getIfIndex());
+                    }
+                }
+            }
+            return null;
+        });
+        scheduleFlush();
+    }
+
+    /**
+     * Writes the queued markers and stops the background flushes.
+     */
+    public void stop() {
+        executor.shutdown();
+        // Waits for a running flush to complete
+        flush();
+    }
+
+    /**
+     * Queues the exporters and interfaces of the given flows which were not seen before.
+     */
+    public void mark(List<FlowDocument> flows) {
+        for (final FlowDocument flow : flows) {
+            if (flow.getNodeExporter() == null) continue;
+            if (flow.getNodeExporter().getNodeId() == null) continue;
+
+            final int nodeId = flow.getNodeExporter().getNodeId();
+            mark(nodeId, NODE_IF_INDEX);
+            if (flow.getInputSnmp() != null && flow.getInputSnmp() != NODE_IF_INDEX) {
+                mark(nodeId, flow.getInputSnmp());
+            }
+            if (flow.getOutputSnmp() != null && flow.getOutputSnmp() != NODE_IF_INDEX) {
+                mark(nodeId, flow.getOutputSnmp());
+            }
+        }
+    }
+
+    private void mark(int nodeId, int ifIndex) {
+        // The common case of an already known marker does not need any lock
+        if (markers.contains(nodeId, ifIndex) || !markers.add(nodeId, ifIndex)) {
+            return;
+        }
+        enqueue(MarkerSet.key(nodeId, ifIndex));
+    }
+
+    private void enqueue(long key) {
+        synchronized (pendingLock) {
+            if (numPending == 0) {
+                oldestPendingTime = System.currentTimeMillis();
+            }
+            if (numPending == pending.length) {
+                pending = Arrays.copyOf(pending, pending.length * 2);
+            }
+            pending[numPending++] = key;
+        }
+    }
+
+    /**
+     * Writes all of the queued markers to the database.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            final long[] keys;
+            final long queuedSince;
+            synchronized (pendingLock) {
+                if (numPending == 0) {
+                    return;
+                }
+                keys = Arrays.copyOf(pending, numPending);
+                queuedSince = oldestPendingTime;
+                numPending = 0;
+            }
+
+            final List<Integer> nodesToUpdate = new ArrayList<>();
+            final Map<Integer, List<Integer>> interfacesToUpdate = new HashMap<>();
+            for (final long key : keys) {
+                final int nodeId = MarkerSet.nodeId(key);
+                final int ifIndex = MarkerSet.ifIndex(key);
+                if (ifIndex == NODE_IF_INDEX) {
+                    nodesToUpdate.add(nodeId);
+                } else {
+                    interfacesToUpdate.computeIfAbsent(nodeId, k -> new ArrayList<>()).add(ifIndex);
+                }
+            }
+
+            try (final Timer.Context ctx = flushTimer.time()) {
+                transactionOperations.execute(cb -> {
+                    if (!nodesToUpdate.isEmpty()) {
+                        nodeDao.markHavingFlows(nodesToUpdate);
+                    }
+                    for (final Map.Entry<Integer, List<Integer>> e : interfacesToUpdate.entrySet()) {
+                        snmpInterfaceDao.markHavingFlows(e.getKey(), e.getValue());
+                    }
+                    return null;
+                });
+                LOG.debug("Marked {} nodes and the interfaces of {} nodes as having flows.", nodesToUpdate.size(), interfacesToUpdate.size());
+            } catch (RuntimeException e) {
+                LOG.warn("Failed to mark {} nodes and interfaces as having flows. Will retry.", keys.length, e);
+                requeue(keys, queuedSince);
+            }
+        }
+    }
+
+    private void requeue(long[] keys, long queuedSince) {
+        synchronized (pendingLock) {
+            final long[] merged = new long[Math.max(pending.length, keys.length + numPending)];
+            System.arraycopy(keys, 0, merged, 0, keys.length);
+            System.arraycopy(pending, 0, merged, keys.length, numPending);
+            pending = merged;
+            numPending += keys.length;
+            oldestPendingTime = queuedSince;
+        }
+    }
+
+    private synchronized void scheduleFlush() {
+        try {
+            scheduledFlush = executor.schedule(() -> {
+                try {
+                    flush();
+                } finally {
+                    scheduleFlush();
+                }
+            }, flushIntervalMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Stopped
+        }
+    }
+
+    /**
+     * Returns the time since the oldest queued marker is waiting to be written.
+     */
+    public long getFlushLagMs() {
+        synchronized (pendingLock) {
+            return numPending > 0 ? System.currentTimeMillis() - oldestPendingTime : 0;
+        }
+    }
+
+    public int getNumPending() {
+        synchronized (pendingLock) {
+            return numPending;
+        }
+    }
+
+    public void setFlushIntervalMs(long flushIntervalMs) {
+        if (flushIntervalMs < 1) {
+            throw new IllegalArgumentException("flushIntervalMs must be positive, got: " + flushIntervalMs);
+        }
+        synchronized (this) {
+            this.flushIntervalMs = flushIntervalMs;
+            // Once started, replace the pending flush so that the new interval applies right away
+            if (scheduledFlush != null && scheduledFlush.cancel(false)) {
+                scheduleFlush();
+            }
+        }
+    }
+}
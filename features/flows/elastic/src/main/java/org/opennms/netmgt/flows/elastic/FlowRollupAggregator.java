@@ -0,0 +1,282 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.elastic;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Aggregates flows into roll-ups of fixed time windows.
+ *
+ * Flows are grouped by window, conversation, application, direction, exporter and interfaces,
+ * which are all of the terms used by the flow queries for grouping and filtering.
+ *
+ * The bytes and packets of a flow spanning several windows are distributed proportionally
+ * amongst these windows, using the same semantics as the proportional_sum aggregation, and
+ * the sampling interval is applied, so that summing the roll-ups yields the same results as
+ * aggregating the raw flows when the query step is a multiple of the window.
+ *
+ * Roll-ups are kept open until their window ended more than the given lateness ago.
+ * Open roll-ups which were updated since the last flush are returned by every flush and should be
+ * (re-)indexed using their id. Flows arriving after a roll-up was closed create a new roll-up
+ * with a different id for the same window, so no data is lost.
+ */
+public class FlowRollupAggregator {
+
+    public static class FlowRollup {
+        private final String id;
+        private final FlowDocument document;
+
+        private FlowRollup(String id, FlowDocument document) {
+            this.id = Objects.requireNonNull(id);
+            this.document = Objects.requireNonNull(document);
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public FlowDocument getDocument() {
+            return document;
+        }
+    }
+
+    private final long windowMs;
+
+    private final long maxLatenessMs;
+
+    private final int maxOpenRollups;
+
+    private final Map<RollupKey, Rollup> openRollups = new HashMap<>();
+
+    public FlowRollupAggregator(long windowMs, long maxLatenessMs, int maxOpenRollups) {
+        if (windowMs < 1) {
+            throw new IllegalArgumentException("windowMs must be positive, got: " + windowMs);
+        }
+        if (maxOpenRollups < 1) {
+            throw new IllegalArgumentException("maxOpenRollups must be positive, got: " + maxOpenRollups);
+        }
+        this.windowMs = windowMs;
+        this.maxLatenessMs = Math.max(0, maxLatenessMs);
+        this.maxOpenRollups = maxOpenRollups;
+    }
+
+    public long getWindowMs() {
+        return windowMs;
+    }
+
+    public synchronized int getNumOpenRollups() {
+        return openRollups.size();
+    }
+
+    public synchronized void aggregate(Collection<FlowDocument> flows) {
+        for (FlowDocument flow : flows) {
+            aggregate(flow);
+        }
+    }
+
+    /**
+     * Returns the roll-ups which were updated since the last flush and closes the roll-ups
+     * which ended more than the lateness before the given time. If there are more open roll-ups
+     * than allowed, the oldest ones are closed as well.
+     */
+    public synchronized List<FlowRollup> flush(long nowMs) {
+        final List<FlowRollup> flushed = new ArrayList<>();
+        final Iterator<Rollup> it = openRollups.values().iterator();
+        while (it.hasNext()) {
+            final Rollup rollup = it.next();
+            final boolean closed = rollup.key.windowStart + windowMs + maxLatenessMs <= nowMs;
+            if (rollup.dirty) {
+                flushed.add(rollup.toFlowRollup());
+            }
+            if (closed) {
+                it.remove();
+            }
+        }
+
+        if (openRollups.size() > maxOpenRollups) {
+            // All of the roll-ups were flushed above, so they can be dropped without losing data
+            final List<Rollup> oldestFirst = new ArrayList<>(openRollups.values());
+            oldestFirst.sort(Comparator.comparingLong(r -> r.key.windowStart));
+            for (int i = 0; i < oldestFirst.size() - maxOpenRollups; i++) {
+                openRollups.remove(oldestFirst.get(i).key);
+            }
+        }
+        return flushed;
+    }
+
+    /**
+     * Returns the roll-ups which were updated since the last flush and closes all of them.
+     */
+    public synchronized List<FlowRollup> flushAll() {
+        final List<FlowRollup> flushed = new ArrayList<>();
+        for (Rollup rollup : openRollups.values()) {
+            if (rollup.dirty) {
+                flushed.add(rollup.toFlowRollup());
+            }
+        }
+        openRollups.clear();
+        return flushed;
+    }
+
+    private void aggregate(FlowDocument flow) {
+        final long timestamp = flow.getTimestamp();
+        long first = flow.getFirstSwitched() != null ? flow.getFirstSwitched() : timestamp;
+        long last = flow.getLastSwitched() != null ? flow.getLastSwitched() : first;
+        if (last < first) {
+            last = first;
+        }
+        final long duration = last - first;
+
+        final double multiplier = flow.getSamplingInterval() != null && flow.getSamplingInterval() > 0 ? flow.getSamplingInterval() : 1d;
+        final double bytes = flow.getBytes() != null ? flow.getBytes() * multiplier : 0d;
+        final double packets = flow.getPackets() != null ? flow.getPackets() * multiplier : 0d;
+
+        for (long windowStart = floorToWindow(first); windowStart <= last; windowStart += windowMs) {
+            final double fraction;
+            if (duration == 0) {
+                fraction = 1d;
+            } else {
+                final long overlap = Math.min(last, windowStart + windowMs) - Math.max(first, windowStart);
+                if (overlap <= 0) {
+                    continue;
+                }
+                fraction = overlap / (double) duration;
+            }
+
+            final RollupKey key = new RollupKey(windowStart, flow);
+            final Rollup rollup = openRollups.computeIfAbsent(key, k -> new Rollup(k, flow.getNodeExporter()));
+            rollup.bytes += bytes * fraction;
+            rollup.packets += packets * fraction;
+            rollup.flowRecords++;
+            rollup.dirty = true;
+        }
+    }
+
+    private long floorToWindow(long timestamp) {
+        return Math.floorDiv(timestamp, windowMs) * windowMs;
+    }
+
+    private class Rollup {
+        private final RollupKey key;
+        private final NodeDocument exporter;
+        private final String id = UUID.randomUUID().toString();
+        private double bytes;
+        private double packets;
+        private int flowRecords;
+        private boolean dirty;
+
+        private Rollup(RollupKey key, NodeDocument exporter) {
+            this.key = key;
+            this.exporter = exporter;
+        }
+
+        private FlowRollup toFlowRollup() {
+            dirty = false;
+
+            final FlowDocument doc = new FlowDocument();
+            doc.setTimestamp(key.windowStart);
+            // The roll-up covers the whole window, but must not overlap with the next one
+            doc.setFirstSwitched(key.windowStart);
+            doc.setLastSwitched(key.windowStart + windowMs - 1);
+            doc.setBytes(Math.round(bytes));
+            doc.setPackets(Math.round(packets));
+            // The sampling interval was already applied
+            doc.setSamplingInterval(1d);
+            doc.setFlowRecords(flowRecords);
+            doc.setConvoKey(key.convoKey);
+            doc.setApplication(key.application);
+            doc.setDirection(key.direction);
+            doc.setLocation(key.location);
+            doc.setInputSnmp(key.inputSnmp);
+            doc.setOutputSnmp(key.outputSnmp);
+            doc.setNodeExporter(exporter);
+            return new FlowRollup(id, doc);
+        }
+    }
+
+    private static class RollupKey {
+        private final long windowStart;
+        private final String convoKey;
+        private final String application;
+        private final Direction direction;
+        private final String location;
+        private final Integer inputSnmp;
+        private final Integer outputSnmp;
+        private final Integer exporterNodeId;
+        private final String exporterForeignSource;
+        private final String exporterForeignId;
+        private final int hashCode;
+
+        private RollupKey(long windowStart, FlowDocument flow) {
+            this.windowStart = windowStart;
+            this.convoKey = flow.getConvoKey();
+            this.application = flow.getApplication();
+            this.direction = flow.getDirection();
+            this.location = flow.getLocation();
+            this.inputSnmp = flow.getInputSnmp();
+            this.outputSnmp = flow.getOutputSnmp();
+            final NodeDocument exporter = flow.getNodeExporter();
+            this.exporterNodeId = exporter != null ? exporter.getNodeId() : null;
+            this.exporterForeignSource = exporter != null ? exporter.getForeignSource() : null;
+            this.exporterForeignId = exporter != null ? exporter.getForeignId() : null;
+            this.hashCode = Objects.hash(windowStart, convoKey, application, direction, location, inputSnmp, outputSnmp,
+                    exporterNodeId, exporterForeignSource, exporterForeignId);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            final RollupKey that = (RollupKey) o;
+            return windowStart == that.windowStart
+                    && Objects.equals(convoKey, that.convoKey)
+                    && Objects.equals(application, that.application)
+                    && direction == that.direction
+                    && Objects.equals(location, that.location)
+                    && Objects.equals(inputSnmp, that.inputSnmp)
+                    && Objects.equals(outputSnmp, that.outputSnmp)
+                    && Objects.equals(exporterNodeId, that.exporterNodeId)
+                    && Objects.equals(exporterForeignSource, that.exporterForeignSource)
+                    && Objects.equals(exporterForeignId, that.exporterForeignId);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
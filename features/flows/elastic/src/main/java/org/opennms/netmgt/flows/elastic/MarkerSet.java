@@ -0,0 +1,176 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.elastic;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Grow-only set of (node ID, ifIndex) pairs, packed into primitive longs.
+ *
+ * The set is split into shards, each using an open addressing table with linear probing.
+ * Lookups don't take any lock, which makes checking for already known pairs cheap for concurrent callers.
+ * Additions are serialized per shard.
+ */
+public class MarkerSet {
+
+    private static final int NUM_SHARDS = 16;
+
+    private static final int INITIAL_SHARD_CAPACITY = 64;
+
+    /**
+     * Marks free slots, the key equal to this value is tracked separately.
+     */
+    private static final long FREE = 0L;
+
+    private final Shard[] shards = new Shard[NUM_SHARDS];
+
+    private volatile boolean containsFreeKey = false;
+
+    public MarkerSet() {
+        for (int i = 0; i < NUM_SHARDS; i++) {
+            shards[i] = new Shard();
+        }
+    }
+
+    public static long key(int nodeId, int ifIndex) {
+        return ((long) nodeId << 32) | (ifIndex & 0xFFFFFFFFL);
+    }
+
+    public static int nodeId(long key) {
+        return (int) (key >>> 32);
+    }
+
+    public static int ifIndex(long key) {
+        return (int) key;
+    }
+
+    public boolean contains(int nodeId, int ifIndex) {
+        final long key = key(nodeId, ifIndex);
+        if (key == FREE) {
+            return containsFreeKey;
+        }
+        final long hash = hash(key);
+        return shards[shardIndex(hash)].contains(key, hash);
+    }
+
+    /**
+     * @return true if the pair was not contained before
+     */
+    public boolean add(int nodeId, int ifIndex) {
+        final long key = key(nodeId, ifIndex);
+        if (key == FREE) {
+            synchronized (this) {
+                final boolean added = !containsFreeKey;
+                containsFreeKey = true;
+                return added;
+            }
+        }
+        final long hash = hash(key);
+        final Shard shard = shards[shardIndex(hash)];
+        return !shard.contains(key, hash) && shard.add(key, hash);
+    }
+
+    public int size() {
+        int size = containsFreeKey ? 1 : 0;
+        for (Shard shard : shards) {
+            size += shard.size;
+        }
+        return size;
+    }
+
+    private static long hash(long key) {
+        // Finalizer of MurmurHash3, spreads the sequential node IDs and ifIndexes over all bits
+        long h = key;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static int shardIndex(long hash) {
+        return (int) (hash >>> 60) & (NUM_SHARDS - 1);
+    }
+
+    private static class Shard {
+        private volatile AtomicLongArray table = new AtomicLongArray(INITIAL_SHARD_CAPACITY);
+
+        private volatile int size = 0;
+
+        private boolean contains(long key, long hash) {
+            final AtomicLongArray table = this.table;
+            final int mask = table.length() - 1;
+            for (int i = (int) hash & mask; ; i = (i + 1) & mask) {
+                final long slot = table.get(i);
+                if (slot == key) {
+                    return true;
+                }
+                if (slot == FREE) {
+                    return false;
+                }
+            }
+        }
+
+        private synchronized boolean add(long key, long hash) {
+            if (!insert(table, key, hash)) {
+                return false;
+            }
+            size++;
+            // Keep the load factor below 1/2, so probe sequences stay short
+            if (size * 2 > table.length()) {
+                final AtomicLongArray current = table;
+                final AtomicLongArray resized = new AtomicLongArray(current.length() * 2);
+                for (int i = 0; i < current.length(); i++) {
+                    final long slot = current.get(i);
+                    if (slot != FREE) {
+                        insert(resized, slot, hash(slot));
+                    }
+                }
+                // Concurrent lookups keep using the old table, which still holds all keys
+                table = resized;
+            }
+            return true;
+        }
+
+        private static boolean insert(AtomicLongArray table, long key, long hash) {
+            final int mask = table.length() - 1;
+            for (int i = (int) hash & mask; ; i = (i + 1) & mask) {
+                final long slot = table.get(i);
+                if (slot == key) {
+                    return false;
+                }
+                if (slot == FREE) {
+                    table.set(i, key);
+                    return true;
+                }
+            }
+        }
+    }
+}
@@ -50,6 +50,7 @@ public class DocumentEnricherTest {
 
     private DocumentEnricher enricher;
     private AtomicInteger nodeDaoGetCounter;
+    private AtomicInteger nodeDaoBulkLoadCounter;
 
     @Before
     public void setUp() {
@@ -58,6 +59,7 @@ public class DocumentEnricherTest {
         final NodeDao nodeDao = factory.getNodeDao();
         final InterfaceToNodeCache interfaceToNodeCache = factory.getInterfaceToNodeCache();
         nodeDaoGetCounter = factory.getNodeDaoGetCounter();
+        nodeDaoBulkLoadCounter = factory.getNodeDaoBulkLoadCounter();
 
         interfaceToNodeCache.setNodeId("Default", InetAddressUtils.addr("10.0.0.1"), 1);
         interfaceToNodeCache.setNodeId("Default", InetAddressUtils.addr("10.0.0.2"), 2);
@@ -75,8 +77,19 @@ public class DocumentEnricherTest {
         documents.add(createFlowDocument("10.0.0.1", "10.0.0.3"));
         enricher.enrich(documents, new FlowSource("Default", "127.0.0.1"));
 
-        // get is also called for each save, so we account for those as well
-        assertEquals(6, nodeDaoGetCounter.get());
+        // get is only called for each save, the nodes of the batch are loaded with a single query
+        assertEquals(3, nodeDaoGetCounter.get());
+        assertEquals(1, nodeDaoBulkLoadCounter.get());
+
+        // All of the nodes should be enriched
+        assertEquals(Integer.valueOf(1), documents.get(0).getNodeSrc().getNodeId());
+        assertEquals(Integer.valueOf(2), documents.get(0).getNodeDst().getNodeId());
+        assertEquals(Integer.valueOf(3), documents.get(1).getNodeDst().getNodeId());
+        assertEquals(Locality.PRIVATE, documents.get(1).getSrcLocality());
+
+        // The nodes are now cached
+        enricher.enrich(Lists.newArrayList(createFlowDocument("10.0.0.3", "10.0.0.2")), new FlowSource("Default", "127.0.0.1"));
+        assertEquals(1, nodeDaoBulkLoadCounter.get());
     }
 
     private static FlowDocument createFlowDocument(String sourceIp, String destIp) {
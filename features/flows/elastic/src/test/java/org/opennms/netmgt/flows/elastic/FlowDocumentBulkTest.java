@@ -0,0 +1,185 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.elastic;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertEquals;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+import io.searchbox.client.AbstractJestClient;
+import io.searchbox.core.Bulk;
+import io.searchbox.core.Index;
+
+public class FlowDocumentBulkTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FlowDocumentBulkTest.class);
+
+    private final Gson gson = new GsonBuilder()
+            .setDateFormat(AbstractJestClient.ELASTIC_SEARCH_DATE_FORMAT)
+            .create();
+
+    @Test
+    public void canWriteDocumentsLikeGson() {
+        verifyJsonEquals(new FlowDocument());
+        verifyJsonEquals(createDocument(1));
+
+        final FlowDocument document = createDocument(2);
+        document.setApplication("quotes \" and \\ back\nslashes\t\u0001 ");
+        document.getNodeExporter().setCategories(Arrays.asList("a\"b", "Ünicode"));
+        verifyJsonEquals(document);
+    }
+
+    @Test
+    public void canWriteBulkBody() {
+        final List<FlowDocument> documents = Arrays.asList(createDocument(1), createDocument(2));
+        final FlowDocumentBulk<FlowDocument> bulk = new FlowDocumentBulk<>(documents, d -> d, d -> "netflow-2019-01",
+                d -> d.getFlowSeqNum() == 2 ? "id2" : null, "netflow");
+        assertThat(bulk.size(), equalTo(2));
+
+        final String[] lines = bulk.getData(gson).split("\n");
+        assertThat(lines.length, equalTo(4));
+        assertEquals(new JsonParser().parse("{\"index\":{\"_index\":\"netflow-2019-01\",\"_type\":\"netflow\"}}"), new JsonParser().parse(lines[0]));
+        assertEquals(new JsonParser().parse(gson.toJson(documents.get(0))), new JsonParser().parse(lines[1]));
+        assertEquals(new JsonParser().parse("{\"index\":{\"_index\":\"netflow-2019-01\",\"_type\":\"netflow\",\"_id\":\"id2\"}}"), new JsonParser().parse(lines[2]));
+        assertEquals(new JsonParser().parse(gson.toJson(documents.get(1))), new JsonParser().parse(lines[3]));
+
+        // The buffer is re-used, and the result must be the same
+        assertThat(bulk.getData(gson).split("\n").length, equalTo(4));
+    }
+
+    @Test
+    public void benchmark() {
+        Assume.assumeTrue(Boolean.getBoolean("runBenchmarkTests"));
+
+        final List<FlowDocument> documents = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            documents.add(createDocument(i));
+        }
+        final com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+
+        for (int run = 0; run < 10; run++) {
+            long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            final Bulk.Builder bulkBuilder = new Bulk.Builder();
+            for (FlowDocument document : documents) {
+                bulkBuilder.addAction(new Index.Builder(document).index("netflow-2019-01").type("netflow").build());
+            }
+            int length = bulkBuilder.build().getData(gson).length();
+            long elapsed = System.nanoTime() - start;
+            long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+            LOG.info("Gson bulk of {} documents: {} chars in {}us, {} bytes allocated per document",
+                    documents.size(), length, elapsed / 1000, allocated / documents.size());
+
+            allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+            start = System.nanoTime();
+            length = FlowDocumentBulk.of(documents, d -> "netflow-2019-01", "netflow").getData(gson).length();
+            elapsed = System.nanoTime() - start;
+            allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+            LOG.info("FlowDocumentBulk of {} documents: {} chars in {}us, {} bytes allocated per document",
+                    documents.size(), length, elapsed / 1000, allocated / documents.size());
+        }
+    }
+
+    private void verifyJsonEquals(FlowDocument document) {
+        final StringBuilder out = new StringBuilder();
+        new FlowDocumentJsonWriter(out).write(document);
+        final JsonElement expected = new JsonParser().parse(gson.toJson(document));
+        final JsonElement actual = new JsonParser().parse(out.toString());
+        assertEquals(expected, actual);
+    }
+
+    private static FlowDocument createDocument(int i) {
+        final FlowDocument document = new FlowDocument();
+        document.setTimestamp(1546300800000L + i);
+        document.setHost("host" + i);
+        document.setLocation("Default");
+        document.setApplication("http");
+        document.setBytes(1000L + i);
+        document.setConvoKey("[\"Default\",6,\"10.0.0.1\",\"10.0.0.2\",\"http\"]");
+        document.setDirection(Direction.INGRESS);
+        document.setDstAddr("10.0.0.2");
+        document.setDstAs(2);
+        document.setDstLocality(Locality.PRIVATE);
+        document.setDstMaskLen(24);
+        document.setDstPort(80);
+        document.setEngineId(1);
+        document.setEngineType(0);
+        document.setFirstSwitched(1546300790000L + i);
+        document.setFlowLocality(Locality.PRIVATE);
+        document.setFlowRecords(8);
+        document.setFlowSeqNum(i);
+        document.setInputSnmp(3);
+        document.setIpProtocolVersion(4);
+        document.setLastSwitched(1546300799000L + i);
+        document.setNextHop("10.0.0.254");
+        document.setOutputSnmp(4);
+        document.setPackets(10L + i);
+        document.setProtocol(6);
+        document.setSamplingAlgorithm(SamplingAlgorithm.SystematicCountBasedSampling);
+        document.setSamplingInterval(1.5d);
+        document.setSrcAddr("10.0.0.1");
+        document.setSrcAs(1);
+        document.setSrcLocality(Locality.PUBLIC);
+        document.setSrcMaskLen(16);
+        document.setSrcPort(43444);
+        document.setTcpFlags(0x18);
+        document.setTos(0);
+        document.setNetflowVersion(NetflowVersion.V9);
+        document.setVlan("100");
+        document.setNodeDst(createNode(1));
+        document.setNodeExporter(createNode(2));
+        document.setNodeSrc(createNode(3));
+        return document;
+    }
+
+    private static NodeDocument createNode(int nodeId) {
+        final NodeDocument node = new NodeDocument();
+        node.setNodeId(nodeId);
+        node.setForeignSource("fs");
+        node.setForeignId("fid" + nodeId);
+        node.setCategories(new ArrayList<>(Arrays.asList("Routers", "Servers")));
+        return node;
+    }
+}
@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.elastic;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.not;
+
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+
+public class FlowRollupAggregatorTest {
+
+    @Test
+    public void canAggregateFlowsWithinTheSameWindow() {
+        final FlowRollupAggregator aggregator = new FlowRollupAggregator(60000, 0, 1000);
+        aggregator.aggregate(new FlowBuilder()
+                .withExporter("SomeFs", "SomeFid", 99)
+                .withSnmpInterfaceId(98)
+                .withApplication("http")
+                .withFlow(new Date(60000), "10.1.1.11", 80, "192.168.1.100", 43444, 10)
+                .withFlow(new Date(70000), new Date(80000), "10.1.1.11", 80, "192.168.1.100", 43444, 20)
+                .withApplication("https")
+                .withFlow(new Date(90000), "10.1.1.12", 443, "192.168.1.100", 43445, 100)
+                .build());
+
+        final List<FlowRollupAggregator.FlowRollup> rollups = aggregator.flush(60000);
+        assertThat(rollups, hasSize(2));
+        rollups.sort(Comparator.comparing(r -> r.getDocument().getApplication()));
+
+        final FlowDocument http = rollups.get(0).getDocument();
+        assertThat(http.getApplication(), equalTo("http"));
+        assertThat(http.getBytes(), equalTo(30L));
+        assertThat(http.getFlowRecords(), equalTo(2));
+        assertThat(http.getFirstSwitched(), equalTo(60000L));
+        assertThat(http.getLastSwitched(), equalTo(119999L));
+        assertThat(http.getTimestamp(), equalTo(60000L));
+        assertThat(http.getInputSnmp(), equalTo(98));
+        assertThat(http.getNodeExporter().getNodeId(), equalTo(99));
+
+        final FlowDocument https = rollups.get(1).getDocument();
+        assertThat(https.getApplication(), equalTo("https"));
+        assertThat(https.getBytes(), equalTo(100L));
+    }
+
+    @Test
+    public void canSplitFlowsProportionallyAmongstWindows() {
+        final FlowRollupAggregator aggregator = new FlowRollupAggregator(60000, 0, 1000);
+        final List<FlowDocument> flows = new FlowBuilder()
+                .withFlow(new Date(30000), new Date(150000), "10.1.1.11", 80, "192.168.1.100", 43444, 120)
+                .build();
+        flows.get(0).setSamplingInterval(10d);
+        aggregator.aggregate(flows);
+
+        final List<FlowRollupAggregator.FlowRollup> rollups = aggregator.flush(0);
+        rollups.sort(Comparator.comparing(r -> r.getDocument().getTimestamp()));
+        assertThat(rollups, hasSize(3));
+        // 30s, 60s and 30s of a 120s long flow, with the sampling interval applied
+        assertThat(rollups.get(0).getDocument().getBytes(), equalTo(300L));
+        assertThat(rollups.get(1).getDocument().getBytes(), equalTo(600L));
+        assertThat(rollups.get(2).getDocument().getBytes(), equalTo(300L));
+        assertThat(rollups.get(2).getDocument().getSamplingInterval(), equalTo(1d));
+    }
+
+    @Test
+    public void canUpdateOpenRollupsAndCloseThemAfterTheLateness() {
+        final FlowRollupAggregator aggregator = new FlowRollupAggregator(60000, 120000, 1000);
+        aggregator.aggregate(new FlowBuilder()
+                .withFlow(new Date(0), "10.1.1.11", 80, "192.168.1.100", 43444, 10)
+                .build());
+
+        // The window is still open
+        final List<FlowRollupAggregator.FlowRollup> first = aggregator.flush(60000);
+        assertThat(first, hasSize(1));
+        assertThat(aggregator.getNumOpenRollups(), equalTo(1));
+
+        // Nothing changed since the last flush
+        assertThat(aggregator.flush(60000), hasSize(0));
+
+        // Updating the open roll-up re-uses the same id
+        aggregator.aggregate(new FlowBuilder()
+                .withFlow(new Date(1000), "10.1.1.11", 80, "192.168.1.100", 43444, 10)
+                .build());
+        final List<FlowRollupAggregator.FlowRollup> second = aggregator.flush(180000);
+        assertThat(second, hasSize(1));
+        assertThat(second.get(0).getId(), equalTo(first.get(0).getId()));
+        assertThat(second.get(0).getDocument().getBytes(), equalTo(20L));
+        assertThat(aggregator.getNumOpenRollups(), equalTo(0));
+
+        // Late flows create a new roll-up for the same window
+        aggregator.aggregate(new FlowBuilder()
+                .withFlow(new Date(2000), "10.1.1.11", 80, "192.168.1.100", 43444, 10)
+                .build());
+        final List<FlowRollupAggregator.FlowRollup> third = aggregator.flushAll();
+        assertThat(third, hasSize(1));
+        assertThat(third.get(0).getId(), not(equalTo(first.get(0).getId())));
+        assertThat(third.get(0).getDocument().getBytes(), equalTo(10L));
+    }
+
+    @Test
+    public void canLimitTheNumberOfOpenRollups() {
+        final FlowRollupAggregator aggregator = new FlowRollupAggregator(60000, Long.MAX_VALUE / 2, 2);
+        aggregator.aggregate(new FlowBuilder()
+                .withFlow(new Date(0), "10.1.1.11", 80, "192.168.1.100", 43444, 10)
+                .withFlow(new Date(60000), "10.1.1.11", 80, "192.168.1.100", 43444, 10)
+                .withFlow(new Date(120000), "10.1.1.11", 80, "192.168.1.100", 43444, 10)
+                .build());
+
+        assertThat(aggregator.flush(0), hasSize(3));
+        assertThat(aggregator.getNumOpenRollups(), equalTo(2));
+    }
+}
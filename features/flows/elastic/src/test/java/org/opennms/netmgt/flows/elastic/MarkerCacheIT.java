@@ -169,6 +169,9 @@ public class MarkerCacheIT {
 
             elasticFlowRepository.persist(Lists.newArrayList(getMockFlow()), getMockFlowSource());
 
+            // The markers are written in the background
+            elasticFlowRepository.flushMarkers();
+
             Assert.assertThat(nodeDao.findAllHavingFlows(), contains(hasProperty("id", is(1))));
             Assert.assertThat(snmpInterfaceDao.findAllHavingFlows(1), containsInAnyOrder(
                     hasProperty("ifIndex", is(2)),
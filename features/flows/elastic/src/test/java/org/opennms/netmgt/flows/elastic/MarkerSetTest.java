@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.elastic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class MarkerSetTest {
+
+    @Test
+    public void canAddAndFindMarkers() {
+        final MarkerSet markers = new MarkerSet();
+        assertFalse(markers.contains(1, 2));
+
+        assertTrue(markers.add(1, 2));
+        assertFalse(markers.add(1, 2));
+        assertTrue(markers.contains(1, 2));
+        assertFalse(markers.contains(2, 1));
+        assertFalse(markers.contains(1, 0));
+
+        // The key which equals the marker of free slots
+        assertTrue(markers.add(0, 0));
+        assertTrue(markers.contains(0, 0));
+        assertFalse(markers.add(0, 0));
+
+        // Negative ifIndexes must not bleed into the node ID
+        assertTrue(markers.add(3, -1));
+        assertTrue(markers.contains(3, -1));
+        assertFalse(markers.contains(2, -1));
+
+        assertEquals(3, markers.size());
+    }
+
+    @Test
+    public void canGrow() {
+        final MarkerSet markers = new MarkerSet();
+        for (int nodeId = 1; nodeId <= 100; nodeId++) {
+            for (int ifIndex = 0; ifIndex < 100; ifIndex++) {
+                assertTrue(markers.add(nodeId, ifIndex));
+            }
+        }
+        assertEquals(10000, markers.size());
+        for (int nodeId = 1; nodeId <= 100; nodeId++) {
+            for (int ifIndex = 0; ifIndex < 100; ifIndex++) {
+                assertTrue(markers.contains(nodeId, ifIndex));
+                assertFalse(markers.add(nodeId, ifIndex));
+            }
+        }
+        assertFalse(markers.contains(101, 0));
+    }
+
+    @Test
+    public void canPackKeys() {
+        final long key = MarkerSet.key(42, -7);
+        assertEquals(42, MarkerSet.nodeId(key));
+        assertEquals(-7, MarkerSet.ifIndex(key));
+    }
+}
@@ -29,6 +29,7 @@
 package org.opennms.netmgt.flows.elastic;
 
 import java.lang.reflect.Field;
+import java.util.Collection;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.mockito.Mockito;
@@ -65,6 +66,8 @@ public class MockDocumentEnricherFactory {
 
     private final AtomicInteger nodeDaoGetCounter = new AtomicInteger(0);
 
+    private final AtomicInteger nodeDaoBulkLoadCounter = new AtomicInteger(0);
+
     public MockDocumentEnricherFactory() {
         nodeDao = createNodeDao();
         interfaceToNodeCache = new MockInterfaceToNodeCache();
@@ -116,18 +119,27 @@ public class MockDocumentEnricherFactory {
         return nodeDaoGetCounter;
     }
 
+    public AtomicInteger getNodeDaoBulkLoadCounter() {
+        return nodeDaoBulkLoadCounter;
+    }
+
     public ClassificationEngine getClassificationEngine() {
         return classificationEngine;
     }
 
+    @SuppressWarnings("unchecked")
     private NodeDao createNodeDao() {
-        // Spy on MockNodeDao to count access to get(int)
+        // Spy on MockNodeDao to count access to get(int) and findAllByIdsWithCategories(Collection)
         final MockNodeDao dao = new MockNodeDao();
         final NodeDao spyMock = Mockito.spy(dao);
         Mockito.when(spyMock.get(Mockito.anyInt())).then(invocationOnMock -> {
             nodeDaoGetCounter.incrementAndGet();
             return dao.get((int) invocationOnMock.getArguments()[0]);
         });
+        Mockito.when(spyMock.findAllByIdsWithCategories(Mockito.anyCollection())).then(invocationOnMock -> {
+            nodeDaoBulkLoadCounter.incrementAndGet();
+            return dao.findAllByIdsWithCategories((Collection<Integer>) invocationOnMock.getArguments()[0]);
+        });
         return spyMock;
     }
 
@@ -0,0 +1,921 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * An expression compiled to operations on whole columns of values.
+ *
+ * Only the subset of the JEXL syntax which is commonly used to derive values
+ * from the fetched measurements is supported: numeric literals, variables, the
+ * arithmetic, comparison, logical and conditional operators and the functions
+ * of the math and strictmath namespaces. Expressions using anything else can
+ * not be compiled and must be evaluated by JEXL.
+ *
+ * The operators replicate the lenient arithmetic of JEXL for the types of values
+ * which can be found in the context of the {@link JEXLExpressionEngine}, including
+ * the integer arithmetic between integral literals and the division by zero
+ * yielding zero.
+ */
+abstract class ColumnExpression {
+
+    /**
+     * The type of the values, as far as it affects the arithmetic.
+     */
+    enum Kind {
+        /** Values of type {@link Double}. */
+        DOUBLE,
+        /** Values of type {@link Float}, i.e. literals without a suffix. */
+        FLOAT,
+        /** Values of type {@link Integer} or {@link Long}. */
+        INTEGRAL,
+        /** Any of the numeric kinds, depending on the row. */
+        MIXED,
+        /** Values of type {@link Boolean}. */
+        BOOLEAN
+    }
+
+    /**
+     * Resolves the variables referenced by an expression.
+     */
+    interface Scope {
+        /**
+         * @return the variable, or null if the variable can not be used in a compiled expression
+         */
+        ColumnExpression resolve(String name);
+    }
+
+    /**
+     * Integral values are stored as doubles and must therefore be exactly representable.
+     */
+    private static final long MAX_INTEGRAL = 1L << 53;
+
+    private static final Map<String, Function> FUNCTIONS = ImmutableMap.<String, Function>builder()
+            .put("math:sin", new Function(Math::sin))
+            .put("math:cos", new Function(Math::cos))
+            .put("math:tan", new Function(Math::tan))
+            .put("math:asin", new Function(Math::asin))
+            .put("math:acos", new Function(Math::acos))
+            .put("math:atan", new Function(Math::atan))
+            .put("math:sinh", new Function(Math::sinh))
+            .put("math:cosh", new Function(Math::cosh))
+            .put("math:tanh", new Function(Math::tanh))
+            .put("math:exp", new Function(Math::exp))
+            .put("math:expm1", new Function(Math::expm1))
+            .put("math:log", new Function(Math::log))
+            .put("math:log10", new Function(Math::log10))
+            .put("math:log1p", new Function(Math::log1p))
+            .put("math:sqrt", new Function(Math::sqrt))
+            .put("math:cbrt", new Function(Math::cbrt))
+            .put("math:floor", new Function(Math::floor))
+            .put("math:ceil", new Function(Math::ceil))
+            .put("math:rint", new Function(Math::rint))
+            .put("math:toDegrees", new Function(Math::toDegrees))
+            .put("math:toRadians", new Function(Math::toRadians))
+            .put("math:abs", new Function((DoubleUnaryOperator) Math::abs).overloaded())
+            .put("math:signum", new Function((DoubleUnaryOperator) Math::signum).overloaded())
+            .put("math:atan2", new Function(Math::atan2))
+            .put("math:pow", new Function(Math::pow))
+            .put("math:hypot", new Function(Math::hypot))
+            .put("math:IEEEremainder", new Function(Math::IEEEremainder))
+            .put("math:min", new Function((DoubleBinaryOperator) Math::min).overloaded())
+            .put("math:max", new Function((DoubleBinaryOperator) Math::max).overloaded())
+            .put("strictmath:sin", new Function(StrictMath::sin))
+            .put("strictmath:cos", new Function(StrictMath::cos))
+            .put("strictmath:tan", new Function(StrictMath::tan))
+            .put("strictmath:asin", new Function(StrictMath::asin))
+            .put("strictmath:acos", new Function(StrictMath::acos))
+            .put("strictmath:atan", new Function(StrictMath::atan))
+            .put("strictmath:sinh", new Function(StrictMath::sinh))
+            .put("strictmath:cosh", new Function(StrictMath::cosh))
+            .put("strictmath:tanh", new Function(StrictMath::tanh))
+            .put("strictmath:exp", new Function(StrictMath::exp))
+            .put("strictmath:expm1", new Function(StrictMath::expm1))
+            .put("strictmath:log", new Function(StrictMath::log))
+            .put("strictmath:log10", new Function(StrictMath::log10))
+            .put("strictmath:log1p", new Function(StrictMath::log1p))
+            .put("strictmath:sqrt", new Function(StrictMath::sqrt))
+            .put("strictmath:cbrt", new Function(StrictMath::cbrt))
+            .put("strictmath:floor", new Function(StrictMath::floor))
+            .put("strictmath:ceil", new Function(StrictMath::ceil))
+            .put("strictmath:rint", new Function(StrictMath::rint))
+            .put("strictmath:toDegrees", new Function(StrictMath::toDegrees))
+            .put("strictmath:toRadians", new Function(StrictMath::toRadians))
+            .put("strictmath:abs", new Function((DoubleUnaryOperator) StrictMath::abs).overloaded())
+            .put("strictmath:signum", new Function((DoubleUnaryOperator) StrictMath::signum).overloaded())
+            .put("strictmath:atan2", new Function(StrictMath::atan2))
+            .put("strictmath:pow", new Function(StrictMath::pow))
+            .put("strictmath:hypot", new Function(StrictMath::hypot))
+            .put("strictmath:IEEEremainder", new Function(StrictMath::IEEEremainder))
+            .put("strictmath:min", new Function((DoubleBinaryOperator) StrictMath::min).overloaded())
+            .put("strictmath:max", new Function((DoubleBinaryOperator) StrictMath::max).overloaded())
+            .build();
+
+    protected final Kind kind;
+
+    private ColumnExpression(final Kind kind) {
+        this.kind = kind;
+    }
+
+    /**
+     * Whether the values are those of a variable, and must not be modified.
+     */
+    public boolean isVariable() {
+        return false;
+    }
+
+    /**
+     * Evaluates a numeric expression for all rows.
+     *
+     * @param variables the values of the variables, by their key
+     */
+    public double[] evaluate(final Map<Object, double[]> variables, final int numRows) {
+        throw new IllegalStateException("Not a numeric expression: " + kind);
+    }
+
+    /**
+     * Evaluates a boolean expression for all rows.
+     *
+     * @param variables the values of the variables, by their key
+     */
+    public boolean[] test(final Map<Object, double[]> variables, final int numRows) {
+        throw new IllegalStateException("Not a boolean expression: " + kind);
+    }
+
+    /**
+     * References the values stored under the given key.
+     */
+    public static ColumnExpression variable(final Kind kind, final Object key) {
+        return new Variable(kind, key);
+    }
+
+    /**
+     * Creates a constant with the value of the given object.
+     *
+     * @return the constant, or null if the type of the value is not supported
+     */
+    public static ColumnExpression constant(final Object value) {
+        if (value instanceof Double) {
+            return new Constant(Kind.DOUBLE, (Double) value);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            final long longValue = ((Number) value).longValue();
+            return longValue >= -MAX_INTEGRAL && longValue <= MAX_INTEGRAL ? new Constant(Kind.INTEGRAL, longValue) : null;
+        }
+        return null;
+    }
+
+    /**
+     * Compiles the given expression.
+     *
+     * @return the compiled expression, or null if the expression uses anything which is not supported
+     */
+    public static ColumnExpression compile(final String expression, final Scope scope) {
+        if (expression == null) {
+            return null;
+        }
+        try {
+            final Parser parser = new Parser(tokenize(expression), scope);
+            final ColumnExpression compiled = parser.parseExpression();
+            if (!parser.atEnd() || compiled.kind == Kind.BOOLEAN) {
+                return null;
+            }
+            return compiled;
+        } catch (final UnsupportedException e) {
+            return null;
+        }
+    }
+
+    private static List<String> tokenize(final String expression) throws UnsupportedException {
+        final List<String> tokens = new ArrayList<>();
+        final int length = expression.length();
+        int i = 0;
+        while (i < length) {
+            final char c = expression.charAt(i);
+            int j = i + 1;
+            if (c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f') {
+                i = j;
+                continue;
+            } else if (isDigit(c)) {
+                while (j < length && isDigit(expression.charAt(j))) {
+                    j++;
+                }
+                if (c == '0' && j > i + 1) {
+                    // Octal literal
+                    throw UnsupportedException.INSTANCE;
+                }
+                if (j + 1 < length && expression.charAt(j) == '.' && isDigit(expression.charAt(j + 1))) {
+                    j++;
+                    while (j < length && isDigit(expression.charAt(j))) {
+                        j++;
+                    }
+                    if (j < length && "dDfF".indexOf(expression.charAt(j)) >= 0) {
+                        j++;
+                    }
+                }
+                if (j < length && (isIdentifierPart(expression.charAt(j)) || expression.charAt(j) == '.')) {
+                    // Other suffixes, exponents, hexadecimal literals or method calls
+                    throw UnsupportedException.INSTANCE;
+                }
+            } else if (isIdentifierPart(c)) {
+                while (j < length && isIdentifierPart(expression.charAt(j))) {
+                    j++;
+                }
+            } else if (j < length && ("==".equals(expression.substring(i, j + 1))
+                    || "!=".equals(expression.substring(i, j + 1))
+                    || "<=".equals(expression.substring(i, j + 1))
+                    || ">=".equals(expression.substring(i, j + 1))
+                    || "&&".equals(expression.substring(i, j + 1))
+                    || "||".equals(expression.substring(i, j + 1)))) {
+                j++;
+            } else if ("+-*%()?:,<>!".indexOf(c) >= 0 || (c == '/' && (j == length || "/*".indexOf(expression.charAt(j)) < 0))) {
+                // Single character operator, excluding the start of comments
+            } else {
+                throw UnsupportedException.INSTANCE;
+            }
+            tokens.add(expression.substring(i, j));
+            i = j;
+        }
+        return tokens;
+    }
+
+    private static boolean isDigit(final char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isIdentifierPart(final char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || isDigit(c) || c == '_' || c == '$';
+    }
+
+    private static boolean isNumeric(final ColumnExpression expression) {
+        return expression.kind != Kind.BOOLEAN && expression.kind != Kind.MIXED;
+    }
+
+    private static double[] fill(final double value, final int numRows) {
+        final double[] values = new double[numRows];
+        Arrays.fill(values, value);
+        return values;
+    }
+
+    /**
+     * A recursive descent parser following the precedence of the JEXL grammar.
+     */
+    private static class Parser {
+        private static final List<String> RESERVED = Arrays.asList(
+                "or", "and", "eq", "ne", "lt", "gt", "le", "ge", "div", "mod", "not", "null", "true", "false",
+                "new", "empty", "size", "if", "else", "for", "foreach", "while", "in", "function", "return", "var");
+
+        private final List<String> tokens;
+        private final Scope scope;
+        private int position = 0;
+
+        private Parser(final List<String> tokens, final Scope scope) {
+            this.tokens = tokens;
+            this.scope = scope;
+        }
+
+        private boolean atEnd() {
+            return position == tokens.size();
+        }
+
+        private String peek(final int offset) {
+            return position + offset < tokens.size() ? tokens.get(position + offset) : null;
+        }
+
+        private boolean accept(final String token) {
+            if (token.equals(peek(0))) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(final String token) throws UnsupportedException {
+            if (!accept(token)) {
+                throw UnsupportedException.INSTANCE;
+            }
+        }
+
+        private ColumnExpression parseExpression() throws UnsupportedException {
+            final ColumnExpression condition = parseOr();
+            if (!accept("?")) {
+                return condition;
+            }
+            if (condition.kind != Kind.BOOLEAN) {
+                throw UnsupportedException.INSTANCE;
+            }
+            final ColumnExpression then = parseExpression();
+            expect(":");
+            final ColumnExpression otherwise = parseExpression();
+            if (then.kind == Kind.BOOLEAN || otherwise.kind == Kind.BOOLEAN) {
+                throw UnsupportedException.INSTANCE;
+            }
+            return new Conditional(condition, then, otherwise);
+        }
+
+        private ColumnExpression parseOr() throws UnsupportedException {
+            ColumnExpression left = parseAnd();
+            while (accept("||")) {
+                left = new Logical(false, left, parseAnd());
+            }
+            return left;
+        }
+
+        private ColumnExpression parseAnd() throws UnsupportedException {
+            ColumnExpression left = parseEquality();
+            while (accept("&&")) {
+                left = new Logical(true, left, parseEquality());
+            }
+            return left;
+        }
+
+        private ColumnExpression parseEquality() throws UnsupportedException {
+            final ColumnExpression left = parseRelational();
+            if (accept("==")) {
+                return new Comparison(Comparison.EQ, left, parseRelational());
+            } else if (accept("!=")) {
+                return new Comparison(Comparison.NE, left, parseRelational());
+            }
+            return left;
+        }
+
+        private ColumnExpression parseRelational() throws UnsupportedException {
+            final ColumnExpression left = parseAdditive();
+            if (accept("<")) {
+                return new Comparison(Comparison.LT, left, parseAdditive());
+            } else if (accept("<=")) {
+                return new Comparison(Comparison.LE, left, parseAdditive());
+            } else if (accept(">")) {
+                return new Comparison(Comparison.GT, left, parseAdditive());
+            } else if (accept(">=")) {
+                return new Comparison(Comparison.GE, left, parseAdditive());
+            }
+            return left;
+        }
+
+        private ColumnExpression parseAdditive() throws UnsupportedException {
+            ColumnExpression left = parseMultiplicative();
+            while (true) {
+                if (accept("+")) {
+                    left = Arithmetic.create(Arithmetic.ADD, left, parseMultiplicative());
+                } else if (accept("-")) {
+                    left = Arithmetic.create(Arithmetic.SUBTRACT, left, parseMultiplicative());
+                } else {
+                    return left;
+                }
+            }
+        }
+
+        private ColumnExpression parseMultiplicative() throws UnsupportedException {
+            ColumnExpression left = parseUnary();
+            while (true) {
+                if (accept("*")) {
+                    left = Arithmetic.create(Arithmetic.MULTIPLY, left, parseUnary());
+                } else if (accept("/")) {
+                    left = Arithmetic.create(Arithmetic.DIVIDE, left, parseUnary());
+                } else if (accept("%")) {
+                    left = Arithmetic.create(Arithmetic.MODULO, left, parseUnary());
+                } else {
+                    return left;
+                }
+            }
+        }
+
+        private ColumnExpression parseUnary() throws UnsupportedException {
+            if (accept("-")) {
+                return Negation.create(parseUnary());
+            } else if (accept("!")) {
+                return new Not(parseUnary());
+            }
+            return parsePrimary();
+        }
+
+        private ColumnExpression parsePrimary() throws UnsupportedException {
+            final String token = peek(0);
+            if (token == null) {
+                throw UnsupportedException.INSTANCE;
+            } else if (accept("(")) {
+                final ColumnExpression expression = parseExpression();
+                expect(")");
+                return expression;
+            } else if (isDigit(token.charAt(0))) {
+                position++;
+                return literal(token);
+            } else if (isIdentifierPart(token.charAt(0))) {
+                if (RESERVED.contains(token)) {
+                    throw UnsupportedException.INSTANCE;
+                }
+                position++;
+                // Same lookahead as JEXL, which disambiguates functions from the conditional operator
+                if (":".equals(peek(0)) && peek(1) != null && isIdentifierPart(peek(1).charAt(0)) && "(".equals(peek(2))) {
+                    final String name = token + ":" + peek(1);
+                    position += 3;
+                    return call(name, parseArguments());
+                }
+                if ("(".equals(peek(0))) {
+                    throw UnsupportedException.INSTANCE;
+                }
+                final ColumnExpression variable = scope.resolve(token);
+                if (variable == null) {
+                    throw UnsupportedException.INSTANCE;
+                }
+                return variable;
+            }
+            throw UnsupportedException.INSTANCE;
+        }
+
+        private List<ColumnExpression> parseArguments() throws UnsupportedException {
+            final List<ColumnExpression> arguments = new ArrayList<>();
+            if (accept(")")) {
+                return arguments;
+            }
+            do {
+                arguments.add(parseExpression());
+            } while (accept(","));
+            expect(")");
+            return arguments;
+        }
+
+        private static ColumnExpression literal(final String token) throws UnsupportedException {
+            if (token.indexOf('.') < 0) {
+                // Integer literals which do not fit a long are big integers
+                final long value;
+                try {
+                    value = Long.parseLong(token);
+                } catch (final NumberFormatException e) {
+                    throw UnsupportedException.INSTANCE;
+                }
+                final ColumnExpression constant = constant(value);
+                if (constant == null) {
+                    throw UnsupportedException.INSTANCE;
+                }
+                return constant;
+            }
+
+            final char suffix = token.charAt(token.length() - 1);
+            if (suffix == 'd' || suffix == 'D') {
+                return new Constant(Kind.DOUBLE, Double.parseDouble(token));
+            }
+            return Constant.ofFloat(Float.parseFloat(token));
+        }
+
+        private static ColumnExpression call(final String name, final List<ColumnExpression> arguments) throws UnsupportedException {
+            final Function function = FUNCTIONS.get(name);
+            if (function == null || function.getArity() != arguments.size()) {
+                throw UnsupportedException.INSTANCE;
+            }
+            boolean hasDouble = false;
+            for (final ColumnExpression argument : arguments) {
+                if (!isNumeric(argument)) {
+                    throw UnsupportedException.INSTANCE;
+                }
+                hasDouble |= argument.kind == Kind.DOUBLE;
+            }
+            // Overloads taking integers or floats would be selected for arguments of these types
+            if (function.isOverloaded() && !hasDouble) {
+                throw UnsupportedException.INSTANCE;
+            }
+            return new Call(function, arguments);
+        }
+    }
+
+    private static class UnsupportedException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private static final UnsupportedException INSTANCE = new UnsupportedException();
+
+        private UnsupportedException() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static class Function {
+        private final DoubleUnaryOperator unary;
+        private final DoubleBinaryOperator binary;
+        private boolean overloaded = false;
+
+        private Function(final DoubleUnaryOperator unary) {
+            this.unary = unary;
+            this.binary = null;
+        }
+
+        private Function(final DoubleBinaryOperator binary) {
+            this.unary = null;
+            this.binary = binary;
+        }
+
+        private Function overloaded() {
+            this.overloaded = true;
+            return this;
+        }
+
+        private boolean isOverloaded() {
+            return overloaded;
+        }
+
+        private int getArity() {
+            return unary != null ? 1 : 2;
+        }
+    }
+
+    private static class Variable extends ColumnExpression {
+        private final Object key;
+
+        private Variable(final Kind kind, final Object key) {
+            super(kind);
+            this.key = key;
+        }
+
+        @Override
+        public boolean isVariable() {
+            return true;
+        }
+
+        @Override
+        public double[] evaluate(final Map<Object, double[]> variables, final int numRows) {
+            return variables.get(key);
+        }
+    }
+
+    private static class Constant extends ColumnExpression {
+        private final double value;
+        private final long longValue;
+
+        private Constant(final Kind kind, final double value) {
+            super(kind);
+            this.value = value;
+            this.longValue = (long) value;
+        }
+
+        private Constant(final Kind kind, final long longValue) {
+            super(kind);
+            this.value = longValue;
+            this.longValue = longValue;
+        }
+
+        /**
+         * JEXL converts floats to doubles using their decimal representation.
+         */
+        private static Constant ofFloat(final float value) {
+            return new Constant(Kind.FLOAT, Double.parseDouble(Float.toString(value)));
+        }
+
+        @Override
+        public double[] evaluate(final Map<Object, double[]> variables, final int numRows) {
+            return fill(value, numRows);
+        }
+    }
+
+    private static class Negation extends ColumnExpression {
+        private final ColumnExpression operand;
+
+        private Negation(final ColumnExpression operand) {
+            super(operand.kind);
+            this.operand = operand;
+        }
+
+        private static ColumnExpression create(final ColumnExpression operand) throws UnsupportedException {
+            if (!isNumeric(operand)) {
+                throw UnsupportedException.INSTANCE;
+            }
+            if (operand instanceof Constant) {
+                final Constant constant = (Constant) operand;
+                if (constant.kind == Kind.INTEGRAL) {
+                    return new Constant(Kind.INTEGRAL, -constant.longValue);
+                }
+                return new Constant(constant.kind, -constant.value);
+            }
+            return new Negation(operand);
+        }
+
+        @Override
+        public double[] evaluate(final Map<Object, double[]> variables, final int numRows) {
+            final double[] values = operand.evaluate(variables, numRows);
+            final double[] result = new double[numRows];
+            for (int i = 0; i < numRows; i++) {
+                result[i] = -values[i];
+            }
+            return result;
+        }
+    }
+
+    private static class Arithmetic extends ColumnExpression {
+        private static final int ADD = 0;
+        private static final int SUBTRACT = 1;
+        private static final int MULTIPLY = 2;
+        private static final int DIVIDE = 3;
+        private static final int MODULO = 4;
+
+        private final int operator;
+        private final ColumnExpression left;
+        private final ColumnExpression right;
+
+        private Arithmetic(final int operator, final ColumnExpression left, final ColumnExpression right) {
+            super(Kind.DOUBLE);
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        private static ColumnExpression create(final int operator, final ColumnExpression left, final ColumnExpression right) throws UnsupportedException {
+            if (!isNumeric(left) || !isNumeric(right)) {
+                throw UnsupportedException.INSTANCE;
+            }
+            if (left.kind != Kind.INTEGRAL || right.kind != Kind.INTEGRAL) {
+                // Any floating point operand turns this into a floating point operation
+                return new Arithmetic(operator, left, right);
+            }
+
+            // Integer arithmetic is only supported for literals and constants, and only as long as the result is exact
+            if (!(left instanceof Constant) || !(right instanceof Constant)) {
+                throw UnsupportedException.INSTANCE;
+            }
+            final long l = ((Constant) left).longValue;
+            final long r = ((Constant) right).longValue;
+            final long result;
+            try {
+                switch (operator) {
+                    case ADD:
+                        result = Math.addExact(l, r);
+                        break;
+                    case SUBTRACT:
+                        result = Math.subtractExact(l, r);
+                        break;
+                    case MULTIPLY:
+                        result = Math.multiplyExact(l, r);
+                        break;
+                    case DIVIDE:
+                        if (r == 0) {
+                            throw UnsupportedException.INSTANCE;
+                        }
+                        result = l / r;
+                        break;
+                    default:
+                        throw UnsupportedException.INSTANCE;
+                }
+            } catch (final ArithmeticException e) {
+                throw UnsupportedException.INSTANCE;
+            }
+            final ColumnExpression constant = constant(result);
+            if (constant == null) {
+                throw UnsupportedException.INSTANCE;
+            }
+            return constant;
+        }
+
+        @Override
+        public double[] evaluate(final Map<Object, double[]> variables, final int numRows) {
+            final double[] l = left.evaluate(variables, numRows);
+            final double[] r = right.evaluate(variables, numRows);
+            final double[] result = new double[numRows];
+            switch (operator) {
+                case ADD:
+                    for (int i = 0; i < numRows; i++) {
+                        result[i] = l[i] + r[i];
+                    }
+                    break;
+                case SUBTRACT:
+                    for (int i = 0; i < numRows; i++) {
+                        result[i] = l[i] - r[i];
+                    }
+                    break;
+                case MULTIPLY:
+                    for (int i = 0; i < numRows; i++) {
+                        result[i] = l[i] * r[i];
+                    }
+                    break;
+                case DIVIDE:
+                    // JEXL's lenient arithmetic yields zero when dividing by zero
+                    for (int i = 0; i < numRows; i++) {
+                        result[i] = r[i] == 0.0 ? 0.0 : l[i] / r[i];
+                    }
+                    break;
+                case MODULO:
+                    for (int i = 0; i < numRows; i++) {
+                        result[i] = r[i] == 0.0 ? 0.0 : l[i] % r[i];
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown operator: " + operator);
+            }
+            return result;
+        }
+    }
+
+    private static class Comparison extends ColumnExpression {
+        private static final int EQ = 0;
+        private static final int NE = 1;
+        private static final int LT = 2;
+        private static final int LE = 3;
+        private static final int GT = 4;
+        private static final int GE = 5;
+
+        private final int operator;
+        private final ColumnExpression left;
+        private final ColumnExpression right;
+        /**
+         * JEXL compares values of the same floating point type using {@link Double#equals(Object)},
+         * so that NaN equals NaN, and all other combinations by their primitive values.
+         */
+        private final boolean identity;
+
+        private Comparison(final int operator, final ColumnExpression left, final ColumnExpression right) throws UnsupportedException {
+            super(Kind.BOOLEAN);
+            if (!isNumeric(left) || !isNumeric(right)) {
+                throw UnsupportedException.INSTANCE;
+            }
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+            this.identity = left.kind == right.kind && left.kind != Kind.INTEGRAL;
+        }
+
+        @Override
+        public boolean[] test(final Map<Object, double[]> variables, final int numRows) {
+            final double[] l = left.evaluate(variables, numRows);
+            final double[] r = right.evaluate(variables, numRows);
+            final boolean[] result = new boolean[numRows];
+            switch (operator) {
+                case EQ:
+                    for (int i = 0; i < numRows; i++) {
+                        result[i] = equal(l[i], r[i]);
+                    }
+                    break;
+                case NE:
+                    for (int i = 0; i < numRows; i++) {
+                        result[i] = !equal(l[i], r[i]);
+                    }
+                    break;
+                case LT:
+                    for (int i = 0; i < numRows; i++) {
+                        result[i] = l[i] < r[i];
+                    }
+                    break;
+                case LE:
+                    // JEXL defines this as being equal or less than
+                    for (int i = 0; i < numRows; i++) {
+                        result[i] = equal(l[i], r[i]) || l[i] < r[i];
+                    }
+                    break;
+                case GT:
+                    for (int i = 0; i < numRows; i++) {
+                        result[i] = l[i] > r[i];
+                    }
+                    break;
+                case GE:
+                    for (int i = 0; i < numRows; i++) {
+                        result[i] = equal(l[i], r[i]) || l[i] > r[i];
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown operator: " + operator);
+            }
+            return result;
+        }
+
+        private boolean equal(final double l, final double r) {
+            return identity ? Double.doubleToLongBits(l) == Double.doubleToLongBits(r) : l == r;
+        }
+    }
+
+    private static class Logical extends ColumnExpression {
+        private final boolean and;
+        private final ColumnExpression left;
+        private final ColumnExpression right;
+
+        private Logical(final boolean and, final ColumnExpression left, final ColumnExpression right) throws UnsupportedException {
+            super(Kind.BOOLEAN);
+            if (left.kind != Kind.BOOLEAN || right.kind != Kind.BOOLEAN) {
+                throw UnsupportedException.INSTANCE;
+            }
+            this.and = and;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean[] test(final Map<Object, double[]> variables, final int numRows) {
+            final boolean[] l = left.test(variables, numRows);
+            final boolean[] r = right.test(variables, numRows);
+            if (and) {
+                for (int i = 0; i < numRows; i++) {
+                    l[i] = l[i] && r[i];
+                }
+            } else {
+                for (int i = 0; i < numRows; i++) {
+                    l[i] = l[i] || r[i];
+                }
+            }
+            return l;
+        }
+    }
+
+    private static class Not extends ColumnExpression {
+        private final ColumnExpression operand;
+
+        private Not(final ColumnExpression operand) throws UnsupportedException {
+            super(Kind.BOOLEAN);
+            if (operand.kind != Kind.BOOLEAN) {
+                throw UnsupportedException.INSTANCE;
+            }
+            this.operand = operand;
+        }
+
+        @Override
+        public boolean[] test(final Map<Object, double[]> variables, final int numRows) {
+            final boolean[] values = operand.test(variables, numRows);
+            for (int i = 0; i < numRows; i++) {
+                values[i] = !values[i];
+            }
+            return values;
+        }
+    }
+
+    private static class Conditional extends ColumnExpression {
+        private final ColumnExpression condition;
+        private final ColumnExpression then;
+        private final ColumnExpression otherwise;
+
+        private Conditional(final ColumnExpression condition, final ColumnExpression then, final ColumnExpression otherwise) {
+            super(then.kind == otherwise.kind ? then.kind : Kind.MIXED);
+            this.condition = condition;
+            this.then = then;
+            this.otherwise = otherwise;
+        }
+
+        @Override
+        public double[] evaluate(final Map<Object, double[]> variables, final int numRows) {
+            final boolean[] conditions = condition.test(variables, numRows);
+            final double[] t = then.evaluate(variables, numRows);
+            final double[] o = otherwise.evaluate(variables, numRows);
+            final double[] result = new double[numRows];
+            for (int i = 0; i < numRows; i++) {
+                result[i] = conditions[i] ? t[i] : o[i];
+            }
+            return result;
+        }
+    }
+
+    private static class Call extends ColumnExpression {
+        private final Function function;
+        private final List<ColumnExpression> arguments;
+
+        private Call(final Function function, final List<ColumnExpression> arguments) {
+            super(Kind.DOUBLE);
+            this.function = function;
+            this.arguments = arguments;
+        }
+
+        @Override
+        public double[] evaluate(final Map<Object, double[]> variables, final int numRows) {
+            final double[] result = new double[numRows];
+            final double[] a = arguments.get(0).evaluate(variables, numRows);
+            if (function.unary != null) {
+                final DoubleUnaryOperator unary = function.unary;
+                for (int i = 0; i < numRows; i++) {
+                    result[i] = unary.applyAsDouble(a[i]);
+                }
+            } else {
+                final DoubleBinaryOperator binary = function.binary;
+                final double[] b = arguments.get(1).evaluate(variables, numRows);
+                for (int i = 0; i < numRows; i++) {
+                    result[i] = binary.applyAsDouble(a[i], b[i]);
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.impl;
+
+import org.opennms.netmgt.measurements.api.ExpressionEngine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Used to instantiate the expression engine used by the
+ * {@link org.opennms.netmgt.measurements.api.DefaultMeasurementsService}.
+ *
+ * The engine is selected using the {@link #EXPRESSION_ENGINE_PROPERTY} system property,
+ * which defaults to the {@link JEXLExpressionEngine}.
+ */
+public class ExpressionEngineFactory {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ExpressionEngineFactory.class);
+
+    public static final String EXPRESSION_ENGINE_PROPERTY = "org.opennms.measurements.expressionEngine";
+
+    /**
+     * Evaluates the expressions row by row, see {@link JEXLExpressionEngine}.
+     */
+    public static final String JEXL_EXPRESSION_ENGINE = "jexl";
+
+    /**
+     * Evaluates the expressions column by column, see {@link VectorizedExpressionEngine}.
+     */
+    public static final String VECTORIZED_EXPRESSION_ENGINE = "vectorized";
+
+    public ExpressionEngine getEngine() {
+        final String engine = System.getProperty(EXPRESSION_ENGINE_PROPERTY, JEXL_EXPRESSION_ENGINE);
+        if (VECTORIZED_EXPRESSION_ENGINE.equalsIgnoreCase(engine)) {
+            return new VectorizedExpressionEngine();
+        } else if (!JEXL_EXPRESSION_ENGINE.equalsIgnoreCase(engine)) {
+            LOG.error("Unsupported expression engine {}. Defaulting to {}.", engine, JEXL_EXPRESSION_ENGINE);
+        }
+        return new JEXLExpressionEngine();
+    }
+}
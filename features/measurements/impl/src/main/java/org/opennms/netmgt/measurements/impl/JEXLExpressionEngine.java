@@ -80,6 +80,18 @@ public class JEXLExpressionEngine implements ExpressionEngine {
      */
     @Override
     public void applyExpressions(final QueryRequest request, final FetchResults results) throws ExpressionException {
+        applyExpressions(request, results, new double[0][]);
+    }
+
+    /**
+     * Applies the expressions to the results, row by row.
+     *
+     * The values of the leading expressions may have already been calculated,
+     * in which case they are only stored in the context instead of being evaluated.
+     *
+     * @param precomputed the values of the first precomputed.length expressions, indexed by expression and row
+     */
+    void applyExpressions(final QueryRequest request, final FetchResults results, final double[][] precomputed) throws ExpressionException {
         Preconditions.checkNotNull(request, "request argument");
         Preconditions.checkNotNull(results, "results argument");
 
@@ -147,6 +159,15 @@ public class JEXLExpressionEngine implements ExpressionEngine {
             // Evaluate every expression, in the same order as which they appeared in the query
             j = k = 0;
             for (final Map.Entry<String, org.apache.commons.jexl2.Expression> expressionEntry : expressions.entrySet()) {
+                if (j < precomputed.length) {
+                    final double derivedAsDouble = precomputed[j][i];
+                    if (!transientFlags[j++]) {
+                        expressionValues[k++][i] = derivedAsDouble;
+                    }
+                    jexlValues.put(expressionEntry.getKey(), derivedAsDouble);
+                    continue;
+                }
+
                 // Update the timestamp
                 jexlValues.put("timestamp", timestamps[i]);
                 
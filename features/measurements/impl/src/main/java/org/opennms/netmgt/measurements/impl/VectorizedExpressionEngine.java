@@ -0,0 +1,249 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opennms.netmgt.measurements.api.ExpressionEngine;
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.api.exceptions.ExpressionException;
+import org.opennms.netmgt.measurements.impl.ColumnExpression.Kind;
+import org.opennms.netmgt.measurements.model.Expression;
+import org.opennms.netmgt.measurements.model.QueryRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * An expression engine which evaluates the expressions column by column.
+ *
+ * Every expression is compiled once to a {@link ColumnExpression}, which is applied to
+ * all of the rows at once, instead of interpreting the expression for every row.
+ *
+ * Starting with the first expression which can not be compiled, i.e. one using
+ * functions other than those of the math namespaces or referencing variables which
+ * are not numeric, the expressions are evaluated row by row by the
+ * {@link JEXLExpressionEngine}, with the values of the preceding expressions
+ * being reused. The results are the same as the ones of the {@link JEXLExpressionEngine}.
+ */
+public class VectorizedExpressionEngine implements ExpressionEngine {
+
+    private static final Logger LOG = LoggerFactory.getLogger(VectorizedExpressionEngine.class);
+
+    /**
+     * Keys of the timestamp and index variables, which don't collide with the labels
+     * of the columns or the indices of the expressions.
+     */
+    private enum Key {
+        TIMESTAMPS,
+        INDICES
+    }
+
+    private final JEXLExpressionEngine jexlExpressionEngine = new JEXLExpressionEngine();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void applyExpressions(final QueryRequest request, final FetchResults results) throws ExpressionException {
+        Preconditions.checkNotNull(request, "request argument");
+        Preconditions.checkNotNull(results, "results argument");
+
+        final List<Expression> expressions = request.getExpressions();
+
+        // Don't do anything if there are no expressions
+        if (expressions.isEmpty()) {
+            return;
+        }
+
+        final long timestamps[] = results.getTimestamps();
+        final Map<String, double[]> columns = results.getColumns();
+        final int numRows = timestamps.length;
+
+        final List<ColumnExpression> compiled = compile(expressions, results);
+
+        // Evaluate the compiled expressions, in the same order as which they appeared in the query
+        final Map<Object, double[]> variables = new HashMap<>(columns);
+        variables.put(Key.TIMESTAMPS, asDoubles(timestamps));
+        variables.put(Key.INDICES, indices(numRows));
+
+        final double[][] values = new double[compiled.size()][];
+        for (int j = 0; j < compiled.size(); j++) {
+            final ColumnExpression expression = compiled.get(j);
+            values[j] = expression.evaluate(variables, numRows);
+            if (expression.isVariable()) {
+                values[j] = values[j].clone();
+            }
+            variables.put(j, values[j]);
+        }
+
+        if (compiled.size() < expressions.size()) {
+            LOG.debug("Evaluating expression with label '{}' and all following expressions row by row.",
+                    expressions.get(compiled.size()).getLabel());
+            jexlExpressionEngine.applyExpressions(request, results, values);
+            return;
+        }
+
+        // Store the results
+        for (int j = 0; j < expressions.size(); j++) {
+            final Expression expression = expressions.get(j);
+            if (!expression.getTransient()) {
+                columns.put(expression.getLabel(), values[j]);
+            }
+        }
+    }
+
+    /**
+     * Compiles the leading expressions, up to the first expression which can not be compiled.
+     */
+    private static List<ColumnExpression> compile(final List<Expression> expressions, final FetchResults results) {
+        final Map<String, Integer> labels = new HashMap<>();
+        for (int j = 0; j < expressions.size(); j++) {
+            if (labels.put(expressions.get(j).getLabel(), j) != null) {
+                // Leave the handling of duplicate labels to JEXL
+                return Collections.emptyList();
+            }
+        }
+
+        final List<ColumnExpression> compiled = new ArrayList<>(expressions.size());
+        for (int j = 0; j < expressions.size(); j++) {
+            final int index = j;
+            final ColumnExpression expression = ColumnExpression.compile(expressions.get(j).getExpression(),
+                    name -> resolve(name, index, labels, results));
+            if (expression == null) {
+                break;
+            }
+            compiled.add(expression);
+        }
+
+        // Expressions which are evaluated by JEXL could assign variables, which the compiled
+        // expressions would then see on the following rows
+        for (int j = compiled.size(); j < expressions.size(); j++) {
+            final String expression = expressions.get(j).getExpression();
+            if (mayAssign(expression)) {
+                return Collections.emptyList();
+            }
+            if (expression != null && expression.contains("jexl:")) {
+                for (final Object constant : results.getConstants().values()) {
+                    if (constant instanceof String && mayAssign((String) constant)) {
+                        return Collections.emptyList();
+                    }
+                }
+            }
+        }
+        return compiled;
+    }
+
+    /**
+     * Resolves the variable the same way as it would be found in the context of the {@link JEXLExpressionEngine}
+     * while evaluating the expression with the given index.
+     */
+    private static ColumnExpression resolve(final String name, final int index, final Map<String, Integer> labels, final FetchResults results) {
+        final Map<String, double[]> columns = results.getColumns();
+
+        // The values of the columns and the references to the complete columns are added for every expression
+        if (name.startsWith("__") && columns.containsKey(name.substring(2))) {
+            return null;
+        }
+        if (columns.containsKey(name)) {
+            return ColumnExpression.variable(Kind.DOUBLE, name);
+        }
+        if ("timestamp".equals(name)) {
+            return ColumnExpression.variable(Kind.INTEGRAL, Key.TIMESTAMPS);
+        }
+        if ("__i".equals(name)) {
+            return ColumnExpression.variable(Kind.INTEGRAL, Key.INDICES);
+        }
+
+        // Subsequent expressions would reference the values of the previous row
+        final Integer label = labels.get(name);
+        if (label != null) {
+            return label < index ? ColumnExpression.variable(Kind.DOUBLE, label) : null;
+        }
+
+        final long timestamps[] = results.getTimestamps();
+        switch (name) {
+            case "__diff_time":
+                return ColumnExpression.constant(timestamps.length < 1 ? 0d : timestamps[timestamps.length - 1] - timestamps[0]);
+            case "__inf":
+                return ColumnExpression.constant(Double.POSITIVE_INFINITY);
+            case "__neg_inf":
+                return ColumnExpression.constant(Double.NEGATIVE_INFINITY);
+            case "NaN":
+                return ColumnExpression.constant(Double.NaN);
+            case "__E":
+                return ColumnExpression.constant(Math.E);
+            case "__PI":
+                return ColumnExpression.constant(Math.PI);
+            default:
+                return ColumnExpression.constant(results.getConstants().get(name));
+        }
+    }
+
+    /**
+     * Whether the expression contains an assignment.
+     */
+    private static boolean mayAssign(final String expression) {
+        if (expression == null) {
+            return false;
+        }
+        for (int i = 0; i < expression.length(); i++) {
+            if (expression.charAt(i) != '=') {
+                continue;
+            }
+            final char previous = i > 0 ? expression.charAt(i - 1) : ' ';
+            final char next = i + 1 < expression.length() ? expression.charAt(i + 1) : ' ';
+            if ("=!<>".indexOf(previous) < 0 && "=~".indexOf(next) < 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static double[] asDoubles(final long[] values) {
+        final double[] doubles = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            doubles[i] = values[i];
+        }
+        return doubles;
+    }
+
+    private static double[] indices(final int numRows) {
+        final double[] indices = new double[numRows];
+        for (int i = 0; i < numRows; i++) {
+            indices[i] = i;
+        }
+        return indices;
+    }
+}
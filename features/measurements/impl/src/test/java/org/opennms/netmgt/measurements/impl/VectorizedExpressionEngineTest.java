@@ -0,0 +1,279 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.opennms.netmgt.measurements.api.ExpressionEngine;
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.api.exceptions.ExpressionException;
+import org.opennms.netmgt.measurements.model.Expression;
+import org.opennms.netmgt.measurements.model.QueryRequest;
+import org.opennms.netmgt.measurements.model.Source;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Verifies that the {@link VectorizedExpressionEngine} yields the same results as the {@link JEXLExpressionEngine}.
+ */
+public class VectorizedExpressionEngineTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(VectorizedExpressionEngineTest.class);
+
+    private static final double[] SPECIAL_VALUES = new double[] {
+            0.0, -0.0, 1.0, -1.0, 2.0, 0.5, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY
+    };
+
+    private static final int BENCHMARK_ROWS = 30 * 24 * 60;
+    private static final int BENCHMARK_SOURCES = 20;
+    private static final int BENCHMARK_ITERATIONS = 10;
+
+    private final ExpressionEngine jexlExpressionEngine = new JEXLExpressionEngine();
+    private final ExpressionEngine vectorizedExpressionEngine = new VectorizedExpressionEngine();
+
+    @Test
+    public void canEvaluateExpressionsLikeJexl() throws ExpressionException {
+        final List<String> expressions = Arrays.asList(
+                "x * 5 + 7",
+                "x + y - z",
+                "x / y",
+                "x % y",
+                "-x + 1.5",
+                "-(x * 0.1) + -2",
+                "(x - y) / z * 100",
+                "x * 0.62137",
+                "speed / 0.62137",
+                "ratio * x + speed",
+                "8 * 1024 * x",
+                "1 / 2 * x",
+                "7 / 0 + x",
+                "timestamp / 125.0d",
+                "timestamp / 1000",
+                "timestamp",
+                "1 * __diff_time",
+                "__i * 2.5",
+                "__i",
+                "x",
+                "42",
+                "1.1",
+                "__PI * __E + __inf - __neg_inf",
+                "x == y ? 1 : 0",
+                "x == y ? 1.5 : 2",
+                "x > 0 ? 1 : x",
+                "x >= y ? 1.5 : 2.5",
+                "x == NaN ? y : x",
+                "x == 0 ? y : x",
+                "x <= y ? x : y",
+                "x != y && y < z ? x : z",
+                "(x < y) || (z >= 0) ? x : -y",
+                "!(x <= y) && y != 0 ? math:max(x, y) : math:min(x, 2)",
+                "x > 0 ? (y > 0 ? 1 : 2) : (z > 0 ? 3 : 4)",
+                "math:sin(x) + math:pow(y, 2)",
+                "math:atan2(x, y) * math:sqrt(z)",
+                "strictmath:abs(z) + strictmath:log(x)",
+                "math:abs(speed)",
+                "math:sqrt(__i)",
+                "( ( (x == __inf) || (x == __neg_inf) || (y == __inf) || (y == __neg_inf) || (z == __inf) || (z == __neg_inf) || (z < x) || (z > y) ) ? NaN : z )",
+                "( ( ( x == NaN ) && ( y == NaN ) ) ? NaN : ( ( x == NaN ) ? y : ( ( y == NaN ) ? x : ( x + y ) ) ) )",
+                "fn:arrayNaN(\"x\", 2)",
+                "jexl:evaluate(formula)",
+                "x.length",
+                "x + undefined",
+                "__x",
+                "x ?: y",
+                "x < y < z ? 1 : 0",
+                "x & 1",
+                "0x10 + x",
+                "1e3 * x",
+                "1.5b * x",
+                "size(x)");
+
+        for (final String expression : expressions) {
+            final QueryRequest request = request(expression(expression, "result", false));
+            assertSameResults(expression, request, 100);
+        }
+    }
+
+    @Test
+    public void canFallBackToJexl() throws ExpressionException {
+        // Row by row evaluation starting in the middle
+        assertSameResults("fallback", request(
+                expression("x + y", "a", false),
+                expression("a * 2", "b", true),
+                expression("fn:arrayZero(\"x\", 1)", "c", false),
+                expression("c + a + b", "d", false)), 100);
+
+        // References to subsequent expressions see the values of the previous row
+        assertSameResults("forward reference", request(
+                expression("x + 1", "a", false),
+                expression("c + a", "b", false),
+                expression("x * 2", "c", false)), 100);
+
+        // Assignments are visible to all expressions on the following rows
+        assertSameResults("assignment", request(
+                expression("speed * x", "a", false),
+                expression("speed = speed + 1", "b", false)), 100);
+
+        // Labels shadowing sources and duplicate labels
+        assertSameResults("shadowing", request(
+                expression("x * 2", "x", false),
+                expression("x + 1", "a", false),
+                expression("a + 1", "a", false)), 100);
+    }
+
+    @Test(expected=ExpressionException.class)
+    public void failsWhenExpressionHasInvalidSyntax() throws ExpressionException {
+        vectorizedExpressionEngine.applyExpressions(request(expression("/", "result", false)), results(10, 1));
+    }
+
+    @Test(expected=ExpressionException.class)
+    public void failsWhenExpressionDoesNotReturnADouble() throws ExpressionException {
+        vectorizedExpressionEngine.applyExpressions(request(expression("x < y", "result", false)), results(10, 1));
+    }
+
+    @Test
+    public void benchmark() throws ExpressionException {
+        Assume.assumeTrue(Boolean.getBoolean("runBenchmarkTests"));
+
+        final List<Expression> expressions = new ArrayList<>();
+        for (int j = 0; j < 10; j++) {
+            final String a = "s" + j;
+            final String b = "s" + (j + 10);
+            expressions.add(expression(String.format("( %s == NaN ) ? %s : ( ( %s == NaN ) ? %s : ( %s + %s ) * 8 / 1000.0d )", a, b, b, a, a, b), "e" + j, j % 2 == 0));
+        }
+        final QueryRequest request = request(expressions.toArray(new Expression[0]));
+
+        for (final ExpressionEngine engine : new ExpressionEngine[] { jexlExpressionEngine, vectorizedExpressionEngine }) {
+            // Warm up
+            engine.applyExpressions(request, results(BENCHMARK_ROWS, BENCHMARK_SOURCES));
+
+            long elapsed = 0;
+            for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                final FetchResults results = results(BENCHMARK_ROWS, BENCHMARK_SOURCES);
+                final long start = System.nanoTime();
+                engine.applyExpressions(request, results);
+                elapsed += System.nanoTime() - start;
+            }
+
+            LOG.info("{}: {} queries with {} rows, {} sources and {} expressions took {}ms",
+                    engine.getClass().getSimpleName(), BENCHMARK_ITERATIONS,
+                    BENCHMARK_ROWS, BENCHMARK_SOURCES, expressions.size(), elapsed / 1000000);
+        }
+    }
+
+    private void assertSameResults(final String description, final QueryRequest request, final int numRows) throws ExpressionException {
+        final FetchResults expected = results(numRows, 3);
+        ExpressionException expectedException = null;
+        try {
+            jexlExpressionEngine.applyExpressions(request, expected);
+        } catch (final ExpressionException e) {
+            expectedException = e;
+        }
+
+        final FetchResults actual = results(numRows, 3);
+        ExpressionException actualException = null;
+        try {
+            vectorizedExpressionEngine.applyExpressions(request, actual);
+        } catch (final ExpressionException e) {
+            actualException = e;
+        }
+
+        if (expectedException != null || actualException != null) {
+            assertEquals(description, String.valueOf(expectedException), String.valueOf(actualException));
+            return;
+        }
+
+        assertEquals(description, expected.getColumns().keySet(), actual.getColumns().keySet());
+        for (final Map.Entry<String, double[]> column : expected.getColumns().entrySet()) {
+            assertArrayEquals(description + " (" + column.getKey() + ")",
+                    column.getValue(), actual.getColumns().get(column.getKey()), 0.0d);
+        }
+    }
+
+    private static QueryRequest request(final Expression... expressions) {
+        final QueryRequest request = new QueryRequest();
+        final List<Source> sources = new ArrayList<>();
+        for (final String label : new String[] { "x", "y", "z" }) {
+            final Source source = new Source();
+            source.setLabel(label);
+            sources.add(source);
+        }
+        request.setSources(sources);
+        request.setExpressions(Arrays.asList(expressions));
+        return request;
+    }
+
+    private static Expression expression(final String expression, final String label, final boolean transientFlag) {
+        final Expression e = new Expression();
+        e.setLabel(label);
+        e.setExpression(expression);
+        e.setTransient(transientFlag);
+        return e;
+    }
+
+    /**
+     * Builds results with columns named x, y and z for small numbers of sources and s0, s1, ... otherwise,
+     * mixing random values with the special values.
+     */
+    private static FetchResults results(final int numRows, final int numSources) {
+        final Random random = new Random(numRows * 31 + numSources);
+        final long[] timestamps = new long[numRows];
+        for (int i = 0; i < numRows; i++) {
+            timestamps[i] = 1546300800000L + i * 60000L;
+        }
+
+        final Map<String, double[]> columns = Maps.newLinkedHashMap();
+        for (int j = 0; j < numSources; j++) {
+            final double[] values = new double[numRows];
+            for (int i = 0; i < numRows; i++) {
+                values[i] = random.nextBoolean()
+                        ? SPECIAL_VALUES[random.nextInt(SPECIAL_VALUES.length)]
+                        : random.nextInt(5) - 2 + random.nextDouble();
+            }
+            columns.put(numSources <= 3 ? String.valueOf((char) ('x' + j)) : "s" + j, values);
+        }
+
+        final Map<String, Object> constants = Maps.newHashMap();
+        constants.put("speed", 65);
+        constants.put("ratio", 0.25d);
+        constants.put("formula", "x * 2 + y");
+        return new FetchResults(timestamps, columns, 60000L, constants);
+    }
+}
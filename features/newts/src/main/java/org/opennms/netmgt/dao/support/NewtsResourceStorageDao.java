@@ -52,6 +52,7 @@ import org.opennms.netmgt.model.RrdGraphAttribute;
 import org.opennms.netmgt.model.StringPropertyAttribute;
 import org.opennms.netmgt.newts.NewtsWriter;
 import org.opennms.netmgt.newts.support.NewtsUtils;
+import org.opennms.netmgt.newts.support.ResourceIndexDeduplicator;
 import org.opennms.netmgt.newts.support.SearchableResourceMetadataCache;
 import org.opennms.newts.api.Context;
 import org.opennms.newts.api.Resource;
@@ -107,6 +108,9 @@ public class NewtsResourceStorageDao implements ResourceStorageDao {
     @Autowired
     private SearchableResourceMetadataCache m_searchableCache;
 
+    @Autowired(required = false)
+    private ResourceIndexDeduplicator m_indexDeduplicator;
+
     @Override
     public boolean exists(ResourcePath path, int depth) {
         Preconditions.checkArgument(depth >= 0, "depth must be non-negative");
@@ -164,6 +168,9 @@ public class NewtsResourceStorageDao implements ResourceStorageDao {
         for (final Result result : results) {
             m_sampleRepository.delete(m_context, result.getResource());
             m_indexer.delete(m_context, result.getResource());
+            if (m_indexDeduplicator != null) {
+                m_indexDeduplicator.delete(m_context, result.getResource());
+            }
         }
 
         return true;
@@ -0,0 +1,369 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.impl;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.opennms.newts.api.Measurement;
+import org.opennms.newts.api.Results.Row;
+import org.opennms.newts.api.Sample;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+
+/**
+ * Caches the aggregated rows returned by the {@link org.opennms.newts.api.SampleRepository}
+ * for the queries performed by the {@link NewtsFetchStrategy}.
+ *
+ * The rows are cached in segments keyed by the Newts resource ID, the data sources and the
+ * aggregation parameters. A segment only contains the rows which are "settled", that is, rows
+ * which are old enough that no more samples received on time can change their value:
+ * the samples contributing to a row are at most one step and one heartbeat older than the row.
+ *
+ * When a query is covered by a segment, only the rows after the last settled row are read from
+ * Newts and merged in, and the segment is extended with the rows that settled in the meantime.
+ *
+ * Samples which are older than the minimum step when they are written may change the value of
+ * settled rows, so the {@link org.opennms.netmgt.newts.NewtsWriter} reports them to
+ * {@link #invalidate(List)}, which drops all the segments of their resources. This only covers
+ * the samples written by this instance: the cache should not be used when other instances
+ * write late samples to the same keyspace.
+ *
+ * The cache is bounded by the total number of values in the segments. It is disabled when
+ * this number is 0, which is the default.
+ */
+public class NewtsFetchCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NewtsFetchCache.class);
+
+    /**
+     * The queries and invalidations for the same resource are serialized on one of these locks.
+     */
+    private static final int NUM_STRIPES = 256;
+
+    @FunctionalInterface
+    public interface Query {
+        Collection<Row<Measurement>> select(long start, long end) throws Exception;
+    }
+
+    public static class Key {
+        private final String m_resourceId;
+        private final List<String> m_datasources;
+        private final long m_step;
+        private final long m_interval;
+        private final long m_heartbeat;
+
+        public Key(String resourceId, List<String> datasources, long step, long interval, long heartbeat) {
+            m_resourceId = Objects.requireNonNull(resourceId);
+            m_datasources = ImmutableList.copyOf(datasources);
+            m_step = step;
+            m_interval = interval;
+            m_heartbeat = heartbeat;
+        }
+
+        public String getResourceId() {
+            return m_resourceId;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return m_step == other.m_step
+                    && m_interval == other.m_interval
+                    && m_heartbeat == other.m_heartbeat
+                    && m_resourceId.equals(other.m_resourceId)
+                    && m_datasources.equals(other.m_datasources);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(m_resourceId, m_datasources, m_step, m_interval, m_heartbeat);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Key[resourceId=%s, datasources=%s, step=%d, interval=%d, heartbeat=%d]",
+                    m_resourceId, m_datasources, m_step, m_interval, m_heartbeat);
+        }
+    }
+
+    private static class Segment {
+        /**
+         * The start of the query the rows were first read for.
+         */
+        private final long m_start;
+
+        /**
+         * The timestamp of the last settled row.
+         */
+        private final long m_settledEnd;
+
+        private final NavigableMap<Long, Row<Measurement>> m_rows;
+
+        private final int m_numValues;
+
+        private Segment(long start, long settledEnd, NavigableMap<Long, Row<Measurement>> rows) {
+            m_start = start;
+            m_settledEnd = settledEnd;
+            m_rows = ImmutableSortedMap.copyOfSorted(rows);
+            int numValues = 0;
+            for (Row<Measurement> row : m_rows.values()) {
+                numValues += row.getElements().size();
+            }
+            m_numValues = numValues;
+        }
+
+        private boolean covers(long start) {
+            return m_start <= start && start <= m_settledEnd;
+        }
+    }
+
+    private final long m_maxValues;
+
+    private final Cache<Key, Segment> m_cache;
+
+    private final ConcurrentMap<String, Set<Key>> m_keysByResourceId = new ConcurrentHashMap<>();
+
+    private final Object[] m_locks = new Object[NUM_STRIPES];
+
+    /**
+     * Incremented whenever the segments of a resource are invalidated, so that queries which
+     * were in flight at that time don't store the rows they read.
+     */
+    private final AtomicLongArray m_generations = new AtomicLongArray(NUM_STRIPES);
+
+    private final Meter m_hits;
+    private final Meter m_partialHits;
+    private final Meter m_misses;
+    private final Meter m_lateWrites;
+
+    @Inject
+    public NewtsFetchCache(@Named("newts.fetch_cache.max_values") Long maxValues, MetricRegistry registry) {
+        m_maxValues = maxValues != null ? maxValues : 0L;
+        for (int i = 0; i < NUM_STRIPES; i++) {
+            m_locks[i] = new Object();
+        }
+
+        m_cache = CacheBuilder.newBuilder()
+                .maximumWeight(Math.max(m_maxValues, 0L))
+                .weigher((Key key, Segment segment) -> segment.m_numValues)
+                .removalListener((RemovalListener<Key, Segment>) this::onRemoval)
+                .build();
+
+        m_hits = registry.meter(MetricRegistry.name("fetch-cache", "hits"));
+        m_partialHits = registry.meter(MetricRegistry.name("fetch-cache", "partial-hits"));
+        m_misses = registry.meter(MetricRegistry.name("fetch-cache", "misses"));
+        m_lateWrites = registry.meter(MetricRegistry.name("fetch-cache", "late-writes"));
+        registry.register(MetricRegistry.name("fetch-cache", "hit-ratio"), new Gauge<Double>() {
+            @Override
+            public Double getValue() {
+                final long hits = m_hits.getCount() + m_partialHits.getCount();
+                final long total = hits + m_misses.getCount();
+                return total > 0 ? (double) hits / total : Double.NaN;
+            }
+        });
+        registry.register(MetricRegistry.name("fetch-cache", "segments"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return m_cache.size();
+            }
+        });
+
+        LOG.debug("Using max_values: {}", m_maxValues);
+    }
+
+    public boolean isEnabled() {
+        return m_maxValues > 0;
+    }
+
+    /**
+     * Returns the rows in the given range, using the cached rows for as much of the range as possible
+     * and the given query for the rest.
+     */
+    public Collection<Row<Measurement>> select(Key key, long start, long end, Query query) throws Exception {
+        return select(key, start, end, System.currentTimeMillis(), query);
+    }
+
+    @VisibleForTesting
+    protected Collection<Row<Measurement>> select(Key key, long start, long end, long now, Query query) throws Exception {
+        if (!isEnabled()) {
+            return query.select(start, end);
+        }
+
+        final int stripe = stripe(key.getResourceId());
+        final long generation = m_generations.get(stripe);
+        final long settleLimit = now - key.m_step - key.m_heartbeat;
+
+        final Segment segment = m_cache.getIfPresent(key);
+        if (segment != null && segment.covers(start)) {
+            if (ceil(end, key.m_step) <= segment.m_settledEnd) {
+                m_hits.mark();
+                return ImmutableList.copyOf(segment.m_rows.subMap(floor(start, key.m_step), true, ceil(end, key.m_step), true).values());
+            }
+            m_partialHits.mark();
+
+            // Read the tail, starting early enough for the first new row to be complete
+            final NavigableMap<Long, Row<Measurement>> tail = index(query.select(segment.m_settledEnd - key.m_step - key.m_heartbeat, end));
+            tail.headMap(segment.m_settledEnd, true).clear();
+
+            // Drop the rows before this query, the windows of the repeated queries move forward
+            final NavigableMap<Long, Row<Measurement>> rows = new TreeMap<>(segment.m_rows.tailMap(floor(start, key.m_step), true));
+            final NavigableMap<Long, Row<Measurement>> settled = tail.headMap(settleLimit, true);
+            if (!settled.isEmpty()) {
+                final NavigableMap<Long, Row<Measurement>> segmentRows = new TreeMap<>(rows);
+                segmentRows.putAll(settled);
+                put(key, stripe, generation, new Segment(start, settled.lastKey(), segmentRows));
+            }
+            rows.putAll(tail);
+            return rows.values();
+        }
+
+        m_misses.mark();
+        final Collection<Row<Measurement>> rows = query.select(start, end);
+        final NavigableMap<Long, Row<Measurement>> settled = index(rows).headMap(settleLimit, true);
+        if (!settled.isEmpty() && settled.lastKey() >= start) {
+            put(key, stripe, generation, new Segment(start, settled.lastKey(), settled));
+        }
+        return rows;
+    }
+
+    /**
+     * Drops the segments of the resources which received samples old enough to change settled rows.
+     */
+    public void invalidate(List<Sample> samples) {
+        if (!isEnabled() || samples.isEmpty()) {
+            return;
+        }
+
+        final long lateBefore = System.currentTimeMillis() - NewtsFetchStrategy.MIN_STEP_MS;
+        String lastResourceId = null;
+        for (Sample sample : samples) {
+            final String resourceId = sample.getResource().getId();
+            if (sample.getTimestamp().asMillis() > lateBefore || resourceId.equals(lastResourceId)) {
+                continue;
+            }
+            lastResourceId = resourceId;
+            m_lateWrites.mark();
+            invalidate(resourceId);
+        }
+    }
+
+    @VisibleForTesting
+    protected void invalidate(String resourceId) {
+        final int stripe = stripe(resourceId);
+        synchronized (m_locks[stripe]) {
+            m_generations.incrementAndGet(stripe);
+            final Set<Key> keys = m_keysByResourceId.get(resourceId);
+            if (keys != null) {
+                LOG.debug("Invalidating the cached rows of resource {}.", resourceId);
+                m_cache.invalidateAll(ImmutableList.copyOf(keys));
+            }
+        }
+    }
+
+    private void put(Key key, int stripe, long generation, Segment segment) {
+        synchronized (m_locks[stripe]) {
+            if (m_generations.get(stripe) != generation) {
+                // Late samples were written while the rows were being read
+                return;
+            }
+            m_cache.put(key, segment);
+            m_keysByResourceId.compute(key.getResourceId(), (resourceId, keys) -> {
+                final Set<Key> keysOfResource = keys != null ? keys : ConcurrentHashMap.newKeySet();
+                keysOfResource.add(key);
+                return keysOfResource;
+            });
+        }
+    }
+
+    private void onRemoval(RemovalNotification<Key, Segment> notification) {
+        final Key key = notification.getKey();
+        m_keysByResourceId.computeIfPresent(key.getResourceId(), (resourceId, keys) -> {
+            // The notifications may be delivered after the key was put again
+            if (!m_cache.asMap().containsKey(key)) {
+                keys.remove(key);
+            }
+            return keys.isEmpty() ? null : keys;
+        });
+    }
+
+    private static int stripe(String resourceId) {
+        return Math.floorMod(resourceId.hashCode(), NUM_STRIPES);
+    }
+
+    private static NavigableMap<Long, Row<Measurement>> index(Collection<Row<Measurement>> rows) {
+        final NavigableMap<Long, Row<Measurement>> rowsByTimestamp = new TreeMap<>();
+        for (Row<Measurement> row : rows) {
+            rowsByTimestamp.put(row.getTimestamp().asMillis(), row);
+        }
+        return rowsByTimestamp;
+    }
+
+    /**
+     * The first row returned for a query starting at the given time.
+     */
+    private static long floor(long start, long step) {
+        return start - Math.floorMod(start, step);
+    }
+
+    /**
+     * The last row returned for a query ending at the given time.
+     */
+    private static long ceil(long end, long step) {
+        final long floor = floor(end, step);
+        return floor == end ? end : floor + step;
+    }
+}
@@ -109,6 +109,9 @@ public class NewtsFetchStrategy implements MeasurementFetchStrategy {
     @Autowired
     private SampleRepository m_sampleRepository;
 
+    @Autowired(required = false)
+    private NewtsFetchCache m_fetchCache;
+
     private final ThreadFactory namedThreadFactory = new ThreadFactoryBuilder().setNameFormat("NewtsFetchStrateg-%d").build();
 
     private final ExecutorService threadPool = Executors.newCachedThreadPool(namedThreadFactory);
@@ -280,6 +283,7 @@ public class NewtsFetchStrategy implements MeasurementFetchStrategy {
             @Override
             public Collection<Row<Measurement>> call() throws Exception {
                 ResultDescriptor resultDescriptor = new ResultDescriptor(lag.getInterval());
+                List<String> datasources = Lists.newArrayListWithCapacity(listOfSources.size());
                 for (Source source : listOfSources) {
                     // Use the datasource as the metric name if set, otherwise use the name of the attribute
                     final String metricName = source.getDataSource() != null ? source.getDataSource() : source.getAttribute();
@@ -288,8 +292,21 @@ public class NewtsFetchStrategy implements MeasurementFetchStrategy {
 
                     resultDescriptor.datasource(name, metricName, lag.getHeartbeat(), fn);
                     resultDescriptor.export(name);
+                    datasources.add(name + "/" + metricName + "/" + fn);
+                }
+
+                if (m_fetchCache == null || !m_fetchCache.isEnabled()) {
+                    return select(resultDescriptor, start, end);
                 }
 
+                // Only the rows which are not cached yet are read from Newts
+                final NewtsFetchCache.Key key = new NewtsFetchCache.Key(newtsResourceId, datasources,
+                        lag.getStep(), lag.getInterval(), lag.getHeartbeat());
+                return m_fetchCache.select(key, start.get().asMillis(), end.get().asMillis(),
+                        (from, to) -> select(resultDescriptor, Optional.of(Timestamp.fromEpochMillis(from)), Optional.of(Timestamp.fromEpochMillis(to))));
+            }
+
+            private Collection<Row<Measurement>> select(ResultDescriptor resultDescriptor, Optional<Timestamp> start, Optional<Timestamp> end) {
                 LOG.debug("Querying Newts for resource id {} with result descriptor: {}", newtsResourceId, resultDescriptor);
                 Results<Measurement> results = m_sampleRepository.select(m_context, new Resource(newtsResourceId), start, end,
                         resultDescriptor, Optional.of(Duration.millis(lag.getStep())), limitConcurrentAggregationsCallback);
@@ -407,6 +424,11 @@ public class NewtsFetchStrategy implements MeasurementFetchStrategy {
         m_sampleRepository = sampleRepository;
     }
 
+    @VisibleForTesting
+    protected void setFetchCache(NewtsFetchCache fetchCache) {
+        m_fetchCache = fetchCache;
+    }
+
     @VisibleForTesting
     protected void setContext(Context context) {
         m_context = context;
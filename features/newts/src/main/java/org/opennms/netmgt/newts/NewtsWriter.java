@@ -32,6 +32,7 @@ import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
@@ -40,7 +41,9 @@ import javax.inject.Named;
 
 import org.joda.time.Duration;
 import org.opennms.core.logging.Logging;
+import org.opennms.netmgt.measurements.impl.NewtsFetchCache;
 import org.opennms.netmgt.newts.support.NewtsUtils;
+import org.opennms.netmgt.newts.support.ResourceIndexDeduplicator;
 import org.opennms.newts.api.Sample;
 import org.opennms.newts.api.SampleRepository;
 import org.opennms.newts.api.search.Indexer;
@@ -70,12 +73,18 @@ import com.swrve.ratelimitedlogger.RateLimitedLog;
  * Calls to {@link #insert()} publish the samples to a ring buffer so
  * that they don't block while the data is being persisted.
  *
+ * When the ring buffer is full, the samples are dropped unless a {@link SampleSpillBuffer}
+ * is enabled, in which case they are written to disk and published again by a
+ * separate thread once the ring buffer has room for them.
+ *
  * @author jwhite
  */
 public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBean {
 
     private static final Logger LOG = LoggerFactory.getLogger(NewtsWriter.class);
 
+    private static final long REPLAY_BACKOFF_MS = 10;
+
     private static final RateLimitedLog RATE_LIMITED_LOGGER = RateLimitedLog
             .withRateLimit(LOG)
             .maxRate(5).every(Duration.standardSeconds(30))
@@ -87,6 +96,17 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
     @Autowired
     private Indexer m_indexer;
 
+    @Autowired(required = false)
+    private NewtsFetchCache m_fetchCache;
+
+    private ResourceIndexDeduplicator m_indexDeduplicator;
+
+    private SampleSpillBuffer m_spillBuffer;
+
+    private Thread m_spillReplayer;
+
+    private volatile boolean m_stopped = false;
+
     private WorkerPool<SampleBatchEvent> m_workerPool;
 
     private RingBuffer<SampleBatchEvent> m_ringBuffer;
@@ -99,6 +119,10 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
 
     private final Meter m_droppedSamples;
 
+    private final Meter m_spilledSamples;
+
+    private final Meter m_replayedSamples;
+
     /**
      * The {@link RingBuffer} doesn't appear to expose any methods that indicate the number
      * of elements that are currently "queued", so we keep track of them with this atomic counter.
@@ -135,6 +159,8 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
                 });
 
         m_droppedSamples = registry.meter(MetricRegistry.name("ring-buffer", "dropped-samples"));
+        m_spilledSamples = registry.meter(MetricRegistry.name("ring-buffer", "spilled-samples"));
+        m_replayedSamples = registry.meter(MetricRegistry.name("ring-buffer", "replayed-samples"));
 
         LOG.debug("Using max_batch_size: {} and ring_buffer_size: {}", maxBatchSize, m_ringBufferSize);
         setUpWorkerPool();
@@ -165,6 +191,13 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
 
     @Override
     public void destroy() throws Exception {
+        m_stopped = true;
+        if (m_spillReplayer != null) {
+            // The remaining segments are replayed on the next start
+            m_spillReplayer.interrupt();
+            m_spillReplayer.join();
+            m_spillBuffer.close();
+        }
         if (m_workerPool != null) {
             m_workerPool.drainAndHalt();
         }
@@ -181,6 +214,11 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
     private void pushToRingBuffer(List<Sample> samples, EventTranslatorOneArg<SampleBatchEvent, List<Sample>> translator) {
         // Add the samples to the ring buffer
         if (!m_ringBuffer.tryPublishEvent(translator, samples)) {
+            if (m_spillBuffer != null && m_spillBuffer.spill(samples, translator == INDEX_ONLY_TRANSLATOR)) {
+                // The samples are delayed until the ring buffer drains
+                m_spilledSamples.mark(samples.size());
+                return;
+            }
             RATE_LIMITED_LOGGER.error("The ring buffer is full. {} samples associated with resource ids {} will be dropped.",
                     samples.size(), new Object() {
                         @Override
@@ -214,10 +252,18 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
             try {
                 if (event.isIndexOnly() && !NewtsUtils.DISABLE_INDEXING) {
                     LOG.debug("Indexing {} samples", batch.size());
-                    m_indexer.update(batch);
+                    if (m_indexDeduplicator != null) {
+                        m_indexDeduplicator.index(batch, m_indexer::update);
+                    } else {
+                        m_indexer.update(batch);
+                    }
                 } else {
                     LOG.debug("Inserting {} samples", batch.size());
                     m_sampleRepository.insert(batch);
+                    if (m_fetchCache != null) {
+                        // Late samples may change the cached query results
+                        m_fetchCache.invalidate(batch);
+                    }
                 }
 
                 if (LOG.isDebugEnabled()) {
@@ -256,4 +302,53 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
     public void setIndexer(Indexer indexer) {
         m_indexer = indexer;
     }
+
+    public void setFetchCache(NewtsFetchCache fetchCache) {
+        m_fetchCache = fetchCache;
+    }
+
+    @Autowired(required = false)
+    public void setIndexDeduplicator(ResourceIndexDeduplicator indexDeduplicator) {
+        m_indexDeduplicator = indexDeduplicator;
+    }
+
+    @Autowired(required = false)
+    public synchronized void setSpillBuffer(SampleSpillBuffer spillBuffer) {
+        if (m_spillBuffer != null || spillBuffer == null || !spillBuffer.isEnabled()) {
+            return;
+        }
+        m_spillBuffer = spillBuffer;
+        m_spillReplayer = new Thread(this::replaySpilledSamples, "NewtsWriter-Spill-Replayer");
+        m_spillReplayer.setDaemon(true);
+        m_spillReplayer.start();
+    }
+
+    /**
+     * Publishes the spilled samples again, waiting for room on the ring buffer.
+     */
+    private void replaySpilledSamples() {
+        Logging.putPrefix("collectd");
+        while (!m_stopped) {
+            try {
+                final SampleSpillBuffer.Segment segment = m_spillBuffer.poll(1, TimeUnit.SECONDS);
+                if (segment == null) {
+                    continue;
+                }
+                for (SampleSpillBuffer.Batch batch : segment.getBatches()) {
+                    // Leave some room for the samples which are inserted in the meantime
+                    while (m_ringBuffer.remainingCapacity() < m_ringBufferSize / 4) {
+                        Thread.sleep(REPLAY_BACKOFF_MS);
+                    }
+                    m_ringBuffer.publishEvent(batch.isIndexOnly() ? INDEX_ONLY_TRANSLATOR : TRANSLATOR, batch.getSamples());
+                    m_numEntriesOnRingBuffer.incrementAndGet();
+                    m_replayedSamples.mark(batch.getSamples().size());
+                }
+                segment.delete();
+            } catch (InterruptedException e) {
+                LOG.debug("Interrupted while replaying the spilled samples.");
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
 }
@@ -0,0 +1,314 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.newts;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.nustaq.serialization.FSTConfiguration;
+import org.opennms.newts.api.Sample;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Strings;
+
+/**
+ * Stores the sample batches which don't fit on the {@link NewtsWriter}'s ring buffer
+ * in files on disk, so that they can be replayed once the ring buffer drains, instead
+ * of being dropped.
+ *
+ * The batches are appended to segment files, which are rotated once they grow larger
+ * than {@link #SEGMENT_SIZE} bytes. The segments are replayed in the order they were
+ * written and are only deleted once all of their batches were replayed. Segments left
+ * over from a previous run are replayed after a restart, which may write some of
+ * the samples twice. This is harmless, since the samples are simply overwritten.
+ *
+ * The buffer is disabled when no directory is configured, which is the default.
+ * Batches are dropped when the size of the segments exceeds the configured maximum.
+ *
+ * FST is used for serialization instead Java's default implementation.
+ */
+public class SampleSpillBuffer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SampleSpillBuffer.class);
+
+    private static final FSTConfiguration conf = FSTConfiguration.createDefaultConfiguration();
+
+    static {
+        // Not all of the Newts API classes implement Serializable
+        conf.setForceSerializable(true);
+    }
+
+    private static final String SEGMENT_PREFIX = "samples-";
+
+    private static final String SEGMENT_SUFFIX = ".spill";
+
+    protected static final long SEGMENT_SIZE = 16L * 1024L * 1024L;
+
+    /**
+     * A batch of samples read back from disk.
+     */
+    public static class Batch {
+        private final List<Sample> m_samples;
+        private final boolean m_indexOnly;
+
+        private Batch(List<Sample> samples, boolean indexOnly) {
+            m_samples = samples;
+            m_indexOnly = indexOnly;
+        }
+
+        public List<Sample> getSamples() {
+            return m_samples;
+        }
+
+        public boolean isIndexOnly() {
+            return m_indexOnly;
+        }
+    }
+
+    /**
+     * The batches of a segment, which must be {@link #delete() deleted} once they were replayed.
+     */
+    public static class Segment {
+        private final File m_file;
+        private final List<Batch> m_batches;
+        private final AtomicLong m_size;
+
+        private Segment(File file, List<Batch> batches, AtomicLong size) {
+            m_file = file;
+            m_batches = batches;
+            m_size = size;
+        }
+
+        public List<Batch> getBatches() {
+            return m_batches;
+        }
+
+        public void delete() {
+            final long length = m_file.length();
+            if (m_file.delete()) {
+                m_size.addAndGet(-length);
+            } else {
+                LOG.warn("Failed to delete the replayed segment {}.", m_file);
+            }
+        }
+    }
+
+    private final File m_directory;
+
+    private final long m_maxSize;
+
+    /**
+     * The total size of the segments on disk.
+     */
+    private final AtomicLong m_size = new AtomicLong(0);
+
+    /**
+     * The segments which are complete and can be replayed, oldest first. Guarded by this.
+     */
+    private final Deque<File> m_segments = new ArrayDeque<>();
+
+    private long m_nextSegment = 0;
+
+    private File m_currentSegment;
+
+    private DataOutputStream m_out;
+
+    @Inject
+    public SampleSpillBuffer(@Named("newts.spill.directory") String directory, @Named("newts.spill.max_size") Long maxSize, MetricRegistry registry) {
+        m_directory = Strings.isNullOrEmpty(directory) ? null : new File(directory);
+        m_maxSize = maxSize != null ? maxSize : 0L;
+
+        if (m_directory != null) {
+            if (!m_directory.isDirectory() && !m_directory.mkdirs()) {
+                throw new IllegalArgumentException("Failed to create the spill directory " + m_directory);
+            }
+
+            // Pick up the segments of a previous run
+            final File[] files = m_directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+            Arrays.sort(files);
+            for (File file : files) {
+                m_segments.add(file);
+                m_size.addAndGet(file.length());
+                m_nextSegment = Math.max(m_nextSegment, segmentIndex(file) + 1);
+            }
+            if (!m_segments.isEmpty()) {
+                LOG.info("Found {} segments with {} bytes of spilled samples in {}.", m_segments.size(), m_size.get(), m_directory);
+            }
+        }
+
+        registry.register(MetricRegistry.name("ring-buffer", "spill-size"),
+                new Gauge<Long>() {
+                    @Override
+                    public Long getValue() {
+                        return m_size.get();
+                    }
+                });
+    }
+
+    public boolean isEnabled() {
+        return m_directory != null;
+    }
+
+    /**
+     * Appends the batch to the current segment.
+     *
+     * @return false if the batch could not be stored and must be dropped
+     */
+    public synchronized boolean spill(List<Sample> samples, boolean indexOnly) {
+        if (!isEnabled() || m_size.get() >= m_maxSize) {
+            return false;
+        }
+
+        final byte[] bytes = conf.asByteArray(new ArrayList<>(samples));
+        long length = 0;
+        try {
+            if (m_out == null) {
+                m_currentSegment = new File(m_directory, String.format("%s%020d%s", SEGMENT_PREFIX, m_nextSegment++, SEGMENT_SUFFIX));
+                m_out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(m_currentSegment)));
+            }
+            length = m_currentSegment.length();
+            m_out.writeBoolean(indexOnly);
+            m_out.writeInt(bytes.length);
+            m_out.write(bytes);
+            m_out.flush();
+        } catch (IOException e) {
+            LOG.error("Failed to spill {} samples to {}.", samples.size(), m_currentSegment, e);
+            // Account for the part of the batch which made it to disk, since the
+            // whole segment is subtracted again once it was replayed
+            final File segment = m_currentSegment;
+            rotate();
+            if (segment != null) {
+                m_size.addAndGet(Math.max(0, segment.length() - length));
+            }
+            return false;
+        }
+        // Only count the batch once it was completely written
+        m_size.addAndGet(m_currentSegment.length() - length);
+
+        if (m_currentSegment.length() >= SEGMENT_SIZE) {
+            rotate();
+        }
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Waits for a segment to replay.
+     *
+     * @return the oldest segment, or null if there was none within the given time
+     */
+    public Segment poll(long timeout, TimeUnit unit) throws InterruptedException {
+        final File file;
+        synchronized (this) {
+            if (m_segments.isEmpty() && m_out == null) {
+                wait(unit.toMillis(timeout));
+            }
+            if (m_segments.isEmpty()) {
+                // Replay the segment which is currently being written to
+                rotate();
+            }
+            file = m_segments.poll();
+        }
+        if (file == null) {
+            return null;
+        }
+
+        final List<Batch> batches = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                final boolean indexOnly;
+                try {
+                    indexOnly = in.readBoolean();
+                } catch (EOFException e) {
+                    break;
+                }
+                final byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                @SuppressWarnings("unchecked")
+                final List<Sample> samples = (List<Sample>) conf.asObject(bytes);
+                batches.add(new Batch(samples, indexOnly));
+            }
+        } catch (IOException | RuntimeException e) {
+            // Replay what we could read, i.e. when the last batch was only partially written
+            LOG.error("Failed to read all of the spilled samples from {}.", file, e);
+        }
+        return new Segment(file, batches, m_size);
+    }
+
+    public long getSize() {
+        return m_size.get();
+    }
+
+    public synchronized void close() {
+        rotate();
+    }
+
+    private synchronized void rotate() {
+        if (m_out == null) {
+            return;
+        }
+        try {
+            m_out.close();
+        } catch (IOException e) {
+            LOG.warn("Failed to close the spilled samples in {}.", m_currentSegment, e);
+        }
+        m_segments.add(m_currentSegment);
+        m_out = null;
+        m_currentSegment = null;
+    }
+
+    private static long segmentIndex(File file) {
+        final String name = file.getName();
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.newts.support;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.opennms.newts.api.Context;
+import org.opennms.newts.api.Resource;
+import org.opennms.newts.api.Sample;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Joiner;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Skips the indexing of samples whose resources were already indexed with the same
+ * attributes and metrics.
+ *
+ * The resources and metrics of a collection agent almost never change between two
+ * collections, so the indexer would otherwise look up the metadata of every single sample
+ * only to find out that there's nothing to write. Instead, we remember the signature
+ * of every indexed resource, that is its attributes and the names of its metrics, and
+ * only pass on the samples of resources whose signature changed.
+ *
+ * The signatures must be {@link #delete(Context, Resource) deleted} along with the
+ * resources, so that they are indexed again if they come back.
+ */
+public class ResourceIndexDeduplicator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ResourceIndexDeduplicator.class);
+
+    private static final Joiner m_keyJoiner = Joiner.on(':');
+
+    private static class Signature {
+        private final Map<String, String> m_attributes;
+        private final Set<String> m_metrics;
+
+        private Signature(Map<String, String> attributes, Set<String> metrics) {
+            // The attribute values may be null
+            m_attributes = Collections.unmodifiableMap(Maps.newHashMap(attributes));
+            m_metrics = Collections.unmodifiableSet(Sets.newHashSet(metrics));
+        }
+
+        private boolean covers(Signature other) {
+            return m_attributes.equals(other.m_attributes) && m_metrics.containsAll(other.m_metrics);
+        }
+
+        private Signature merge(Signature other) {
+            if (!m_attributes.equals(other.m_attributes)) {
+                // The attributes are replaced when the resource is indexed again
+                return other;
+            }
+            return new Signature(m_attributes, Sets.union(m_metrics, other.m_metrics));
+        }
+    }
+
+    private final Cache<String, Signature> m_cache;
+    private final Meter m_skippedSamples;
+    private final Meter m_indexedSamples;
+
+    @Inject
+    public ResourceIndexDeduplicator(@Named("search.resourceMetadata.maxCacheEntries") long maxSize, MetricRegistry registry) {
+        LOG.info("Initializing resource index deduplication ({} max entries)", maxSize);
+        m_cache = CacheBuilder.newBuilder().maximumSize(maxSize).build();
+
+        m_skippedSamples = registry.meter(MetricRegistry.name("index-dedup", "skipped-samples"));
+        m_indexedSamples = registry.meter(MetricRegistry.name("index-dedup", "indexed-samples"));
+        registry.register(MetricRegistry.name("index-dedup", "size"),
+                new Gauge<Long>() {
+                    @Override
+                    public Long getValue() {
+                        return m_cache.size();
+                    }
+                });
+    }
+
+    /**
+     * Passes the samples of the resources whose signature changed to the given indexer,
+     * and remembers their signatures once the indexer returns.
+     */
+    public void index(Collection<Sample> samples, Consumer<Collection<Sample>> indexer) {
+        // Group the samples by resource, they're typically already ordered this way
+        final Map<String, List<Sample>> samplesByKey = Maps.newLinkedHashMap();
+        for (Sample sample : samples) {
+            samplesByKey.computeIfAbsent(key(sample.getContext(), sample.getResource()), k -> Lists.newArrayList()).add(sample);
+        }
+
+        final List<Sample> samplesToIndex = Lists.newArrayListWithCapacity(samples.size());
+        final Map<String, Signature> signaturesToIndex = Maps.newHashMap();
+        for (Map.Entry<String, List<Sample>> entry : samplesByKey.entrySet()) {
+            final Signature signature = signature(entry.getValue());
+            final Signature indexed = m_cache.getIfPresent(entry.getKey());
+            if (indexed != null && indexed.covers(signature)) {
+                m_skippedSamples.mark(entry.getValue().size());
+                continue;
+            }
+            samplesToIndex.addAll(entry.getValue());
+            signaturesToIndex.put(entry.getKey(), signature);
+        }
+
+        if (samplesToIndex.isEmpty()) {
+            return;
+        }
+
+        indexer.accept(samplesToIndex);
+        m_indexedSamples.mark(samplesToIndex.size());
+
+        // Only remember the signatures once the samples were indexed successfully
+        for (Map.Entry<String, Signature> entry : signaturesToIndex.entrySet()) {
+            m_cache.asMap().merge(entry.getKey(), entry.getValue(), Signature::merge);
+        }
+    }
+
+    public void delete(Context context, Resource resource) {
+        m_cache.invalidate(key(context, resource));
+    }
+
+    public long getSize() {
+        return m_cache.size();
+    }
+
+    private static Signature signature(List<Sample> samplesOfResource) {
+        final Set<String> metrics = Sets.newHashSetWithExpectedSize(samplesOfResource.size());
+        for (Sample sample : samplesOfResource) {
+            metrics.add(sample.getName());
+        }
+        final Resource resource = samplesOfResource.get(0).getResource();
+        final Map<String, String> attributes = resource.getAttributes().isPresent() ? resource.getAttributes().get() : Collections.emptyMap();
+        return new Signature(attributes, metrics);
+    }
+
+    private static String key(Context context, Resource resource) {
+        return m_keyJoiner.join(context.getId(), resource.getId());
+    }
+}
@@ -37,17 +37,23 @@ import java.util.concurrent.TimeUnit;
 import org.opennms.newts.api.Sample;
 import org.opennms.newts.api.SampleProcessor;
 import org.opennms.newts.api.SampleProcessorService;
+import org.springframework.beans.factory.annotation.Autowired;
 
 /**
  * A simple sample processing service that executes the sample processors
  * serially in the caller's thread.
  *
+ * Since the only processor is the indexing processor, the samples are passed
+ * through the {@link ResourceIndexDeduplicator} first, if one is set.
+ *
  * @author jwhite
  */
 public class SimpleSampleProcessorService implements SampleProcessorService {
 
     private final Set<SampleProcessor> m_processors;
 
+    private ResourceIndexDeduplicator m_indexDeduplicator;
+
     public SimpleSampleProcessorService(Set<SampleProcessor> processors) {
         if (NewtsUtils.DISABLE_INDEXING) {
             // Currently the only processor is the indexing processor so
@@ -60,9 +66,22 @@ public class SimpleSampleProcessorService implements SampleProcessorService {
 
     @Override
     public void submit(Collection<Sample> samples) {
+        if (m_indexDeduplicator != null && !m_processors.isEmpty()) {
+            m_indexDeduplicator.index(samples, this::process);
+        } else {
+            process(samples);
+        }
+    }
+
+    private void process(Collection<Sample> samples) {
         m_processors.stream().forEach(p -> p.submit(samples));
     }
 
+    @Autowired(required = false)
+    public void setIndexDeduplicator(ResourceIndexDeduplicator indexDeduplicator) {
+        m_indexDeduplicator = indexDeduplicator;
+    }
+
     @Override
     public void shutdown() throws InterruptedException {
         // pass
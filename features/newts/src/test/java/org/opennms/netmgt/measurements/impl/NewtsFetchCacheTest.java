@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.newts.api.Gauge;
+import org.opennms.newts.api.Measurement;
+import org.opennms.newts.api.MetricType;
+import org.opennms.newts.api.Resource;
+import org.opennms.newts.api.Results.Row;
+import org.opennms.newts.api.Sample;
+import org.opennms.newts.api.Timestamp;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.Lists;
+
+public class NewtsFetchCacheTest {
+
+    private static final long STEP = TimeUnit.MINUTES.toMillis(5);
+    private static final long HEARTBEAT = TimeUnit.MINUTES.toMillis(15);
+    private static final long NOW = 1431047069000L - (1431047069000L % STEP);
+
+    private static final NewtsFetchCache.Key KEY = new NewtsFetchCache.Key("response:127.0.0.1:icmp",
+            Lists.newArrayList("icmp/icmp/AVERAGE"), STEP, STEP / 2, HEARTBEAT);
+
+    private final List<long[]> m_queries = Lists.newArrayList();
+
+    private double m_offset = 0;
+
+    private NewtsFetchCache m_cache;
+
+    @Before
+    public void setUp() {
+        m_cache = new NewtsFetchCache(1000L, new MetricRegistry());
+    }
+
+    @Test
+    public void canReadOnlyTheTail() throws Exception {
+        final long start = NOW - TimeUnit.HOURS.toMillis(4);
+        assertRows(start, NOW, m_cache.select(KEY, start, NOW, NOW, this::query));
+        assertEquals(1, m_queries.size());
+
+        // Repeat the query a step later, only the rows which were not settled are read again
+        final long later = NOW + STEP;
+        assertRows(start + STEP, later, m_cache.select(KEY, start + STEP, later, later, this::query));
+        assertEquals(2, m_queries.size());
+        assertEquals(NOW - 2 * STEP - 2 * HEARTBEAT, m_queries.get(1)[0]);
+        assertEquals(later, m_queries.get(1)[1]);
+
+        // Queries which only cover settled rows don't read anything
+        assertRows(start + STEP, NOW - TimeUnit.HOURS.toMillis(1), m_cache.select(KEY, start + STEP, NOW - TimeUnit.HOURS.toMillis(1), later, this::query));
+        assertEquals(2, m_queries.size());
+
+        // Queries which start before the cached rows read everything
+        assertRows(start - STEP, later, m_cache.select(KEY, start - STEP, later, later, this::query));
+        assertEquals(3, m_queries.size());
+        assertEquals(start - STEP, m_queries.get(2)[0]);
+    }
+
+    @Test
+    public void canInvalidateOnLateWrites() throws Exception {
+        final long start = NOW - TimeUnit.HOURS.toMillis(4);
+        m_cache.select(KEY, start, NOW, NOW, this::query);
+
+        // Samples written on time don't invalidate anything
+        m_cache.invalidate(Lists.newArrayList(sample(KEY.getResourceId(), System.currentTimeMillis())));
+        m_cache.select(KEY, start, NOW, NOW, this::query);
+        assertEquals(start, m_queries.get(0)[0]);
+        assertEquals(NOW - 2 * STEP - 2 * HEARTBEAT, m_queries.get(1)[0]);
+
+        // Late samples for other resources don't invalidate anything either
+        m_cache.invalidate(Lists.newArrayList(sample("response:127.0.0.2:icmp", start)));
+        m_cache.select(KEY, start, NOW, NOW, this::query);
+        assertEquals(NOW - 2 * STEP - 2 * HEARTBEAT, m_queries.get(2)[0]);
+
+        // Late samples change the values of the rows, which are read again
+        m_offset = 1;
+        m_cache.invalidate(Lists.newArrayList(sample(KEY.getResourceId(), start)));
+        assertRows(start, NOW, m_cache.select(KEY, start, NOW, NOW, this::query));
+        assertEquals(start, m_queries.get(3)[0]);
+    }
+
+    @Test
+    public void canBypassCacheWhenDisabled() throws Exception {
+        m_cache = new NewtsFetchCache(0L, new MetricRegistry());
+        final long start = NOW - TimeUnit.HOURS.toMillis(4);
+        for (int i = 0; i < 3; i++) {
+            assertRows(start, NOW, m_cache.select(KEY, start, NOW, NOW, this::query));
+        }
+        assertEquals(3, m_queries.size());
+    }
+
+    /**
+     * Generates a row for every step overlapping with the given range, like Newts, with a value derived from the timestamp.
+     */
+    private Collection<Row<Measurement>> query(long start, long end) {
+        m_queries.add(new long[] { start, end });
+        final Resource resource = new Resource(KEY.getResourceId());
+        final List<Row<Measurement>> rows = Lists.newArrayList();
+        for (long timestamp = floor(start); timestamp <= ceil(end); timestamp += STEP) {
+            final Row<Measurement> row = new Row<>(Timestamp.fromEpochMillis(timestamp), resource);
+            row.addElement(new Measurement(row.getTimestamp(), resource, "icmp", value(timestamp)));
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private double value(long timestamp) {
+        return timestamp / STEP + m_offset;
+    }
+
+    private void assertRows(long start, long end, Collection<Row<Measurement>> rows) {
+        long timestamp = floor(start);
+        for (Row<Measurement> row : rows) {
+            assertEquals(timestamp, row.getTimestamp().asMillis());
+            assertEquals(value(timestamp), row.getElements().iterator().next().getValue(), 0.0d);
+            timestamp += STEP;
+        }
+        assertEquals(ceil(end) + STEP, timestamp);
+    }
+
+    private static long floor(long timestamp) {
+        return timestamp - (timestamp % STEP);
+    }
+
+    private static long ceil(long timestamp) {
+        return timestamp % STEP == 0 ? timestamp : floor(timestamp) + STEP;
+    }
+
+    private static Sample sample(String resourceId, long timestamp) {
+        return new Sample(Timestamp.fromEpochMillis(timestamp), new Resource(resourceId), "icmp", MetricType.GAUGE, new Gauge(1.0d));
+    }
+}
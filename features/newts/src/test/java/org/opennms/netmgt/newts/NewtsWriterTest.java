@@ -29,14 +29,21 @@
 package org.opennms.netmgt.newts;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import org.junit.Assume;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.netmgt.newts.support.ResourceIndexDeduplicator;
 import org.opennms.newts.api.Context;
 import org.opennms.newts.api.Counter;
 import org.opennms.newts.api.Duration;
@@ -49,6 +56,9 @@ import org.opennms.newts.api.SampleRepository;
 import org.opennms.newts.api.SampleSelectCallback;
 import org.opennms.newts.api.Timestamp;
 import org.opennms.newts.api.query.ResultDescriptor;
+import org.opennms.newts.api.search.Indexer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.codahale.metrics.MetricRegistry;
 import com.google.common.base.Optional;
@@ -57,6 +67,11 @@ import com.google.common.collect.Lists;
 
 public class NewtsWriterTest {
 
+    private static final Logger LOG = LoggerFactory.getLogger(NewtsWriterTest.class);
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
     /**
      * Uses a latch to verify that multiple that multiple threads
      * are used to concurrently insert samples into the SampleRepository.
@@ -119,6 +134,156 @@ public class NewtsWriterTest {
         assertEquals(ringBufferSize, sampleRepo.getNumSamplesInserted());
     }
 
+    /**
+     * Fills the ring buffer and locks all of the writer threads to verify
+     * that additional samples are spilled to disk and replayed once the
+     * writer threads are unlocked.
+     */
+    @Test
+    public void samplesAreSpilledWhenRingBufferIsFull() throws Exception {
+        Resource x = new Resource("x");
+        int ringBufferSize = 1024;
+        int numWriterThreads = 8;
+
+        Lock lock = new ReentrantLock();
+        LockedSampleRepository sampleRepo = new LockedSampleRepository(lock);
+        MetricRegistry registry = new MetricRegistry();
+        SampleSpillBuffer spillBuffer = new SampleSpillBuffer(tempFolder.getRoot().getAbsolutePath(), 1024L * 1024L, registry);
+        NewtsWriter writer = new NewtsWriter(1, ringBufferSize, numWriterThreads, registry);
+        writer.setSampleRepository(sampleRepo);
+        writer.setSpillBuffer(spillBuffer);
+
+        lock.lock();
+        for (int i = 0; i < ringBufferSize; i++) {
+            Sample s = new Sample(Timestamp.now(), x, "y", MetricType.COUNTER, new Counter(i));
+            writer.insert(Lists.newArrayList(s));
+        }
+
+        // The ring buffer should be full, and all of the threads should be locked
+        Thread.sleep(250);
+        assertEquals(numWriterThreads, sampleRepo.getNumThreadsLocked());
+
+        // Attempt to insert another batch of samples
+        for (int i = 0; i < 8; i++) {
+            Sample s = new Sample(Timestamp.now(), x, "y", MetricType.COUNTER, new Counter(i));
+            writer.insert(Lists.newArrayList(s));
+        }
+        assertEquals(8, registry.meter("ring-buffer.spilled-samples").getCount());
+        assertTrue(spillBuffer.getSize() > 0);
+
+        // Unlock the writer threads and wait for the spilled samples to be replayed
+        lock.unlock();
+        waitForReplay(spillBuffer);
+        writer.destroy();
+
+        // Verify the number of inserted samples
+        assertEquals(0, sampleRepo.getNumThreadsLocked());
+        assertEquals(ringBufferSize + 8, sampleRepo.getNumSamplesInserted());
+        assertEquals(0, registry.meter("ring-buffer.dropped-samples").getCount());
+        assertEquals(8, registry.meter("ring-buffer.replayed-samples").getCount());
+    }
+
+    /**
+     * Writes the samples of many resources to a repository which is slower than
+     * the rate at which the samples are inserted, like an overloaded Cassandra cluster,
+     * and verifies that none of them are lost and that the resources are only indexed once.
+     */
+    @Test
+    public void canWriteToSlowSampleRepositoryWithoutLosingSamples() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("runBenchmarkTests"));
+
+        int ringBufferSize = 1024;
+        int numWriterThreads = 4;
+        int numResources = 1000;
+        int numMetrics = 10;
+        int numCollections = 20;
+
+        SlowSampleRepository sampleRepo = new SlowSampleRepository(1);
+        CountingIndexer indexer = new CountingIndexer();
+        MetricRegistry registry = new MetricRegistry();
+        SampleSpillBuffer spillBuffer = new SampleSpillBuffer(tempFolder.getRoot().getAbsolutePath(), Long.MAX_VALUE, registry);
+        NewtsWriter writer = new NewtsWriter(numMetrics, ringBufferSize, numWriterThreads, registry);
+        writer.setSampleRepository(sampleRepo);
+        writer.setIndexer(indexer);
+        writer.setIndexDeduplicator(new ResourceIndexDeduplicator(numResources, registry));
+        writer.setSpillBuffer(spillBuffer);
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < numCollections; i++) {
+            for (int j = 0; j < numResources; j++) {
+                Resource resource = new Resource("snmp:" + j + ":mib2-interfaces");
+                List<Sample> samples = Lists.newArrayListWithCapacity(numMetrics);
+                for (int k = 0; k < numMetrics; k++) {
+                    samples.add(new Sample(Timestamp.now(), resource, "metric" + k, MetricType.COUNTER, new Counter(i)));
+                }
+                writer.index(samples);
+                writer.insert(samples);
+            }
+        }
+        long inserted = System.currentTimeMillis();
+
+        waitForReplay(spillBuffer);
+        writer.destroy();
+        long end = System.currentTimeMillis();
+
+        LOG.info("Inserted {} samples in {} ms, of which {} were spilled, and wrote them in {} ms.",
+                numCollections * numResources * numMetrics, inserted - start,
+                registry.meter("ring-buffer.spilled-samples").getCount(), end - start);
+
+        assertEquals(numCollections * numResources * numMetrics, sampleRepo.getNumSamplesInserted());
+        assertEquals(numResources * numMetrics, indexer.getNumSamplesIndexed());
+        assertEquals(0, registry.meter("ring-buffer.dropped-samples").getCount());
+    }
+
+    private static void waitForReplay(SampleSpillBuffer spillBuffer) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(1);
+        while (spillBuffer.getSize() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        assertEquals(0, spillBuffer.getSize());
+    }
+
+    private static class SlowSampleRepository extends MockSampleRepository {
+        private final long delayMs;
+        private final AtomicInteger numSamplesInserted = new AtomicInteger(0);
+
+        public SlowSampleRepository(long delayMs) {
+            this.delayMs = delayMs;
+        }
+
+        @Override
+        public void insert(Collection<Sample> samples, boolean calculateTimeToLive) {
+            try {
+                Thread.sleep(delayMs);
+            } catch (InterruptedException e) {
+                throw Throwables.propagate(e);
+            }
+            numSamplesInserted.addAndGet(samples.size());
+        }
+
+        public int getNumSamplesInserted() {
+            return numSamplesInserted.get();
+        }
+    }
+
+    private static class CountingIndexer implements Indexer {
+        private final AtomicInteger numSamplesIndexed = new AtomicInteger(0);
+
+        @Override
+        public void update(Collection<Sample> samples) {
+            numSamplesIndexed.addAndGet(samples.size());
+        }
+
+        @Override
+        public void delete(Context context, Resource resource) {
+            // pass
+        }
+
+        public int getNumSamplesIndexed() {
+            return numSamplesIndexed.get();
+        }
+    }
+
     private static class LatchedSampleRepository extends MockSampleRepository {
         private final CountDownLatch latch;
 
@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.newts.support;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.newts.api.Context;
+import org.opennms.newts.api.Counter;
+import org.opennms.newts.api.MetricType;
+import org.opennms.newts.api.Resource;
+import org.opennms.newts.api.Sample;
+import org.opennms.newts.api.Timestamp;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+public class ResourceIndexDeduplicatorTest {
+
+    private final List<Collection<Sample>> m_indexed = Lists.newArrayList();
+
+    private MetricRegistry m_registry;
+
+    private ResourceIndexDeduplicator m_deduplicator;
+
+    @Before
+    public void setUp() {
+        m_registry = new MetricRegistry();
+        m_deduplicator = new ResourceIndexDeduplicator(1024, m_registry);
+    }
+
+    @Test
+    public void canSkipUnchangedResources() {
+        final Resource x = new Resource("x");
+        final Resource y = new Resource("y");
+
+        index(sample(x, "a"), sample(x, "b"), sample(y, "a"));
+        assertEquals(1, m_indexed.size());
+        assertEquals(3, m_indexed.get(0).size());
+        assertEquals(2, m_deduplicator.getSize());
+
+        // The same resources and metrics are skipped
+        index(sample(x, "a"), sample(x, "b"), sample(y, "a"));
+        index(sample(x, "b"));
+        assertEquals(1, m_indexed.size());
+        assertEquals(4, m_registry.meter("index-dedup.skipped-samples").getCount());
+
+        // New metrics are indexed, along with the other samples of their resource
+        index(sample(x, "a"), sample(x, "c"), sample(y, "a"));
+        assertEquals(2, m_indexed.size());
+        assertEquals(2, m_indexed.get(1).size());
+        index(sample(x, "a"), sample(x, "b"), sample(x, "c"));
+        assertEquals(2, m_indexed.size());
+
+        // Changed attributes are indexed
+        final Resource xWithAttributes = new Resource("x", Optional.of(ImmutableMap.of("ifName", "eth0")));
+        index(sample(xWithAttributes, "a"));
+        assertEquals(3, m_indexed.size());
+        index(sample(xWithAttributes, "a"));
+        assertEquals(3, m_indexed.size());
+        assertEquals(6, m_registry.meter("index-dedup.indexed-samples").getCount());
+    }
+
+    @Test
+    public void canIndexAgainAfterDelete() {
+        final Resource x = new Resource("x");
+        index(sample(x, "a"));
+        index(sample(x, "a"));
+        assertEquals(1, m_indexed.size());
+
+        m_deduplicator.delete(Context.DEFAULT_CONTEXT, x);
+        assertEquals(0, m_deduplicator.getSize());
+        index(sample(x, "a"));
+        assertEquals(2, m_indexed.size());
+    }
+
+    @Test
+    public void canIndexAgainAfterFailure() {
+        final Resource x = new Resource("x");
+        try {
+            m_deduplicator.index(Lists.newArrayList(sample(x, "a")), samples -> {
+                throw new RuntimeException("Cassandra is down");
+            });
+        } catch (RuntimeException e) {
+            // expected
+        }
+        assertEquals(0, m_deduplicator.getSize());
+
+        index(sample(x, "a"));
+        assertEquals(1, m_indexed.size());
+    }
+
+    private void index(Sample... samples) {
+        m_deduplicator.index(Lists.newArrayList(samples), m_indexed::add);
+    }
+
+    private static Sample sample(Resource resource, String name) {
+        return new Sample(Timestamp.now(), resource, name, MetricType.COUNTER, new Counter(1));
+    }
+}
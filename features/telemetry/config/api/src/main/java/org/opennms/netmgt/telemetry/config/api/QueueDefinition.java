@@ -76,4 +76,25 @@ public interface QueueDefinition {
      * @return the queue size
      */
     Optional<Integer> getQueueSize();
+
+    /**
+     * Number of threads used for handling messages with the adapters.
+     *
+     * If set, messages are partitioned by the address of the exporter, so that
+     * the messages of one exporter are always handled by the same thread in the
+     * order in which they were received. Otherwise, messages are handled on the
+     * threads consuming them.
+     *
+     * @return the number of adapter threads
+     */
+    Optional<Integer> getNumAdapterThreads();
+
+    /**
+     * Maximum number of messages to keep in memory per adapter thread
+     * while waiting to be handled. Consuming further messages is blocked
+     * while the queue of a thread is full.
+     *
+     * @return the adapter queue size
+     */
+    Optional<Integer> getAdapterQueueSize();
 }
@@ -63,6 +63,12 @@ public class QueueConfig implements QueueDefinition {
     @XmlAttribute(name="queue-size")
     private Integer queueSize;
 
+    @XmlAttribute(name="adapter-threads")
+    private Integer numAdapterThreads;
+
+    @XmlAttribute(name="adapter-queue-size")
+    private Integer adapterQueueSize;
+
     @XmlElement(name="adapter")
     private List<AdapterConfig> adapters = new ArrayList<>();
 
@@ -111,6 +117,24 @@ public class QueueConfig implements QueueDefinition {
         this.queueSize = queueSize;
     }
 
+    @Override
+    public Optional<Integer> getNumAdapterThreads() {
+        return Optional.ofNullable(this.numAdapterThreads);
+    }
+
+    public void setNumAdapterThreads(final Integer numAdapterThreads) {
+        this.numAdapterThreads = numAdapterThreads;
+    }
+
+    @Override
+    public Optional<Integer> getAdapterQueueSize() {
+        return Optional.ofNullable(this.adapterQueueSize);
+    }
+
+    public void setAdapterQueueSize(final Integer adapterQueueSize) {
+        this.adapterQueueSize = adapterQueueSize;
+    }
+
     public List<AdapterConfig> getAdapters() {
         return this.adapters;
     }
@@ -129,6 +153,8 @@ public class QueueConfig implements QueueDefinition {
                 Objects.equals(this.batchSize, that.batchSize) &&
                 Objects.equals(this.batchIntervalMs, that.batchIntervalMs) &&
                 Objects.equals(this.queueSize, that.queueSize) &&
+                Objects.equals(this.numAdapterThreads, that.numAdapterThreads) &&
+                Objects.equals(this.adapterQueueSize, that.adapterQueueSize) &&
                 Objects.equals(this.adapters, that.adapters);
     }
 
@@ -140,6 +166,8 @@ public class QueueConfig implements QueueDefinition {
                 this.batchSize,
                 this.batchIntervalMs,
                 this.queueSize,
+                this.numAdapterThreads,
+                this.adapterQueueSize,
                 this.adapters);
     }
 
@@ -151,6 +179,8 @@ public class QueueConfig implements QueueDefinition {
                 .add("batch-size", this.batchSize)
                 .add("batch-interval-ms", this.batchIntervalMs)
                 .add("queue-size", this.queueSize)
+                .add("adapter-threads", this.numAdapterThreads)
+                .add("adapter-queue-size", this.adapterQueueSize)
                 .addValue(this.adapters)
                 .toString();
     }
@@ -57,6 +57,8 @@ public class TelemetrydConfigTest extends XmlTestNoCastor<TelemetrydConfig> {
 
         QueueConfig jtiQueue = new QueueConfig();
         jtiQueue.setName("jti");
+        jtiQueue.setNumAdapterThreads(4);
+        jtiQueue.setAdapterQueueSize(500);
         telemetrydConfig.getQueues().add(jtiQueue);
         jtiParser.setQueue(jtiQueue);
 
@@ -89,7 +91,7 @@ public class TelemetrydConfigTest extends XmlTestNoCastor<TelemetrydConfig> {
                 "    <parser name=\"JTI\" class-name=\"org.opennms.netmgt.collection.streaming.jti.JtiParser\" queue=\"jti\" />\n" +
                 "  </listener>\n" +
                 "  \n" +
-                "  <queue name=\"jti\">\n" +
+                "  <queue name=\"jti\" adapter-threads=\"4\" adapter-queue-size=\"500\">\n" +
                 "    <adapter name=\"JTI-GPB\" class-name=\"org.opennms.netmgt.collection.streaming.jti.JtiGpbAdapter\" enabled=\"true\">\n" +
                 "      <parameter key=\"script\" value=\"${install.dir}/etc/telemetryd-adapters/junos-telemetry-interface.groovy\" />\n" +
                 "      <package name=\"JTI-Default\">\n" +
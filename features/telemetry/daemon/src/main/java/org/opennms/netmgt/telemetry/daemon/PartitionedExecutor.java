@@ -0,0 +1,203 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.daemon;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.opennms.core.logging.Logging;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/**
+ * Hands messages over to a fixed number of lanes, each of which is served by a single thread.
+ *
+ * The lane is selected by the partition key of the message, so all messages with the same key
+ * are handled by the same thread in the order in which they were submitted.
+ * The queue of every lane is bounded and submitting blocks while the queue of the selected lane is full.
+ *
+ * The number of pending messages and the latency, from submitting a message until it was handled,
+ * are tracked per lane.
+ *
+ * @param <T> type of the messages
+ */
+public class PartitionedExecutor<T> {
+    private static final Logger LOG = LoggerFactory.getLogger(PartitionedExecutor.class);
+
+    private final String name;
+
+    private final Consumer<T> handler;
+
+    private final List<Lane> lanes;
+
+    private volatile boolean running = false;
+
+    /**
+     * @param name used to name the threads and the metrics
+     * @param numLanes number of lanes, and thereby threads
+     * @param queueSize maximum number of pending messages per lane
+     * @param handler handles the messages
+     * @param metrics registry for the metrics of the lanes
+     */
+    public PartitionedExecutor(String name, int numLanes, int queueSize, Consumer<T> handler, MetricRegistry metrics) {
+        if (numLanes < 1) {
+            throw new IllegalArgumentException("numLanes must be positive, got: " + numLanes);
+        }
+        if (queueSize < 1) {
+            throw new IllegalArgumentException("queueSize must be positive, got: " + queueSize);
+        }
+        this.name = Objects.requireNonNull(name);
+        this.handler = Objects.requireNonNull(handler);
+
+        this.lanes = new ArrayList<>(numLanes);
+        for (int i = 0; i < numLanes; i++) {
+            this.lanes.add(new Lane(i, queueSize, metrics));
+        }
+    }
+
+    /**
+     * Starts the threads of the lanes. An executor can only be started once.
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        for (Lane lane : lanes) {
+            lane.start();
+        }
+    }
+
+    /**
+     * Stops the lanes, once all of the pending messages were handled.
+     */
+    public synchronized void stop() throws InterruptedException {
+        if (!running) {
+            return;
+        }
+        running = false;
+        for (Lane lane : lanes) {
+            lane.queue.put(lane.stop);
+        }
+        for (Lane lane : lanes) {
+            lane.thread.join();
+        }
+    }
+
+    /**
+     * Queues the message to the lane of the given key, blocking while the queue of this lane is full.
+     */
+    public void submit(Object key, T message) throws InterruptedException {
+        if (!running) {
+            throw new IllegalStateException("The executor is not running.");
+        }
+        final Lane lane = lanes.get(Math.floorMod(Objects.hashCode(key), lanes.size()));
+        lane.queue.put(new Pending<>(message, System.nanoTime()));
+    }
+
+    public int getNumLanes() {
+        return lanes.size();
+    }
+
+    public int getNumPendingMessages() {
+        return lanes.stream().mapToInt(lane -> lane.queue.size()).sum();
+    }
+
+    private static class Pending<T> {
+        private final T message;
+        private final long submitted;
+
+        private Pending(T message, long submitted) {
+            this.message = message;
+            this.submitted = submitted;
+        }
+    }
+
+    private class Lane {
+        private final BlockingQueue<Pending<T>> queue;
+        // Marks the end of the queue once stopped
+        private final Pending<T> stop = new Pending<>(null, 0);
+        private final Timer latency;
+        private final Thread thread;
+
+        private Lane(int index, int queueSize, MetricRegistry metrics) {
+            this.queue = new ArrayBlockingQueue<>(queueSize);
+            final String prefix = MetricRegistry.name(name, "lane" + index);
+            metrics.register(MetricRegistry.name(prefix, "depth"), (Gauge<Integer>) queue::size);
+            this.latency = metrics.timer(MetricRegistry.name(prefix, "latency"));
+            this.thread = new Thread(() -> Logging.withPrefix(Telemetryd.LOG_PREFIX, this::run), name + "-lane-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        private void start() {
+            thread.start();
+        }
+
+        private void run() {
+            while (true) {
+                final Pending<T> pending;
+                try {
+                    pending = queue.take();
+                } catch (InterruptedException e) {
+                    LOG.warn("Lane {} was interrupted, {} messages were not handled.", thread.getName(), queue.size());
+                    return;
+                }
+                if (pending == stop) {
+                    break;
+                }
+                handle(pending);
+            }
+
+            // Handle messages which were submitted while stopping
+            Pending<T> pending;
+            while ((pending = queue.poll()) != null) {
+                handle(pending);
+            }
+        }
+
+        private void handle(Pending<T> pending) {
+            try {
+                handler.accept(pending.message);
+            } catch (Throwable t) {
+                LOG.error("An error occurred while handling message on lane {}.", thread.getName(), t);
+            } finally {
+                latency.update(System.nanoTime() - pending.submitted, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+}
@@ -29,9 +29,11 @@
 package org.opennms.netmgt.telemetry.daemon;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
 
 import javax.annotation.PostConstruct;
@@ -52,12 +54,16 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.collect.Sets;
 
 
 public class TelemetryMessageConsumer implements MessageConsumer<TelemetryMessage, TelemetryProtos.TelemetryMessageLog> {
     private final Logger LOG = LoggerFactory.getLogger(TelemetryMessageConsumer.class);
 
+    public static final int DEFAULT_ADAPTER_QUEUE_SIZE = 1000;
+
     @Autowired
     private TelemetryRegistry telemetryRegistry;
 
@@ -68,6 +74,13 @@ public class TelemetryMessageConsumer implements MessageConsumer<TelemetryMessag
     // Actual adapters implementing the logic
     private final Set<Adapter> adapters = Sets.newHashSet();
 
+    private final MetricRegistry metrics = new MetricRegistry();
+
+    private JmxReporter metricsJmxReporter;
+
+    // Lanes handling the messages, if these are partitioned by exporter
+    private volatile PartitionedExecutor<TelemetryProtos.TelemetryMessageLog> executor;
+
     public TelemetryMessageConsumer(QueueConfig queueConfig, TelemetrySinkModule sinkModule) throws Exception {
         this(queueConfig,
                 queueConfig.getAdapters(),
@@ -98,10 +111,41 @@ public class TelemetryMessageConsumer implements MessageConsumer<TelemetryMessag
             }
             adapters.add(adapter);
         }
+
+        final Optional<Integer> numAdapterThreads = queueDef.getNumAdapterThreads();
+        if (numAdapterThreads.isPresent() && numAdapterThreads.get() > 0) {
+            executor = new PartitionedExecutor<>(queueDef.getName(),
+                    numAdapterThreads.get(),
+                    queueDef.getAdapterQueueSize().orElse(DEFAULT_ADAPTER_QUEUE_SIZE),
+                    this::dispatch,
+                    metrics);
+            executor.start();
+
+            metricsJmxReporter = JmxReporter.forRegistry(metrics)
+                    .inDomain(getClass().getPackage().getName())
+                    .build();
+            metricsJmxReporter.start();
+        }
     }
 
     @Override
     public void handleMessage(TelemetryProtos.TelemetryMessageLog messageLog) {
+        final PartitionedExecutor<TelemetryProtos.TelemetryMessageLog> executor = this.executor;
+        if (executor == null) {
+            dispatch(messageLog);
+            return;
+        }
+
+        // Keep the messages of an exporter in order by always handling them on the same lane
+        try {
+            executor.submit(Arrays.asList(messageLog.getLocation(), messageLog.getSourceAddress()), messageLog);
+        } catch (InterruptedException e) {
+            LOG.warn("Interrupted while waiting to hand over message log: {}. Skipping.", messageLog);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void dispatch(TelemetryProtos.TelemetryMessageLog messageLog) {
         try (Logging.MDCCloseable mdc = Logging.withPrefixCloseable(Telemetryd.LOG_PREFIX)) {
             LOG.trace("Received message log: {}", messageLog);
             // Handle the message with all of the adapters
@@ -118,6 +162,19 @@ public class TelemetryMessageConsumer implements MessageConsumer<TelemetryMessag
 
     @PreDestroy
     public void destroy() {
+        if (executor != null) {
+            try {
+                executor.stop();
+            } catch (InterruptedException e) {
+                LOG.warn("Interrupted while waiting for pending message logs to be handled.");
+                Thread.currentThread().interrupt();
+            }
+            executor = null;
+        }
+        if (metricsJmxReporter != null) {
+            metricsJmxReporter.close();
+            metricsJmxReporter = null;
+        }
         adapters.forEach((adapter) -> adapter.destroy());
     }
 
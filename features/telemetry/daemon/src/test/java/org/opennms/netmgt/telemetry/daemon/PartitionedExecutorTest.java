@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.daemon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class PartitionedExecutorTest {
+
+    @Test
+    public void verifyOrderIsKeptPerKey() throws InterruptedException {
+        final Map<Integer, List<Integer>> handled = new ConcurrentHashMap<>();
+        final PartitionedExecutor<int[]> executor = new PartitionedExecutor<>("test", 4, 10,
+                message -> handled.computeIfAbsent(message[0], k -> new ArrayList<>()).add(message[1]),
+                new MetricRegistry());
+        executor.start();
+        for (int i = 0; i < 1000; i++) {
+            for (int key = 0; key < 10; key++) {
+                executor.submit(key, new int[]{key, i});
+            }
+        }
+        executor.stop();
+
+        assertEquals(10, handled.size());
+        for (List<Integer> values : handled.values()) {
+            assertEquals(1000, values.size());
+            for (int i = 0; i < values.size(); i++) {
+                assertEquals(i, values.get(i).intValue());
+            }
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void verifySubmitBlocksWhileLaneIsFull() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final PartitionedExecutor<Integer> executor = new PartitionedExecutor<>("test", 1, 1, message -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, new MetricRegistry());
+        executor.start();
+
+        // The first message is taken by the lane, the second one fills the queue
+        executor.submit("a", 1);
+        executor.submit("a", 2);
+
+        final CountDownLatch submitted = new CountDownLatch(1);
+        final Thread producer = new Thread(() -> {
+            try {
+                executor.submit("a", 3);
+                submitted.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+        assertFalse(submitted.await(500, TimeUnit.MILLISECONDS));
+
+        release.countDown();
+        assertTrue(submitted.await(5, TimeUnit.SECONDS));
+        executor.stop();
+        assertEquals(0, executor.getNumPendingMessages());
+    }
+
+    @Test
+    public void verifyMetricsArePublishedPerLane() {
+        final MetricRegistry metrics = new MetricRegistry();
+        new PartitionedExecutor<Integer>("flows", 2, 10, message -> {}, metrics);
+
+        assertTrue(metrics.getGauges().containsKey("flows.lane0.depth"));
+        assertTrue(metrics.getGauges().containsKey("flows.lane1.depth"));
+        assertTrue(metrics.getTimers().containsKey("flows.lane0.latency"));
+        assertTrue(metrics.getTimers().containsKey("flows.lane1.latency"));
+    }
+}
@@ -38,6 +38,8 @@ public class MapBasedQueueDef implements QueueDefinition {
     private final Optional<Integer> queueSize;
     private final Optional<Integer> batchSize;
     private final Optional<Integer> batchInterval;
+    private final Optional<Integer> adapterThreads;
+    private final Optional<Integer> adapterQueueSize;
 
     public MapBasedQueueDef(final PropertyTree definition) {
         this.name = definition.getRequiredString("name");
@@ -45,6 +47,8 @@ public class MapBasedQueueDef implements QueueDefinition {
         this.queueSize = definition.getOptionalInteger("queue", "size");
         this.batchSize = definition.getOptionalInteger("batch", "size");
         this.batchInterval = definition.getOptionalInteger("batch", "interval");
+        this.adapterThreads = definition.getOptionalInteger("queue", "adapterThreads");
+        this.adapterQueueSize = definition.getOptionalInteger("queue", "adapterQueueSize");
     }
 
     @Override
@@ -71,4 +75,14 @@ public class MapBasedQueueDef implements QueueDefinition {
     public Optional<Integer> getQueueSize() {
         return queueSize;
     }
+
+    @Override
+    public Optional<Integer> getNumAdapterThreads() {
+        return adapterThreads;
+    }
+
+    @Override
+    public Optional<Integer> getAdapterQueueSize() {
+        return adapterQueueSize;
+    }
 }
@@ -30,6 +30,7 @@ package org.opennms.netmgt.telemetry.protocols.netflow.parser;
 
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.IntFunction;
@@ -67,6 +68,8 @@ public class ParserBase {
 
     private final AsyncDispatcher<TelemetryMessage> dispatcher;
 
+    private boolean directEncoding = false;
+
     public ParserBase(final Protocol protocol,
                       final String name,
                       final AsyncDispatcher<TelemetryMessage> dispatcher) {
@@ -79,13 +82,25 @@ public class ParserBase {
         return this.name;
     }
 
+    public boolean isDirectEncoding() {
+        return this.directEncoding;
+    }
+
+    /**
+     * If enabled, data records are encoded directly from the packet buffer instead of being parsed into values first.
+     */
+    public void setDirectEncoding(final boolean directEncoding) {
+        this.directEncoding = directEncoding;
+    }
+
     protected CompletableFuture<?> transmit(final RecordProvider packet, final InetSocketAddress remoteAddress) throws Exception {
         LOG.trace("Got packet: {}", packet);
 
-        // Return a future which completes when message is parsed and all records are transmitted
-        return CompletableFuture.allOf(packet.getRecords().map(record -> {
-            final ByteBuffer buffer = serialize(this.protocol, record);
+        // Serialize all records before dispatching any, so an invalid record rejects the whole packet
+        final List<ByteBuffer> records = packet.getSerializedRecords(this.protocol);
 
+        // Return a future which completes when message is parsed and all records are transmitted
+        return CompletableFuture.allOf(records.stream().map(buffer -> {
             // Build the message to dispatch
             final TelemetryMessage msg = new TelemetryMessage(remoteAddress, buffer);
 
@@ -113,6 +128,13 @@ public class ParserBase {
         return output.getByteBuffers().get(0).asNIO();
     }
 
+    /**
+     * Writes the value as a field of the current document.
+     */
+    public static void serialize(final Value<?> value, final BsonWriter writer) {
+        value.visit(new FlowBuilderVisitor(writer));
+    }
+
     private static class FlowBuilderVisitor implements Value.Visitor {
         // TODO: Really use ordinal for enums?
 
@@ -29,6 +29,7 @@
 package org.opennms.netmgt.telemetry.protocols.netflow.parser.ie;
 
 import java.nio.ByteBuffer;
+import java.util.Optional;
 
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.InvalidPacketException;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.Session;
@@ -43,4 +44,14 @@ public interface InformationElement {
     int getMinimumFieldLength();
 
     int getMaximumFieldLength();
+
+    /**
+     * Returns an encoder for values of the given field length, if this element supports writing its
+     * values without parsing them first.
+     *
+     * @param fieldLength the length of the field as declared by the template
+     */
+    default Optional<ValueEncoder> getEncoder(final int fieldLength) {
+        return Optional.empty();
+    }
 }
@@ -28,8 +28,26 @@
 
 package org.opennms.netmgt.telemetry.protocols.netflow.parser.ie;
 
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.InvalidPacketException;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ParserBase;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.Protocol;
+
 public interface RecordProvider {
     Stream<Iterable<Value<?>>> getRecords();
+
+    /**
+     * Returns the records as serialized BSON documents.
+     *
+     * Providers can override this to serialize the records without parsing them into {@link Value}s first.
+     */
+    default List<ByteBuffer> getSerializedRecords(final Protocol protocol) throws InvalidPacketException {
+        return getRecords()
+                .map(record -> ParserBase.serialize(protocol, record))
+                .collect(Collectors.toList());
+    }
 }
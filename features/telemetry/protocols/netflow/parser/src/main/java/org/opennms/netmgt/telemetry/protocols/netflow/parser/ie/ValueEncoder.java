@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.protocols.netflow.parser.ie;
+
+import java.nio.ByteBuffer;
+
+import org.bson.BsonWriter;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.InvalidPacketException;
+
+/**
+ * Writes the value of an information element directly from the packet buffer to a BSON document,
+ * without creating a {@link Value}.
+ *
+ * The written field must be equal to the one written for the {@link Value} parsed by the same element.
+ */
+@FunctionalInterface
+public interface ValueEncoder {
+
+    /**
+     * @param buffer the buffer containing the value, which is read using absolute positions
+     * @param offset position of the value in the buffer
+     * @param length length of the value
+     * @param writer the writer to write the value to
+     */
+    void encode(final ByteBuffer buffer,
+                final int offset,
+                final int length,
+                final BsonWriter writer) throws InvalidPacketException;
+
+    /**
+     * Reads an unsigned integer of up to eight octets at the given position.
+     */
+    static long uint(final ByteBuffer buffer, final int offset, final int length) {
+        long result = 0;
+        for (int i = 0; i < length; i++) {
+            result = (result << 8L) | (buffer.get(offset + i) & 0xFFL);
+        }
+        return result;
+    }
+
+    /**
+     * Reads a signed integer of one to eight octets at the given position.
+     */
+    static long sint(final ByteBuffer buffer, final int offset, final int length) {
+        // Sign-extend the first octet
+        long result = buffer.get(offset);
+        for (int i = 1; i < length; i++) {
+            result = (result << 8L) | (buffer.get(offset + i) & 0xFFL);
+        }
+        return result;
+    }
+}
@@ -35,9 +35,11 @@ import java.nio.ByteBuffer;
 import java.time.Instant;
 import java.util.Optional;
 
+import org.bson.BsonWriter;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.InformationElement;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Semantics;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.ValueEncoder;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.Session;
 
 import com.google.common.base.MoreObjects;
@@ -87,6 +89,13 @@ public class DateTimeValue extends Value<Instant> {
             public int getMaximumFieldLength() {
                 return 4;
             }
+
+            @Override
+            public Optional<ValueEncoder> getEncoder(final int fieldLength) {
+                return fieldLength == 4
+                        ? Optional.of((buffer, offset, length, writer) -> encode(writer, name, ValueEncoder.uint(buffer, offset, 4), 0))
+                        : Optional.empty();
+            }
         };
     }
 
@@ -111,6 +120,16 @@ public class DateTimeValue extends Value<Instant> {
             public int getMaximumFieldLength() {
                 return 8;
             }
+
+            @Override
+            public Optional<ValueEncoder> getEncoder(final int fieldLength) {
+                return fieldLength == 8
+                        ? Optional.of((buffer, offset, length, writer) -> {
+                            final long millis = ValueEncoder.uint(buffer, offset, 8);
+                            encode(writer, name, Math.floorDiv(millis, 1000L), Math.floorMod(millis, 1000L) * 1_000_000L);
+                        })
+                        : Optional.empty();
+            }
         };
     }
 
@@ -140,6 +159,17 @@ public class DateTimeValue extends Value<Instant> {
             public int getMaximumFieldLength() {
                 return 8;
             }
+
+            @Override
+            public Optional<ValueEncoder> getEncoder(final int fieldLength) {
+                return fieldLength == 8
+                        ? Optional.of((buffer, offset, length, writer) -> {
+                            final long seconds = ValueEncoder.uint(buffer, offset, 4);
+                            final long fraction = ValueEncoder.uint(buffer, offset + 4, 4) & (0xFFFFFFFF << 11);
+                            encode(writer, name, seconds - SECONDS_TO_EPOCH, fraction * 1_000_000_000L / (1L << 32));
+                        })
+                        : Optional.empty();
+            }
         };
     }
 
@@ -169,9 +199,29 @@ public class DateTimeValue extends Value<Instant> {
             public int getMaximumFieldLength() {
                 return 8;
             }
+
+            @Override
+            public Optional<ValueEncoder> getEncoder(final int fieldLength) {
+                return fieldLength == 8
+                        ? Optional.of((buffer, offset, length, writer) -> {
+                            final long seconds = ValueEncoder.uint(buffer, offset, 4);
+                            final long fraction = ValueEncoder.uint(buffer, offset + 4, 4);
+                            encode(writer, name, seconds - SECONDS_TO_EPOCH, fraction * 1_000_000_000L / (1L << 32));
+                        })
+                        : Optional.empty();
+            }
         };
     }
 
+    private static void encode(final BsonWriter writer, final String name, final long epochSeconds, final long nanos) {
+        writer.writeStartDocument(name);
+        writer.writeInt64("epoch", epochSeconds);
+        if (nanos != 0) {
+            writer.writeInt64("nanos", nanos);
+        }
+        writer.writeEndDocument();
+    }
+
     @Override
     public Instant getValue() {
         return this.value;
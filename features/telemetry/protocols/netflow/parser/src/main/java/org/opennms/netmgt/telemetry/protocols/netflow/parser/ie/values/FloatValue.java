@@ -36,6 +36,7 @@ import java.util.Optional;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.InformationElement;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Semantics;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.ValueEncoder;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.Session;
 
 import com.google.common.base.MoreObjects;
@@ -79,6 +80,13 @@ public class FloatValue extends Value<Double> {
             public int getMaximumFieldLength() {
                 return 4;
             }
+
+            @Override
+            public Optional<ValueEncoder> getEncoder(final int fieldLength) {
+                return fieldLength == 4
+                        ? Optional.of((buffer, offset, length, writer) -> writer.writeDouble(name, Float.intBitsToFloat((int) ValueEncoder.uint(buffer, offset, 4))))
+                        : Optional.empty();
+            }
         };
     }
 
@@ -103,6 +111,13 @@ public class FloatValue extends Value<Double> {
             public int getMaximumFieldLength() {
                 return 8;
             }
+
+            @Override
+            public Optional<ValueEncoder> getEncoder(final int fieldLength) {
+                return fieldLength == 8
+                        ? Optional.of((buffer, offset, length, writer) -> writer.writeDouble(name, Double.longBitsToDouble(ValueEncoder.uint(buffer, offset, 8))))
+                        : Optional.empty();
+            }
         };
     }
 
@@ -39,6 +39,7 @@ import org.opennms.netmgt.telemetry.protocols.netflow.parser.InvalidPacketExcept
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.InformationElement;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Semantics;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.ValueEncoder;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.Session;
 
 import com.google.common.base.MoreObjects;
@@ -86,6 +87,16 @@ public class IPv4AddressValue extends Value<Inet4Address> {
             public int getMaximumFieldLength() {
                 return 4;
             }
+
+            @Override
+            public Optional<ValueEncoder> getEncoder(final int fieldLength) {
+                return fieldLength == 4
+                        ? Optional.of((buffer, offset, length, writer) -> writer.writeString(name, (buffer.get(offset) & 0xFF)
+                                + "." + (buffer.get(offset + 1) & 0xFF)
+                                + "." + (buffer.get(offset + 2) & 0xFF)
+                                + "." + (buffer.get(offset + 3) & 0xFF)))
+                        : Optional.empty();
+            }
         };
     }
 
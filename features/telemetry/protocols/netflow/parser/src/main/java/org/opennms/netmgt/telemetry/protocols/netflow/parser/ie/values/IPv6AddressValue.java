@@ -40,6 +40,7 @@ import org.opennms.netmgt.telemetry.protocols.netflow.parser.InvalidPacketExcept
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.InformationElement;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Semantics;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.ValueEncoder;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.Session;
 
 import com.google.common.base.MoreObjects;
@@ -87,9 +88,43 @@ public class IPv6AddressValue extends Value<Inet6Address> {
             public int getMaximumFieldLength() {
                 return 16;
             }
+
+            @Override
+            public Optional<ValueEncoder> getEncoder(final int fieldLength) {
+                return fieldLength == 16 ? Optional.of((buffer, offset, length, writer) -> {
+                    if (isIPv4Mapped(buffer, offset)) {
+                        // The parser rejects these as well, as they are not resolved to IPv6 addresses
+                        throw new InvalidPacketException(buffer, "Error parsing IPv6 value: IPv4-mapped address");
+                    }
+                    writer.writeString(name, format(buffer, offset));
+                }) : Optional.empty();
+            }
         };
     }
 
+    private static boolean isIPv4Mapped(final ByteBuffer buffer, final int offset) {
+        for (int i = 0; i < 10; i++) {
+            if (buffer.get(offset + i) != 0) {
+                return false;
+            }
+        }
+        return buffer.get(offset + 10) == (byte) 0xFF && buffer.get(offset + 11) == (byte) 0xFF;
+    }
+
+    /**
+     * Formats the address like {@link Inet6Address#getHostAddress()}.
+     */
+    private static String format(final ByteBuffer buffer, final int offset) {
+        final StringBuilder sb = new StringBuilder(39);
+        for (int i = 0; i < 8; i++) {
+            if (i > 0) {
+                sb.append(':');
+            }
+            sb.append(Integer.toHexString(((buffer.get(offset + 2 * i) & 0xFF) << 8) | (buffer.get(offset + 2 * i + 1) & 0xFF)));
+        }
+        return sb.toString();
+    }
+
     @Override
     public Inet6Address getValue() {
         return this.value;
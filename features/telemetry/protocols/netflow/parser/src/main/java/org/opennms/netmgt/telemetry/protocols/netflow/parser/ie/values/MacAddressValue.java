@@ -33,9 +33,11 @@ import static org.opennms.netmgt.telemetry.common.utils.BufferUtils.bytes;
 import java.nio.ByteBuffer;
 import java.util.Optional;
 
+import org.bson.BsonBinary;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.InformationElement;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Semantics;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.ValueEncoder;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.Session;
 
 import com.google.common.base.MoreObjects;
@@ -79,6 +81,20 @@ public class MacAddressValue extends Value<byte[]> {
             public int getMaximumFieldLength() {
                 return 6;
             }
+
+            @Override
+            public Optional<ValueEncoder> getEncoder(final int fieldLength) {
+                return fieldLength == 6 ? Optional.of((buffer, offset, length, writer) -> {
+                    final byte[] value = new byte[6];
+                    for (int i = 0; i < value.length; i++) {
+                        value[i] = buffer.get(offset + i);
+                    }
+                    writer.writeStartDocument(name);
+                    semantics.ifPresent(s -> writer.writeInt32("s", s.ordinal()));
+                    writer.writeBinaryData("v", new BsonBinary(value));
+                    writer.writeEndDocument();
+                }) : Optional.empty();
+            }
         };
     }
 
@@ -33,11 +33,13 @@ import static org.opennms.netmgt.telemetry.common.utils.BufferUtils.bytes;
 import java.nio.ByteBuffer;
 import java.util.Optional;
 
+import org.bson.BsonBinary;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.InvalidPacketException;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.InformationElement;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.InformationElementDatabase;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Semantics;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.ValueEncoder;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.Session;
 
 import com.google.common.base.MoreObjects;
@@ -85,6 +87,17 @@ public class OctetArrayValue extends Value<byte[]> {
             public int getMaximumFieldLength() {
                 return maximum;
             }
+
+            @Override
+            public Optional<ValueEncoder> getEncoder(final int fieldLength) {
+                return Optional.of((buffer, offset, length, writer) -> {
+                    final byte[] value = new byte[length];
+                    for (int i = 0; i < length; i++) {
+                        value[i] = buffer.get(offset + i);
+                    }
+                    writer.writeBinaryData(name, new BsonBinary(value));
+                });
+            }
         };
     }
 
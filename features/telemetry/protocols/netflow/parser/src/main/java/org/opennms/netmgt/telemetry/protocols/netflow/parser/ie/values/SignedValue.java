@@ -36,6 +36,7 @@ import java.util.Optional;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.InformationElement;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Semantics;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.ValueEncoder;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.Session;
 
 import com.google.common.base.MoreObjects;
@@ -79,6 +80,11 @@ public class SignedValue extends Value<Long> {
             public int getMaximumFieldLength() {
                 return 1;
             }
+
+            @Override
+            public Optional<ValueEncoder> getEncoder(final int fieldLength) {
+                return fieldLength == 1 ? Optional.of(encoder(name)) : Optional.empty();
+            }
         };
     }
 
@@ -103,6 +109,11 @@ public class SignedValue extends Value<Long> {
             public int getMaximumFieldLength() {
                 return 2;
             }
+
+            @Override
+            public Optional<ValueEncoder> getEncoder(final int fieldLength) {
+                return fieldLength >= 1 && fieldLength <= getMaximumFieldLength() ? Optional.of(encoder(name)) : Optional.empty();
+            }
         };
     }
 
@@ -127,6 +138,11 @@ public class SignedValue extends Value<Long> {
             public int getMaximumFieldLength() {
                 return 4;
             }
+
+            @Override
+            public Optional<ValueEncoder> getEncoder(final int fieldLength) {
+                return fieldLength >= 1 && fieldLength <= getMaximumFieldLength() ? Optional.of(encoder(name)) : Optional.empty();
+            }
         };
     }
 
@@ -151,9 +167,18 @@ public class SignedValue extends Value<Long> {
             public int getMaximumFieldLength() {
                 return 8;
             }
+
+            @Override
+            public Optional<ValueEncoder> getEncoder(final int fieldLength) {
+                return fieldLength >= 1 && fieldLength <= getMaximumFieldLength() ? Optional.of(encoder(name)) : Optional.empty();
+            }
         };
     }
 
+    private static ValueEncoder encoder(final String name) {
+        return (buffer, offset, length, writer) -> writer.writeInt64(name, ValueEncoder.sint(buffer, offset, length));
+    }
+
     @Override
     public Long getValue() {
         return this.value;
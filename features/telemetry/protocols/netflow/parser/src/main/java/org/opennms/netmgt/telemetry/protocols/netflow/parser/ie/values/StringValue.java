@@ -37,6 +37,7 @@ import java.util.Optional;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.InformationElement;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Semantics;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.ValueEncoder;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.Session;
 
 import com.google.common.base.MoreObjects;
@@ -82,6 +83,21 @@ public class StringValue extends Value<String> {
             public int getMaximumFieldLength() {
                 return 0xFFFF;
             }
+
+            @Override
+            public Optional<ValueEncoder> getEncoder(final int fieldLength) {
+                return Optional.of((buffer, offset, length, writer) -> {
+                    if (buffer.hasArray()) {
+                        writer.writeString(name, new String(buffer.array(), buffer.arrayOffset() + offset, length, UTF8_CHARSET));
+                    } else {
+                        final byte[] value = new byte[length];
+                        for (int i = 0; i < length; i++) {
+                            value[i] = buffer.get(offset + i);
+                        }
+                        writer.writeString(name, new String(value, UTF8_CHARSET));
+                    }
+                });
+            }
         };
     }
 
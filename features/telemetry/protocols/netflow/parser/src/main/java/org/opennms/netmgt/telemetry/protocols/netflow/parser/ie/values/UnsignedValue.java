@@ -36,6 +36,7 @@ import java.util.Optional;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.InformationElement;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Semantics;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.ValueEncoder;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.Session;
 
 import com.google.common.base.MoreObjects;
@@ -85,6 +86,11 @@ public class UnsignedValue extends Value<UnsignedLong> {
             public int getMaximumFieldLength() {
                 return 1;
             }
+
+            @Override
+            public Optional<ValueEncoder> getEncoder(final int fieldLength) {
+                return fieldLength == 1 ? Optional.of(encoder(name)) : Optional.empty();
+            }
         };
     }
 
@@ -109,6 +115,11 @@ public class UnsignedValue extends Value<UnsignedLong> {
             public int getMaximumFieldLength() {
                 return 2;
             }
+
+            @Override
+            public Optional<ValueEncoder> getEncoder(final int fieldLength) {
+                return fieldLength <= getMaximumFieldLength() ? Optional.of(encoder(name)) : Optional.empty();
+            }
         };
     }
 
@@ -133,6 +144,11 @@ public class UnsignedValue extends Value<UnsignedLong> {
             public int getMaximumFieldLength() {
                 return 3;
             }
+
+            @Override
+            public Optional<ValueEncoder> getEncoder(final int fieldLength) {
+                return fieldLength <= getMaximumFieldLength() ? Optional.of(encoder(name)) : Optional.empty();
+            }
         };
     }
 
@@ -157,6 +173,11 @@ public class UnsignedValue extends Value<UnsignedLong> {
             public int getMaximumFieldLength() {
                 return 4;
             }
+
+            @Override
+            public Optional<ValueEncoder> getEncoder(final int fieldLength) {
+                return fieldLength <= getMaximumFieldLength() ? Optional.of(encoder(name)) : Optional.empty();
+            }
         };
     }
 
@@ -181,9 +202,18 @@ public class UnsignedValue extends Value<UnsignedLong> {
             public int getMaximumFieldLength() {
                 return 8;
             }
+
+            @Override
+            public Optional<ValueEncoder> getEncoder(final int fieldLength) {
+                return fieldLength <= getMaximumFieldLength() ? Optional.of(encoder(name)) : Optional.empty();
+            }
         };
     }
 
+    private static ValueEncoder encoder(final String name) {
+        return (buffer, offset, length, writer) -> writer.writeInt64(name, ValueEncoder.uint(buffer, offset, length));
+    }
+
     @Override
     public UnsignedLong getValue() {
         return this.value;
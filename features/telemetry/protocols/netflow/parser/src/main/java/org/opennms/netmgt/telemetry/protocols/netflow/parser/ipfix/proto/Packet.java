@@ -31,13 +31,19 @@ package org.opennms.netmgt.telemetry.protocols.netflow.parser.ipfix.proto;
 import static org.opennms.netmgt.telemetry.common.utils.BufferUtils.slice;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+import org.bson.BsonBinaryWriter;
+import org.bson.io.BasicOutputBuffer;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ParserBase;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.Protocol;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.InvalidPacketException;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.RecordProvider;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
@@ -75,6 +81,17 @@ public final class Packet implements Iterable<FlowSet<?>>, RecordProvider {
     public Packet(final Session session,
                   final Header header,
                   final ByteBuffer buffer) throws InvalidPacketException {
+        this(session, header, buffer, false);
+    }
+
+    /**
+     * @param directEncoding if true, the records of data sets are not parsed, but encoded directly by
+     *                       {@link #getSerializedRecords(Protocol)}.
+     */
+    public Packet(final Session session,
+                  final Header header,
+                  final ByteBuffer buffer,
+                  final boolean directEncoding) throws InvalidPacketException {
         this.header = Objects.requireNonNull(header);
 
         final List<TemplateSet> templateSets = new LinkedList();
@@ -144,7 +161,7 @@ public final class Packet implements Iterable<FlowSet<?>>, RecordProvider {
 
                 case DATA_SET: {
                     final Session.Resolver resolver = session.getResolver(header.observationDomainId);
-                    final DataSet dataSet = new DataSet(this, setHeader, resolver, payloadBuffer);
+                    final DataSet dataSet = new DataSet(this, setHeader, resolver, payloadBuffer, directEncoding);
 
                     if (dataSet.template.type == Template.Type.OPTIONS_TEMPLATE) {
                         for (final DataRecord record : dataSet) {
@@ -175,25 +192,70 @@ public final class Packet implements Iterable<FlowSet<?>>, RecordProvider {
                                 this.dataSets.iterator());
     }
 
+    private int getRecordCount() {
+        return this.dataSets.stream()
+                .mapToInt(DataSet::getRecordCount)
+                .sum();
+    }
+
+    private List<Value<?>> getHeaderValues(final int recordCount) {
+        return ImmutableList.of(
+                new UnsignedValue("@recordCount", recordCount),
+                new UnsignedValue("@sequenceNumber", this.header.sequenceNumber),
+                new UnsignedValue("@exportTime", this.header.exportTime),
+                new UnsignedValue("@observationDomainId", this.header.observationDomainId));
+    }
+
     @Override
     public Stream<Iterable<Value<?>>> getRecords() {
-        final int recordCount = this.dataSets.stream()
-                .mapToInt(s -> s.records.size())
-                .sum();
+        final int recordCount = this.getRecordCount();
 
         return this.dataSets.stream()
-                .flatMap(s -> s.records.stream())
+                .flatMap(s -> StreamSupport.stream(s.spliterator(), false))
                 .map(r -> Iterables.concat(
-                        ImmutableList.of(
-                                new UnsignedValue("@recordCount", recordCount),
-                                new UnsignedValue("@sequenceNumber", this.header.sequenceNumber),
-                                new UnsignedValue("@exportTime", this.header.exportTime),
-                                new UnsignedValue("@observationDomainId", this.header.observationDomainId)),
+                        this.getHeaderValues(recordCount),
                         r.fields,
                         r.options
                 ));
     }
 
+    @Override
+    public List<ByteBuffer> getSerializedRecords(final Protocol protocol) throws InvalidPacketException {
+        final int recordCount = this.getRecordCount();
+
+        final List<ByteBuffer> serialized = new ArrayList<>(recordCount);
+        for (final DataSet dataSet : this.dataSets) {
+            if (!dataSet.isEncodedDirectly()) {
+                for (final DataRecord record : dataSet.records) {
+                    serialized.add(ParserBase.serialize(protocol, Iterables.concat(
+                            this.getHeaderValues(recordCount),
+                            record.fields,
+                            record.options)));
+                }
+                continue;
+            }
+
+            // Records are only encoded directly if there are no options to expand them with
+            final ByteBuffer buffer = dataSet.getEncodedRecords();
+            for (int i = 0; i < dataSet.getRecordCount(); i++) {
+                final BasicOutputBuffer output = new BasicOutputBuffer();
+                try (final BsonBinaryWriter writer = new BsonBinaryWriter(output)) {
+                    writer.writeStartDocument();
+                    writer.writeInt32("@version", protocol.version);
+                    // Must match the values of getHeaderValues()
+                    writer.writeInt64("@recordCount", recordCount);
+                    writer.writeInt64("@sequenceNumber", this.header.sequenceNumber);
+                    writer.writeInt64("@exportTime", this.header.exportTime);
+                    writer.writeInt64("@observationDomainId", this.header.observationDomainId);
+                    dataSet.encodeRecord(buffer, writer);
+                    writer.writeEndDocument();
+                }
+                serialized.add(output.getByteBuffers().get(0).asNIO());
+            }
+        }
+        return serialized;
+    }
+
     @Override
     public String toString() {
         return MoreObjects.toStringHelper(this)
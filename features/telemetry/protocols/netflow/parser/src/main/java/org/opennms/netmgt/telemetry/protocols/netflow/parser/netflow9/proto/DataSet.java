@@ -35,11 +35,15 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
 
+import org.bson.BsonWriter;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.InvalidPacketException;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.Template;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.TemplateEncoder;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.Session;
 
 import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
 
 public final class DataSet extends FlowSet<DataRecord> {
     private final Session.Resolver resolver;
@@ -48,10 +52,34 @@ public final class DataSet extends FlowSet<DataRecord> {
 
     public final List<DataRecord> records;
 
+    /**
+     * Payload of the set if the records are encoded directly, null otherwise.
+     */
+    private final ByteBuffer encodedBuffer;
+
+    private final int recordCount;
+
+    /**
+     * Options of the records if these are encoded directly, which are the same for all records of the set.
+     */
+    private final List<Value<?>> options;
+
     public DataSet(final Packet packet,
                    final FlowSetHeader header,
                    final Session.Resolver resolver,
                    final ByteBuffer buffer) throws InvalidPacketException {
+        this(packet, header, resolver, buffer, false);
+    }
+
+    /**
+     * @param directEncoding if true, the records are not parsed, but kept to be encoded directly using
+     *                       {@link #encodeRecord(ByteBuffer, BsonWriter)}. Records of options templates are always parsed.
+     */
+    public DataSet(final Packet packet,
+                   final FlowSetHeader header,
+                   final Session.Resolver resolver,
+                   final ByteBuffer buffer,
+                   final boolean directEncoding) throws InvalidPacketException {
         super(packet, header);
 
         this.resolver = Objects.requireNonNull(resolver);
@@ -61,6 +89,26 @@ public final class DataSet extends FlowSet<DataRecord> {
         final int minimumRecordLength = template.stream()
                 .mapToInt(f -> f.length()).sum();
 
+        if (directEncoding && this.template.type == Template.Type.TEMPLATE) {
+            this.encodedBuffer = buffer.duplicate();
+
+            final TemplateEncoder encoder = this.template.getEncoder();
+            int recordCount = 0;
+            while (buffer.remaining() >= minimumRecordLength) {
+                encoder.skip(buffer, false);
+                recordCount++;
+            }
+
+            if (recordCount == 0) {
+                throw new InvalidPacketException(buffer, "Empty set");
+            }
+
+            this.records = Collections.emptyList();
+            this.recordCount = recordCount;
+            this.options = this.resolver.lookupOptions(ScopeFieldSpecifier.buildScopeValues(this.packet.header.sourceId, this.template.id));
+            return;
+        }
+
         final List<DataRecord> records = new LinkedList();
         while (buffer.remaining() >= minimumRecordLength) {
             records.add(new DataRecord(this, resolver, template, buffer));
@@ -71,17 +119,66 @@ public final class DataSet extends FlowSet<DataRecord> {
         }
 
         this.records = Collections.unmodifiableList(records);
+        this.encodedBuffer = null;
+        this.recordCount = records.size();
+        this.options = null;
+    }
+
+    public boolean isEncodedDirectly() {
+        return this.encodedBuffer != null;
+    }
+
+    public int getRecordCount() {
+        return this.recordCount;
+    }
+
+    /**
+     * Returns a buffer positioned at the first of the records which are encoded directly.
+     */
+    public ByteBuffer getEncodedRecords() {
+        Preconditions.checkState(this.encodedBuffer != null, "Records are not encoded directly");
+        return this.encodedBuffer.duplicate();
+    }
+
+    /**
+     * Writes the fields of the record at the position of the buffer and advances the buffer to the next record.
+     */
+    public void encodeRecord(final ByteBuffer buffer, final BsonWriter writer) throws InvalidPacketException {
+        this.template.getEncoder().encode(this.resolver, buffer, false, writer);
+    }
+
+    /**
+     * Returns the options for the records which are encoded directly.
+     */
+    public List<Value<?>> getOptions() {
+        Preconditions.checkState(this.encodedBuffer != null, "Records are not encoded directly");
+        return this.options;
     }
 
     @Override
     public Iterator<DataRecord> iterator() {
-        return this.records.iterator();
+        if (this.encodedBuffer == null) {
+            return this.records.iterator();
+        }
+
+        // Records which are encoded directly are only parsed on demand
+        final ByteBuffer buffer = this.getEncodedRecords();
+        final List<DataRecord> records = new LinkedList<>();
+        try {
+            for (int i = 0; i < this.recordCount; i++) {
+                records.add(new DataRecord(this, this.resolver, this.template, buffer));
+            }
+        } catch (final InvalidPacketException e) {
+            throw new IllegalStateException(e);
+        }
+        return records.iterator();
     }
 
     @Override
     public String toString() {
         return MoreObjects.toStringHelper(this)
                 .add("header", header)
+                .add("recordCount", recordCount)
                 .add("records", records)
                 .toString();
     }
@@ -29,13 +29,19 @@
 package org.opennms.netmgt.telemetry.protocols.netflow.parser.session;
 
 import java.nio.ByteBuffer;
+import java.util.Optional;
 
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.InvalidPacketException;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.ValueEncoder;
 
 public interface Field {
     int length();
 
     Value<?> parse(final Session.Resolver resolver,
                    final ByteBuffer buffer) throws InvalidPacketException;
+
+    default Optional<ValueEncoder> getEncoder() {
+        return Optional.empty();
+    }
 }
@@ -39,6 +39,13 @@ public interface Session {
     interface Resolver {
         Optional<Template> lookupTemplate(final int templateId);
         List<Value<?>> lookupOptions(final List<Value<?>> values);
+
+        /**
+         * Returns false if no options are known, which could be added to data records.
+         */
+        default boolean hasOptions() {
+            return true;
+        }
     }
 
     void addTemplate(final long observationDomainId, final Template template);
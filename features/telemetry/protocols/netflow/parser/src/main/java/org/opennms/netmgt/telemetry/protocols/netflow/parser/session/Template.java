@@ -50,6 +50,8 @@ public final class Template implements Iterable<Field> {
     public final List<Scope> scopes;
     public final List<Field> fields;
 
+    private volatile TemplateEncoder encoder;
+
     private Template(final int id,
                      final Type type,
                      final List<Scope> scopes,
@@ -73,6 +75,18 @@ public final class Template implements Iterable<Field> {
         return StreamSupport.stream(this.spliterator(), false);
     }
 
+    /**
+     * Returns the encoder for the fields of data records using this template, which is compiled on first use.
+     */
+    public TemplateEncoder getEncoder() {
+        TemplateEncoder encoder = this.encoder;
+        if (encoder == null) {
+            // Compiling the encoder more than once is harmless
+            this.encoder = encoder = new TemplateEncoder(this.fields);
+        }
+        return encoder;
+    }
+
     public static class Builder {
         private final int id;
         private final Type type;
@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.protocols.netflow.parser.session;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.bson.BsonWriter;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.InvalidPacketException;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ParserBase;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.ValueEncoder;
+
+/**
+ * Writes the fields of data records described by a {@link Template} directly to BSON documents.
+ *
+ * The fields are read from the packet buffer using their {@link ValueEncoder}, so no intermediate objects
+ * are created for them. Fields which don't provide an encoder are parsed into a value, which is then
+ * serialized the same way as by the parser.
+ */
+public final class TemplateEncoder {
+
+    /**
+     * Length of variable sized fields in IPFIX templates.
+     */
+    public static final int VARIABLE_SIZED = 0xFFFF;
+    private static final int VARIABLE_SIZED_EXTENDED = 0xFF;
+
+    private final Field[] fields;
+    private final int[] lengths;
+    private final ValueEncoder[] encoders;
+
+    TemplateEncoder(final List<Field> fields) {
+        this.fields = fields.toArray(new Field[0]);
+        this.lengths = new int[this.fields.length];
+        this.encoders = new ValueEncoder[this.fields.length];
+        for (int i = 0; i < this.fields.length; i++) {
+            this.lengths[i] = this.fields[i].length();
+            this.encoders[i] = this.fields[i].getEncoder().orElse(null);
+        }
+    }
+
+    /**
+     * Writes the fields of the record at the position of the buffer to the writer and advances the buffer
+     * to the next record.
+     *
+     * @param variableLengths whether fields can be variable sized, as in IPFIX
+     */
+    public void encode(final Session.Resolver resolver,
+                       final ByteBuffer buffer,
+                       final boolean variableLengths,
+                       final BsonWriter writer) throws InvalidPacketException {
+        for (int i = 0; i < this.fields.length; i++) {
+            final int length = readLength(buffer, i, variableLengths);
+            final int offset = buffer.position();
+            buffer.position(offset + length);
+
+            if (this.encoders[i] != null) {
+                this.encoders[i].encode(buffer, offset, length, writer);
+            } else {
+                final ByteBuffer slice = buffer.duplicate();
+                slice.position(offset);
+                slice.limit(offset + length);
+                ParserBase.serialize(this.fields[i].parse(resolver, slice.slice()), writer);
+            }
+        }
+    }
+
+    /**
+     * Advances the buffer to the next record.
+     */
+    public void skip(final ByteBuffer buffer, final boolean variableLengths) throws InvalidPacketException {
+        for (int i = 0; i < this.fields.length; i++) {
+            final int length = readLength(buffer, i, variableLengths);
+            buffer.position(buffer.position() + length);
+        }
+    }
+
+    private int readLength(final ByteBuffer buffer, final int index, final boolean variableLengths) throws InvalidPacketException {
+        int length = this.lengths[index];
+        if (variableLengths && length == VARIABLE_SIZED) {
+            if (!buffer.hasRemaining()) {
+                throw new InvalidPacketException(buffer, "Missing length of variable sized field");
+            }
+            length = buffer.get() & 0xFF;
+            if (length == VARIABLE_SIZED_EXTENDED) {
+                if (buffer.remaining() < 2) {
+                    throw new InvalidPacketException(buffer, "Missing length of variable sized field");
+                }
+                length = ((buffer.get() & 0xFF) << 8) | (buffer.get() & 0xFF);
+            }
+        }
+        if (length > buffer.remaining()) {
+            throw new InvalidPacketException(buffer, "Field exceeds record: length=%d, remaining=%d", length, buffer.remaining());
+        }
+        return length;
+    }
+}
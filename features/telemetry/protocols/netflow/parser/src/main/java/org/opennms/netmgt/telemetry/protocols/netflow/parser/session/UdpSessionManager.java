@@ -96,6 +96,14 @@ public class UdpSessionManager {
 
                 return new ArrayList(options.values());
             }
+
+            @Override
+            public boolean hasOptions() {
+                return UdpSessionManager.this.options.keySet().stream()
+                        .anyMatch(key -> Objects.equals(key.localAddress, UdpSession.this.localAddress) &&
+                                         Objects.equals(key.remoteAddress, UdpSession.this.remoteAddress) &&
+                                         key.observationDomainId == this.observationDomainId);
+            }
         }
 
         private final InetSocketAddress remoteAddress;
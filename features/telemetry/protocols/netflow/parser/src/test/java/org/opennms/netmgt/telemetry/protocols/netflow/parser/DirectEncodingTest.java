@@ -0,0 +1,204 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.protocols.netflow.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.opennms.netmgt.telemetry.common.utils.BufferUtils.slice;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.RecordProvider;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.Session;
+import org.opennms.netmgt.telemetry.protocols.netflow.parser.session.TcpSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Verifies that records encoded directly from the packet buffer are serialized exactly like parsed records.
+ */
+@RunWith(Parameterized.class)
+public class DirectEncodingTest {
+    private static final Logger LOG = LoggerFactory.getLogger(DirectEncodingTest.class);
+
+    private final static Path FOLDER = Paths.get("src/test/resources/flows");
+
+    private final static int BENCHMARK_ITERATIONS = 10000;
+
+    @Parameterized.Parameters(name = "file: {1}")
+    public static Iterable<Object[]> data() throws IOException {
+        return Arrays.asList(
+                new Object[]{Protocol.NETFLOW9, Arrays.asList("netflow9_test_valid01.dat")},
+                new Object[]{Protocol.NETFLOW9, Arrays.asList("netflow9_test_macaddr_tpl.dat", "netflow9_test_macaddr_data.dat")},
+                new Object[]{Protocol.NETFLOW9, Arrays.asList("netflow9_test_cisco_asa_1_tpl.dat", "netflow9_test_cisco_asa_1_data.dat")},
+                new Object[]{Protocol.NETFLOW9, Arrays.asList("netflow9_test_nprobe_tpl.dat", "netflow9_test_softflowd_tpl_data.dat", "netflow9_test_nprobe_data.dat")},
+                new Object[]{Protocol.NETFLOW9, Arrays.asList("netflow9_test_cisco_asa_2_tpl_26x.dat", "netflow9_test_cisco_asa_2_tpl_27x.dat", "netflow9_test_cisco_asa_2_data.dat")},
+                new Object[]{Protocol.NETFLOW9, Arrays.asList("netflow9_test_ubnt_edgerouter_tpl.dat", "netflow9_test_ubnt_edgerouter_data1024.dat", "netflow9_test_ubnt_edgerouter_data1025.dat")},
+                new Object[]{Protocol.NETFLOW9, Arrays.asList("netflow9_test_nprobe_dpi.dat")},
+                new Object[]{Protocol.NETFLOW9, Arrays.asList("netflow9_test_fortigate_fortios_521_tpl.dat", "netflow9_test_fortigate_fortios_521_data256.dat", "netflow9_test_fortigate_fortios_521_data257.dat")},
+                new Object[]{Protocol.NETFLOW9, Arrays.asList("netflow9_test_streamcore_tpl_data256.dat", "netflow9_test_streamcore_tpl_data260.dat")},
+                new Object[]{Protocol.NETFLOW9, Arrays.asList("netflow9_test_juniper_srx_tplopt.dat")},
+                new Object[]{Protocol.NETFLOW9, Arrays.asList("netflow9_test_0length_fields_tpl_data.dat")},
+                new Object[]{Protocol.NETFLOW9, Arrays.asList("netflow9_test_cisco_asr9k_opttpl256.dat", "netflow9_test_cisco_asr9k_data256.dat")},
+                new Object[]{Protocol.NETFLOW9, Arrays.asList("netflow9_test_cisco_asr9k_tpl260.dat", "netflow9_test_cisco_asr9k_data260.dat")},
+                new Object[]{Protocol.NETFLOW9, Arrays.asList("netflow9_test_cisco_nbar_opttpl260.dat")},
+                new Object[]{Protocol.NETFLOW9, Arrays.asList("netflow9_test_cisco_nbar_tpl262.dat", "netflow9_test_cisco_nbar_data262.dat")},
+                new Object[]{Protocol.NETFLOW9, Arrays.asList("netflow9_test_cisco_wlc_tpl.dat", "netflow9_test_cisco_wlc_data261.dat")},
+                new Object[]{Protocol.NETFLOW9, Arrays.asList("netflow9_test_cisco_wlc_8510_tpl_262.dat")},
+                new Object[]{Protocol.NETFLOW9, Arrays.asList("netflow9_test_cisco_1941K9.dat")},
+                new Object[]{Protocol.NETFLOW9, Arrays.asList("netflow9_cisco_asr1001x_tpl259.dat")},
+                new Object[]{Protocol.NETFLOW9, Arrays.asList("netflow9_test_paloalto_panos_tpl.dat", "netflow9_test_paloalto_panos_data.dat")},
+                new Object[]{Protocol.IPFIX, Arrays.asList("ipfix.dat")},
+                new Object[]{Protocol.IPFIX, Arrays.asList("ipfix_test_openbsd_pflow_tpl.dat", "ipfix_test_openbsd_pflow_data.dat")},
+                new Object[]{Protocol.IPFIX, Arrays.asList("ipfix_test_mikrotik_tpl.dat", "ipfix_test_mikrotik_data258.dat", "ipfix_test_mikrotik_data259.dat")},
+                new Object[]{Protocol.IPFIX, Arrays.asList("ipfix_test_vmware_vds_tpl.dat", "ipfix_test_vmware_vds_data264.dat", "ipfix_test_vmware_vds_data266.dat", "ipfix_test_vmware_vds_data266_267.dat")},
+                new Object[]{Protocol.IPFIX, Arrays.asList("ipfix_test_barracuda_tpl.dat", "ipfix_test_barracuda_data256.dat")},
+                new Object[]{Protocol.IPFIX, Arrays.asList("ipfix_test_yaf_tpls_option_tpl.dat", "ipfix_test_yaf_tpl45841.dat", "ipfix_test_yaf_data45841.dat", "ipfix_test_yaf_data45873.dat", "ipfix_test_yaf_data53248.dat")}
+        );
+    }
+
+    private final Protocol protocol;
+    private final List<String> files;
+
+    public DirectEncodingTest(final Protocol protocol, final List<String> files) {
+        this.protocol = protocol;
+        this.files = files;
+    }
+
+    @Test
+    public void testEquivalence() throws Exception {
+        final Session parsedSession = new TcpSession();
+        final Session encodedSession = new TcpSession();
+
+        for (final ByteBuffer buffer : this.readFiles()) {
+            final List<ByteBuffer> parsed = parse(parsedSession, buffer.duplicate(), false).getSerializedRecords(this.protocol);
+            final List<ByteBuffer> encoded = parse(encodedSession, buffer.duplicate(), true).getSerializedRecords(this.protocol);
+
+            assertEquals(parsed, encoded);
+        }
+    }
+
+    @Test
+    public void benchmark() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("runBenchmarkTests"));
+
+        final List<ByteBuffer> packets = this.readFiles();
+
+        for (final boolean directEncoding : new boolean[]{false, true}) {
+            final Session session = new TcpSession();
+
+            // Warm up and learn the templates
+            run(session, packets, directEncoding, BENCHMARK_ITERATIONS / 10);
+
+            final com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            final long allocatedBefore = threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            final long start = System.nanoTime();
+            final long records = run(session, packets, directEncoding, BENCHMARK_ITERATIONS);
+            final long elapsed = System.nanoTime() - start;
+            final long allocated = threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocatedBefore;
+
+            LOG.info("{} (directEncoding={}): {} records in {}ms, {} bytes allocated per record",
+                    this.files, directEncoding, records, elapsed / 1000000, records > 0 ? allocated / records : 0);
+        }
+    }
+
+    private long run(final Session session, final List<ByteBuffer> packets, final boolean directEncoding, final int iterations) throws Exception {
+        long records = 0;
+        for (int i = 0; i < iterations; i++) {
+            for (final ByteBuffer buffer : packets) {
+                records += parse(session, buffer.duplicate(), directEncoding).getSerializedRecords(this.protocol).size();
+            }
+        }
+        return records;
+    }
+
+    private RecordProvider parse(final Session session, final ByteBuffer buffer, final boolean directEncoding) throws Exception {
+        switch (this.protocol) {
+            case NETFLOW9: {
+                final org.opennms.netmgt.telemetry.protocols.netflow.parser.netflow9.proto.Header header =
+                        new org.opennms.netmgt.telemetry.protocols.netflow.parser.netflow9.proto.Header(slice(buffer, org.opennms.netmgt.telemetry.protocols.netflow.parser.netflow9.proto.Header.SIZE));
+                return new org.opennms.netmgt.telemetry.protocols.netflow.parser.netflow9.proto.Packet(session, header, buffer, directEncoding);
+            }
+
+            case IPFIX: {
+                final org.opennms.netmgt.telemetry.protocols.netflow.parser.ipfix.proto.Header header =
+                        new org.opennms.netmgt.telemetry.protocols.netflow.parser.ipfix.proto.Header(slice(buffer, org.opennms.netmgt.telemetry.protocols.netflow.parser.ipfix.proto.Header.SIZE));
+                return new org.opennms.netmgt.telemetry.protocols.netflow.parser.ipfix.proto.Packet(session, header, slice(buffer, header.length - org.opennms.netmgt.telemetry.protocols.netflow.parser.ipfix.proto.Header.SIZE), directEncoding);
+            }
+
+            default:
+                throw new IllegalArgumentException();
+        }
+    }
+
+    /**
+     * Returns the packets contained in the files.
+     */
+    private List<ByteBuffer> readFiles() throws IOException {
+        final List<ByteBuffer> packets = new ArrayList<>();
+        for (final String file : this.files) {
+            try (final FileChannel channel = FileChannel.open(FOLDER.resolve(file))) {
+                final ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+                channel.read(buffer);
+                buffer.flip();
+
+                while (buffer.hasRemaining()) {
+                    packets.add(slice(buffer, this.packetLength(buffer)));
+                }
+            }
+        }
+        return packets;
+    }
+
+    private int packetLength(final ByteBuffer buffer) {
+        switch (this.protocol) {
+            case NETFLOW9:
+                // Netflow 9 packets don't carry their length, so each file contains exactly one packet
+                return buffer.remaining();
+
+            case IPFIX:
+                // The length of the message is contained in the header
+                return buffer.getShort(buffer.position() + 2) & 0xFFFF;
+
+            default:
+                throw new IllegalArgumentException();
+        }
+    }
+}
@@ -29,17 +29,22 @@
 package org.opennms.netmgt.alarmd;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.Lock;
 import java.util.stream.Collectors;
 
+import org.opennms.core.criteria.CriteriaBuilder;
 import org.opennms.netmgt.alarmd.api.AlarmPersisterExtension;
 import org.opennms.netmgt.dao.api.AlarmDao;
 import org.opennms.netmgt.dao.api.AlarmEntityNotifier;
@@ -54,6 +59,8 @@ import org.opennms.netmgt.xml.event.UpdateField;
 import org.opennms.netmgt.xml.eventconf.LogDestType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.support.TransactionOperations;
 
@@ -66,7 +73,7 @@ import com.google.common.util.concurrent.Striped;
  * @author <a href="mailto:david@opennms.org">David Hustace</a>
  * @version $Id: $
  */
-public class AlarmPersisterImpl implements AlarmPersister {
+public class AlarmPersisterImpl implements AlarmPersister, InitializingBean, DisposableBean {
     private static final Logger LOG = LoggerFactory.getLogger(AlarmPersisterImpl.class);
 
     public static final String RELATED_REDUCTION_KEY_PREFIX = "related-reductionKey";
@@ -74,6 +81,9 @@ public class AlarmPersisterImpl implements AlarmPersister {
     protected static final Integer NUM_STRIPE_LOCKS = Integer.getInteger("org.opennms.alarmd.stripe.locks", Alarmd.THREADS * 4);
     protected static boolean NEW_IF_CLEARED = Boolean.getBoolean("org.opennms.alarmd.newIfClearedAlarmExists");
     protected static boolean LEGACY_ALARM_STATE = Boolean.getBoolean("org.opennms.alarmd.legacyAlarmState");
+    protected static boolean WRITE_BEHIND = Boolean.getBoolean("org.opennms.alarmd.writeBehind");
+    protected static final Long WRITE_BEHIND_WINDOW_MS = Long.getLong("org.opennms.alarmd.writeBehind.windowMs", 100L);
+    protected static final Integer WRITE_BEHIND_BATCH_SIZE = Integer.getInteger("org.opennms.alarmd.writeBehind.batchSize", 1000);
 
     @Autowired
     private AlarmDao m_alarmDao;
@@ -98,6 +108,34 @@ public class AlarmPersisterImpl implements AlarmPersister {
     
     private boolean m_legacyAlarmState = LEGACY_ALARM_STATE;
 
+    private boolean m_writeBehindEnabled = WRITE_BEHIND;
+
+    // Only used when write-behind is enabled
+    private AlarmWriteBehindBuffer m_writeBehindBuffer;
+
+    // Maps reduction keys to alarm ids, only maintained when write-behind is enabled.
+    // This is only used as a hint: the alarms are always loaded and verified before being used,
+    // and reduction keys missing from the index are looked up in the database.
+    private final Map<String, Integer> m_alarmIdsByReductionKey = new ConcurrentHashMap<>();
+
+    @Override
+    public void afterPropertiesSet() {
+        if (m_writeBehindEnabled) {
+            startWriteBehind();
+        }
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        stopWriteBehind();
+    }
+
+    /**
+     * Persists the alarm for the given event.
+     *
+     * When write-behind is enabled, the event is queued and persisted asynchronously
+     * along with other events, and null is returned.
+     */
     @Override
     public OnmsAlarm persist(Event event) {
         Objects.requireNonNull(event, "Cannot create alarm from null event.");
@@ -109,6 +147,21 @@ public class AlarmPersisterImpl implements AlarmPersister {
             LOG.debug("process: {}; nodeid: {}; ipaddr: {}; serviceid: {}", event.getUei(), event.getNodeid(), event.getInterface(), event.getService());
         }
 
+        final AlarmWriteBehindBuffer writeBehindBuffer = m_writeBehindBuffer;
+        if (writeBehindBuffer != null) {
+            try {
+                writeBehindBuffer.add(event);
+                return null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOG.warn("Interrupted while queuing event with id {}, the alarm will not be persisted.", event.getDbid());
+                return null;
+            } catch (IllegalStateException e) {
+                // Write-behind was disabled in the meantime, persist the alarm synchronously
+                LOG.debug("Write-behind buffer was stopped, persisting event with id {} synchronously.", event.getDbid());
+            }
+        }
+
         // Lock both the reduction and clear keys (if set) using a fair striped lock
         // We do this to ensure that clears and triggers are processed in the same order
         // as the calls are made
@@ -117,7 +170,7 @@ public class AlarmPersisterImpl implements AlarmPersister {
         try {
             locks.forEach(Lock::lock);
             // Process the alarm inside a transaction
-            alarm = m_transactionOperations.execute((action) -> addOrReduceEventAsAlarm(event));
+            alarm = m_transactionOperations.execute((action) -> addOrReduceEventAsAlarm(event, null));
         } finally {
             locks.forEach(Lock::unlock);
         }
@@ -125,9 +178,151 @@ public class AlarmPersisterImpl implements AlarmPersister {
         return alarm;
     }
 
-    private OnmsAlarm addOrReduceEventAsAlarm(Event event) throws IllegalStateException {
+    private synchronized void startWriteBehind() {
+        if (m_writeBehindBuffer != null) {
+            return;
+        }
+        // Seed the index with the existing alarms
+        m_alarmIdsByReductionKey.clear();
+        m_alarmIdsByReductionKey.putAll(m_transactionOperations.execute((action) -> m_alarmDao.getAlarmIdsByReductionKey()));
+        LOG.info("Enabling write-behind of alarms with a window of {}ms and up to {} events per transaction. {} existing alarms were indexed.",
+                WRITE_BEHIND_WINDOW_MS, WRITE_BEHIND_BATCH_SIZE, m_alarmIdsByReductionKey.size());
+
+        m_writeBehindBuffer = new AlarmWriteBehindBuffer(WRITE_BEHIND_WINDOW_MS, WRITE_BEHIND_BATCH_SIZE, this::persistBatch);
+        m_writeBehindBuffer.start();
+    }
+
+    private synchronized void stopWriteBehind() throws InterruptedException {
+        if (m_writeBehindBuffer == null) {
+            return;
+        }
+        final AlarmWriteBehindBuffer writeBehindBuffer = m_writeBehindBuffer;
+        m_writeBehindBuffer = null;
+        // Persist the remaining events before returning
+        writeBehindBuffer.stop();
+        m_alarmIdsByReductionKey.clear();
+    }
+
+    /**
+     * Persists the alarms for a batch of events within a single transaction.
+     *
+     * All of the events and alarms of the batch are loaded up-front. Successive reductions of the
+     * same alarm within the batch are applied to the same entity, which is then only written once when
+     * the transaction is committed. The entities are still written by Hibernate one statement at a time,
+     * the savings come from the shared transaction and the fewer reads and writes per alarm.
+     *
+     * If the batch fails, the events are persisted again one at a time, so that a single
+     * bad event does not prevent the others from being persisted. The alarm listeners are only
+     * notified once the batch was committed, so they never hear about alarms that were rolled back.
+     */
+    private void persistBatch(List<Event> events) {
+        final BatchContext batchContext;
+        try {
+            batchContext = m_transactionOperations.execute((action) -> {
+                final BatchContext context = loadBatchContext(events);
+                for (Event event : events) {
+                    addOrReduceEventAsAlarm(event, context);
+                }
+                return context;
+            });
+        } catch (RuntimeException ex) {
+            LOG.warn("Failed to persist the alarms for a batch of {} events. Persisting them one at a time.", events.size(), ex);
+            // The index may contain the ids of alarms that were rolled back
+            for (Event event : events) {
+                getLockKeys(event).forEach(m_alarmIdsByReductionKey::remove);
+            }
+            for (Event event : events) {
+                try {
+                    final OnmsAlarm alarm = m_transactionOperations.execute((action) -> addOrReduceEventAsAlarm(event, null));
+                    if (alarm != null) {
+                        m_alarmIdsByReductionKey.put(alarm.getReductionKey(), alarm.getId());
+                    }
+                } catch (RuntimeException e) {
+                    LOG.error("Failed to persist the alarm for event with id {}.", event.getDbid(), e);
+                }
+            }
+            return;
+        }
+
+        for (Runnable notification : batchContext.notifications) {
+            try {
+                notification.run();
+            } catch (RuntimeException e) {
+                LOG.error("An error occurred while notifying the alarm listeners.", e);
+            }
+        }
+    }
+
+    private BatchContext loadBatchContext(List<Event> events) {
+        final BatchContext context = new BatchContext();
+
+        final Set<Integer> eventIds = new HashSet<>();
+        final Set<String> reductionKeys = new HashSet<>();
+        for (Event event : events) {
+            eventIds.add(event.getDbid());
+            reductionKeys.addAll(getLockKeys(event));
+            if (event.getParmCollection() != null) {
+                event.getParmCollection().stream()
+                        .filter(AlarmPersisterImpl::isRelatedReductionKeyWithContent)
+                        .forEach(p -> reductionKeys.add(p.getValue().getContent()));
+            }
+        }
+
+        for (OnmsEvent persistedEvent : m_eventDao.findMatching(new CriteriaBuilder(OnmsEvent.class).in("id", eventIds).toCriteria())) {
+            context.events.put(persistedEvent.getId(), persistedEvent);
+        }
+
+        final Set<Integer> alarmIds = new HashSet<>();
+        for (String reductionKey : reductionKeys) {
+            final Integer alarmId = m_alarmIdsByReductionKey.get(reductionKey);
+            if (alarmId != null) {
+                alarmIds.add(alarmId);
+            }
+        }
+        final Map<Integer, OnmsAlarm> alarmsById = new HashMap<>();
+        if (!alarmIds.isEmpty()) {
+            for (OnmsAlarm alarm : m_alarmDao.findMatching(new CriteriaBuilder(OnmsAlarm.class).in("id", alarmIds).toCriteria())) {
+                alarmsById.put(alarm.getId(), alarm);
+            }
+        }
+        final Set<String> missedReductionKeys = new HashSet<>();
+        for (String reductionKey : reductionKeys) {
+            final Integer alarmId = m_alarmIdsByReductionKey.get(reductionKey);
+            final OnmsAlarm alarm = alarmId != null ? alarmsById.get(alarmId) : null;
+            if (alarm != null && reductionKey.equals(alarm.getReductionKey())) {
+                context.alarms.put(reductionKey, alarm);
+                context.resolvedReductionKeys.add(reductionKey);
+            } else {
+                if (alarmId != null) {
+                    // The alarm was deleted, or archived, since it was indexed
+                    m_alarmIdsByReductionKey.remove(reductionKey, alarmId);
+                }
+                missedReductionKeys.add(reductionKey);
+            }
+        }
+
+        // The alarm may have been created outside of alarmd, e.g. by the REST API, so check the
+        // database before assuming that there is none. This is the same lookup as findByReductionKey.
+        if (!missedReductionKeys.isEmpty()) {
+            for (OnmsAlarm alarm : m_alarmDao.findMatching(new CriteriaBuilder(OnmsAlarm.class).in("reductionKey", missedReductionKeys).toCriteria())) {
+                context.alarms.put(alarm.getReductionKey(), alarm);
+                m_alarmIdsByReductionKey.put(alarm.getReductionKey(), alarm.getId());
+            }
+            context.resolvedReductionKeys.addAll(missedReductionKeys);
+        }
+        return context;
+    }
+
+    private OnmsAlarm findByReductionKey(String reductionKey, BatchContext context) {
+        if (context != null && context.resolvedReductionKeys.contains(reductionKey)) {
+            return context.alarms.get(reductionKey);
+        }
+        return m_alarmDao.findByReductionKey(reductionKey);
+    }
+
+    private OnmsAlarm addOrReduceEventAsAlarm(Event event, BatchContext context) throws IllegalStateException {
         
-        final OnmsEvent persistedEvent = m_eventDao.get(event.getDbid());
+        final OnmsEvent persistedEvent = context != null ? context.events.get(event.getDbid()) : m_eventDao.get(event.getDbid());
         if (persistedEvent == null) {
             throw new IllegalStateException("Event with id " + event.getDbid() + " was deleted before we could retrieve it and create an alarm.");
         }
@@ -142,7 +337,7 @@ public class AlarmPersisterImpl implements AlarmPersister {
             key = clearKey;
         }
 
-        OnmsAlarm alarm = m_alarmDao.findByReductionKey(key);
+        OnmsAlarm alarm = findByReductionKey(key, context);
 
         if (alarm == null || (m_createNewAlarmIfClearedAlarmExists && OnmsSeverity.CLEARED.equals(alarm.getSeverity()))) {
             if (LOG.isDebugEnabled()) {
@@ -156,10 +351,11 @@ public class AlarmPersisterImpl implements AlarmPersister {
                 m_alarmDao.save(alarm);
                 m_alarmDao.flush();
 
-                m_alarmEntityNotifier.didArchiveAlarm(alarm, reductionKey);
+                final OnmsAlarm archivedAlarm = alarm;
+                notifyAlarmListeners(() -> m_alarmEntityNotifier.didArchiveAlarm(archivedAlarm, reductionKey), context);
             }
 
-            alarm = createNewAlarm(persistedEvent, event);
+            alarm = createNewAlarm(persistedEvent, event, context);
 
             // Trigger extensions, allowing them to mangle the alarm
             try {
@@ -172,10 +368,17 @@ public class AlarmPersisterImpl implements AlarmPersister {
             m_alarmDao.save(alarm);
             m_eventDao.saveOrUpdate(persistedEvent);
 
-            m_alarmEntityNotifier.didCreateAlarm(alarm);
+            if (context != null) {
+                context.alarms.put(alarm.getReductionKey(), alarm);
+                context.resolvedReductionKeys.add(alarm.getReductionKey());
+                m_alarmIdsByReductionKey.put(alarm.getReductionKey(), alarm.getId());
+            }
+
+            final OnmsAlarm createdAlarm = alarm;
+            notifyAlarmListeners(() -> m_alarmEntityNotifier.didCreateAlarm(createdAlarm), context);
         } else {
             LOG.debug("addOrReduceEventAsAlarm: reductionKey:{} found, reducing event to existing alarm: {}", reductionKey, alarm.getIpAddr());
-            reduceEvent(persistedEvent, alarm, event);
+            reduceEvent(persistedEvent, alarm, event, context);
 
             // Trigger extensions, allowing them to mangle the alarm
             try {
@@ -192,12 +395,24 @@ public class AlarmPersisterImpl implements AlarmPersister {
                 m_eventDao.deletePreviousEventsForAlarm(alarm.getId(), persistedEvent);
             }
 
-            m_alarmEntityNotifier.didUpdateAlarmWithReducedEvent(alarm);
+            final OnmsAlarm updatedAlarm = alarm;
+            notifyAlarmListeners(() -> m_alarmEntityNotifier.didUpdateAlarmWithReducedEvent(updatedAlarm), context);
         }
         return alarm;
     }
 
-    private void reduceEvent(OnmsEvent persistedEvent, OnmsAlarm alarm, Event event) {
+    /**
+     * Notifies the alarm listeners right away, or once the batch was committed.
+     */
+    private static void notifyAlarmListeners(Runnable notification, BatchContext context) {
+        if (context != null) {
+            context.notifications.add(notification);
+        } else {
+            notification.run();
+        }
+    }
+
+    private void reduceEvent(OnmsEvent persistedEvent, OnmsAlarm alarm, Event event, BatchContext context) {
         // Always set these
         alarm.setLastEvent(persistedEvent);
         alarm.setLastEventTime(persistedEvent.getEventTime());
@@ -288,19 +503,19 @@ public class AlarmPersisterImpl implements AlarmPersister {
             }
         }
 
-        updateRelatedAlarms(alarm, event);
+        updateRelatedAlarms(alarm, event, context);
 
         persistedEvent.setAlarm(alarm);
     }
     
-    private void updateRelatedAlarms(OnmsAlarm alarm, Event event) {
+    private void updateRelatedAlarms(OnmsAlarm alarm, Event event, BatchContext context) {
         // Clear the existing related alarms that may be known for this alarm so that we treat the event as an
         // authoritative source of the related alarms rather than using the union of the previously known related alarms
         // and the event's related alarms
         alarm.setRelatedAlarms(Collections.emptySet());
 
         // Rebuild the related alarm list from this event
-        getRelatedAlarms(event.getParmCollection()).forEach(relatedAlarm -> {
+        getRelatedAlarms(event.getParmCollection(), context).forEach(relatedAlarm -> {
             if (!formingCyclicGraph(alarm, relatedAlarm)) {
                 alarm.addRelatedAlarm(relatedAlarm);
             } else {
@@ -326,10 +541,10 @@ public class AlarmPersisterImpl implements AlarmPersister {
         return Objects.equals(event.getAlarmData().getAlarmType(), Integer.valueOf(OnmsAlarm.RESOLUTION_TYPE));
     }
 
-    private OnmsAlarm createNewAlarm(OnmsEvent e, Event event) {
+    private OnmsAlarm createNewAlarm(OnmsEvent e, Event event, BatchContext context) {
         OnmsAlarm alarm = new OnmsAlarm();
         // Situations are denoted by the existance of related-reductionKeys
-        alarm.setRelatedAlarms(getRelatedAlarms(event.getParmCollection()), event.getTime());
+        alarm.setRelatedAlarms(getRelatedAlarms(event.getParmCollection(), context), event.getTime());
         alarm.setAlarmType(event.getAlarmData().getAlarmType());
         alarm.setClearKey(event.getAlarmData().getClearKey());
         alarm.setCounter(1);
@@ -363,13 +578,13 @@ public class AlarmPersisterImpl implements AlarmPersister {
                 relatedAlarm.getRelatedAlarms().stream().anyMatch(ra -> formingCyclicGraph(situation, ra));
     }
     
-    private Set<OnmsAlarm> getRelatedAlarms(List<Parm> list) {
+    private Set<OnmsAlarm> getRelatedAlarms(List<Parm> list, BatchContext context) {
         if (list == null || list.isEmpty()) {
             return Collections.emptySet();
         }
         Set<String> reductionKeys = list.stream().filter(AlarmPersisterImpl::isRelatedReductionKeyWithContent).map(p -> p.getValue().getContent()).collect(Collectors.toSet());
         // Only existing alarms are returned. Reduction Keys for non-existing alarms are dropped.
-        return reductionKeys.stream().map(reductionKey -> m_alarmDao.findByReductionKey(reductionKey)).filter(Objects::nonNull).collect(Collectors.toSet());
+        return reductionKeys.stream().map(reductionKey -> findByReductionKey(reductionKey, context)).filter(Objects::nonNull).collect(Collectors.toSet());
     }
 
     private static boolean isRelatedReductionKeyWithContent(Parm param) {
@@ -504,4 +719,37 @@ public class AlarmPersisterImpl implements AlarmPersister {
     public void setLegacyAlarmState(boolean legacyAlarmState) {
         m_legacyAlarmState = legacyAlarmState;
     }
+
+    public boolean isWriteBehindEnabled() {
+        return m_writeBehindEnabled;
+    }
+
+    /**
+     * Enables or disables write-behind. When disabled, the pending events
+     * are persisted before this call returns.
+     */
+    public void setWriteBehindEnabled(boolean writeBehindEnabled) throws InterruptedException {
+        m_writeBehindEnabled = writeBehindEnabled;
+        if (m_transactionOperations == null) {
+            // Not initialized yet, the buffer will be started by afterPropertiesSet()
+            return;
+        }
+        if (writeBehindEnabled) {
+            startWriteBehind();
+        } else {
+            stopWriteBehind();
+        }
+    }
+
+    /**
+     * The events and alarms loaded up-front for a batch.
+     */
+    private static class BatchContext {
+        private final Map<Integer, OnmsEvent> events = new HashMap<>();
+        private final Map<String, OnmsAlarm> alarms = new HashMap<>();
+        // Reduction keys for which the alarm, or its absence, is known
+        private final Set<String> resolvedReductionKeys = new HashSet<>();
+        // Notifications for the alarm listeners, deferred until the batch was committed
+        private final List<Runnable> notifications = new ArrayList<>();
+    }
 }
@@ -0,0 +1,185 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.alarmd;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+import org.opennms.core.logging.Logging;
+import org.opennms.netmgt.xml.event.Event;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Buffers events carrying alarm data and hands them over to be persisted in batches, one transaction per batch.
+ *
+ * Events are handed over by a single thread in the order in which they were added,
+ * so that clears and triggers for the same reduction key are processed in the same order
+ * as the calls were made.
+ *
+ * A batch is handed over once it is full, or once the window, which starts when the first event of
+ * the batch was added, has elapsed. Callers are blocked while too many events are pending.
+ */
+public class AlarmWriteBehindBuffer {
+    private static final Logger LOG = LoggerFactory.getLogger(AlarmWriteBehindBuffer.class);
+
+    private final Object lock = new Object();
+
+    private final long windowMs;
+
+    private final int maxBatchSize;
+
+    private final int maxPendingEvents;
+
+    private final Consumer<List<Event>> batchConsumer;
+
+    private List<Event> pendingEvents = new ArrayList<>();
+
+    private long firstPendingEventTime;
+
+    private boolean running = false;
+
+    private Thread thread;
+
+    public AlarmWriteBehindBuffer(long windowMs, int maxBatchSize, Consumer<List<Event>> batchConsumer) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be positive, got: " + maxBatchSize);
+        }
+        this.windowMs = windowMs;
+        this.maxBatchSize = maxBatchSize;
+        this.maxPendingEvents = maxBatchSize * 10;
+        this.batchConsumer = Objects.requireNonNull(batchConsumer);
+    }
+
+    public void start() {
+        synchronized (lock) {
+            if (running) {
+                return;
+            }
+            running = true;
+            thread = new Thread(() -> Logging.withPrefix(Alarmd.NAME, this::run), "Alarmd-WriteBehind");
+            thread.start();
+        }
+    }
+
+    /**
+     * Stops the buffer, once all of the pending events were handed over.
+     */
+    public void stop() throws InterruptedException {
+        final Thread threadToJoin;
+        synchronized (lock) {
+            running = false;
+            lock.notifyAll();
+            threadToJoin = thread;
+            thread = null;
+        }
+        if (threadToJoin != null) {
+            threadToJoin.join();
+        }
+    }
+
+    public void add(Event event) throws InterruptedException {
+        synchronized (lock) {
+            while (running && pendingEvents.size() >= maxPendingEvents) {
+                lock.wait();
+            }
+            if (!running) {
+                throw new IllegalStateException("The write-behind buffer is not running.");
+            }
+            if (pendingEvents.isEmpty()) {
+                firstPendingEventTime = System.currentTimeMillis();
+            }
+            pendingEvents.add(event);
+            if (pendingEvents.size() == 1 || pendingEvents.size() == maxBatchSize) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    public int getNumPendingEvents() {
+        synchronized (lock) {
+            return pendingEvents.size();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            final List<Event> batch;
+            try {
+                batch = takeBatch();
+            } catch (InterruptedException e) {
+                LOG.warn("Interrupted while waiting for events, {} events were not persisted.", getNumPendingEvents());
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (batch == null) {
+                return;
+            }
+            try {
+                batchConsumer.accept(batch);
+            } catch (Throwable t) {
+                LOG.error("An error occurred while persisting a batch of {} events.", batch.size(), t);
+            }
+        }
+    }
+
+    // Returns null once the buffer was stopped and all of the events were handed over
+    private List<Event> takeBatch() throws InterruptedException {
+        synchronized (lock) {
+            while (running && pendingEvents.isEmpty()) {
+                lock.wait();
+            }
+            while (running && pendingEvents.size() < maxBatchSize) {
+                final long remainingMs = firstPendingEventTime + windowMs - System.currentTimeMillis();
+                if (remainingMs <= 0) {
+                    break;
+                }
+                lock.wait(remainingMs);
+            }
+            if (pendingEvents.isEmpty()) {
+                return null;
+            }
+
+            final List<Event> batch;
+            if (pendingEvents.size() <= maxBatchSize) {
+                batch = pendingEvents;
+                pendingEvents = new ArrayList<>();
+            } else {
+                batch = new ArrayList<>(pendingEvents.subList(0, maxBatchSize));
+                pendingEvents = new ArrayList<>(pendingEvents.subList(maxBatchSize, pendingEvents.size()));
+                firstPendingEventTime = System.currentTimeMillis();
+            }
+            // Wake up any callers waiting for space
+            lock.notifyAll();
+            return batch;
+        }
+    }
+}
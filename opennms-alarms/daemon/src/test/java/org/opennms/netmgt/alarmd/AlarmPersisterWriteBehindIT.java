@@ -0,0 +1,280 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.alarmd;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.Date;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opennms.core.test.OpenNMSJUnit4ClassRunner;
+import org.opennms.core.test.db.MockDatabase;
+import org.opennms.core.test.db.TemporaryDatabaseAware;
+import org.opennms.core.test.db.annotations.JUnitTemporaryDatabase;
+import org.opennms.netmgt.dao.api.AlarmDao;
+import org.opennms.netmgt.dao.api.AlarmEntityNotifier;
+import org.opennms.netmgt.dao.api.DistPollerDao;
+import org.opennms.netmgt.dao.api.MonitoringLocationDao;
+import org.opennms.netmgt.dao.api.NodeDao;
+import org.opennms.netmgt.dao.mock.MockEventIpcManager;
+import org.opennms.netmgt.events.api.EventConstants;
+import org.opennms.netmgt.model.OnmsAlarm;
+import org.opennms.netmgt.model.OnmsNode;
+import org.opennms.netmgt.model.OnmsSeverity;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.event.AlarmData;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.test.JUnitConfigurationEnvironment;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.IfProfileValue;
+import org.springframework.test.context.ContextConfiguration;
+
+@RunWith(OpenNMSJUnit4ClassRunner.class)
+@ContextConfiguration(locations={
+        "classpath:/META-INF/opennms/applicationContext-soa.xml",
+        "classpath:/META-INF/opennms/applicationContext-commonConfigs.xml",
+        "classpath:/META-INF/opennms/applicationContext-minimal-conf.xml",
+        "classpath:/META-INF/opennms/applicationContext-dao.xml",
+        "classpath*:/META-INF/opennms/component-dao.xml",
+        "classpath:/META-INF/opennms/applicationContext-daemon.xml",
+        "classpath:/META-INF/opennms/mockEventIpcManager.xml",
+        "classpath:/META-INF/opennms/applicationContext-alarmd.xml"
+})
+@JUnitConfigurationEnvironment
+@JUnitTemporaryDatabase(dirtiesContext=false,tempDbClass=MockDatabase.class,reuseDatabase=false)
+public class AlarmPersisterWriteBehindIT implements TemporaryDatabaseAware<MockDatabase> {
+
+    @Autowired
+    private Alarmd m_alarmd;
+
+    @Autowired
+    private MonitoringLocationDao m_locationDao;
+
+    @Autowired
+    private NodeDao m_nodeDao;
+
+    @Autowired
+    private DistPollerDao m_distPollerDao;
+
+    @Autowired
+    private AlarmDao m_alarmDao;
+
+    @Autowired
+    private MockEventIpcManager m_eventMgr;
+
+    @Autowired
+    private AlarmPersisterImpl m_alarmPersister;
+
+    private MockDatabase m_database;
+
+    private AlarmEntityNotifier m_alarmEntityNotifier;
+
+    @Before
+    public void setUp() throws InterruptedException {
+        // Events need database IDs to make alarmd happy
+        m_eventMgr.setEventWriter(m_database);
+
+        final OnmsNode node = new OnmsNode(m_locationDao.getDefaultLocation(), "node1");
+        node.setId(1);
+        m_nodeDao.save(node);
+
+        m_alarmEntityNotifier = m_alarmPersister.getAlarmChangeListener();
+
+        m_alarmPersister.setWriteBehindEnabled(true);
+        m_alarmd.start();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        m_alarmd.destroy();
+        m_alarmPersister.setWriteBehindEnabled(false);
+        m_alarmPersister.setAlarmChangeListener(m_alarmEntityNotifier);
+    }
+
+    @Test
+    public void canReduceEventsWithinTheSameBatch() {
+        final int numEvents = 50;
+        for (int i = 0; i < numEvents; i++) {
+            sendEvent(EventConstants.NODE_DOWN_EVENT_UEI, 1, "nodeDown:1", null);
+        }
+
+        await().atMost(10, SECONDS).until(getCounterCallable("nodeDown:1"), equalTo(numEvents));
+        assertEquals(1, m_alarmDao.countAll());
+    }
+
+    @Test
+    public void canClearAlarmsWithinTheSameBatch() {
+        sendEvent(EventConstants.NODE_DOWN_EVENT_UEI, 1, "nodeDown:1", null);
+        sendEvent(EventConstants.NODE_UP_EVENT_UEI, 2, "nodeUp:1", "nodeDown:1");
+
+        await().atMost(10, SECONDS).until(getSeverityCallable("nodeDown:1"), equalTo(OnmsSeverity.CLEARED));
+        // The clear was reduced into the existing alarm
+        assertNull(m_alarmDao.findByReductionKey("nodeUp:1"));
+    }
+
+    @Test
+    public void canReduceEventsIntoAlarmsCreatedOutsideOfAlarmd() {
+        // The alarm is created after the index of reduction keys was seeded
+        final OnmsAlarm alarm = new OnmsAlarm();
+        alarm.setDistPoller(m_distPollerDao.whoami());
+        alarm.setUei(EventConstants.NODE_DOWN_EVENT_UEI);
+        alarm.setReductionKey("nodeDown:1");
+        alarm.setAlarmType(1);
+        alarm.setCounter(1);
+        alarm.setSeverity(OnmsSeverity.MAJOR);
+        alarm.setNode(m_nodeDao.get(1));
+        alarm.setFirstEventTime(new Date());
+        alarm.setLastEventTime(new Date());
+        m_alarmDao.save(alarm);
+        m_alarmDao.flush();
+
+        sendEvent(EventConstants.NODE_DOWN_EVENT_UEI, 1, "nodeDown:1", null);
+
+        await().atMost(10, SECONDS).until(getCounterCallable("nodeDown:1"), equalTo(2));
+        assertEquals(1, m_alarmDao.countAll());
+    }
+
+    @Test
+    public void canReduceEventsAfterDisablingWriteBehind() throws InterruptedException {
+        sendEvent(EventConstants.NODE_DOWN_EVENT_UEI, 1, "nodeDown:1", null);
+
+        // The pending events are persisted before returning
+        m_alarmPersister.setWriteBehindEnabled(false);
+        assertEquals(Integer.valueOf(1), m_alarmDao.findByReductionKey("nodeDown:1").getCounter());
+
+        sendEvent(EventConstants.NODE_DOWN_EVENT_UEI, 1, "nodeDown:1", null);
+        assertEquals(Integer.valueOf(2), m_alarmDao.findByReductionKey("nodeDown:1").getCounter());
+    }
+
+    @Test
+    public void canNotifyOnceWhenBatchFails() {
+        final AlarmEntityNotifier alarmEntityNotifier = mock(AlarmEntityNotifier.class);
+        m_alarmPersister.setAlarmChangeListener(alarmEntityNotifier);
+
+        // The event in the middle of the batch was never written to the database, and fails the batch
+        final Event badEvent = createEvent(EventConstants.NODE_DOWN_EVENT_UEI, 1, "nodeDown:2", null);
+        badEvent.setDbid(Integer.MAX_VALUE);
+        m_alarmPersister.persist(writeEvent(createEvent(EventConstants.NODE_DOWN_EVENT_UEI, 1, "nodeDown:1", null)));
+        m_alarmPersister.persist(badEvent);
+        m_alarmPersister.persist(writeEvent(createEvent(EventConstants.NODE_DOWN_EVENT_UEI, 1, "nodeDown:1", null)));
+
+        await().atMost(10, SECONDS).until(getCounterCallable("nodeDown:1"), equalTo(2));
+        assertNull(m_alarmDao.findByReductionKey("nodeDown:2"));
+
+        // The listeners were not notified of the alarms of the failed batch, only once they were persisted again
+        verify(alarmEntityNotifier, times(1)).didCreateAlarm(any(OnmsAlarm.class));
+        verify(alarmEntityNotifier, times(1)).didUpdateAlarmWithReducedEvent(any(OnmsAlarm.class));
+        verify(alarmEntityNotifier, never()).didArchiveAlarm(any(OnmsAlarm.class), anyString());
+    }
+
+    @Test
+    @IfProfileValue(name="runBenchmarkTests", value="true")
+    public void canPersistAlarmsFasterWithWriteBehind() throws InterruptedException {
+        final int numEvents = 10000;
+        final int numReductionKeys = 100;
+
+        m_alarmPersister.setWriteBehindEnabled(false);
+        System.out.printf("Without write-behind: %.2f events/s\n", persistEvents("sync", numEvents, numReductionKeys));
+
+        m_alarmPersister.setWriteBehindEnabled(true);
+        System.out.printf("With write-behind: %.2f events/s\n", persistEvents("async", numEvents, numReductionKeys));
+    }
+
+    private double persistEvents(String prefix, int numEvents, int numReductionKeys) {
+        final long start = System.nanoTime();
+        for (int i = 0; i < numEvents; i++) {
+            sendEvent(EventConstants.NODE_DOWN_EVENT_UEI, 1, prefix + ":" + (i % numReductionKeys), null);
+        }
+        // The last key is reduced last
+        final String lastReductionKey = prefix + ":" + ((numEvents - 1) % numReductionKeys);
+        await().atMost(5, TimeUnit.MINUTES).until(getCounterCallable(lastReductionKey), equalTo(numEvents / numReductionKeys));
+        return numEvents / ((System.nanoTime() - start) / 1e9d);
+    }
+
+    private void sendEvent(String uei, int alarmType, String reductionKey, String clearKey) {
+        m_eventMgr.sendNow(createEvent(uei, alarmType, reductionKey, clearKey));
+    }
+
+    private Event writeEvent(Event event) {
+        m_database.writeEvent(event);
+        return event;
+    }
+
+    private static Event createEvent(String uei, int alarmType, String reductionKey, String clearKey) {
+        final EventBuilder builder = new EventBuilder(uei, "test");
+        builder.setTime(new Date());
+        builder.setNodeid(1);
+        builder.setSeverity(OnmsSeverity.MAJOR.getLabel());
+
+        final AlarmData data = new AlarmData();
+        data.setAlarmType(alarmType);
+        data.setReductionKey(reductionKey);
+        data.setClearKey(clearKey);
+        builder.setAlarmData(data);
+
+        builder.setLogDest("logndisplay");
+        builder.setLogMessage("testing");
+
+        return builder.getEvent();
+    }
+
+    private Callable<Integer> getCounterCallable(String reductionKey) {
+        return () -> {
+            final OnmsAlarm alarm = m_alarmDao.findByReductionKey(reductionKey);
+            return alarm != null ? alarm.getCounter() : null;
+        };
+    }
+
+    private Callable<OnmsSeverity> getSeverityCallable(String reductionKey) {
+        return () -> {
+            final OnmsAlarm alarm = m_alarmDao.findByReductionKey(reductionKey);
+            return alarm != null ? alarm.getSeverity() : null;
+        };
+    }
+
+    @Override
+    public void setTemporaryDatabase(final MockDatabase database) {
+        m_database = database;
+    }
+}
@@ -104,6 +104,13 @@ public interface EventdConfig {
 	 * @return a String
 	 */
 	String getGetNextEventID();
+
+	/**
+	 * <p>getEventWriter</p>
+	 *
+	 * @return the implementation used to store the events, either "hibernate" or "jdbc"
+	 */
+	String getEventWriter();
 	
         /**
          * Number of threads used for consuming/dispatching messages.
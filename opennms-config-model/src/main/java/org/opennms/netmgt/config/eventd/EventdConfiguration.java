@@ -54,6 +54,8 @@ public class EventdConfiguration implements Serializable {
     private static final int BATCH_INTERVAL = 500;
     private static final int QUEUE_SIZE = 10000;
 
+    private static final String EVENT_WRITER = "hibernate";
+
     /**
      * The IP address on which eventd listens for TCP connections.
      *  If "" is specified, eventd will bind to all addresses. The default
@@ -131,6 +133,13 @@ public class EventdConfiguration implements Serializable {
     @XmlAttribute(name = "logEventSummaries")
     private Boolean m_logEventSummaries;
 
+    /**
+     * The implementation used to store the events in the database,
+     *  either 'hibernate' or 'jdbc'.
+     */
+    @XmlAttribute(name = "event-writer")
+    private String m_eventWriter;
+
     @XmlValue
     private String m_contents;
     
@@ -255,6 +264,14 @@ public class EventdConfiguration implements Serializable {
         m_logEventSummaries = logEventSummaries;
     }
     
+    public String getEventWriter() {
+        return m_eventWriter == null ? EVENT_WRITER : m_eventWriter;
+    }
+
+    public void setEventWriter(final String eventWriter) {
+        m_eventWriter = ConfigUtils.normalizeString(eventWriter);
+    }
+
     public int getQueueSize() {
         return m_queueSize == null ? QUEUE_SIZE : m_queueSize;
     }
@@ -292,6 +309,7 @@ public class EventdConfiguration implements Serializable {
                             m_socketSoTimeoutRequired, 
                             m_socketSoTimeoutPeriod, 
                             m_logEventSummaries,
+                            m_eventWriter,
                             m_threads,
                             m_queueSize,
                             m_batchSize,
@@ -316,6 +334,7 @@ public class EventdConfiguration implements Serializable {
                     && Objects.equals(this.m_socketSoTimeoutRequired, that.m_socketSoTimeoutRequired)
                     && Objects.equals(this.m_socketSoTimeoutPeriod, that.m_socketSoTimeoutPeriod)
                     && Objects.equals(this.m_logEventSummaries, that.m_logEventSummaries)
+                    && Objects.equals(this.m_eventWriter, that.m_eventWriter)
                     && Objects.equals(this.m_threads, that.m_threads)
                     && Objects.equals(this.m_queueSize, that.m_queueSize)
             		&& Objects.equals(this.m_batchSize, that.m_batchSize)
@@ -0,0 +1,244 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.xml.eventconf;
+
+import static org.opennms.netmgt.xml.eventconf.Maskelement.TAG_SNMP_GENERIC;
+import static org.opennms.netmgt.xml.eventconf.Maskelement.TAG_SNMP_SPECIFIC;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Index of the event definitions of a single {@link Events} element, used to find
+ * the first event definition matching an event without testing every mask.
+ *
+ * The event definitions are grouped by the {@link Partition} first. Within a partition
+ * the definitions requiring exact SNMP generic and specific values are grouped by these
+ * values, all others are kept as residual candidates.
+ *
+ * Every group holds the definitions along with their position in the {@link Events},
+ * so the candidates of the groups which apply to an event can be merged in document order
+ * while matching, without allocating.
+ */
+class EventMatcherIndex {
+    private static final Candidates NO_CANDIDATES = new Candidates(new ArrayList<>());
+
+    private final Partition m_partition;
+
+    private final Candidates m_unpartitioned;
+
+    private final Map<String, PartitionCandidates> m_partitioned;
+
+    public EventMatcherIndex(final Partition partition, final List<Event> events) {
+        m_partition = partition;
+
+        final List<Positioned> unpartitioned = new ArrayList<>();
+        final Map<String, List<Positioned>> partitioned = new HashMap<>();
+
+        for (int i = 0; i < events.size(); i++) {
+            final Positioned event = new Positioned(events.get(i), i);
+            final List<String> keys = partition.group(event.event);
+            if (keys == null) {
+                unpartitioned.add(event);
+            } else {
+                for (final String key : keys) {
+                    partitioned.computeIfAbsent(key, k -> new ArrayList<>(1)).add(event);
+                }
+            }
+        }
+
+        m_unpartitioned = new Candidates(unpartitioned);
+        m_partitioned = new HashMap<>(partitioned.size() * 2);
+        for (final Map.Entry<String, List<Positioned>> e : partitioned.entrySet()) {
+            m_partitioned.put(e.getKey(), new PartitionCandidates(e.getValue()));
+        }
+    }
+
+    /**
+     * Returns the first event definition, in document order, matching the given event
+     * or null if none matches.
+     */
+    public Event findFirstMatchingEvent(final org.opennms.netmgt.xml.event.Event matchingEvent) {
+        final String key = m_partition.group(matchingEvent);
+        final PartitionCandidates partition = key == null ? null : m_partitioned.get(key);
+        if (partition == null) {
+            return findFirstMatchingEvent(matchingEvent, m_unpartitioned, NO_CANDIDATES, NO_CANDIDATES);
+        }
+        return findFirstMatchingEvent(matchingEvent, m_unpartitioned, partition.m_residual, partition.get(matchingEvent));
+    }
+
+    private static Event findFirstMatchingEvent(final org.opennms.netmgt.xml.event.Event matchingEvent,
+                                                final Candidates a, final Candidates b, final Candidates c) {
+        int i = 0, j = 0, k = 0;
+        while (true) {
+            final int pa = i < a.m_positions.length ? a.m_positions[i] : Integer.MAX_VALUE;
+            final int pb = j < b.m_positions.length ? b.m_positions[j] : Integer.MAX_VALUE;
+            final int pc = k < c.m_positions.length ? c.m_positions[k] : Integer.MAX_VALUE;
+
+            final Event event;
+            if (pa <= pb && pa <= pc) {
+                if (pa == Integer.MAX_VALUE) {
+                    return null;
+                }
+                event = a.m_events[i++];
+            } else if (pb <= pc) {
+                event = b.m_events[j++];
+            } else {
+                event = c.m_events[k++];
+            }
+
+            if (event.matches(matchingEvent)) {
+                return event;
+            }
+        }
+    }
+
+    /**
+     * Returns the key for the given SNMP generic and specific values.
+     */
+    private static long snmpKey(final int generic, final int specific) {
+        return ((long) generic << 32) | (specific & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Returns the exact integer values of the given mask element of the event definition
+     * or null if the mask element is missing or one of its values is not an exact integer.
+     */
+    private static int[] getExactValues(final Event event, final String mename) {
+        final List<String> values = event.getMaskElementValues(mename);
+        if (values == null || values.isEmpty()) {
+            return null;
+        }
+
+        final int[] result = new int[values.size()];
+        for (int i = 0; i < result.length; i++) {
+            final String value = values.get(i);
+            try {
+                result[i] = Integer.parseInt(value);
+            } catch (final NumberFormatException e) {
+                return null;
+            }
+            // The matcher compares the string representation of the values
+            if (!Integer.toString(result[i]).equals(value)) {
+                return null;
+            }
+        }
+        return result;
+    }
+
+    private static class Positioned {
+        private final Event event;
+        private final int position;
+
+        private Positioned(final Event event, final int position) {
+            this.event = event;
+            this.position = position;
+        }
+    }
+
+    /**
+     * Event definitions ordered by their position.
+     */
+    private static class Candidates {
+        private final Event[] m_events;
+        private final int[] m_positions;
+
+        private Candidates(final List<Positioned> events) {
+            m_events = new Event[events.size()];
+            m_positions = new int[events.size()];
+            for (int i = 0; i < m_events.length; i++) {
+                m_events[i] = events.get(i).event;
+                m_positions[i] = events.get(i).position;
+            }
+        }
+    }
+
+    /**
+     * Event definitions of a single partition.
+     */
+    private static class PartitionCandidates {
+        private final Candidates m_residual;
+
+        private final long[] m_snmpKeys;
+
+        private final Candidates[] m_bySnmpKey;
+
+        private PartitionCandidates(final List<Positioned> events) {
+            final List<Positioned> residual = new ArrayList<>();
+            final TreeMap<Long, List<Positioned>> bySnmpKey = new TreeMap<>();
+
+            for (final Positioned event : events) {
+                final int[] generics = getExactValues(event.event, TAG_SNMP_GENERIC);
+                final int[] specifics = getExactValues(event.event, TAG_SNMP_SPECIFIC);
+                if (generics == null || specifics == null) {
+                    residual.add(event);
+                    continue;
+                }
+
+                final Set<Long> keys = new LinkedHashSet<>();
+                for (final int generic : generics) {
+                    for (final int specific : specifics) {
+                        keys.add(snmpKey(generic, specific));
+                    }
+                }
+                for (final Long key : keys) {
+                    bySnmpKey.computeIfAbsent(key, k -> new ArrayList<>(1)).add(event);
+                }
+            }
+
+            m_residual = new Candidates(residual);
+            m_snmpKeys = new long[bySnmpKey.size()];
+            m_bySnmpKey = new Candidates[bySnmpKey.size()];
+            int i = 0;
+            for (final Map.Entry<Long, List<Positioned>> e : bySnmpKey.entrySet()) {
+                m_snmpKeys[i] = e.getKey();
+                m_bySnmpKey[i] = new Candidates(e.getValue());
+                i++;
+            }
+        }
+
+        /**
+         * Returns the event definitions requiring the SNMP generic and specific values of the given event.
+         */
+        private Candidates get(final org.opennms.netmgt.xml.event.Event matchingEvent) {
+            final org.opennms.netmgt.xml.event.Snmp snmp = matchingEvent.getSnmp();
+            if (m_snmpKeys.length == 0 || snmp == null || !snmp.hasGeneric() || !snmp.hasSpecific()) {
+                return NO_CANDIDATES;
+            }
+            final int index = Arrays.binarySearch(m_snmpKeys, snmpKey(snmp.getGeneric(), snmp.getSpecific()));
+            return index < 0 ? NO_CANDIDATES : m_bySnmpKey[index];
+        }
+    }
+}
@@ -38,7 +38,6 @@ import java.io.StringWriter;
 import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -48,7 +47,6 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Set;
-import java.util.TreeSet;
 import java.util.function.Consumer;
 
 import javax.xml.bind.annotation.XmlAccessType;
@@ -100,13 +98,7 @@ public class Events implements Serializable {
     private Map<String, Events> m_loadedEventFiles = new LinkedHashMap<>();
 
     @XmlTransient
-    private Partition m_partition;
-
-    @XmlTransient
-    private Map<String, List<Event>> m_partitionedEvents;
-
-    @XmlTransient
-    private List<Event> m_nullPartitionedEvents;
+    private EventMatcherIndex m_matcherIndex;
 
     @XmlTransient
     private Map<String, Event> m_eventsByUei = new HashMap<>();
@@ -247,31 +239,6 @@ public class Events implements Serializable {
         return m_global == null ? false : m_global.isSecureTag(tag);
     }
 
-    private void partitionEvents(final Partition partition) {
-        m_partition = partition;
-
-        m_partitionedEvents = new LinkedHashMap<String, List<Event>>();
-        m_nullPartitionedEvents = new ArrayList<Event>();
-
-        for(final Event event : m_events) {
-            final List<String> keys = partition.group(event);
-            if (keys == null) {
-                m_nullPartitionedEvents.add(event);
-            } else {
-                for(final String key : keys) {
-                    List<Event> events = m_partitionedEvents.get(key);
-                    if (events == null) {
-                        events = new ArrayList<Event>(1);
-                        m_partitionedEvents.put(key, events);
-                    }
-                    events.add(event);
-                }
-            }
-        }
-    }
-
-
-
     public Event findFirstMatchingEvent(final org.opennms.netmgt.xml.event.Event matchingEvent) {
         // Atempt to match the event definition by UEI
         final String ueiToMatch = matchingEvent.getUei();
@@ -282,21 +249,10 @@ public class Events implements Serializable {
             }
         }
 
-        // If the UEI match failed, fallback to searching with the matchers through the partitions
-        final String key = m_partition.group(matchingEvent);
-        Collection<Event> potentialMatches = m_nullPartitionedEvents;
-        if (key != null) {
-            final List<Event> events = m_partitionedEvents.get(key);
-            if (events != null) {
-                potentialMatches = new TreeSet<Event>(m_nullPartitionedEvents);
-                potentialMatches.addAll(events);
-            }
-        }
-
-        for(final Event event : potentialMatches) {
-            if (event.matches(matchingEvent)) {
-                return event;
-            }
+        // If the UEI match failed, fallback to searching with the matchers through the index
+        final Event matchedEvent = m_matcherIndex.findFirstMatchingEvent(matchingEvent);
+        if (matchedEvent != null) {
+            return matchedEvent;
         }
 
         for(Entry<String, Events> loadedEvents : m_loadedEventFiles.entrySet()) {
@@ -352,7 +308,7 @@ public class Events implements Serializable {
             event.initialize(m_ordering.next());
         }
 
-        partitionEvents(partition);
+        m_matcherIndex = new EventMatcherIndex(partition, m_events);
 
         for(final Entry<String, Events> loadedEvents : m_loadedEventFiles.entrySet()) {
             final Events events = loadedEvents.getValue();
@@ -243,6 +243,21 @@ public class EventdConfigManager implements EventdConfig {
         }
     }
     
+    /**
+     * Return the implementation used to store the events in the database.
+     *
+     * @return either "hibernate" or "jdbc"
+     */
+    @Override
+    public String getEventWriter() {
+        getReadLock().lock();
+        try {
+            return m_config.getEventWriter();
+        } finally {
+            getReadLock().unlock();
+        }
+    }
+
     @Override
     public int getNumThreads() {
         getReadLock().lock();
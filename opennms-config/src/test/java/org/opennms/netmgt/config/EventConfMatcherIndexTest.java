@@ -0,0 +1,175 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.config;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.test.ConfigurationTestUtils;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.eventconf.Event;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.FileSystemResource;
+
+/**
+ * Verifies that the indexed lookup of event definitions by their masks returns the same
+ * definitions as testing all of the masks in document order, using the stock event configuration
+ * and traps built from the masks of the stock trap definitions.
+ */
+public class EventConfMatcherIndexTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EventConfMatcherIndexTest.class);
+
+    private static final int BENCHMARK_ITERATIONS = 20;
+
+    private DefaultEventConfDao m_eventConfDao;
+
+    private List<org.opennms.netmgt.xml.event.Event> m_traps;
+
+    @Before
+    public void setUp() throws Exception {
+        m_eventConfDao = new DefaultEventConfDao();
+        m_eventConfDao.setConfigResource(new FileSystemResource(ConfigurationTestUtils.getFileForConfigFile("eventconf.xml")));
+        m_eventConfDao.afterPropertiesSet();
+
+        m_traps = buildTraps(m_eventConfDao.getAllEvents());
+        assertTrue(m_traps.size() > 1000);
+    }
+
+    @Test
+    public void canFindSameEventsAsLinearScan() {
+        final List<Event> events = m_eventConfDao.getAllEvents();
+        for (final org.opennms.netmgt.xml.event.Event trap : m_traps) {
+            assertSame(trap.getSnmp().toString(), findByLinearScan(events, trap), m_eventConfDao.findByEvent(trap));
+        }
+    }
+
+    @Test
+    public void benchmark() {
+        Assume.assumeTrue(Boolean.getBoolean("runBenchmarkTests"));
+
+        final List<Event> events = m_eventConfDao.getAllEvents();
+
+        // Warm up
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            for (final org.opennms.netmgt.xml.event.Event trap : m_traps) {
+                m_eventConfDao.findByEvent(trap);
+                findByLinearScan(events, trap);
+            }
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            for (final org.opennms.netmgt.xml.event.Event trap : m_traps) {
+                m_eventConfDao.findByEvent(trap);
+            }
+        }
+        final long indexed = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            for (final org.opennms.netmgt.xml.event.Event trap : m_traps) {
+                findByLinearScan(events, trap);
+            }
+        }
+        final long linear = System.nanoTime() - start;
+
+        final long lookups = (long) BENCHMARK_ITERATIONS * m_traps.size();
+        LOG.info("{} lookups among {} event definitions: indexed in {}ms, linear scan in {}ms",
+                lookups, events.size(), indexed / 1000000, linear / 1000000);
+    }
+
+    private static Event findByLinearScan(final List<Event> events, final org.opennms.netmgt.xml.event.Event trap) {
+        for (final Event event : events) {
+            if (event.matches(trap)) {
+                return event;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Builds a trap for every combination of the exact enterprise id, generic and specific values
+     * found in the masks of the event definitions, along with traps for unknown specific values
+     * and unknown enterprises.
+     */
+    private static List<org.opennms.netmgt.xml.event.Event> buildTraps(final List<Event> events) {
+        final List<org.opennms.netmgt.xml.event.Event> traps = new ArrayList<>();
+        for (final Event event : events) {
+            final List<String> ids = event.getMaskElementValues("id");
+            final List<String> generics = event.getMaskElementValues("generic");
+            final List<String> specifics = event.getMaskElementValues("specific");
+            if (ids == null || generics == null || specifics == null) {
+                continue;
+            }
+
+            for (final String id : ids) {
+                for (final String generic : generics) {
+                    for (final String specific : specifics) {
+                        if (!isExact(id) || !isInteger(generic) || !isInteger(specific)) {
+                            continue;
+                        }
+                        traps.add(buildTrap(id, Integer.parseInt(generic), Integer.parseInt(specific)));
+                        traps.add(buildTrap(id, Integer.parseInt(generic), Integer.parseInt(specific) + 100000));
+                        traps.add(buildTrap(id + ".0", Integer.parseInt(generic), Integer.parseInt(specific)));
+                    }
+                }
+            }
+        }
+        return traps;
+    }
+
+    private static org.opennms.netmgt.xml.event.Event buildTrap(final String id, final int generic, final int specific) {
+        return new EventBuilder(null, "trapd")
+                .setEnterpriseId(id)
+                .setGeneric(generic)
+                .setSpecific(specific)
+                .getEvent();
+    }
+
+    private static boolean isExact(final String value) {
+        return !value.startsWith("~") && !value.endsWith("%");
+    }
+
+    private static boolean isInteger(final String value) {
+        try {
+            Integer.parseInt(value);
+            return true;
+        } catch (final NumberFormatException e) {
+            return false;
+        }
+    }
+}
@@ -290,6 +290,15 @@ public interface NodeDao extends LegacyOnmsDao<OnmsNode, Integer> {
     void markHavingFlows(final Collection<Integer> nodeIds);
 
     List<OnmsNode> findAllHavingFlows();
+
+    /**
+     * Retrieves the nodes with the given ids, with their categories
+     * fetched by the same query.
+     *
+     * @param nodeIds ids of the nodes to retrieve
+     * @return the nodes which were found, in no particular order
+     */
+    List<OnmsNode> findAllByIdsWithCategories(Collection<Integer> nodeIds);
     
     OnmsNode getDefaultFocusPoint();
     
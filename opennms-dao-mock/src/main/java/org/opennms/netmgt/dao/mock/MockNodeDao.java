@@ -494,6 +494,18 @@ public class MockNodeDao extends AbstractMockDao<OnmsNode, Integer> implements N
         return Collections.emptyList();
     }
 
+    @Override
+    public List<OnmsNode> findAllByIdsWithCategories(Collection<Integer> nodeIds) {
+        final List<OnmsNode> nodes = new ArrayList<>();
+        for (final Integer nodeId : nodeIds) {
+            final OnmsNode node = get(nodeId);
+            if (node != null) {
+                nodes.add(node);
+            }
+        }
+        return nodes;
+    }
+
     @Override
     public OnmsNode getDefaultFocusPoint() {
         return null;
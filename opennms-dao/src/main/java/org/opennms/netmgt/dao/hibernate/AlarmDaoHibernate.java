@@ -32,6 +32,7 @@ import java.math.BigInteger;
 import java.sql.SQLException;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -68,6 +69,16 @@ public class AlarmDaoHibernate extends AbstractDaoHibernate<OnmsAlarm, Integer>
         return super.findUnique(hql, reductionKey);
     }
 
+    @Override
+    public Map<String, Integer> getAlarmIdsByReductionKey() {
+        final Map<String, Integer> alarmIdsByReductionKey = new HashMap<>();
+        final List<? extends Object[]> rows = findObjects(new Object[0].getClass(), "select a.reductionKey, a.id from OnmsAlarm as a");
+        for (Object row[] : rows) {
+            alarmIdsByReductionKey.put((String)row[0], (Integer)row[1]);
+        }
+        return alarmIdsByReductionKey;
+    }
+
     /** {@inheritDoc} */
     @Override
     public List<AlarmSummary> getNodeAlarmSummariesIncludeAcknowledgedOnes(List<Integer> nodeIds) {
@@ -73,6 +73,8 @@ import org.springframework.util.StringUtils;
 public class NodeDaoHibernate extends AbstractDaoHibernate<OnmsNode, Integer> implements NodeDao {
     private static final Logger LOG = LoggerFactory.getLogger(NodeDaoHibernate.class);
 
+    private static final int MAX_IDS_PER_QUERY = 1000;
+
     /**
      * <p>Constructor for NodeDaoHibernate.</p>
      */
@@ -529,6 +531,25 @@ public class NodeDaoHibernate extends AbstractDaoHibernate<OnmsNode, Integer> im
         return find("from OnmsNode as n where n.hasFlows = true");
     }
 
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<OnmsNode> findAllByIdsWithCategories(final Collection<Integer> nodeIds) {
+        if (nodeIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // Keep the number of parameters of a single query within reasonable bounds
+        final List<Integer> ids = new ArrayList<>(nodeIds);
+        final List<OnmsNode> nodes = new ArrayList<>(ids.size());
+        for (int i = 0; i < ids.size(); i += MAX_IDS_PER_QUERY) {
+            final List<Integer> chunk = ids.subList(i, Math.min(ids.size(), i + MAX_IDS_PER_QUERY));
+            nodes.addAll(getHibernateTemplate().executeWithNativeSession(session -> (List<OnmsNode>) session
+                    .createQuery("select distinct n from OnmsNode as n left join fetch n.categories where n.id in (:ids)")
+                    .setParameterList("ids", chunk)
+                    .list()));
+        }
+        return nodes;
+    }
+
     @Override
     public OnmsNode getDefaultFocusPoint() {
         // getting the node which has the most ifspeed
@@ -32,15 +32,13 @@ import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.opennms.core.rpc.xml.AbstractXmlRpcModule;
 import org.opennms.core.utils.IteratorUtils;
@@ -53,8 +51,7 @@ import org.opennms.netmgt.model.discovery.IPPollRange;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import com.google.common.base.Throwables;
-import com.google.common.collect.Sets;
+import com.google.common.base.Preconditions;
 import com.google.common.util.concurrent.RateLimiter;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
@@ -63,6 +60,10 @@ public class PingSweepRpcModule extends AbstractXmlRpcModule<PingSweepRequestDTO
 
     public static final String RPC_MODULE_ID = "PING-SWEEP";
 
+    public static final String MAX_PINGS_IN_FLIGHT_PROPERTY = "org.opennms.netmgt.icmp.proxy.sweep.maxPingsInFlight";
+
+    public static final int DEFAULT_MAX_PINGS_IN_FLIGHT = 4096;
+
     private final ThreadFactory threadFactory = new ThreadFactoryBuilder()
             .setNameFormat("ping-sweep-%d")
             .build();
@@ -72,6 +73,8 @@ public class PingSweepRpcModule extends AbstractXmlRpcModule<PingSweepRequestDTO
     @Autowired
     private PingerFactory pingerFactory;
 
+    private int maxPingsInFlight = Integer.getInteger(MAX_PINGS_IN_FLIGHT_PROPERTY, DEFAULT_MAX_PINGS_IN_FLIGHT);
+
     public PingSweepRpcModule() {
         super(PingSweepRequestDTO.class, PingSweepResponseDTO.class);
     }
@@ -79,7 +82,7 @@ public class PingSweepRpcModule extends AbstractXmlRpcModule<PingSweepRequestDTO
     @Override
     public CompletableFuture<PingSweepResponseDTO> execute(PingSweepRequestDTO request) {
         final Pinger pinger = pingerFactory.getInstance();
-        final PingSweepResultTracker tracker = new PingSweepResultTracker();
+        final PingSweepResultTracker tracker = new PingSweepResultTracker(maxPingsInFlight);
 
         String location = request.getLocation();
         int packetSize = request.getPacketSize();
@@ -92,41 +95,64 @@ public class PingSweepRpcModule extends AbstractXmlRpcModule<PingSweepRequestDTO
         // Use a RateLimiter to limit the ping packets per second that we send
         RateLimiter limiter = RateLimiter.create(request.getPacketsPerSecond());
 
-        List<IPPollAddress> addresses = StreamSupport.stream(getAddresses(ranges).spliterator(), false)
-                .filter(j -> j.getAddress() != null).collect(Collectors.toList());
+        // Walk the ranges lazily, so that only the addresses which are awaiting
+        // a response are kept in memory, regardless of the size of the ranges
+        final Iterable<IPPollAddress> addresses = getAddresses(ranges);
 
-        return CompletableFuture.supplyAsync(() -> {
-            addresses.stream().forEach(pollAddress -> {
-                try {
+        executor.execute(() -> {
+            try {
+                for (IPPollAddress pollAddress : addresses) {
+                    if (pollAddress.getAddress() == null) {
+                        continue;
+                    }
                     tracker.expectCallbackFor(pollAddress.getAddress());
-                    limiter.acquire();
-                    pinger.ping(pollAddress.getAddress(), pollAddress.getTimeout(), pollAddress.getRetries(), packetSize, 1, tracker);
-                } catch (Exception e) {
-                    tracker.handleError(pollAddress.getAddress(), null, e);
-                    tracker.completeExceptionally(e);
+                    try {
+                        limiter.acquire();
+                        pinger.ping(pollAddress.getAddress(), pollAddress.getTimeout(), pollAddress.getRetries(), packetSize, 1, tracker);
+                    } catch (Exception e) {
+                        // The sweep fails as a whole, there is no point in sending the remaining pings
+                        tracker.handleError(pollAddress.getAddress(), null, e);
+                        tracker.completeExceptionally(e);
+                        return;
+                    }
                 }
-            });
-
-            try {
-                tracker.getLatch().await();
+                tracker.doneSending();
             } catch (InterruptedException e) {
-                throw Throwables.propagate(e);
+                Thread.currentThread().interrupt();
+                tracker.completeExceptionally(e);
+            } catch (RuntimeException e) {
+                tracker.completeExceptionally(e);
             }
-            tracker.complete();
-            return tracker.getResponse();
-        } , executor);
+        });
 
+        return tracker;
     }
 
+    /**
+     * Completes with the responses once a callback was received for every address that was pinged.
+     *
+     * The number of pings awaiting a callback is bounded, so that the sender blocks instead of
+     * tracking an unbounded number of outstanding requests when sweeping large ranges.
+     */
     private static class PingSweepResultTracker extends CompletableFuture<PingSweepResponseDTO>
             implements PingResponseCallback {
 
-        private final Set<InetAddress> waitingFor = Sets.newConcurrentHashSet();
-        private final CountDownLatch m_doneSignal = new CountDownLatch(1);
+        private final Semaphore m_inFlight;
+        // Starts at one, for the sender, so that we don't complete before all of the pings were sent
+        private final AtomicInteger m_pending = new AtomicInteger(1);
         private final PingSweepResponseDTO responseDTO = new PingSweepResponseDTO();
 
-        public void expectCallbackFor(InetAddress address) {
-            waitingFor.add(address);
+        public PingSweepResultTracker(int maxPingsInFlight) {
+            m_inFlight = new Semaphore(maxPingsInFlight);
+        }
+
+        public void expectCallbackFor(InetAddress address) throws InterruptedException {
+            m_inFlight.acquire();
+            m_pending.incrementAndGet();
+        }
+
+        public void doneSending() {
+            decrementPending();
         }
 
         @Override
@@ -135,7 +161,9 @@ public class PingSweepRpcModule extends AbstractXmlRpcModule<PingSweepRequestDTO
                 PingSweepResultDTO sweepResult = new PingSweepResultDTO();
                 sweepResult.setAddress(address);
                 sweepResult.setRtt(response.elapsedTime(TimeUnit.MILLISECONDS));
-                responseDTO.addPingSweepResult(sweepResult);
+                synchronized (responseDTO) {
+                    responseDTO.addPingSweepResult(sweepResult);
+                }
             }
             afterHandled(address);
         }
@@ -151,22 +179,14 @@ public class PingSweepRpcModule extends AbstractXmlRpcModule<PingSweepRequestDTO
         }
 
         private void afterHandled(InetAddress address) {
-            waitingFor.remove(address);
-            if (waitingFor.isEmpty()) {
-                m_doneSignal.countDown();
-            }
+            m_inFlight.release();
+            decrementPending();
         }
 
-        public void complete() {
-            complete(responseDTO);
-        }
-
-        public PingSweepResponseDTO getResponse() {
-            return responseDTO;
-        }
-
-        public CountDownLatch getLatch() {
-            return m_doneSignal;
+        private void decrementPending() {
+            if (m_pending.decrementAndGet() == 0) {
+                complete(responseDTO);
+            }
         }
 
     }
@@ -184,6 +204,11 @@ public class PingSweepRpcModule extends AbstractXmlRpcModule<PingSweepRequestDTO
     public void setPingerFactory(PingerFactory pingerFactory) {
         this.pingerFactory = pingerFactory;
     }
+
+    public void setMaxPingsInFlight(int maxPingsInFlight) {
+        Preconditions.checkArgument(maxPingsInFlight > 0, "maxPingsInFlight must be positive");
+        this.maxPingsInFlight = maxPingsInFlight;
+    }
     
     public Iterable<IPPollAddress> getAddresses(List<IPPollRange> ranges) {
         final List<Iterator<IPPollAddress>> iters = new ArrayList<>();
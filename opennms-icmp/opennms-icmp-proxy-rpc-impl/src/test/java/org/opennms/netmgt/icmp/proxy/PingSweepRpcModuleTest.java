@@ -0,0 +1,239 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.icmp.proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.icmp.EchoPacket;
+import org.opennms.netmgt.icmp.NullPinger;
+import org.opennms.netmgt.icmp.PingResponseCallback;
+import org.opennms.netmgt.icmp.Pinger;
+import org.opennms.netmgt.icmp.PingerFactory;
+
+public class PingSweepRpcModuleTest {
+
+    private final ExecutorService m_responder = Executors.newFixedThreadPool(4);
+
+    @After
+    public void tearDown() {
+        m_responder.shutdownNow();
+    }
+
+    @Test(timeout = 60000)
+    public void canSweepLargeRangesWithBoundedPingsInFlight() throws Exception {
+        final AsyncPinger pinger = new AsyncPinger();
+        final PingSweepRpcModule module = new PingSweepRpcModule();
+        module.setPingerFactory(factory(pinger));
+        module.setMaxPingsInFlight(64);
+
+        final PingSweepRequestDTO request = new PingSweepRequestDTO();
+        request.setPacketsPerSecond(Double.MAX_VALUE);
+        request.addIpRange(new IPRangeDTO("10.0.0.0", "10.0.255.255", 0, 100));
+        request.addIpRange(new IPRangeDTO("10.1.0.1", "10.1.0.1", 0, 100));
+
+        final PingSweepResponseDTO response = module.execute(request).get();
+
+        assertEquals(65537, pinger.m_pinged.get());
+        assertTrue("at most 64 pings in flight, got " + pinger.m_maxInFlight.get(), pinger.m_maxInFlight.get() <= 64);
+
+        // Every address ending in .1 responds
+        final Set<String> responders = new TreeSet<>();
+        for (final PingSweepResultDTO result : response.getPingSweepResult()) {
+            responders.add(InetAddressUtils.str(result.getAddress()));
+        }
+        assertEquals(257, responders.size());
+        assertTrue(responders.contains("10.0.42.1"));
+        assertTrue(responders.contains("10.1.0.1"));
+    }
+
+    @Test(timeout = 60000)
+    public void doesNotCompleteBeforeTheLastCallback() throws Exception {
+        // Every callback returns before the next ping is sent, except for the one of the last address
+        final Pinger pinger = new NullPinger() {
+            @Override
+            public void ping(InetAddress host, long timeout, int retries, int packetsize, int sequenceId, PingResponseCallback cb) throws Exception {
+                if (host.getAddress()[3] == 10) {
+                    m_responder.execute(() -> {
+                        try {
+                            Thread.sleep(200);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        cb.handleResponse(host, packet());
+                    });
+                } else {
+                    cb.handleResponse(host, packet());
+                }
+            }
+        };
+        final PingSweepRpcModule module = new PingSweepRpcModule();
+        module.setPingerFactory(factory(pinger));
+
+        final PingSweepRequestDTO request = new PingSweepRequestDTO();
+        request.setPacketsPerSecond(Double.MAX_VALUE);
+        request.addIpRange(new IPRangeDTO("10.0.0.1", "10.0.0.10", 0, 100));
+
+        final PingSweepResponseDTO response = module.execute(request).get();
+        assertEquals(10, response.getPingSweepResult().size());
+    }
+
+    @Test(timeout = 60000)
+    public void canSweepWhenPingsFail() throws Exception {
+        final PingSweepRpcModule module = new PingSweepRpcModule();
+        module.setPingerFactory(factory(new NullPinger()));
+
+        final PingSweepRequestDTO request = new PingSweepRequestDTO();
+        request.setPacketsPerSecond(Double.MAX_VALUE);
+        request.addIpRange(new IPRangeDTO("10.0.0.1", "10.0.3.255", 0, 100));
+
+        final PingSweepResponseDTO response = module.execute(request).get();
+        assertEquals(Collections.emptyList(), response.getPingSweepResult());
+    }
+
+    @Test(timeout = 60000)
+    public void failsWhenPingThrows() throws Exception {
+        final AtomicInteger pinged = new AtomicInteger(0);
+        final Pinger pinger = new NullPinger() {
+            @Override
+            public void ping(InetAddress host, long timeout, int retries, int packetsize, int sequenceId, PingResponseCallback cb) throws Exception {
+                pinged.incrementAndGet();
+                if (host.getAddress()[3] == 5) {
+                    throw new IllegalStateException("ping failed");
+                }
+                cb.handleResponse(host, packet());
+            }
+        };
+        final PingSweepRpcModule module = new PingSweepRpcModule();
+        module.setPingerFactory(factory(pinger));
+
+        final PingSweepRequestDTO request = new PingSweepRequestDTO();
+        request.setPacketsPerSecond(Double.MAX_VALUE);
+        request.addIpRange(new IPRangeDTO("10.0.0.1", "10.0.0.10", 0, 100));
+
+        try {
+            module.execute(request).get();
+            fail("sweep should have failed");
+        } catch (ExecutionException e) {
+            assertEquals("ping failed", e.getCause().getMessage());
+        }
+        // No more pings are sent once the sweep failed
+        assertEquals(5, pinged.get());
+    }
+
+    private static PingerFactory factory(final Pinger pinger) {
+        return new PingerFactory() {
+            @Override
+            public Pinger getInstance() {
+                return pinger;
+            }
+
+            @Override
+            public Pinger getInstance(int tc, boolean allowFragmentation) {
+                return pinger;
+            }
+        };
+    }
+
+    private static EchoPacket packet() {
+        return new EchoPacket() {
+            @Override
+            public boolean isEchoReply() {
+                return true;
+            }
+
+            @Override
+            public int getIdentifier() {
+                return 0;
+            }
+
+            @Override
+            public int getSequenceNumber() {
+                return 1;
+            }
+
+            @Override
+            public long getThreadId() {
+                return 0;
+            }
+
+            @Override
+            public long getReceivedTimeNanos() {
+                return 1000000;
+            }
+
+            @Override
+            public long getSentTimeNanos() {
+                return 0;
+            }
+
+            @Override
+            public double elapsedTime(TimeUnit timeUnit) {
+                return 1.0d;
+            }
+        };
+    }
+
+    /**
+     * Answers the pings from other threads, where the addresses ending in .1 respond and the others time out.
+     */
+    private class AsyncPinger extends NullPinger {
+        private final AtomicInteger m_pinged = new AtomicInteger(0);
+        private final AtomicInteger m_inFlight = new AtomicInteger(0);
+        private final AtomicInteger m_maxInFlight = new AtomicInteger(0);
+
+        @Override
+        public void ping(InetAddress host, long timeout, int retries, int packetsize, int sequenceId, PingResponseCallback cb) throws Exception {
+            m_pinged.incrementAndGet();
+            m_maxInFlight.accumulateAndGet(m_inFlight.incrementAndGet(), Math::max);
+            m_responder.execute(() -> {
+                m_inFlight.decrementAndGet();
+                if (host.getAddress()[3] == 1) {
+                    cb.handleResponse(host, packet());
+                } else {
+                    cb.handleTimeout(host, null);
+                }
+            });
+        }
+    }
+}
@@ -28,6 +28,7 @@
 
 package org.opennms.netmgt.provision.service;
 
+import java.nio.file.Paths;
 import java.util.Collection;
 import java.util.Map;
 
@@ -46,7 +47,10 @@ import org.opennms.netmgt.provision.service.lifecycle.annotations.Activity;
 import org.opennms.netmgt.provision.service.lifecycle.annotations.ActivityProvider;
 import org.opennms.netmgt.provision.service.operations.ImportOperation;
 import org.opennms.netmgt.provision.service.operations.ImportOperationsManager;
+import org.opennms.netmgt.provision.service.operations.ProvisionMonitor;
 import org.opennms.netmgt.provision.service.operations.RequisitionImport;
+import org.opennms.netmgt.provision.service.operations.RequisitionNodeHash;
+import org.opennms.netmgt.provision.service.operations.UpdateOperation;
 import org.springframework.core.io.Resource;
 
 /**
@@ -58,31 +62,48 @@ import org.springframework.core.io.Resource;
 @ActivityProvider
 public class CoreImportActivities {
     private static final Logger LOG = LoggerFactory.getLogger(CoreImportActivities.class);
+
+    /**
+     * When enabled, imports skip the nodes whose requisition didn't change since they were last
+     * applied by an import. Changes which are made to the nodes by other means, i.e. by policies
+     * or through the REST API, are no longer overwritten by re-importing an unchanged requisition.
+     */
+    private static final String DELTA_IMPORT = "org.opennms.provisiond.deltaImport";
     
     private final ProvisionService m_provisionService;
+
+    private final RequisitionHashStore m_hashStore;
     
     public CoreImportActivities(final ProvisionService provisionService) {
+        this(provisionService, new RequisitionHashStore(Paths.get(System.getProperty("opennms.home", ""), "data", "provisiond", "requisition-hashes")));
+    }
+
+    public CoreImportActivities(final ProvisionService provisionService, final RequisitionHashStore hashStore) {
         m_provisionService = provisionService;
+        m_hashStore = hashStore;
     }
 
     @Activity( lifecycle = "import", phase = "validate", schedulingHint="import")
-    public RequisitionImport loadSpecFile(final Resource resource) {
+    public RequisitionImport loadSpecFile(final Resource resource, final ProvisionMonitor monitor) {
         final RequisitionImport ri = new RequisitionImport();
 
         info("Loading requisition from resource {}", resource);
+        monitor.beginLoadingResource(resource);
         try {
             final Requisition specFile = m_provisionService.loadRequisition(resource);
             ri.setRequisition(specFile);
             debug("Finished loading requisition.");
         } catch (final Throwable t) {
             ri.abort(t);
+        } finally {
+            monitor.finishLoadingResource(resource);
         }
 
         return ri;
     }
     
     @Activity( lifecycle = "import", phase = "audit", schedulingHint="import" )
-    public ImportOperationsManager auditNodes(final RequisitionImport ri, final String rescanExisting) {
+    public ImportOperationsManager auditNodes(final RequisitionImport ri, final String rescanExisting, final ProvisionMonitor monitor) {
         if (ri.isAborted()) {
             info("The import has been aborted, skipping audit phase import.");
             return null;
@@ -92,27 +113,41 @@ public class CoreImportActivities {
 
         info("Auditing nodes for requisition {}. The parameter {} was set to {} during import.", specFile, EventConstants.PARM_IMPORT_RESCAN_EXISTING, rescanExisting);
 
+        monitor.beginAuditNodes();
+
         final String foreignSource = specFile.getForeignSource();
         final Map<String, Integer> foreignIdsToNodes = m_provisionService.getForeignIdToNodeIdMap(foreignSource);
 
         final ImportOperationsManager opsMgr = new ImportOperationsManager(foreignIdsToNodes, m_provisionService, rescanExisting);
         
         opsMgr.setForeignSource(foreignSource);
+        if (Boolean.getBoolean(DELTA_IMPORT)) {
+            final String foreignSourceHash = RequisitionNodeHash.foreignSourceHash(m_provisionService.getForeignSource(foreignSource));
+            opsMgr.setForeignSourceHash(foreignSourceHash);
+            opsMgr.setPreviousNodeHashes(m_hashStore.load(foreignSource, foreignSourceHash));
+        } else {
+            // this import may change any of the nodes, so the hashes of the last delta import are stale
+            m_hashStore.delete(foreignSource);
+        }
         opsMgr.auditNodes(specFile);
 
-        debug("Finished auditing nodes.");
+        monitor.finishAuditNodes();
+        debug("Finished auditing nodes. {} nodes are unchanged.", opsMgr.getUnchangedCount());
         
         return opsMgr;
     }
     
     @Activity( lifecycle = "import", phase = "scan", schedulingHint="import" )
-    public static void scanNodes(final Phase currentPhase, final ImportOperationsManager opsMgr, final RequisitionImport ri, final String rescanExisting) {
+    public static void scanNodes(final Phase currentPhase, final ImportOperationsManager opsMgr, final RequisitionImport ri, final String rescanExisting, final ProvisionMonitor monitor) {
         if (ri.isAborted()) {
             info("The import has been aborted, skipping scan phase import.");
             return;
         }
 
         info("Scheduling nodes for phase {}", currentPhase);
+
+        monitor.skippedUnchangedNodes(opsMgr.getUnchangedCount(), opsMgr.getScanCount());
+        monitor.beginProcessingOps(opsMgr.getDeleteCount(), opsMgr.getUpdateCount(), opsMgr.getInsertCount());
         
         final Collection<ImportOperation> operations = opsMgr.getOperations();
         
@@ -124,6 +159,7 @@ public class CoreImportActivities {
             nodeScan.setAttribute("operation", op);
             nodeScan.setAttribute("requisitionImport", ri);
             nodeScan.setAttribute("rescanExisting", rescanExisting);
+            nodeScan.setAttribute("monitor", monitor);
             nodeScan.trigger();
         }
 
@@ -132,15 +168,23 @@ public class CoreImportActivities {
     
     
     @Activity( lifecycle = "nodeImport", phase = "scan", schedulingHint="import" )
-    public static void scanNode(final ImportOperation operation, final RequisitionImport ri, final String rescanExisting) {
+    public static void scanNode(final ImportOperation operation, final RequisitionImport ri, final String rescanExisting, final ProvisionMonitor monitor) {
         if (ri.isAborted()) {
             info("The import has been aborted, skipping scan phase nodeImport.");
             return;
         }
 
-        if (rescanExisting == null || Boolean.valueOf(rescanExisting)) {
+        if (operation instanceof UpdateOperation && !Boolean.valueOf(((UpdateOperation) operation).getRescanExisting())
+                && (rescanExisting == null || Boolean.valueOf(rescanExisting))) {
+            info("Skipping scan phase of {}, because the addressing of the node did not change.", operation);
+        } else if (rescanExisting == null || Boolean.valueOf(rescanExisting)) {
             info("Running scan phase of {}, the parameter {} was set to {} during import.", operation, EventConstants.PARM_IMPORT_RESCAN_EXISTING, rescanExisting);
-            operation.scan();
+            monitor.beginPreprocessing(operation);
+            try {
+                operation.scan();
+            } finally {
+                monitor.finishPreprocessing(operation);
+            }
     
             info("Finished Running scan phase of {}", operation);
         } else {
@@ -149,37 +193,55 @@ public class CoreImportActivities {
     }
     
     @Activity( lifecycle = "nodeImport", phase = "persist" , schedulingHint = "import" )
-    public static void persistNode(final ImportOperation operation, final RequisitionImport ri) {
+    public static void persistNode(final ImportOperation operation, final RequisitionImport ri, final ProvisionMonitor monitor) {
         if (ri.isAborted()) {
             info("The import has been aborted, skipping persist phase.");
             return;
         }
 
         info("Running persist phase of {}", operation);
-        operation.persist();
+        monitor.beginPersisting(operation);
+        try {
+            operation.persist();
+        } finally {
+            monitor.finishPersisting(operation);
+        }
         info("Finished Running persist phase of {}", operation);
 
     }
     
     @Activity( lifecycle = "import", phase = "relate" , schedulingHint = "import" )
-    public void relateNodes(final BatchTask currentPhase, final RequisitionImport ri) {
+    public void relateNodes(final BatchTask currentPhase, final RequisitionImport ri, final ImportOperationsManager opsMgr, final ProvisionMonitor monitor) {
         if (ri.isAborted()) {
             info("The import has been aborted, skipping relate phase.");
             return;
         }
 
+        // all of the nodes have been persisted by now
+        monitor.finishProcessingOps();
+
         info("Running relate phase");
+        monitor.beginRelateNodes();
         
         final Requisition requisition = ri.getRequisition();
         RequisitionVisitor visitor = new AbstractRequisitionVisitor() {
             @Override
             public void visitNode(final OnmsNodeRequisition nodeReq) {
+                if (opsMgr.isUnchanged(nodeReq.getForeignId()) && nodeReq.getParentForeignId() == null && nodeReq.getParentNodeLabel() == null) {
+                    // the node has no parent, and still hasn't
+                    LOG.debug("Skipping relate of unchanged node {}", nodeReq);
+                    return;
+                }
                 LOG.debug("Scheduling relate of node {}", nodeReq);
                 currentPhase.add(parentSetter(m_provisionService, nodeReq, requisition.getForeignSource()));
             }
         };
         
         requisition.visit(visitor);
+
+        if (opsMgr.isDeltaImport()) {
+            m_hashStore.save(requisition.getForeignSource(), opsMgr.getForeignSourceHash(), opsMgr.getNodeHashes());
+        }
         
         LOG.info("Finished Running relate phase");
 
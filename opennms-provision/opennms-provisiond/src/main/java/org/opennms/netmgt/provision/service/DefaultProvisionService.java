@@ -1094,6 +1094,14 @@ public class DefaultProvisionService implements ProvisionService, InitializingBe
         return iface;
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public ForeignSource getForeignSource(final String foreignSourceName) {
+        final ForeignSource foreignSource = m_foreignSourceRepository.getForeignSource(foreignSourceName);
+        assertNotNull(foreignSource, "Expected a foreignSource with name %s", foreignSourceName);
+        return foreignSource;
+    }
+
     /** {@inheritDoc} */
     @Override
     public List<PluginConfig> getDetectorsForForeignSource(final String foreignSourceName) {
@@ -429,9 +429,16 @@ public class Provisioner implements SpringServiceDaemon {
         final LifeCycleInstance doImport = m_lifeCycleRepository.createLifeCycleInstance("import", m_importActivities);
         doImport.setAttribute("resource", resource);
         doImport.setAttribute("rescanExisting", rescanExisting);
+        doImport.setAttribute("monitor", monitor);
+        monitor.beginImporting();
         doImport.trigger();
         doImport.waitFor();
         final RequisitionImport ri = doImport.findAttributeByType(RequisitionImport.class);
+        if (!ri.isAborted()) {
+            // relate is the last phase of the import, it is only started when the import wasn't aborted
+            monitor.finishRelateNodes();
+        }
+        monitor.finishImporting();
         if (ri.isAborted()) {
             throw new ModelImportException("Import failed for resource " + resource.toString(), ri.getError());
         }
@@ -35,6 +35,7 @@ import org.opennms.netmgt.provision.persist.OnmsMonitoredServiceRequisition;
 import org.opennms.netmgt.provision.persist.OnmsNodeCategoryRequisition;
 import org.opennms.netmgt.provision.persist.OnmsNodeRequisition;
 import org.opennms.netmgt.provision.service.operations.ImportOperationsManager;
+import org.opennms.netmgt.provision.service.operations.RequisitionNodeHash;
 import org.opennms.netmgt.provision.service.operations.SaveOrUpdateOperation;
 
 public class RequisitionAccountant extends AbstractRequisitionVisitor {
@@ -53,7 +54,13 @@ public class RequisitionAccountant extends AbstractRequisitionVisitor {
     /** {@inheritDoc} */
     @Override
     public void visitNode(OnmsNodeRequisition nodeReq) {
-        m_currentOp = m_opsMgr.foundNode(nodeReq.getForeignId(), nodeReq.getNodeLabel(), nodeReq.getLocation(), nodeReq.getBuilding(), nodeReq.getCity());
+        final RequisitionNodeHash nodeHash = m_opsMgr.isDeltaImport() ? RequisitionNodeHash.of(nodeReq.getNode()) : null;
+        if (nodeHash != null && m_opsMgr.foundUnchangedNode(nodeReq.getForeignId(), nodeHash)) {
+            // skip the interfaces, services, categories and assets of the node as well
+            m_currentOp = null;
+            return;
+        }
+        m_currentOp = m_opsMgr.foundNode(nodeReq.getForeignId(), nodeReq.getNodeLabel(), nodeReq.getLocation(), nodeReq.getBuilding(), nodeReq.getCity(), nodeHash);
     }
 
     /** {@inheritDoc} */
@@ -65,6 +72,9 @@ public class RequisitionAccountant extends AbstractRequisitionVisitor {
     /** {@inheritDoc} */
     @Override
     public void visitInterface(OnmsIpInterfaceRequisition ifaceReq) {
+        if (m_currentOp == null) {
+            return;
+        }
         m_currentOp.foundInterface(ifaceReq.getIpAddr().trim(), ifaceReq.getDescr(), ifaceReq.getSnmpPrimary(), ifaceReq.getManaged(), ifaceReq.getStatus());
         
     }
@@ -72,18 +82,27 @@ public class RequisitionAccountant extends AbstractRequisitionVisitor {
     /** {@inheritDoc} */
     @Override
     public void visitMonitoredService(OnmsMonitoredServiceRequisition svcReq) {
+        if (m_currentOp == null) {
+            return;
+        }
         m_currentOp.foundMonitoredService(svcReq.getServiceName());
     }
 
     /** {@inheritDoc} */
     @Override
     public void visitNodeCategory(OnmsNodeCategoryRequisition catReq) {
+        if (m_currentOp == null) {
+            return;
+        }
         m_currentOp.foundCategory(catReq.getName());
     }
 
     /** {@inheritDoc} */
     @Override
     public void visitAsset(OnmsAssetRequisition assetReq) {
+        if (m_currentOp == null) {
+            return;
+        }
         m_currentOp.foundAsset(assetReq.getName(), assetReq.getValue());
     }
 }
@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.provision.service;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+
+import org.opennms.netmgt.provision.service.operations.RequisitionNodeHash;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the hashes of the requisitioned nodes as they were last applied, one file per foreign source.
+ *
+ * A missing or unreadable file just means that all of the nodes of the requisition are applied again.
+ * The file also records the hash of the foreign source definition the nodes were applied with; when
+ * that definition has changed since, all of the nodes are applied again as well.
+ */
+public class RequisitionHashStore {
+    private static final Logger LOG = LoggerFactory.getLogger(RequisitionHashStore.class);
+
+    /**
+     * Key of the foreign source hash, can't collide with a foreign id since those can't contain a slash.
+     */
+    private static final String FOREIGN_SOURCE_KEY = "/foreign-source";
+
+    private final Path m_directory;
+
+    public RequisitionHashStore(final Path directory) {
+        m_directory = directory;
+    }
+
+    public Map<String, RequisitionNodeHash> load(final String foreignSource, final String foreignSourceHash) {
+        final Map<String, RequisitionNodeHash> hashes = new HashMap<>();
+        final Path file = getFile(foreignSource);
+        if (!Files.exists(file)) {
+            return hashes;
+        }
+
+        final Properties props = new Properties();
+        try (final Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            props.load(reader);
+        } catch (final IOException e) {
+            LOG.warn("Unable to read the node hashes of requisition {} from {}, all nodes will be applied.", foreignSource, file, e);
+            return hashes;
+        }
+
+        if (!foreignSourceHash.equals(props.getProperty(FOREIGN_SOURCE_KEY))) {
+            LOG.info("The foreign source definition of requisition {} has changed, all nodes will be applied.", foreignSource);
+            return hashes;
+        }
+
+        for (final String foreignId : props.stringPropertyNames()) {
+            if (FOREIGN_SOURCE_KEY.equals(foreignId)) {
+                continue;
+            }
+            final String[] values = props.getProperty(foreignId).split(",");
+            if (values.length != 3) {
+                LOG.warn("Ignoring invalid node hash for {}:{} in {}.", foreignSource, foreignId, file);
+                continue;
+            }
+            try {
+                hashes.put(foreignId, new RequisitionNodeHash(Integer.valueOf(values[0]), values[1], values[2]));
+            } catch (final NumberFormatException e) {
+                LOG.warn("Ignoring invalid node hash for {}:{} in {}.", foreignSource, foreignId, file);
+            }
+        }
+        return hashes;
+    }
+
+    public void save(final String foreignSource, final String foreignSourceHash, final Map<String, RequisitionNodeHash> hashes) {
+        final Properties props = new Properties();
+        props.setProperty(FOREIGN_SOURCE_KEY, foreignSourceHash);
+        for (final Entry<String, RequisitionNodeHash> entry : hashes.entrySet()) {
+            final RequisitionNodeHash hash = entry.getValue();
+            if (hash.getNodeId() != null) {
+                props.setProperty(entry.getKey(), hash.getNodeId() + "," + hash.getContentHash() + "," + hash.getAddressingHash());
+            }
+        }
+
+        final Path file = getFile(foreignSource);
+        try {
+            Files.createDirectories(m_directory);
+            // Write to a temporary file first, so that a failed write never leaves a truncated file behind
+            final Path tmp = Files.createTempFile(m_directory, file.getFileName().toString(), ".tmp");
+            try (final Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                props.store(writer, "Node hashes of requisition " + foreignSource);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final IOException e) {
+            LOG.warn("Unable to write the node hashes of requisition {} to {}, the next import will apply all nodes.", foreignSource, file, e);
+            delete(foreignSource);
+        }
+    }
+
+    public void delete(final String foreignSource) {
+        try {
+            Files.deleteIfExists(getFile(foreignSource));
+        } catch (final IOException e) {
+            LOG.warn("Unable to delete the node hashes of requisition {}.", foreignSource, e);
+        }
+    }
+
+    private Path getFile(final String foreignSource) {
+        return m_directory.resolve(foreignSource + ".properties");
+    }
+}
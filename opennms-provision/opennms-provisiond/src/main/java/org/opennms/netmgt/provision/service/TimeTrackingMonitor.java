@@ -56,6 +56,8 @@ public class TimeTrackingMonitor implements ProvisionMonitor {
 	private int m_deleteCount;
 	private int m_insertCount;
 	private int m_updateCount;
+	private int m_unchangedCount;
+	private int m_scanCount;
 	private int m_eventCount;
 
 	/** {@inheritDoc} */
@@ -67,6 +69,13 @@ public class TimeTrackingMonitor implements ProvisionMonitor {
 		m_processingDuration.start();
 	}
 
+	/** {@inheritDoc} */
+        @Override
+	public void skippedUnchangedNodes(int unchangedCount, int scanCount) {
+	    m_unchangedCount = unchangedCount;
+	    m_scanCount = scanCount;
+	}
+
 	/**
 	 * <p>finishProcessingOps</p>
 	 */
@@ -204,7 +213,9 @@ public class TimeTrackingMonitor implements ProvisionMonitor {
 		final StringBuilder stats = new StringBuilder();
 		stats.append("Deletes: ").append(m_deleteCount).append(", ");
 		stats.append("Updates: ").append(m_updateCount).append(", ");
-		stats.append("Inserts: ").append(m_insertCount).append("\n");
+		stats.append("Inserts: ").append(m_insertCount).append(", ");
+		stats.append("Unchanged: ").append(m_unchangedCount).append(", ");
+		stats.append("Scans: ").append(m_scanCount).append("\n");
 		stats.append(m_importDuration).append(", ");
 		stats.append(m_loadingDuration).append(", ");
 		stats.append(m_auditDuration).append('\n');
@@ -36,6 +36,8 @@ public abstract class ImportOperation {
     private static final Logger LOG = LoggerFactory.getLogger(ImportOperation.class);
     
     private final ProvisionService m_provisionService;
+
+    private volatile boolean m_persisted = false;
     
     /**
      * <p>Constructor for ImportOperation.</p>
@@ -77,6 +79,7 @@ public abstract class ImportOperation {
         LOG.info("Persist: {}", oper);
     
         doPersist();
+        m_persisted = true;
     	
     
         LOG.info("Clear cache: {}", this);
@@ -85,5 +88,14 @@ public abstract class ImportOperation {
     	getProvisionService().clearCache();
     }
 
+    /**
+     * <p>isPersisted</p>
+     *
+     * @return true if the operation was applied to the database
+     */
+    public boolean isPersisted() {
+        return m_persisted;
+    }
+
 
 }
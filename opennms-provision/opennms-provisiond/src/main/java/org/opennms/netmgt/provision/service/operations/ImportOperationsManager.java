@@ -29,6 +29,7 @@
 package org.opennms.netmgt.provision.service.operations;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
@@ -70,6 +71,13 @@ public class ImportOperationsManager {
     private final ProvisionService m_provisionService;
     private final Map<String, Integer> m_foreignIdToNodeMap;
     private String m_rescanExisting;
+
+    /**
+     * The hashes of the nodes as they were last applied, null unless this is a delta import.
+     */
+    private Map<String, RequisitionNodeHash> m_previousNodeHashes;
+    private String m_foreignSourceHash;
+    private final Map<String, RequisitionNodeHash> m_unchangedNodes = new HashMap<>();
     
     private String m_foreignSource;
     
@@ -97,16 +105,58 @@ public class ImportOperationsManager {
      * @return a {@link org.opennms.netmgt.provision.service.operations.SaveOrUpdateOperation} object.
      */
     public SaveOrUpdateOperation foundNode(String foreignId, String nodeLabel, String location, String building, String city) {
+        return foundNode(foreignId, nodeLabel, location, building, city, null);
+    }
+
+    /**
+     * <p>foundNode</p>
+     *
+     * @param nodeHash the hash of the requisitioned node, or null if the import doesn't track hashes
+     * @return a {@link org.opennms.netmgt.provision.service.operations.SaveOrUpdateOperation} object.
+     */
+    public SaveOrUpdateOperation foundNode(String foreignId, String nodeLabel, String location, String building, String city, RequisitionNodeHash nodeHash) {
         
         SaveOrUpdateOperation ret;
         if (nodeExists(foreignId)) {
-            ret = updateNode(foreignId, nodeLabel, location, building, city);
+            ret = updateNode(foreignId, nodeLabel, location, building, city, nodeHash);
         } else {
             ret = insertNode(foreignId, nodeLabel, location, building, city);
         }        
+        ret.setNodeHash(nodeHash);
         return ret;
     }
 
+    /**
+     * Checks whether the node was applied with the same content by a previous delta import.
+     * Unchanged nodes are neither updated nor deleted.
+     *
+     * @return true if the node is unchanged and must be skipped
+     */
+    public boolean foundUnchangedNode(String foreignId, RequisitionNodeHash nodeHash) {
+        final RequisitionNodeHash previous = getPreviousNodeHash(foreignId);
+        if (previous == null || !previous.hasSameContent(nodeHash)) {
+            return false;
+        }
+        processForeignId(foreignId);
+        m_unchangedNodes.put(foreignId, previous);
+        return true;
+    }
+
+    /**
+     * Returns the previous hash of an existing node, as long as it was applied to the same node.
+     */
+    private RequisitionNodeHash getPreviousNodeHash(String foreignId) {
+        if (m_previousNodeHashes == null) {
+            return null;
+        }
+        final RequisitionNodeHash previous = m_previousNodeHashes.get(foreignId);
+        final Integer nodeId = m_foreignIdToNodeMap.get(foreignId);
+        if (previous == null || nodeId == null || !nodeId.equals(previous.getNodeId())) {
+            return null;
+        }
+        return previous;
+    }
+
     private boolean nodeExists(String foreignId) {
         return m_foreignIdToNodeMap.containsKey(foreignId);
     }
@@ -117,11 +167,16 @@ public class ImportOperationsManager {
         return insertOperation;
     }
 
-    private SaveOrUpdateOperation updateNode(final String foreignId, final String nodeLabel, final String location, final String building, final String city) {
+    private SaveOrUpdateOperation updateNode(final String foreignId, final String nodeLabel, final String location, final String building, final String city, final RequisitionNodeHash nodeHash) {
+        String rescanExisting = m_rescanExisting;
+        if (nodeHash != null && Boolean.valueOf(rescanExisting) && nodeHash.hasSameAddressing(getPreviousNodeHash(foreignId))) {
+            // Only the addressing of a node decides the outcome of a scan, so don't rescan it for other changes
+            rescanExisting = "dbonly";
+        }
         final Integer nodeId = processForeignId(foreignId);
         final UpdateOperation updateOperation;
-        if (Boolean.valueOf(m_rescanExisting) || m_rescanExisting.equalsIgnoreCase("dbonly")) {
-            updateOperation = new UpdateOperation(nodeId, getForeignSource(), foreignId, nodeLabel, location, building, city, m_provisionService, m_rescanExisting);
+        if (Boolean.valueOf(rescanExisting) || rescanExisting.equalsIgnoreCase("dbonly")) {
+            updateOperation = new UpdateOperation(nodeId, getForeignSource(), foreignId, nodeLabel, location, building, city, m_provisionService, rescanExisting);
         } else {
             updateOperation = new NullUpdateOperation(nodeId, getForeignSource(), foreignId, nodeLabel, location, building, city, m_provisionService, m_rescanExisting);
         }
@@ -174,6 +229,86 @@ public class ImportOperationsManager {
     public int getDeleteCount() {
     	return m_foreignIdToNodeMap.size();
     }
+
+    /**
+     * <p>getUnchangedCount</p>
+     *
+     * @return the number of nodes which were skipped because they didn't change since the last delta import
+     */
+    public int getUnchangedCount() {
+        return m_unchangedNodes.size();
+    }
+
+    /**
+     * <p>getScanCount</p>
+     *
+     * @return the number of nodes which will be scanned after they have been persisted
+     */
+    public int getScanCount() {
+        int count = m_inserts.size();
+        for (final ImportOperation op : m_updates) {
+            if (Boolean.valueOf(((SaveOrUpdateOperation) op).getRescanExisting())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * <p>isUnchanged</p>
+     *
+     * @param foreignId a {@link java.lang.String} object.
+     * @return true if the node was skipped because it didn't change since the last delta import
+     */
+    public boolean isUnchanged(String foreignId) {
+        return m_unchangedNodes.containsKey(foreignId);
+    }
+
+    /**
+     * Turns this import into a delta import: nodes whose hash matches the hash they were
+     * last applied with are skipped.
+     *
+     * @param previousNodeHashes the hashes of the last import by foreign ID
+     */
+    public void setPreviousNodeHashes(Map<String, RequisitionNodeHash> previousNodeHashes) {
+        m_previousNodeHashes = previousNodeHashes;
+    }
+
+    public boolean isDeltaImport() {
+        return m_previousNodeHashes != null;
+    }
+
+    /**
+     * Sets the hash of the foreign source definition this import applies the nodes with.
+     */
+    public void setForeignSourceHash(String foreignSourceHash) {
+        m_foreignSourceHash = foreignSourceHash;
+    }
+
+    public String getForeignSourceHash() {
+        return m_foreignSourceHash;
+    }
+
+    /**
+     * Returns the hashes of all nodes as they are applied now, to be used by the next delta
+     * import. Must be called after the operations have been persisted.
+     */
+    public Map<String, RequisitionNodeHash> getNodeHashes() {
+        final Map<String, RequisitionNodeHash> hashes = new HashMap<>(m_unchangedNodes);
+        for (final List<ImportOperation> ops : Arrays.asList(m_updates, m_inserts)) {
+            for (final ImportOperation op : ops) {
+                final SaveOrUpdateOperation saveOrUpdate = (SaveOrUpdateOperation) op;
+                final Integer nodeId = saveOrUpdate.getNode().getId();
+                if (saveOrUpdate.isPersisted() && saveOrUpdate.getNodeHash() != null && nodeId != null) {
+                    hashes.put(saveOrUpdate.getForeignId(), saveOrUpdate.getNodeHash().withNodeId(nodeId));
+                } else if (m_previousNodeHashes != null && m_previousNodeHashes.containsKey(saveOrUpdate.getForeignId())) {
+                    // The node wasn't applied, keep the old hash so that it is applied next time
+                    hashes.put(saveOrUpdate.getForeignId(), m_previousNodeHashes.get(saveOrUpdate.getForeignId()));
+                }
+            }
+        }
+        return hashes;
+    }
     
     private class DeleteIterator implements Iterator<ImportOperation> {
     	
@@ -38,6 +38,11 @@ public class NoOpProvisionMonitor implements ProvisionMonitor {
 	public void beginProcessingOps(int deleteCount, int updateCount, int insertCount) {
 	}
 
+	/** {@inheritDoc} */
+        @Override
+	public void skippedUnchangedNodes(int unchangedCount, int scanCount) {
+	}
+
 	/**
 	 * <p>finishProcessingOps</p>
 	 */
@@ -44,4 +44,9 @@ public class NullUpdateOperation extends UpdateOperation {
     protected void doPersist() {
         LOG.debug("Skipping persist for node {}: rescanExisting is false", getNode());
     }
+
+    @Override
+    public boolean isPersisted() {
+        return false;
+    }
 }
\ No newline at end of file
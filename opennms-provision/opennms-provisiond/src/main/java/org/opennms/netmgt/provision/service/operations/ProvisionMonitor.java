@@ -44,6 +44,14 @@ public interface ProvisionMonitor {
 	 */
 	void beginProcessingOps(int deleteCount, int updateCount, int insertCount);
 
+	/**
+	 * <p>skippedUnchangedNodes</p>
+	 *
+	 * @param unchangedCount the number of nodes a delta import skipped because they didn't change
+	 * @param scanCount the number of nodes which will be scanned after they have been persisted
+	 */
+	void skippedUnchangedNodes(int unchangedCount, int scanCount);
+
 	/**
 	 * <p>finishProcessingOps</p>
 	 */
@@ -0,0 +1,204 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.provision.service.operations;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+import org.opennms.netmgt.provision.persist.foreignsource.ForeignSource;
+import org.opennms.netmgt.provision.persist.foreignsource.PluginConfig;
+import org.opennms.netmgt.provision.persist.requisition.RequisitionAsset;
+import org.opennms.netmgt.provision.persist.requisition.RequisitionCategory;
+import org.opennms.netmgt.provision.persist.requisition.RequisitionInterface;
+import org.opennms.netmgt.provision.persist.requisition.RequisitionMonitoredService;
+import org.opennms.netmgt.provision.persist.requisition.RequisitionNode;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * The content hash of a requisitioned node, as it was last applied to the database.
+ *
+ * The content hash covers everything an import applies to the node, the addressing hash
+ * only covers what decides how the node is scanned: its location and interfaces.
+ */
+public final class RequisitionNodeHash {
+
+    /**
+     * Bump this when the hashed fields change, so that all nodes are applied once again.
+     */
+    private static final int VERSION = 1;
+
+    private final Integer m_nodeId;
+    private final String m_contentHash;
+    private final String m_addressingHash;
+
+    public RequisitionNodeHash(final Integer nodeId, final String contentHash, final String addressingHash) {
+        m_nodeId = nodeId;
+        m_contentHash = Objects.requireNonNull(contentHash);
+        m_addressingHash = Objects.requireNonNull(addressingHash);
+    }
+
+    public static RequisitionNodeHash of(final RequisitionNode node) {
+        final Hasher content = Hashing.sha256().newHasher().putInt(VERSION);
+        final Hasher addressing = Hashing.sha256().newHasher().putInt(VERSION);
+
+        put(content, node.getForeignId());
+        put(content, node.getNodeLabel());
+        put(content, node.getLocation());
+        put(content, node.getBuilding());
+        put(content, node.getCity());
+        put(content, node.getParentForeignSource());
+        put(content, node.getParentForeignId());
+        put(content, node.getParentNodeLabel());
+        put(addressing, node.getLocation());
+
+        content.putInt(node.getInterfaces().size());
+        for (final RequisitionInterface iface : node.getInterfaces()) {
+            final String ipAddr = iface.getIpAddr() == null ? null : iface.getIpAddr().trim();
+            put(content, ipAddr);
+            put(content, iface.getDescr());
+            put(content, iface.getSnmpPrimary());
+            content.putBoolean(iface.isManaged());
+            put(content, iface.getStatus());
+            put(addressing, ipAddr);
+            put(addressing, iface.getSnmpPrimary());
+
+            content.putInt(iface.getMonitoredServices().size());
+            for (final RequisitionMonitoredService svc : iface.getMonitoredServices()) {
+                put(content, svc.getServiceName());
+                putCategories(content, svc.getCategories());
+            }
+            putCategories(content, iface.getCategories());
+        }
+
+        putCategories(content, node.getCategories());
+
+        content.putInt(node.getAssets().size());
+        for (final RequisitionAsset asset : node.getAssets()) {
+            put(content, asset.getName());
+            put(content, asset.getValue());
+        }
+
+        return new RequisitionNodeHash(null, content.hash().toString(), addressing.hash().toString());
+    }
+
+    /**
+     * Returns the hash of the foreign source definition the nodes of a requisition are imported with.
+     *
+     * The scan interval, detectors and policies apply to all of the nodes, so when this hash changes
+     * none of the node hashes can be trusted any more.
+     */
+    public static String foreignSourceHash(final ForeignSource foreignSource) {
+        final Hasher hasher = Hashing.sha256().newHasher().putInt(VERSION);
+        put(hasher, foreignSource.getScanInterval());
+        putPlugins(hasher, foreignSource.getDetectors());
+        putPlugins(hasher, foreignSource.getPolicies());
+        return hasher.hash().toString();
+    }
+
+    private static void putPlugins(final Hasher hasher, final Iterable<PluginConfig> plugins) {
+        // the order matters, policies are applied in the order they are defined
+        for (final PluginConfig plugin : plugins) {
+            put(hasher, plugin.getName());
+            put(hasher, plugin.getPluginClass());
+            for (final Map.Entry<String, String> parameter : new TreeMap<>(plugin.getParameterMap()).entrySet()) {
+                put(hasher, parameter.getKey());
+                put(hasher, parameter.getValue());
+            }
+            hasher.putInt(-1);
+        }
+        hasher.putInt(-1);
+    }
+
+    private static void putCategories(final Hasher hasher, final Iterable<RequisitionCategory> categories) {
+        for (final RequisitionCategory category : categories) {
+            put(hasher, category.getName());
+        }
+        hasher.putInt(-1);
+    }
+
+    private static void put(final Hasher hasher, final Object value) {
+        if (value == null) {
+            hasher.putInt(-1);
+        } else {
+            final String s = value.toString();
+            hasher.putInt(s.length()).putString(s, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Returns the id of the node the hash was applied to, or null if it wasn't applied yet.
+     */
+    public Integer getNodeId() {
+        return m_nodeId;
+    }
+
+    public String getContentHash() {
+        return m_contentHash;
+    }
+
+    public String getAddressingHash() {
+        return m_addressingHash;
+    }
+
+    public RequisitionNodeHash withNodeId(final Integer nodeId) {
+        return new RequisitionNodeHash(nodeId, m_contentHash, m_addressingHash);
+    }
+
+    public boolean hasSameContent(final RequisitionNodeHash other) {
+        return other != null && m_contentHash.equals(other.m_contentHash);
+    }
+
+    public boolean hasSameAddressing(final RequisitionNodeHash other) {
+        return other != null && m_addressingHash.equals(other.m_addressingHash);
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) return true;
+        if (obj == null || getClass() != obj.getClass()) return false;
+        final RequisitionNodeHash that = (RequisitionNodeHash) obj;
+        return Objects.equals(m_nodeId, that.m_nodeId)
+                && m_contentHash.equals(that.m_contentHash)
+                && m_addressingHash.equals(that.m_addressingHash);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(m_nodeId, m_contentHash, m_addressingHash);
+    }
+
+    @Override
+    public String toString() {
+        return "RequisitionNodeHash[nodeId=" + m_nodeId + ", content=" + m_contentHash + ", addressing=" + m_addressingHash + "]";
+    }
+}
@@ -58,6 +58,7 @@ public abstract class SaveOrUpdateOperation extends ImportOperation {
     
     private ScanManager m_scanManager;
     private String m_rescanExisting = Boolean.TRUE.toString();
+    private RequisitionNodeHash m_nodeHash;
 
     protected SaveOrUpdateOperation(Integer nodeId, String foreignSource, String foreignId, String nodeLabel, String location, String building, String city, ProvisionService provisionService, String rescanExisting) {
         super(provisionService);
@@ -180,10 +181,27 @@ public abstract class SaveOrUpdateOperation extends ImportOperation {
         return m_node;
     }
 
-    protected String getRescanExisting() {
+    public String getRescanExisting() {
         return m_rescanExisting;
     }
 
+    /**
+     * <p>getNodeHash</p>
+     *
+     * @return the hash of the requisitioned node, or null if the import doesn't track hashes
+     */
+    public RequisitionNodeHash getNodeHash() {
+        return m_nodeHash;
+    }
+
+    public void setNodeHash(final RequisitionNodeHash nodeHash) {
+        m_nodeHash = nodeHash;
+    }
+
+    public String getForeignId() {
+        return m_node.getForeignId();
+    }
+
     /**
      * <p>foundAsset</p>
      *
@@ -0,0 +1,217 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.provision.service.operations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.joda.time.Duration;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.test.MockLogAppender;
+import org.opennms.netmgt.model.PrimaryType;
+import org.opennms.netmgt.provision.persist.foreignsource.ForeignSource;
+import org.opennms.netmgt.provision.persist.foreignsource.PluginConfig;
+import org.opennms.netmgt.provision.persist.requisition.Requisition;
+import org.opennms.netmgt.provision.persist.requisition.RequisitionAsset;
+import org.opennms.netmgt.provision.persist.requisition.RequisitionCategory;
+import org.opennms.netmgt.provision.persist.requisition.RequisitionInterface;
+import org.opennms.netmgt.provision.persist.requisition.RequisitionMonitoredService;
+import org.opennms.netmgt.provision.persist.requisition.RequisitionNode;
+import org.opennms.netmgt.provision.service.ProvisionService;
+
+public class ImportOperationsManagerTest {
+
+    private ProvisionService m_provisionService;
+
+    @Before
+    public void setUp() {
+        MockLogAppender.setupLogging();
+        m_provisionService = mock(ProvisionService.class, RETURNS_DEEP_STUBS);
+    }
+
+    @Test
+    public void testNodeHash() {
+        final RequisitionNodeHash hash = RequisitionNodeHash.of(node("a", "10.0.0.1"));
+        assertEquals(hash, RequisitionNodeHash.of(node("a", "10.0.0.1")));
+
+        final RequisitionNode changedAsset = node("a", "10.0.0.1");
+        changedAsset.putAsset(new RequisitionAsset("building", "HQ"));
+        final RequisitionNodeHash changedAssetHash = RequisitionNodeHash.of(changedAsset);
+        assertFalse(hash.hasSameContent(changedAssetHash));
+        assertTrue(hash.hasSameAddressing(changedAssetHash));
+
+        final RequisitionNodeHash changedAddressHash = RequisitionNodeHash.of(node("a", "10.0.0.2"));
+        assertFalse(hash.hasSameContent(changedAddressHash));
+        assertFalse(hash.hasSameAddressing(changedAddressHash));
+    }
+
+    @Test
+    public void testForeignSourceHash() {
+        final String hash = RequisitionNodeHash.foreignSourceHash(foreignSource("10.0.0.0/8"));
+        assertEquals(hash, RequisitionNodeHash.foreignSourceHash(foreignSource("10.0.0.0/8")));
+        assertNotEquals(hash, RequisitionNodeHash.foreignSourceHash(foreignSource("192.168.0.0/16")));
+
+        final ForeignSource changedScanInterval = foreignSource("10.0.0.0/8");
+        changedScanInterval.setScanInterval(Duration.standardHours(1));
+        assertNotEquals(hash, RequisitionNodeHash.foreignSourceHash(changedScanInterval));
+    }
+
+    @Test
+    public void testFullImport() {
+        final ImportOperationsManager opsMgr = createOpsMgr("true");
+        opsMgr.auditNodes(requisition(node("a", "10.0.0.1"), node("b", "10.0.0.2"), node("e", "10.0.0.5")));
+
+        assertFalse(opsMgr.isDeltaImport());
+        assertEquals(0, opsMgr.getUnchangedCount());
+        assertEquals(2, opsMgr.getUpdateCount());
+        assertEquals(1, opsMgr.getInsertCount());
+        assertEquals(2, opsMgr.getDeleteCount());
+        assertEquals(3, opsMgr.getScanCount());
+    }
+
+    @Test
+    public void testDeltaImport() {
+        final RequisitionNode changedLabel = node("b", "10.0.0.2");
+        changedLabel.setNodeLabel("B");
+
+        final Map<String, RequisitionNodeHash> previous = new HashMap<>();
+        previous.put("a", RequisitionNodeHash.of(node("a", "10.0.0.1")).withNodeId(1));
+        previous.put("b", RequisitionNodeHash.of(node("b", "10.0.0.2")).withNodeId(2));
+        previous.put("c", RequisitionNodeHash.of(node("c", "10.0.0.3")).withNodeId(3));
+        // the node was re-created since its hash was stored
+        previous.put("d", RequisitionNodeHash.of(node("d", "10.0.0.4")).withNodeId(99));
+
+        final ImportOperationsManager opsMgr = createOpsMgr("true");
+        opsMgr.setPreviousNodeHashes(previous);
+        opsMgr.auditNodes(requisition(node("a", "10.0.0.1"), changedLabel, node("c", "10.0.0.30"), node("d", "10.0.0.4"), node("e", "10.0.0.5")));
+
+        assertTrue(opsMgr.isDeltaImport());
+        assertTrue(opsMgr.isUnchanged("a"));
+        assertFalse(opsMgr.isUnchanged("d"));
+        assertEquals(1, opsMgr.getUnchangedCount());
+        assertEquals(3, opsMgr.getUpdateCount());
+        assertEquals(1, opsMgr.getInsertCount());
+        assertEquals(0, opsMgr.getDeleteCount());
+        // only the insert and the nodes whose addresses changed, or whose hash is unknown, are scanned
+        assertEquals(3, opsMgr.getScanCount());
+
+        for (final ImportOperation op : opsMgr.getOperations()) {
+            if (op instanceof UpdateOperation && "b".equals(((UpdateOperation) op).getForeignId())) {
+                assertEquals("dbonly", ((UpdateOperation) op).getRescanExisting());
+            }
+            if (!(op instanceof UpdateOperation) || !"c".equals(((UpdateOperation) op).getForeignId())) {
+                op.persist();
+            }
+        }
+
+        final Map<String, RequisitionNodeHash> hashes = opsMgr.getNodeHashes();
+        assertEquals(previous.get("a"), hashes.get("a"));
+        assertEquals(RequisitionNodeHash.of(changedLabel).withNodeId(2), hashes.get("b"));
+        // the update of c wasn't persisted, so it must be applied again
+        assertEquals(previous.get("c"), hashes.get("c"));
+        assertEquals(Integer.valueOf(4), hashes.get("d").getNodeId());
+        // the insert didn't get a node ID from the mock
+        assertNull(hashes.get("e"));
+    }
+
+    @Test
+    public void testDeltaImportWithoutRescan() {
+        final RequisitionNode changedLabel = node("b", "10.0.0.2");
+        changedLabel.setNodeLabel("B");
+
+        final Map<String, RequisitionNodeHash> previous = new HashMap<>();
+        previous.put("b", RequisitionNodeHash.of(node("b", "10.0.0.2")).withNodeId(2));
+
+        final ImportOperationsManager opsMgr = createOpsMgr("false");
+        opsMgr.setPreviousNodeHashes(previous);
+        opsMgr.auditNodes(requisition(changedLabel));
+
+        for (final ImportOperation op : opsMgr.getOperations()) {
+            op.persist();
+        }
+
+        // the changes aren't applied with rescanExisting=false, so keep the old hash
+        final RequisitionNodeHash hash = opsMgr.getNodeHashes().get("b");
+        assertEquals(previous.get("b"), hash);
+        assertNotEquals(RequisitionNodeHash.of(changedLabel).getContentHash(), hash.getContentHash());
+        assertEquals(0, opsMgr.getScanCount());
+    }
+
+    private ImportOperationsManager createOpsMgr(final String rescanExisting) {
+        final Map<String, Integer> foreignIdToNodeId = new HashMap<>();
+        foreignIdToNodeId.put("a", 1);
+        foreignIdToNodeId.put("b", 2);
+        foreignIdToNodeId.put("c", 3);
+        foreignIdToNodeId.put("d", 4);
+        final ImportOperationsManager opsMgr = new ImportOperationsManager(foreignIdToNodeId, m_provisionService, rescanExisting);
+        opsMgr.setForeignSource("test");
+        return opsMgr;
+    }
+
+    private static Requisition requisition(final RequisitionNode... nodes) {
+        final Requisition requisition = new Requisition("test");
+        for (final RequisitionNode node : nodes) {
+            requisition.putNode(node);
+        }
+        return requisition;
+    }
+
+    private static ForeignSource foreignSource(final String matchIpAddress) {
+        final ForeignSource foreignSource = new ForeignSource("test");
+        foreignSource.addDetector(new PluginConfig("ICMP", "org.opennms.netmgt.provision.detector.icmp.IcmpDetector"));
+        final PluginConfig policy = new PluginConfig("noDiscoverOutside", "org.opennms.netmgt.provision.persist.policies.MatchingIpInterfacePolicy");
+        policy.addParameter("action", "DO_NOT_PERSIST");
+        policy.addParameter("matchBehavior", "NO_PARAMETERS");
+        policy.addParameter("ipAddress", "~" + matchIpAddress);
+        foreignSource.addPolicy(policy);
+        return foreignSource;
+    }
+
+    private static RequisitionNode node(final String foreignId, final String ipAddr) {
+        final RequisitionNode node = new RequisitionNode();
+        node.setForeignId(foreignId);
+        node.setNodeLabel(foreignId);
+        final RequisitionInterface iface = new RequisitionInterface();
+        iface.setIpAddr(ipAddr);
+        iface.setSnmpPrimary(PrimaryType.PRIMARY);
+        iface.putMonitoredService(new RequisitionMonitoredService("ICMP"));
+        node.putInterface(iface);
+        node.putCategory(new RequisitionCategory("Servers"));
+        return node;
+    }
+}
@@ -39,6 +39,11 @@ import org.opennms.core.utils.PropertiesCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
 /**
  * Provides static methods for interacting with .meta files.
  */
@@ -46,6 +51,18 @@ public abstract class RrdMetaDataUtils {
     private static final Logger LOG = LoggerFactory.getLogger(RrdMetaDataUtils.class);
     private static PropertiesCache s_cache = new PropertiesCache();
 
+    public static final String WRITTEN_CACHE_SIZE = "org.opennms.rrd.metadata.writtenCacheSize";
+    public static final int DEFAULT_WRITTEN_CACHE_SIZE = 100000;
+
+    /**
+     * The mappings last written to the meta data files. The mappings are interned since
+     * most of the files share the same mappings.
+     */
+    private static final Cache<String, Map<String, String>> s_written = CacheBuilder.newBuilder()
+            .maximumSize(Integer.getInteger(WRITTEN_CACHE_SIZE, DEFAULT_WRITTEN_CACHE_SIZE))
+            .build();
+    private static final Interner<Map<String, String>> s_mappings = Interners.newWeakInterner();
+
     /**
      * Writes a file with the attribute to rrd track mapping next to the rrd file.
      *
@@ -60,14 +77,24 @@ public abstract class RrdMetaDataUtils {
     public static void createMetaDataFile(final String directory, final String rrdName, final Map<String, String> attributeMappings) {
         final File metaFile = new File(directory + File.separator + rrdName + ".meta");
 
+        // Skip the file entirely if we already wrote the same mappings to it
+        final boolean exists = metaFile.exists();
+        if (exists && attributeMappings != null && attributeMappings.equals(s_written.getIfPresent(metaFile.getPath()))) {
+            LOG.debug("createMetaDataFile: meta data file {} is up to date", metaFile);
+            return;
+        }
+
         LOG.info("createMetaDataFile: creating meta data file {} with values '{}'", metaFile, attributeMappings);
 
         try {
-            if (metaFile.exists()) {
+            if (exists) {
                 s_cache.updateProperties(metaFile, attributeMappings);
             } else {
                 s_cache.saveProperties(metaFile, attributeMappings);
             }
+            if (attributeMappings != null) {
+                s_written.put(metaFile.getPath(), s_mappings.intern(Collections.unmodifiableMap(new HashMap<>(attributeMappings))));
+            }
         } catch (final IOException e) {
             LOG.error("Failed to save metadata file {}", metaFile, e);
         }
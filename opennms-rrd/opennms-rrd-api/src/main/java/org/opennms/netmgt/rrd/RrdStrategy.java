@@ -124,6 +124,29 @@ public interface RrdStrategy<D extends Object,F extends Object> {
      */
     public void updateFile(F rrd, String owner, String data) throws Exception;
 
+    /**
+     * Updates the supplied round robin database with the given values.
+     *
+     * Strategies which can store numeric values directly should override this
+     * method to avoid formatting and parsing the values. By default, the values
+     * are formatted and passed to {@link #updateFile(Object, String, String)}.
+     *
+     * @param rrd
+     *            an rrd object created using openFile
+     * @param owner
+     *            the owner of the rrd
+     * @param timestamp
+     *            the timestamp of the update in seconds
+     * @param values
+     *            the values of the update in the order of the data sources,
+     *            null or non-finite values are unknown
+     * @throws java.lang.Exception
+     *             if an error occurs updating the file
+     */
+    public default void updateFile(F rrd, String owner, long timestamp, Number[] values) throws Exception {
+        updateFile(rrd, owner, RrdUtils.formatUpdate(timestamp, values));
+    }
+
     /**
      * This closes the supplied round robin database
      *
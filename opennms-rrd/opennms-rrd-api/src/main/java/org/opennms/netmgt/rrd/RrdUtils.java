@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd;
+
+import java.text.NumberFormat;
+import java.util.Locale;
+
+/**
+ * Provides static methods for formatting the values of round robin database updates.
+ */
+public abstract class RrdUtils {
+
+    /**
+     * Formats a single value of an update, using "U" for unknown values.
+     *
+     * @param num the value, may be null
+     * @return the formatted value
+     */
+    public static String formatValue(final Number num) {
+        if (num == null) {
+            return "U";
+        }
+
+        if (!Double.isFinite(num.doubleValue())) {
+            return "U";
+        }
+
+        final NumberFormat nf = NumberFormat.getInstance(Locale.US);
+        nf.setGroupingUsed(false);
+        nf.setMinimumFractionDigits(0);
+        nf.setMaximumFractionDigits(Integer.MAX_VALUE);
+        nf.setMinimumIntegerDigits(0);
+        nf.setMaximumIntegerDigits(Integer.MAX_VALUE);
+        return nf.format(num);
+    }
+
+    /**
+     * Formats an update as a string of the form &lt;timestamp&gt;:&lt;value&gt;[:&lt;value&gt;...]
+     *
+     * @param timestamp the timestamp of the update in seconds
+     * @param values the values of the update, in the order of the data sources
+     * @return the formatted update
+     */
+    public static String formatUpdate(final long timestamp, final Number[] values) {
+        final StringBuilder update = new StringBuilder();
+        update.append(timestamp);
+        for (final Number value : values) {
+            update.append(':').append(formatValue(value));
+        }
+        return update.toString();
+    }
+
+    /**
+     * Converts the value of an update to a double, using NaN for unknown values.
+     *
+     * @param num the value, may be null
+     * @return the value as a double
+     */
+    public static double toDouble(final Number num) {
+        if (num == null || !Double.isFinite(num.doubleValue())) {
+            return Double.NaN;
+        }
+        return num.doubleValue();
+    }
+}
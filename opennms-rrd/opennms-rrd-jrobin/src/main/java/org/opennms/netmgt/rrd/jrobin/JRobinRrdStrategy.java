@@ -42,6 +42,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.jrobin.core.FetchData;
 import org.jrobin.core.RrdDb;
@@ -55,8 +58,16 @@ import org.jrobin.graph.RrdGraphDef;
 import org.opennms.netmgt.rrd.RrdDataSource;
 import org.opennms.netmgt.rrd.RrdGraphDetails;
 import org.opennms.netmgt.rrd.RrdStrategy;
+import org.opennms.netmgt.rrd.RrdUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
 
 
 /**
@@ -64,13 +75,19 @@ import org.slf4j.LoggerFactory;
  * FILE mode (NIO is too memory consuming for the large number of files that we
  * open)
  *
+ * Optionally keeps the most recently updated files open in a {@link RrdDbHandleCache},
+ * so that their headers don't have to be parsed again on every update.
+ *
  * @author ranger
  * @version $Id: $
  */
-public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
+public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb>, DisposableBean {
     private static final Logger LOG = LoggerFactory.getLogger(JRobinRrdStrategy.class);
     private static final String BACKEND_FACTORY_PROPERTY = "org.jrobin.core.RrdBackendFactory";
     private static final String DEFAULT_BACKEND_FACTORY = "FILE";
+    private static final String HANDLE_CACHE_SIZE_PROPERTY = "org.opennms.rrd.jrobin.handleCache.size";
+    private static final String HANDLE_CACHE_MAX_IDLE_PROPERTY = "org.opennms.rrd.jrobin.handleCache.maxIdle";
+    private static final long DEFAULT_HANDLE_CACHE_MAX_IDLE = 300;
 
     /*
      * Ensure that we only initialize certain things *once* per
@@ -80,6 +97,13 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
 
     private Properties m_configurationProperties;
 
+    private final MetricRegistry m_metrics = new MetricRegistry();
+    private final Meter m_updates = m_metrics.meter("updates");
+    private JmxReporter m_jmxReporter;
+
+    private RrdDbHandleCache m_handleCache;
+    private ScheduledExecutorService m_handleCacheFlusher;
+
     /**
      * An extremely simple Plottable for holding static datasources that
      * can't be represented with an SDEF -- currently used only for PERCENT
@@ -136,6 +160,88 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
                 LOG.error("Could not set default JRobin RRD factory", e);
             }
         }
+        configureHandleCache();
+
+        if (m_jmxReporter == null) {
+            m_jmxReporter = JmxReporter.forRegistry(m_metrics)
+                    .inDomain(getClass().getPackage().getName())
+                    .build();
+            m_jmxReporter.start();
+        }
+    }
+
+    private synchronized void configureHandleCache() {
+        closeHandleCache();
+
+        final int size = Integer.parseInt(getConfigurationProperty(HANDLE_CACHE_SIZE_PROPERTY, "0"));
+        if (size <= 0) {
+            return;
+        }
+        if ("SAFE".equals(RrdDb.getDefaultFactory().getFactoryName())) {
+            // The SAFE backend locks the files for as long as they are open
+            LOG.warn("The RRD handle cache can not be used with the SAFE backend, disabling it.");
+            return;
+        }
+
+        final long maxIdle = Long.parseLong(getConfigurationProperty(HANDLE_CACHE_MAX_IDLE_PROPERTY, Long.toString(DEFAULT_HANDLE_CACHE_MAX_IDLE)));
+        LOG.info("Caching up to {} open RRD files, which are closed after being idle for {} seconds.", size, maxIdle);
+        final RrdDbHandleCache handleCache = new RrdDbHandleCache(size, m_metrics);
+
+        m_handleCacheFlusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "JRobinRrdStrategy-HandleCacheFlusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final long interval = Math.max(1, maxIdle / 2);
+        m_handleCacheFlusher.scheduleWithFixedDelay(() -> handleCache.closeIdle(TimeUnit.SECONDS.toMillis(maxIdle)), interval, interval, TimeUnit.SECONDS);
+
+        if (!m_metrics.getGauges().containsKey(MetricRegistry.name("handle-cache", "size"))) {
+            m_metrics.register(MetricRegistry.name("handle-cache", "size"), new Gauge<Integer>() {
+                @Override
+                public Integer getValue() {
+                    final RrdDbHandleCache cache = m_handleCache;
+                    return cache != null ? cache.size() : 0;
+                }
+            });
+            final Meter hits = m_metrics.meter(MetricRegistry.name("handle-cache", "hits"));
+            final Meter misses = m_metrics.meter(MetricRegistry.name("handle-cache", "misses"));
+            m_metrics.register(MetricRegistry.name("handle-cache", "hit-ratio"), new RatioGauge() {
+                @Override
+                protected Ratio getRatio() {
+                    return Ratio.of(hits.getFiveMinuteRate(), hits.getFiveMinuteRate() + misses.getFiveMinuteRate());
+                }
+            });
+        }
+
+        m_handleCache = handleCache;
+    }
+
+    private synchronized void closeHandleCache() {
+        if (m_handleCacheFlusher != null) {
+            m_handleCacheFlusher.shutdownNow();
+            m_handleCacheFlusher = null;
+        }
+        if (m_handleCache != null) {
+            m_handleCache.close();
+            m_handleCache = null;
+        }
+    }
+
+    private String getConfigurationProperty(final String name, final String defaultValue) {
+        final String value = m_configurationProperties == null ? null : m_configurationProperties.getProperty(name);
+        return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+    }
+
+    /**
+     * Closes all of the cached RRD files.
+     */
+    @Override
+    public void destroy() {
+        closeHandleCache();
+        if (m_jmxReporter != null) {
+            m_jmxReporter.stop();
+            m_jmxReporter = null;
+        }
     }
 
     /**
@@ -146,7 +252,12 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
      */
     @Override
     public void closeFile(final RrdDb rrdFile) throws Exception {
-        rrdFile.close();
+        final RrdDbHandleCache handleCache = m_handleCache;
+        if (handleCache != null) {
+            handleCache.release(rrdFile);
+        } else {
+            rrdFile.close();
+        }
     }
 
     /** {@inheritDoc} */
@@ -201,6 +312,12 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
         }
         LOG.info("createRRD: creating RRD file {}", rrdDef.getPath());
 
+        // The file didn't exist, so any handle we may still have refers to a deleted file
+        final RrdDbHandleCache handleCache = m_handleCache;
+        if (handleCache != null) {
+            handleCache.invalidate(rrdDef.getPath());
+        }
+
         RrdDb rrd = new RrdDb(rrdDef);
         rrd.close();
     }
@@ -212,6 +329,10 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
      */
     @Override
     public RrdDb openFile(final String fileName) throws Exception {
+        final RrdDbHandleCache handleCache = m_handleCache;
+        if (handleCache != null) {
+            return handleCache.acquire(fileName);
+        }
         return new RrdDb(fileName);
     }
 
@@ -224,6 +345,20 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
     public void updateFile(final RrdDb rrdFile, final String owner, final String data) throws Exception {
         Sample sample = rrdFile.createSample();
         sample.setAndUpdate(data);
+        m_updates.mark();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void updateFile(final RrdDb rrdFile, final String owner, final long timestamp, final Number[] values) throws Exception {
+        final double[] doubles = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            doubles[i] = RrdUtils.toDouble(values[i]);
+        }
+        Sample sample = rrdFile.createSample(timestamp);
+        sample.setValues(doubles);
+        sample.update();
+        m_updates.mark();
     }
 
     /**
@@ -866,7 +1001,13 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
      */
     @Override
     public String getStats() {
-        return "";
+        final RrdDbHandleCache handleCache = m_handleCache;
+        if (handleCache == null) {
+            return String.format("updates/sec: %.2f", m_updates.getOneMinuteRate());
+        }
+        return String.format("updates/sec: %.2f, open handles: %d, handle cache hit ratio: %.2f",
+                m_updates.getOneMinuteRate(), handleCache.size(),
+                m_metrics.getGauges().get(MetricRegistry.name("handle-cache", "hit-ratio")).getValue());
     }
 
     /*
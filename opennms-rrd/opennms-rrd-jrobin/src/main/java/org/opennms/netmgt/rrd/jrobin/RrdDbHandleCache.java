@@ -0,0 +1,233 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Keeps the most recently used {@link RrdDb} handles open, so that updates don't have to
+ * open the file and parse its header every time.
+ *
+ * Handles are reference counted: a handle which is evicted while it is in use is only
+ * closed once it is released. Handles are closed, and thereby flushed, when they are
+ * evicted, when they weren't used for longer than the configured idle time and when
+ * the cache is closed.
+ */
+public class RrdDbHandleCache {
+    private static final Logger LOG = LoggerFactory.getLogger(RrdDbHandleCache.class);
+
+    private static class Handle {
+        private final String m_path;
+        private final RrdDb m_rrdDb;
+        private int m_references = 0;
+        private long m_lastAccess;
+        private boolean m_evicted = false;
+
+        private Handle(String path, RrdDb rrdDb) {
+            m_path = path;
+            m_rrdDb = rrdDb;
+        }
+    }
+
+    private final int m_maxSize;
+
+    /**
+     * The cached handles by path, least recently used first. Guarded by this.
+     */
+    private final LinkedHashMap<String, Handle> m_handles = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * All handles which were acquired and not yet closed, including evicted ones. Guarded by this.
+     */
+    private final Map<RrdDb, Handle> m_acquired = new IdentityHashMap<>();
+
+    private final Meter m_hits;
+    private final Meter m_misses;
+
+    public RrdDbHandleCache(int maxSize, MetricRegistry registry) {
+        m_maxSize = maxSize;
+        m_hits = registry.meter(MetricRegistry.name("handle-cache", "hits"));
+        m_misses = registry.meter(MetricRegistry.name("handle-cache", "misses"));
+    }
+
+    /**
+     * Returns an open handle for the given file, which must be {@link #release(RrdDb) released}
+     * after use instead of being closed.
+     */
+    public RrdDb acquire(final String path) throws IOException, RrdException {
+        synchronized (this) {
+            final Handle handle = m_handles.get(path);
+            if (handle != null) {
+                m_hits.mark();
+                handle.m_references++;
+                handle.m_lastAccess = System.currentTimeMillis();
+                return handle.m_rrdDb;
+            }
+        }
+        m_misses.mark();
+
+        // Don't block the other threads while we're opening the file
+        final RrdDb rrdDb = new RrdDb(path);
+
+        final List<Handle> toClose = new ArrayList<>();
+        final Handle handle;
+        synchronized (this) {
+            final Handle existing = m_handles.get(path);
+            if (existing != null) {
+                // Another thread opened the file in the meantime, use its handle instead
+                toClose.add(new Handle(path, rrdDb));
+                handle = existing;
+            } else {
+                handle = new Handle(path, rrdDb);
+                m_handles.put(path, handle);
+                m_acquired.put(rrdDb, handle);
+                evict(toClose);
+            }
+            handle.m_references++;
+            handle.m_lastAccess = System.currentTimeMillis();
+        }
+        close(toClose);
+        return handle.m_rrdDb;
+    }
+
+    /**
+     * Releases a handle returned by {@link #acquire(String)}.
+     */
+    public void release(final RrdDb rrdDb) throws IOException {
+        synchronized (this) {
+            final Handle handle = m_acquired.get(rrdDb);
+            if (handle != null) {
+                handle.m_references--;
+                if (!handle.m_evicted || handle.m_references > 0) {
+                    return;
+                }
+                m_acquired.remove(rrdDb);
+            }
+        }
+        // The handle was evicted while in use, or isn't ours
+        rrdDb.close();
+    }
+
+    /**
+     * Evicts the handle of the given file, i.e. because the file is being re-created.
+     */
+    public void invalidate(final String path) {
+        final List<Handle> toClose = new ArrayList<>();
+        synchronized (this) {
+            final Handle handle = m_handles.remove(path);
+            if (handle != null) {
+                markEvicted(handle, toClose);
+            }
+        }
+        close(toClose);
+    }
+
+    /**
+     * Closes the handles which weren't used within the given time.
+     */
+    public void closeIdle(final long maxIdleMs) {
+        final long threshold = System.currentTimeMillis() - maxIdleMs;
+        final List<Handle> toClose = new ArrayList<>();
+        synchronized (this) {
+            for (Iterator<Handle> it = m_handles.values().iterator(); it.hasNext();) {
+                final Handle handle = it.next();
+                if (handle.m_lastAccess >= threshold) {
+                    // The remaining handles were used more recently
+                    break;
+                }
+                if (handle.m_references == 0) {
+                    it.remove();
+                    markEvicted(handle, toClose);
+                }
+            }
+        }
+        if (!toClose.isEmpty()) {
+            LOG.debug("Closing {} idle RRD handles.", toClose.size());
+        }
+        close(toClose);
+    }
+
+    /**
+     * Evicts all of the handles. Handles which are in use are closed once they are released.
+     */
+    public void close() {
+        final List<Handle> toClose = new ArrayList<>();
+        synchronized (this) {
+            for (Handle handle : m_handles.values()) {
+                markEvicted(handle, toClose);
+            }
+            m_handles.clear();
+        }
+        close(toClose);
+    }
+
+    public synchronized int size() {
+        return m_handles.size();
+    }
+
+    private void evict(final List<Handle> toClose) {
+        for (Iterator<Handle> it = m_handles.values().iterator(); it.hasNext() && m_handles.size() > m_maxSize;) {
+            final Handle handle = it.next();
+            it.remove();
+            markEvicted(handle, toClose);
+        }
+    }
+
+    private void markEvicted(final Handle handle, final List<Handle> toClose) {
+        handle.m_evicted = true;
+        if (handle.m_references == 0) {
+            m_acquired.remove(handle.m_rrdDb);
+            toClose.add(handle);
+        }
+    }
+
+    private static void close(final List<Handle> handles) {
+        for (Handle handle : handles) {
+            try {
+                handle.m_rrdDb.close();
+            } catch (IOException e) {
+                LOG.warn("Failed to close RRD file {}.", handle.m_path, e);
+            }
+        }
+    }
+}
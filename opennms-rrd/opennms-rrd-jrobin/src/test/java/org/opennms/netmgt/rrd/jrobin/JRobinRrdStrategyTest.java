@@ -31,6 +31,8 @@ package org.opennms.netmgt.rrd.jrobin;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
@@ -38,6 +40,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
+import java.util.Properties;
 
 import org.jrobin.core.RrdDb;
 import org.jrobin.core.RrdDef;
@@ -86,6 +89,7 @@ public class JRobinRrdStrategyTest {
 
     @After
     public void tearDown() throws Exception {
+        ((JRobinRrdStrategy) m_strategy).destroy();
         if (m_fileAnticipator.isInitialized()) {
             m_fileAnticipator.deleteExpected();
         }
@@ -175,6 +179,76 @@ public class JRobinRrdStrategyTest {
         m_strategy.closeFile(openedFile);
     }
 
+    @Test
+    public void testNumericUpdate() throws Exception {
+        File rrdFile = createRrdFile();
+        long now = System.currentTimeMillis() / 1000L;
+
+        RrdDb openedFile = m_strategy.openFile(rrdFile.getAbsolutePath());
+        m_strategy.updateFile(openedFile, "huh?", now - 300, new Number[] { 1.5d });
+        m_strategy.updateFile(openedFile, "huh?", now, new Number[] { 2L });
+        m_strategy.closeFile(openedFile);
+
+        RrdDb rrd = new RrdDb(rrdFile.getAbsolutePath(), true);
+        try {
+            assertEquals(now, rrd.getLastUpdateTime());
+            assertEquals(2.0d, rrd.getDatasource("bar").getLastValue(), 0.0d);
+        } finally {
+            rrd.close();
+        }
+    }
+
+    @Test
+    public void testNumericUpdateWithUnknownValues() throws Exception {
+        File rrdFile = createRrdFile();
+        long now = System.currentTimeMillis() / 1000L;
+
+        RrdDb openedFile = m_strategy.openFile(rrdFile.getAbsolutePath());
+        m_strategy.updateFile(openedFile, "huh?", now, new Number[] { Double.POSITIVE_INFINITY });
+        m_strategy.closeFile(openedFile);
+
+        RrdDb rrd = new RrdDb(rrdFile.getAbsolutePath(), true);
+        try {
+            assertTrue(Double.isNaN(rrd.getDatasource("bar").getLastValue()));
+        } finally {
+            rrd.close();
+        }
+    }
+
+    @Test
+    public void testHandleCache() throws Exception {
+        Properties props = new Properties();
+        props.setProperty("org.opennms.rrd.jrobin.handleCache.size", "10");
+        m_strategy.setConfigurationProperties(props);
+
+        File rrdFile = createRrdFile();
+        long now = System.currentTimeMillis() / 1000L;
+
+        // The handle is kept open and reused
+        RrdDb openedFile = m_strategy.openFile(rrdFile.getAbsolutePath());
+        m_strategy.updateFile(openedFile, "huh?", now - 300, new Number[] { 1 });
+        m_strategy.closeFile(openedFile);
+
+        RrdDb reopenedFile = m_strategy.openFile(rrdFile.getAbsolutePath());
+        assertSame(openedFile, reopenedFile);
+        assertFalse(reopenedFile.isClosed());
+        m_strategy.updateFile(reopenedFile, "huh?", now, new Number[] { 2 });
+        m_strategy.closeFile(reopenedFile);
+        assertFalse(reopenedFile.isClosed());
+
+        // Re-creating the file must not reuse the handle of the deleted file
+        assertTrue(rrdFile.delete());
+        createRrd("foo");
+        assertTrue(openedFile.isClosed());
+        RrdDb recreatedFile = m_strategy.openFile(rrdFile.getAbsolutePath());
+        assertNotSame(openedFile, recreatedFile);
+        m_strategy.closeFile(recreatedFile);
+
+        // All of the handles are closed on shutdown
+        ((JRobinRrdStrategy) m_strategy).destroy();
+        assertTrue(recreatedFile.isClosed());
+    }
+
     @Test
     public void testSampleSetFloatingPointValueGood() throws Exception {
         File rrdFile = createRrdFile();
@@ -524,13 +598,17 @@ public class JRobinRrdStrategyTest {
         m_fileAnticipator.initialize();
         String rrdExtension = m_strategy.getDefaultFileExtension();
         
+        createRrd(rrdFileBase);
+        
+        return m_fileAnticipator.expecting(rrdFileBase + rrdExtension);
+    }
+
+    private void createRrd(String rrdFileBase) throws Exception {
         List<RrdDataSource> dataSources = new ArrayList<>();
         dataSources.add(new RrdDataSource("bar", RrdAttributeType.GAUGE, 3000, "U", "U"));
         List<String> rraList = new ArrayList<>();
         rraList.add("RRA:AVERAGE:0.5:1:2016");
         RrdDef def = m_strategy.createDefinition("hello!", m_fileAnticipator.getTempDir().getAbsolutePath(), rrdFileBase, 300, dataSources, rraList);
         m_strategy.createFile(def);
-        
-        return m_fileAnticipator.expecting(rrdFileBase + rrdExtension);
     }
 }
@@ -0,0 +1,58 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rtc;
+
+import java.net.InetAddress;
+
+/**
+ * Receives the changes to the nodes, services and outages which affect the
+ * availability of the categories.
+ *
+ * The {@link BroadcastEventProcessor} hands the events off to the
+ * {@link DataUpdater}s, which call the corresponding methods.
+ */
+public interface AvailabilityListener {
+
+    void nodeGainedService(int nodeid, InetAddress ip, String svcName);
+
+    void outageCreated(int nodeid, InetAddress ip, String svcName, long t);
+
+    void outageResolved(int nodeid, InetAddress ip, String svcName, long t);
+
+    void serviceDeleted(int nodeid, InetAddress ip, String svcName);
+
+    void interfaceReparented(InetAddress ip, int oldNodeId, int newNodeId);
+
+    void assetInfoChanged(int nodeid);
+
+    void nodeCategoryMembershipChanged(int nodeid);
+
+    void nodeDeleted(int nodeid);
+
+}
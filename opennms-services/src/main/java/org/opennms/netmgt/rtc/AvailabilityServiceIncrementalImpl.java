@@ -0,0 +1,552 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rtc;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.opennms.core.criteria.CriteriaBuilder;
+import org.opennms.core.criteria.restrictions.GtRestriction;
+import org.opennms.core.criteria.restrictions.NullRestriction;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.dao.api.MonitoredServiceDao;
+import org.opennms.netmgt.dao.api.OutageDao;
+import org.opennms.netmgt.events.api.EventConstants;
+import org.opennms.netmgt.filter.api.FilterDao;
+import org.opennms.netmgt.model.OnmsMonitoredService;
+import org.opennms.netmgt.model.OnmsOutage;
+import org.opennms.netmgt.rtc.datablock.RTCCategory;
+import org.opennms.netmgt.rtc.datablock.RTCNodeKey;
+import org.opennms.netmgt.xml.rtc.Category;
+import org.opennms.netmgt.xml.rtc.EuiLevel;
+import org.opennms.netmgt.xml.rtc.Header;
+import org.opennms.netmgt.xml.rtc.Node;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * This implementation of the {@link AvailabilityService} keeps the managed
+ * services and their outages in memory, instead of querying the database
+ * every time the availability of a category is calculated.
+ *
+ * The services and the outages affecting the rolling window are read from the
+ * database once, when the availability is requested for the first time. After
+ * that, the outages are updated with the outageCreated and outageResolved events,
+ * and only the affected nodes are reloaded from the database when their services
+ * or interfaces change. The nodes in the categories are determined by evaluating
+ * the category rules once and are then updated for the nodes which changed.
+ *
+ * The values are the same as the ones calculated by the {@link AvailabilityServiceHibernateImpl}.
+ *
+ * @see AvailabilityServiceHibernateImpl
+ */
+public class AvailabilityServiceIncrementalImpl implements AvailabilityService, AvailabilityListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AvailabilityServiceIncrementalImpl.class);
+
+    private static final long ROLLING_WINDOW = 24L * 60L * 60L * 1000L;
+
+    @Autowired
+    private FilterDao m_filterDao;
+
+    @Autowired
+    private MonitoredServiceDao m_monitoredServiceDao;
+
+    @Autowired
+    private OutageDao m_outageDao;
+
+    @Autowired
+    private TransactionTemplate m_transactionTemplate;
+
+    /**
+     * The outages of the managed services, by node id
+     */
+    private final Map<Integer, Map<RTCNodeKey, List<Outage>>> m_services = new HashMap<>();
+
+    /**
+     * The nodes in the categories, by category label
+     */
+    private final Map<String, CategoryNodes> m_categoryNodes = new HashMap<>();
+
+    private boolean m_loaded = false;
+
+    /**
+     * An outage of a service, which is open until the service is regained.
+     */
+    private static class Outage {
+        private final long m_lostAt;
+        private long m_regainedAt;
+
+        private Outage(long lostAt, long regainedAt) {
+            m_lostAt = lostAt;
+            m_regainedAt = regainedAt;
+        }
+
+        private boolean isOpen() {
+            return m_regainedAt < 0;
+        }
+    }
+
+    /**
+     * The number of services of a node in a category, along with their outages.
+     */
+    private static class NodeServices {
+        private final int m_numServices;
+        private final List<Outage> m_outages;
+
+        private NodeServices(int numServices, List<Outage> outages) {
+            m_numServices = numServices;
+            m_outages = outages;
+        }
+    }
+
+    /**
+     * The nodes in a category, sorted by node id.
+     */
+    private static class CategoryNodes {
+        private final RTCCategory m_category;
+        private final String m_rule;
+        private final List<String> m_serviceNames;
+        private final SortedMap<Integer, NodeServices> m_nodes = new TreeMap<>();
+
+        private CategoryNodes(RTCCategory category) {
+            m_category = category;
+            m_rule = category.getEffectiveRule();
+            m_serviceNames = getServiceNames(category);
+        }
+
+        private boolean matches(RTCCategory category) {
+            return Objects.equals(m_rule, category.getEffectiveRule()) && m_serviceNames.equals(getServiceNames(category));
+        }
+
+        private static List<String> getServiceNames(RTCCategory category) {
+            return category.getServices() == null ? Collections.emptyList() : new ArrayList<>(category.getServices());
+        }
+
+        private boolean containsService(String svcName) {
+            return m_serviceNames.isEmpty() || m_serviceNames.contains(svcName);
+        }
+    }
+
+    /**
+     * Builds a map of configured categories, keyed by label.
+     *
+     * @return the categories
+     */
+    @Override
+    public Map<String, RTCCategory> getCategories() {
+        return RTCUtils.createCategoriesMap();
+    }
+
+    @Override
+    public synchronized EuiLevel getEuiLevel(RTCCategory category) {
+        if (!m_loaded) {
+            load();
+        }
+
+        final Header header = new Header();
+        header.setVer("1.9a");
+        header.setMstation("");
+
+        // current time
+        final Date curDate = new Date();
+        final long curTime = curDate.getTime();
+
+        LOG.debug("Calculating availability statistics for {} with current date: {} and rolling window: {}",
+                category.getLabel(), curDate, ROLLING_WINDOW);
+
+        // create the data
+        final EuiLevel level = new EuiLevel();
+
+        // set created in m_header and add to level
+        header.setCreated(EventConstants.formatToString(curDate));
+        level.setHeader(header);
+
+        final Category levelCat = new Category();
+
+        // category label
+        levelCat.setCatlabel(category.getLabel());
+
+        double outageTimeInCategory = 0.0;
+        int numServicesInCategory = 0;
+
+        // window bounds
+        final long windowStart = curTime - ROLLING_WINDOW;
+        final long windowEnd = curTime;
+
+        final CategoryNodes categoryNodes = getCategoryNodes(category);
+
+        // Keep the list of nodes contained inside the RTCCategory up to date
+        category.clearNodes();
+        category.addAllNodes(categoryNodes.m_nodes.keySet());
+
+        // calculate the node level statistics
+        for (final Map.Entry<Integer, NodeServices> entry : categoryNodes.m_nodes.entrySet()) {
+            final NodeServices nodeServices = entry.getValue();
+
+            // sum the outage time
+            final double outageTime = getOutageTimeInWindow(nodeServices.m_outages, windowStart, windowEnd);
+
+            // count the number of outstanding outages
+            long numServicesDown = 0;
+            for (final Outage outage : nodeServices.m_outages) {
+                if (outage.isOpen() && isInWindow(outage, windowStart, windowEnd)) {
+                    numServicesDown++;
+                }
+            }
+
+            final Node levelNode = new Node();
+            levelNode.setNodeid(entry.getKey());
+
+            // value for this node for this category
+            levelNode.setNodevalue(RTCUtils.getOutagePercentage(outageTime, ROLLING_WINDOW, nodeServices.m_numServices));
+
+            // node service count
+            levelNode.setNodesvccount(nodeServices.m_numServices);
+
+            // node service down count
+            levelNode.setNodesvcdowncount(numServicesDown);
+
+            // add the node
+            levelCat.getNode().add(levelNode);
+
+            // update the category statistics
+            numServicesInCategory += nodeServices.m_numServices;
+            outageTimeInCategory += outageTime;
+        }
+
+        // calculate the outage percentage using tallied values
+        levelCat.setCatvalue(RTCUtils.getOutagePercentage(outageTimeInCategory, ROLLING_WINDOW, numServicesInCategory));
+
+        // add category
+        level.getCategory().add(levelCat);
+
+        LOG.debug("Done calculating availability statistics for {} with {} services.", category.getLabel(), numServicesInCategory);
+
+        return level;
+    }
+
+    @Override
+    public synchronized void nodeGainedService(int nodeid, InetAddress ip, String svcName) {
+        if (!m_loaded) {
+            return;
+        }
+        // The category rules may depend on the services of the node
+        reloadNode(nodeid);
+        updateCategoryMembership(nodeid);
+    }
+
+    @Override
+    public synchronized void outageCreated(int nodeid, InetAddress ip, String svcName, long t) {
+        if (!m_loaded) {
+            return;
+        }
+
+        final List<Outage> outages = getOutages(nodeid, ip, svcName);
+        if (outages == null) {
+            LOG.debug("Received an outageCreated event for an unknown service: {}/{}/{}. Reloading the node.", nodeid, InetAddressUtils.str(ip), svcName);
+            reloadNode(nodeid);
+            return;
+        }
+
+        // The events may be handled out of order, ignore the outages we already know about
+        for (final Outage outage : outages) {
+            if (outage.isOpen() || outage.m_regainedAt >= t) {
+                LOG.debug("Ignoring outageCreated event for {}/{}/{} at {}, which is already known.", nodeid, InetAddressUtils.str(ip), svcName, t);
+                return;
+            }
+        }
+
+        removeOutagesBefore(outages, System.currentTimeMillis() - ROLLING_WINDOW);
+        outages.add(new Outage(t, -1));
+        updateNode(nodeid);
+    }
+
+    @Override
+    public synchronized void outageResolved(int nodeid, InetAddress ip, String svcName, long t) {
+        if (!m_loaded) {
+            return;
+        }
+
+        final List<Outage> outages = getOutages(nodeid, ip, svcName);
+        if (outages != null) {
+            for (final Outage outage : outages) {
+                if (outage.isOpen()) {
+                    // The outage is shared with the nodes of the categories, nothing else needs to be updated
+                    outage.m_regainedAt = t;
+                    return;
+                }
+            }
+        }
+
+        // The outageCreated event was either not handled yet, or the service is unknown
+        LOG.debug("Received an outageResolved event without an open outage for {}/{}/{}. Reloading the node.", nodeid, InetAddressUtils.str(ip), svcName);
+        reloadNode(nodeid);
+    }
+
+    @Override
+    public synchronized void serviceDeleted(int nodeid, InetAddress ip, String svcName) {
+        if (!m_loaded) {
+            return;
+        }
+        reloadNode(nodeid);
+        updateCategoryMembership(nodeid);
+    }
+
+    @Override
+    public synchronized void interfaceReparented(InetAddress ip, int oldNodeId, int newNodeId) {
+        if (!m_loaded) {
+            return;
+        }
+        for (final int nodeid : new int[] { oldNodeId, newNodeId }) {
+            reloadNode(nodeid);
+            updateCategoryMembership(nodeid);
+        }
+    }
+
+    @Override
+    public synchronized void assetInfoChanged(int nodeid) {
+        if (!m_loaded) {
+            return;
+        }
+        updateCategoryMembership(nodeid);
+    }
+
+    @Override
+    public synchronized void nodeCategoryMembershipChanged(int nodeid) {
+        if (!m_loaded) {
+            return;
+        }
+        updateCategoryMembership(nodeid);
+    }
+
+    @Override
+    public synchronized void nodeDeleted(int nodeid) {
+        if (!m_loaded) {
+            return;
+        }
+        m_services.remove(nodeid);
+        for (final CategoryNodes categoryNodes : m_categoryNodes.values()) {
+            categoryNodes.m_nodes.remove(nodeid);
+        }
+    }
+
+    /**
+     * Reads the managed services and the outages affecting the rolling window from the database.
+     *
+     * The events which are received before are ignored, since their changes are already stored in the database.
+     */
+    private void load() {
+        LOG.info("Loading the managed services and their outages.");
+        m_transactionTemplate.execute(status -> {
+            m_services.clear();
+            m_categoryNodes.clear();
+            addServices(m_services, m_monitoredServiceDao.findMatching(getServiceCriteria(null).toCriteria()));
+            addOutages(m_services, m_outageDao.findMatching(getOutageCriteria(null).toCriteria()));
+            return null;
+        });
+        m_loaded = true;
+        LOG.info("Loaded the services of {} nodes.", m_services.size());
+    }
+
+    /**
+     * Reads the managed services of the given node and their outages from the database
+     * and updates the nodes of the categories accordingly.
+     */
+    private void reloadNode(int nodeid) {
+        final Map<Integer, Map<RTCNodeKey, List<Outage>>> services = new HashMap<>();
+        m_transactionTemplate.execute(status -> {
+            addServices(services, m_monitoredServiceDao.findMatching(getServiceCriteria(nodeid).toCriteria()));
+            addOutages(services, m_outageDao.findMatching(getOutageCriteria(nodeid).toCriteria()));
+            return null;
+        });
+
+        if (services.containsKey(nodeid)) {
+            m_services.put(nodeid, services.get(nodeid));
+        } else {
+            m_services.remove(nodeid);
+        }
+        updateNode(nodeid);
+    }
+
+    /**
+     * Updates the services of the given node in the categories the node is part of.
+     */
+    private void updateNode(int nodeid) {
+        for (final CategoryNodes categoryNodes : m_categoryNodes.values()) {
+            if (categoryNodes.m_nodes.containsKey(nodeid)) {
+                categoryNodes.m_nodes.put(nodeid, getNodeServices(categoryNodes, nodeid));
+            }
+        }
+    }
+
+    /**
+     * Evaluates the rules of the categories against the given node and adds it to or removes it
+     * from the categories.
+     */
+    private void updateCategoryMembership(int nodeid) {
+        for (final CategoryNodes categoryNodes : m_categoryNodes.values()) {
+            if (RTCUtils.isNodeInCategory(m_filterDao, categoryNodes.m_category, nodeid)) {
+                categoryNodes.m_nodes.put(nodeid, getNodeServices(categoryNodes, nodeid));
+            } else {
+                categoryNodes.m_nodes.remove(nodeid);
+            }
+        }
+    }
+
+    private CategoryNodes getCategoryNodes(RTCCategory category) {
+        CategoryNodes categoryNodes = m_categoryNodes.get(category.getLabel());
+        if (categoryNodes == null || !categoryNodes.matches(category)) {
+            categoryNodes = new CategoryNodes(category);
+            for (final Integer nodeid : RTCUtils.getNodeIdsForCategory(m_filterDao, category)) {
+                categoryNodes.m_nodes.put(nodeid, getNodeServices(categoryNodes, nodeid));
+            }
+            m_categoryNodes.put(category.getLabel(), categoryNodes);
+        }
+        return categoryNodes;
+    }
+
+    private NodeServices getNodeServices(CategoryNodes categoryNodes, int nodeid) {
+        final Map<RTCNodeKey, List<Outage>> services = m_services.get(nodeid);
+        if (services == null) {
+            return new NodeServices(0, new ArrayList<>(0));
+        }
+
+        int numServices = 0;
+        final List<Outage> outages = new ArrayList<>(0);
+        for (final Map.Entry<RTCNodeKey, List<Outage>> service : services.entrySet()) {
+            if (categoryNodes.containsService(service.getKey().getSvcName())) {
+                numServices++;
+                outages.addAll(service.getValue());
+            }
+        }
+        return new NodeServices(numServices, outages);
+    }
+
+    private List<Outage> getOutages(int nodeid, InetAddress ip, String svcName) {
+        final Map<RTCNodeKey, List<Outage>> services = m_services.get(nodeid);
+        return services == null ? null : services.get(new RTCNodeKey(nodeid, ip, svcName));
+    }
+
+    private static CriteriaBuilder getServiceCriteria(Integer nodeid) {
+        final CriteriaBuilder builder = new CriteriaBuilder(OnmsMonitoredService.class)
+            .alias("ipInterface", "ipInterface")
+            .alias("ipInterface.node", "node")
+            .alias("serviceType", "serviceType")
+            .eq("ipInterface.isManaged", "M");
+        if (nodeid != null) {
+            builder.eq("node.id", nodeid);
+        }
+        return builder;
+    }
+
+    private static CriteriaBuilder getOutageCriteria(Integer nodeid) {
+        final CriteriaBuilder builder = new CriteriaBuilder(OnmsOutage.class)
+            // The outage is ongoing or was cleared somewhere in the window
+            .or(new NullRestriction("ifRegainedService"),
+                new GtRestriction("ifRegainedService", new Date(System.currentTimeMillis() - ROLLING_WINDOW)))
+            .alias("monitoredService", "monitoredService")
+            .alias("monitoredService.ipInterface", "ipInterface")
+            .alias("monitoredService.serviceType", "serviceType")
+            .alias("ipInterface.node", "node")
+            .eq("ipInterface.isManaged", "M");
+        if (nodeid != null) {
+            builder.eq("node.id", nodeid);
+        }
+        return builder;
+    }
+
+    private static void addServices(Map<Integer, Map<RTCNodeKey, List<Outage>>> services, Collection<OnmsMonitoredService> monitoredServices) {
+        for (final OnmsMonitoredService monitoredService : monitoredServices) {
+            final RTCNodeKey key = new RTCNodeKey(monitoredService.getNodeId(), monitoredService.getIpAddress(), monitoredService.getServiceName());
+            services.computeIfAbsent(key.getNodeID(), nodeid -> new HashMap<>()).put(key, new ArrayList<>(0));
+        }
+    }
+
+    private static void addOutages(Map<Integer, Map<RTCNodeKey, List<Outage>>> services, Collection<OnmsOutage> outages) {
+        for (final OnmsOutage outage : outages) {
+            final Map<RTCNodeKey, List<Outage>> nodeServices = services.get(outage.getNodeId());
+            if (nodeServices == null) {
+                continue;
+            }
+            final List<Outage> serviceOutages = nodeServices.get(new RTCNodeKey(outage.getNodeId(), outage.getIpAddress(), outage.getMonitoredService().getServiceName()));
+            if (serviceOutages == null) {
+                continue;
+            }
+            serviceOutages.add(new Outage(outage.getIfLostService().getTime(),
+                    outage.getIfRegainedService() == null ? -1 : outage.getIfRegainedService().getTime()));
+        }
+    }
+
+    private static void removeOutagesBefore(List<Outage> outages, long time) {
+        outages.removeIf(outage -> !outage.isOpen() && outage.m_regainedAt <= time);
+    }
+
+    /**
+     * Whether the outage would be retrieved by the {@link AvailabilityServiceHibernateImpl} for the given window.
+     */
+    private static boolean isInWindow(Outage outage, long windowStart, long windowEnd) {
+        return outage.m_lostAt <= windowEnd && (outage.isOpen() || (outage.m_regainedAt > windowStart && outage.m_regainedAt <= windowEnd));
+    }
+
+    private static double getOutageTimeInWindow(List<Outage> outages, long windowStart, long windowEnd) {
+        if (outages.isEmpty()) {
+            return 0.0d;
+        }
+
+        long downtimeInWindow = 0;
+        for (final Outage outage : outages) {
+            if (!isInWindow(outage, windowStart, windowEnd)) {
+                continue;
+            }
+
+            // Use the start of the window if the service went down before this
+            final long lostAt = Math.max(windowStart, outage.m_lostAt);
+
+            // Use the end of the window if the service is still offline
+            final long regainedAt = outage.isOpen() ? windowEnd : Math.min(windowEnd, outage.m_regainedAt);
+
+            downtimeInWindow += (regainedAt - lostAt);
+        }
+
+        // Bound the downtime by the length of the window
+        return Math.min(downtimeInWindow, windowEnd - windowStart);
+    }
+}
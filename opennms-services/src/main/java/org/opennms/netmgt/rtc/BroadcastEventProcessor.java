@@ -61,7 +61,7 @@ public class BroadcastEventProcessor implements InitializingBean {
     private ExecutorService m_updater;
 
     @Autowired
-    private DataManager m_dataManager;
+    private AvailabilityListener m_dataManager;
 
     @Autowired
     private RTCConfigFactory m_configFactory;
@@ -90,7 +90,9 @@ public class BroadcastEventProcessor implements InitializingBean {
         // add the interfaceReparented event
         EventConstants.INTERFACE_REPARENTED_EVENT_UEI,
         // add the asset info changed event
-        EventConstants.ASSET_INFO_CHANGED_EVENT_UEI
+        EventConstants.ASSET_INFO_CHANGED_EVENT_UEI,
+        // add the nodeDeleted event
+        EventConstants.NODE_DELETED_EVENT_UEI
     })
     public void onEvent(Event event) {
         if (event == null) {
@@ -83,7 +83,7 @@ import org.springframework.transaction.support.TransactionTemplate;
  * @author <A HREF="mailto:sowmya@opennms.org">Sowmya Nataraj </A>
  * @author <A HREF="http://www.opennms.org">OpenNMS.org </A>
  */
-public class DataManager implements AvailabilityService, InitializingBean {
+public class DataManager implements AvailabilityService, AvailabilityListener, InitializingBean {
     
     private static final Logger LOG = LoggerFactory.getLogger(DataManager.class);
 
@@ -353,6 +353,7 @@ public class DataManager implements AvailabilityService, InitializingBean {
      * @param svcName
      *            the service name
      */
+    @Override
     public synchronized void nodeGainedService(int nodeid, InetAddress ip, String svcName) {
         //
         // check the 'status' flag for the service
@@ -414,6 +415,7 @@ public class DataManager implements AvailabilityService, InitializingBean {
      * @param t
      *            the time at which service was lost
      */
+    @Override
     public synchronized void outageCreated(int nodeid, InetAddress ip, String svcName, long t) {
         RTCNodeKey key = new RTCNodeKey(nodeid, ip, svcName);
         RTCNode rtcN = m_map.getRTCNode(key);
@@ -441,6 +443,7 @@ public class DataManager implements AvailabilityService, InitializingBean {
      * @param t
      *            the time at which service was regained
      */
+    @Override
     public synchronized void outageResolved(int nodeid, InetAddress ip, String svcName, long t) {
         RTCNodeKey key = new RTCNodeKey(nodeid, ip, svcName);
         RTCNode rtcN = m_map.getRTCNode(key);
@@ -464,6 +467,7 @@ public class DataManager implements AvailabilityService, InitializingBean {
      * @param svcName
      *            the service that was deleted
      */
+    @Override
     public synchronized void serviceDeleted(int nodeid, InetAddress ip, String svcName) {
         // create lookup key
         RTCNodeKey key = new RTCNodeKey(nodeid, ip, svcName);
@@ -515,6 +519,7 @@ public class DataManager implements AvailabilityService, InitializingBean {
      *
      * @param nodeid a long.
      */
+    @Override
     public synchronized void assetInfoChanged(int nodeid) {
         try {
         	rtcNodeRescan(nodeid);
@@ -537,6 +542,7 @@ public class DataManager implements AvailabilityService, InitializingBean {
      *
      * @param nodeid a long.
      */
+    @Override
     public synchronized void nodeCategoryMembershipChanged(int nodeid) {
         try {
         	rtcNodeRescan(nodeid);
@@ -552,6 +558,27 @@ public class DataManager implements AvailabilityService, InitializingBean {
         }
     }
 
+    /**
+     * <p>nodeDeleted</p>
+     *
+     * @param nodeid a long.
+     */
+    @Override
+    public synchronized void nodeDeleted(int nodeid) {
+        try {
+        	rtcNodeRescan(nodeid);
+        } catch (FilterParseException ex) {
+            LOG.warn("Failed to unmarshall database config", ex);
+            throw new UndeclaredThrowableException(ex);
+        } catch (SQLException ex) {
+            LOG.warn("Failed to get database connection", ex);
+            throw new UndeclaredThrowableException(ex);
+        } catch (RTCException ex) {
+            LOG.warn("Failed to get database connection", ex);
+            throw new UndeclaredThrowableException(ex);
+        }
+    }
+
     /**
      * Update the categories for a node. This method will update the categories
      * for all interfaces on a node.
@@ -599,6 +626,7 @@ public class DataManager implements AvailabilityService, InitializingBean {
      * @param newNodeId
      *            the node that the IP now belongs to
      */
+    @Override
     public synchronized void interfaceReparented(InetAddress ip, int oldNodeId, int newNodeId) {
         // get all RTCNodes with the IP/old node ID
         for (RTCNode rtcN : m_map.getRTCNodes(oldNodeId, ip)) {
@@ -45,7 +45,7 @@ import org.slf4j.LoggerFactory;
  * <P>
  * The DataUpdater is created for each event by the event receiver. Depending on
  * the event UEI, relevant information is read from the event and the
- * DataManager informed so that data maintained by the RTC is kept up-to-date
+ * AvailabilityListener informed so that data maintained by the RTC is kept up-to-date
  * </P>
  * 
  * @author <A HREF="mailto:sowmya@opennms.org">Sowmya Nataraj </A>
@@ -57,7 +57,7 @@ final class DataUpdater implements Runnable {
      * The event from which data is to be read
      */
     private final Event m_event;
-	private final DataManager m_dataManager;
+	private final AvailabilityListener m_dataManager;
 
     /**
      * If it is a nodeGainedService, create a new entry in the map
@@ -198,6 +198,21 @@ final class DataUpdater implements Runnable {
 
     }
     
+    /**
+     * If a node was deleted, remove it from RTC
+     */
+    private void handleNodeDeleted(int nodeid) {
+
+        if (nodeid == -1) {
+            LOG.warn("{} ignored - info incomplete - nodeid: {}", m_event.getUei(), nodeid);
+            return;
+        }
+
+        m_dataManager.nodeDeleted(nodeid);
+
+        LOG.debug("{} deleted node {} from data store", m_event.getUei(), nodeid);
+    }
+
     /**
      * If a node's surveillance category membership changed,
      * update RTC since RTC categories may include surveillance
@@ -253,6 +268,7 @@ final class DataUpdater implements Runnable {
         // outageResolved
         // serviceDeleted
         // interfaceReparented
+        // nodeDeleted
         // subscribe
         // unsubscribe
         //
@@ -272,6 +288,8 @@ final class DataUpdater implements Runnable {
             handleAssetInfoChangedEvent(nodeid);
         } else if (eventUEI.equals(EventConstants.NODE_CATEGORY_MEMBERSHIP_CHANGED_EVENT_UEI)) {
             handleNodeCategoryMembershipChanged(nodeid);
+        } else if (eventUEI.equals(EventConstants.NODE_DELETED_EVENT_UEI)) {
+            handleNodeDeleted(nodeid);
         } else {
             LOG.debug("Event subscribed for not handled?!: {}", eventUEI);
         }
@@ -283,7 +301,7 @@ final class DataUpdater implements Runnable {
      *
      * @param event a {@link org.opennms.netmgt.xml.event.Event} object.
      */
-    public DataUpdater(DataManager dataManager, Event event) {
+    public DataUpdater(AvailabilityListener dataManager, Event event) {
     	m_dataManager = dataManager;
         m_event = event;
     }
@@ -111,4 +111,14 @@ public abstract class RTCUtils {
 			return Collections.emptySet();
 		}
 	}
+
+	public static boolean isNodeInCategory(FilterDao filterDao, RTCCategory cat, int nodeId) {
+		String filterRule = "(" + cat.getEffectiveRule() + ") & (nodeId == " + nodeId + ")";
+		try {
+			return filterDao.getNodeMap(filterRule).containsKey(nodeId);
+		} catch (FilterParseException e) {
+			LOG.error("Unable to parse filter rule {} ignoring category {}", filterRule, cat.getLabel(), e);
+			return false;
+		}
+	}
 }
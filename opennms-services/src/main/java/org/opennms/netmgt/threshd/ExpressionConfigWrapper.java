@@ -30,13 +30,14 @@ package org.opennms.netmgt.threshd;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.jexl2.ExpressionImpl;
+import org.apache.commons.jexl2.JexlContext;
 import org.apache.commons.jexl2.JexlEngine;
-import org.apache.commons.jexl2.MapContext;
 import org.opennms.netmgt.config.threshd.Expression;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,16 +51,32 @@ import org.slf4j.LoggerFactory;
 public class ExpressionConfigWrapper extends BaseThresholdDefConfigWrapper {
     private static final Logger LOG = LoggerFactory.getLogger(ExpressionConfigWrapper.class);
 
+    private static final int DEFAULT_JEXLENGINE_CACHESIZE = 1024;
+
+    /**
+     * The engine shared by all expressions. Its cache holds the parsed expressions by their string, so
+     * wrappers created for the same expression, i.e. when reloading the configuration, share the parsed expression.
+     */
+    private static final JexlEngine JEXL_ENGINE;
+
+    private static final MathBinding MATH = new MathBinding();
+
+    static {
+        JEXL_ENGINE = new JexlEngine();
+        JEXL_ENGINE.setCache(Integer.getInteger("org.opennms.netmgt.threshd.ExpressionConfigWrapper.cacheSize", DEFAULT_JEXLENGINE_CACHESIZE));
+    }
+
     private final Expression m_expression;
+    private final org.apache.commons.jexl2.Expression m_parsedExpression;
     private final Collection<String> m_datasources;
     public ExpressionConfigWrapper(Expression expression) throws ThresholdExpressionException {
         super(expression);
         m_expression = expression;
 
-        JexlEngine expressionParser = new JexlEngine();
         m_datasources = new ArrayList<>();
         try {
-            ExpressionImpl e = (ExpressionImpl) expressionParser.createExpression(m_expression.getExpression());
+            m_parsedExpression = JEXL_ENGINE.createExpression(m_expression.getExpression());
+            ExpressionImpl e = (ExpressionImpl) m_parsedExpression;
             LOG.trace("List of Variables on the Expression: {}", e.getVariables());
             for (List<String> list : e.getVariables()) { // Requires JEXL 2.1.x
                 if (list.get(0).equalsIgnoreCase("math")) {
@@ -140,18 +157,58 @@ public class ExpressionConfigWrapper extends BaseThresholdDefConfigWrapper {
         public float ulp(float a) { return Math.ulp(a); }
     }
 
+    /**
+     * Context giving access to the values of the datasources, both directly and through the
+     * <code>datasources</code> variable, as well as to the <code>math</code> functions.
+     * The values are not copied, variables set by the expression are kept apart.
+     */
+    private static class ExpressionContext implements JexlContext {
+        private final Map<String, Double> m_values;
+        private Map<String, Object> m_variables;
+
+        private ExpressionContext(final Map<String, Double> values) {
+            m_values = values;
+        }
+
+        @Override
+        public Object get(final String name) {
+            if (m_variables != null && m_variables.containsKey(name)) {
+                return m_variables.get(name);
+            }
+            if ("math".equals(name)) {
+                return MATH;
+            }
+            if ("datasources".equals(name)) {
+                // To workaround NMS-5019
+                return Collections.unmodifiableMap(m_values);
+            }
+            return m_values.get(name);
+        }
+
+        @Override
+        public void set(final String name, final Object value) {
+            if (m_variables == null) {
+                m_variables = new HashMap<>();
+            }
+            m_variables.put(name, value);
+        }
+
+        @Override
+        public boolean has(final String name) {
+            return (m_variables != null && m_variables.containsKey(name))
+                    || "math".equals(name)
+                    || "datasources".equals(name)
+                    || m_values.containsKey(name);
+        }
+    }
+
     @Override
     public double evaluate(Map<String, Double> values) throws ThresholdExpressionException {
-        // Add all of the variable values to the script context
-        Map<String,Object> context = new HashMap<String,Object>();
-        context.putAll(values);
-        context.put("datasources", new HashMap<String, Double>(values)); // To workaround NMS-5019
-        context.put("math", new MathBinding());
         double result = Double.NaN;
         try {
-            // Fetch an instance of the JEXL script engine to evaluate the script expression
-            Object resultObject = new JexlEngine().createExpression(m_expression.getExpression()).evaluate(new MapContext(context));
-            result = Double.parseDouble(resultObject.toString());
+            Object resultObject = m_parsedExpression.evaluate(new ExpressionContext(values));
+            // Other types go through their string value, so that e.g. a Float of 0.1 remains 0.1 instead of being widened
+            result = resultObject instanceof Double ? (Double) resultObject : Double.parseDouble(resultObject.toString());
         } catch (Throwable e) {
             throw new ThresholdExpressionException("Error while evaluating expression " + m_expression.getExpression() + ": " + e.getMessage(), e);
         }
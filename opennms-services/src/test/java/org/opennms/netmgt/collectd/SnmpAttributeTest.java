@@ -29,10 +29,12 @@
 package org.opennms.netmgt.collectd;
 
 import static org.easymock.EasyMock.anyInt;
+import static org.easymock.EasyMock.anyLong;
+import static org.easymock.EasyMock.capture;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.isA;
-import static org.easymock.EasyMock.matches;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
@@ -42,6 +44,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.easymock.Capture;
+import org.easymock.EasyMock;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Ignore;
@@ -64,6 +68,7 @@ import org.opennms.netmgt.model.OnmsNode;
 import org.opennms.netmgt.rrd.RrdDataSource;
 import org.opennms.netmgt.rrd.RrdRepository;
 import org.opennms.netmgt.rrd.RrdStrategy;
+import org.opennms.netmgt.rrd.RrdUtils;
 import org.opennms.netmgt.snmp.SnmpInstId;
 import org.opennms.netmgt.snmp.SnmpResult;
 import org.opennms.netmgt.snmp.SnmpValue;
@@ -158,7 +163,8 @@ public class SnmpAttributeTest {
         m_rrdStrategy.createFile(isA(Object.class));
 
         expect(m_rrdStrategy.openFile(isA(String.class))).andReturn(new Object());
-        m_rrdStrategy.updateFile(isA(Object.class), isA(String.class), matches(".*:" + matchValue));
+        final Capture<Number[]> values = EasyMock.newCapture();
+        m_rrdStrategy.updateFile(isA(Object.class), isA(String.class), anyLong(), capture(values));
         m_rrdStrategy.closeFile(isA(Object.class));
 
         m_mocks.replayAll();
@@ -198,6 +204,8 @@ public class SnmpAttributeTest {
         });
 
         assertEquals(1, count.get());
+        final String update = RrdUtils.formatUpdate(0, values.getValue());
+        assertTrue("unexpected update " + update, update.matches(".*:" + matchValue));
     }
 
     /**
@@ -28,6 +28,8 @@
 
 package org.opennms.netmgt.poller.pollables;
 
+import static org.junit.Assert.assertTrue;
+
 import java.io.File;
 import java.net.InetAddress;
 import java.nio.file.Path;
@@ -35,6 +37,7 @@ import java.nio.file.Paths;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
+import org.easymock.Capture;
 import org.easymock.EasyMock;
 import org.junit.After;
 import org.junit.Before;
@@ -54,6 +57,7 @@ import org.opennms.netmgt.poller.ServiceMonitor;
 import org.opennms.netmgt.poller.mock.MockMonitoredService;
 import org.opennms.netmgt.poller.support.AbstractServiceMonitor;
 import org.opennms.netmgt.rrd.RrdStrategy;
+import org.opennms.netmgt.rrd.RrdUtils;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -153,7 +157,8 @@ public class LatencyStoringServiceMonitorAdaptorPersistenceTest {
         EasyMock.expectLastCall().andReturn(null).once();
 
         // This is the important bit, the order of the values should match the order there were inserted above
-        m_rrdStrategy.updateFile(EasyMock.isNull(), EasyMock.eq("192.168.1.5"), EasyMock.endsWith(":42.1:1:2:3"));
+        final Capture<Number[]> values = EasyMock.newCapture();
+        m_rrdStrategy.updateFile(EasyMock.isNull(), EasyMock.eq("192.168.1.5"), EasyMock.anyLong(), EasyMock.capture(values));
         EasyMock.expectLastCall().once();
 
         EasyMock.replay(m_rrdStrategy);
@@ -163,6 +168,7 @@ public class LatencyStoringServiceMonitorAdaptorPersistenceTest {
 
         // Verify
         EasyMock.verify(m_rrdStrategy);
+        assertTrue(RrdUtils.formatUpdate(0, values.getValue()).endsWith(":42.1:1:2:3"));
 
         // Reset
         EasyMock.reset(m_rrdStrategy);
@@ -0,0 +1,227 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2019-2019 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2019 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rtc;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opennms.core.spring.BeanUtils;
+import org.opennms.core.test.OpenNMSJUnit4ClassRunner;
+import org.opennms.core.test.db.MockDatabase;
+import org.opennms.core.test.db.TemporaryDatabaseAware;
+import org.opennms.core.test.db.annotations.JUnitTemporaryDatabase;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.dao.api.MonitoredServiceDao;
+import org.opennms.netmgt.dao.api.OutageDao;
+import org.opennms.netmgt.mock.MockNetwork;
+import org.opennms.netmgt.model.OnmsMonitoredService;
+import org.opennms.netmgt.model.OnmsOutage;
+import org.opennms.netmgt.rtc.datablock.RTCCategory;
+import org.opennms.netmgt.xml.rtc.Category;
+import org.opennms.netmgt.xml.rtc.Node;
+import org.opennms.test.JUnitConfigurationEnvironment;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Verifies that the {@link AvailabilityServiceIncrementalImpl} yields the same results
+ * as the {@link AvailabilityServiceHibernateImpl} while it is kept up to date with events.
+ */
+@RunWith(OpenNMSJUnit4ClassRunner.class)
+@ContextConfiguration(locations={
+        "classpath:/META-INF/opennms/mockEventIpcManager.xml",
+        "classpath:/META-INF/opennms/applicationContext-commonConfigs.xml",
+        "classpath:/META-INF/opennms/applicationContext-minimal-conf.xml",
+        "classpath:/META-INF/opennms/applicationContext-soa.xml",
+        "classpath:/META-INF/opennms/applicationContext-dao.xml",
+        "classpath:/META-INF/opennms/applicationContext-daemon.xml",
+        "classpath:/META-INF/opennms/applicationContext-rtc.xml"
+})
+@JUnitConfigurationEnvironment
+@JUnitTemporaryDatabase(tempDbClass=MockDatabase.class,reuseDatabase=false)
+public class AvailabilityServiceIncrementalImplIT implements TemporaryDatabaseAware<MockDatabase> {
+
+    private static final String COMMON_RULE = "IPADDR != '0.0.0.0'";
+
+    @Autowired
+    @Qualifier("availabilityServiceHibernateImpl")
+    private AvailabilityService m_hibernateImpl;
+
+    @Autowired
+    private AvailabilityServiceIncrementalImpl m_incrementalImpl;
+
+    @Autowired
+    private OutageDao m_outageDao;
+
+    @Autowired
+    private MonitoredServiceDao m_monitoredServiceDao;
+
+    @Autowired
+    private TransactionTemplate m_transactionTemplate;
+
+    private MockDatabase m_mockDatabase;
+
+    private List<RTCCategory> m_categories;
+
+    @Override
+    public void setTemporaryDatabase(MockDatabase database) {
+        m_mockDatabase = database;
+    }
+
+    @Before
+    public void setUp() {
+        BeanUtils.assertAutowiring(this);
+
+        final MockNetwork mockNetwork = new MockNetwork();
+        mockNetwork.createStandardNetwork();
+        m_mockDatabase.populate(mockNetwork);
+
+        m_categories = Arrays.asList(
+                category("All", COMMON_RULE),
+                category("Web Servers", COMMON_RULE, "HTTP"),
+                category("Network Interfaces", "IPADDR IPLIKE 192.168.1.1-3", "ICMP", "SMTP"),
+                category("Firewall", "nodeId == 3"));
+    }
+
+    @Test
+    public void canCalculateAvailabilityLikeHibernate() throws Exception {
+        assertSameAvailability();
+
+        final long now = System.currentTimeMillis();
+
+        // An outage which is both open and closed within the window
+        final OnmsOutage closedOutage = createOutage(1, "192.168.1.1", "ICMP", now - 60 * 60 * 1000, now - 30 * 60 * 1000);
+        m_incrementalImpl.outageCreated(1, InetAddressUtils.addr("192.168.1.1"), "ICMP", closedOutage.getIfLostService().getTime());
+        m_incrementalImpl.outageResolved(1, InetAddressUtils.addr("192.168.1.1"), "ICMP", closedOutage.getIfRegainedService().getTime());
+        assertSameAvailability();
+
+        // An outage which is still open
+        final OnmsOutage openOutage = createOutage(2, "192.168.1.3", "HTTP", now - 10 * 60 * 1000, null);
+        m_incrementalImpl.outageCreated(2, InetAddressUtils.addr("192.168.1.3"), "HTTP", openOutage.getIfLostService().getTime());
+        assertSameAvailability();
+
+        // An outage which started before the window, where the outageResolved event is handled first
+        final OnmsOutage longOutage = createOutage(3, "192.168.1.4", "SMTP", now - 48 * 60 * 60 * 1000, now - 5 * 60 * 1000);
+        m_incrementalImpl.outageResolved(3, InetAddressUtils.addr("192.168.1.4"), "SMTP", longOutage.getIfRegainedService().getTime());
+        m_incrementalImpl.outageCreated(3, InetAddressUtils.addr("192.168.1.4"), "SMTP", longOutage.getIfLostService().getTime());
+        assertSameAvailability();
+
+        // An outage which ended before the window
+        final OnmsOutage oldOutage = createOutage(3, "192.168.1.5", "HTTP", now - 50 * 60 * 60 * 1000, now - 49 * 60 * 60 * 1000);
+        m_incrementalImpl.outageCreated(3, InetAddressUtils.addr("192.168.1.5"), "HTTP", oldOutage.getIfLostService().getTime());
+        m_incrementalImpl.outageResolved(3, InetAddressUtils.addr("192.168.1.5"), "HTTP", oldOutage.getIfRegainedService().getTime());
+        assertSameAvailability();
+
+        // Resolve the open outage
+        resolveOutage(openOutage, now - 5 * 60 * 1000);
+        m_incrementalImpl.outageResolved(2, InetAddressUtils.addr("192.168.1.3"), "HTTP", openOutage.getIfRegainedService().getTime());
+        assertSameAvailability();
+    }
+
+    @Test
+    public void canFollowServiceAndNodeChanges() throws Exception {
+        final long now = System.currentTimeMillis();
+        createOutage(1, "192.168.1.2", "SMTP", now - 2 * 60 * 60 * 1000, null);
+        createOutage(3, "192.168.1.5", "HTTP", now - 3 * 60 * 60 * 1000, now - 60 * 60 * 1000);
+        assertSameAvailability();
+
+        // Delete a service with an outage
+        m_mockDatabase.update("DELETE FROM ifservices WHERE id = ?", toMonitoredService(1, "192.168.1.2", "SMTP").getId());
+        m_incrementalImpl.serviceDeleted(1, InetAddressUtils.addr("192.168.1.2"), "SMTP");
+        assertSameAvailability();
+
+        // Unmanage an interface
+        m_mockDatabase.update("UPDATE ipinterface SET ismanaged = 'U' WHERE nodeid = ? AND ipaddr = ?", 3, "192.168.1.4");
+        m_incrementalImpl.serviceDeleted(3, InetAddressUtils.addr("192.168.1.4"), "SMTP");
+        assertSameAvailability();
+
+        // Delete a node
+        m_mockDatabase.update("DELETE FROM node WHERE nodeid = ?", 3);
+        m_incrementalImpl.nodeDeleted(3);
+        assertSameAvailability();
+    }
+
+    private void assertSameAvailability() {
+        for (final RTCCategory category : m_categories) {
+            final Category expected = m_hibernateImpl.getEuiLevel(category).getCategory().get(0);
+            final Category actual = m_incrementalImpl.getEuiLevel(category).getCategory().get(0);
+
+            final String label = category.getLabel();
+            assertEquals(label, expected.getCatlabel(), actual.getCatlabel());
+            // Allow for the time that passed between the calculations
+            assertEquals(label, expected.getCatvalue(), actual.getCatvalue(), 0.001);
+            assertEquals(label, expected.getNode().size(), actual.getNode().size());
+            for (int i = 0; i < expected.getNode().size(); i++) {
+                final Node expectedNode = expected.getNode().get(i);
+                final Node actualNode = actual.getNode().get(i);
+                assertEquals(label, expectedNode.getNodeid(), actualNode.getNodeid());
+                assertEquals(label, expectedNode.getNodevalue(), actualNode.getNodevalue(), 0.001);
+                assertEquals(label, expectedNode.getNodesvccount(), actualNode.getNodesvccount());
+                assertEquals(label, expectedNode.getNodesvcdowncount(), actualNode.getNodesvcdowncount());
+            }
+        }
+    }
+
+    private OnmsOutage createOutage(int nodeId, String ipAddr, String svcName, long lostAt, Long regainedAt) {
+        return m_transactionTemplate.execute(status -> {
+            final OnmsOutage outage = new OnmsOutage();
+            outage.setMonitoredService(toMonitoredService(nodeId, ipAddr, svcName));
+            outage.setIfLostService(new Date(lostAt));
+            outage.setIfRegainedService(regainedAt == null ? null : new Date(regainedAt));
+            m_outageDao.save(outage);
+            m_outageDao.flush();
+            return outage;
+        });
+    }
+
+    private void resolveOutage(OnmsOutage outage, long regainedAt) {
+        m_transactionTemplate.execute(status -> {
+            outage.setIfRegainedService(new Date(regainedAt));
+            m_outageDao.update(outage);
+            m_outageDao.flush();
+            return null;
+        });
+    }
+
+    private OnmsMonitoredService toMonitoredService(int nodeId, String ipAddr, String svcName) {
+        return m_transactionTemplate.execute(status -> m_monitoredServiceDao.get(nodeId, InetAddressUtils.addr(ipAddr), svcName));
+    }
+
+    private static RTCCategory category(String label, String rule, String... services) {
+        return new RTCCategory(new org.opennms.netmgt.config.categories.Category(label, null, 99.0, 97.0, rule, services), COMMON_RULE);
+    }
+}
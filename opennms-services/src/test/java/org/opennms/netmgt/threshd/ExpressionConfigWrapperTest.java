@@ -28,16 +28,29 @@
 
 package org.opennms.netmgt.threshd;
 
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
+import org.apache.commons.jexl2.JexlEngine;
+import org.apache.commons.jexl2.MapContext;
 import org.junit.Assert;
 
 import org.junit.After;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
+import org.opennms.core.test.ConfigurationTestUtils;
 import org.opennms.core.test.MockLogAppender;
+import org.opennms.core.xml.JaxbUtils;
 import org.opennms.netmgt.config.threshd.Expression;
+import org.opennms.netmgt.config.threshd.Group;
+import org.opennms.netmgt.config.threshd.ThresholdingConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * 
@@ -45,6 +58,10 @@ import org.opennms.netmgt.config.threshd.Expression;
  */
 public class ExpressionConfigWrapperTest {
     
+    private static final Logger LOG = LoggerFactory.getLogger(ExpressionConfigWrapperTest.class);
+
+    private static final int BENCHMARK_ITERATIONS = 100000;
+
     private final String FORMULA = "ifSpeed > 0 and ifSpeed < 100000000 ? ((ifInOctets * 8 / ifSpeed) * 100) : (ifHighSpeed > 0 ? (((ifHCInOctets * 8) / (ifHighSpeed * 1000000)) * 100) : 0)";
 
     private ExpressionConfigWrapper wrapper;
@@ -122,6 +139,15 @@ public class ExpressionConfigWrapperTest {
         Assert.assertTrue(10.0 == wrapper.evaluate(values));
     }
 
+    @Test
+    public void testFloatResult() throws Exception {
+        Expression exp = new Expression();
+        // Real literals are parsed as floats
+        exp.setExpression("0.1");
+        wrapper = new ExpressionConfigWrapper(exp);
+        Assert.assertEquals(0.1, wrapper.evaluate(new HashMap<String,Double>()), 0.0);
+    }
+
     /* See NMS-5014 */
     @Test
     public void testComplexExpression() throws Exception {
@@ -171,4 +197,55 @@ public class ExpressionConfigWrapperTest {
         values.put("ifSpeed", 10.0);
         Assert.assertEquals(160.0, wrapper.evaluate(values), 0.0);
     }
+
+    /**
+     * Compares the evaluations per second of the expressions of the stock thresholds.xml
+     * against parsing them for every evaluation, as done before the expressions were cached.
+     */
+    @Test
+    public void benchmark() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("runBenchmarkTests"));
+
+        final List<ExpressionConfigWrapper> wrappers = new ArrayList<>();
+        try (InputStream is = ConfigurationTestUtils.getInputStreamForConfigFile("thresholds.xml")) {
+            for (Group group : JaxbUtils.unmarshal(ThresholdingConfig.class, is).getGroups()) {
+                for (Expression expression : group.getExpressions()) {
+                    wrappers.add(new ExpressionConfigWrapper(expression));
+                }
+            }
+        }
+        wrappers.add(wrapper);
+
+        final Random random = new Random(0);
+        final List<Map<String, Double>> values = new ArrayList<>();
+        for (ExpressionConfigWrapper wrapper : wrappers) {
+            final Map<String, Double> value = new HashMap<>();
+            for (String ds : wrapper.getRequiredDatasources()) {
+                value.put(ds, random.nextDouble() * 1000.0 + 1.0);
+            }
+            values.add(value);
+        }
+
+        for (int run = 0; run < 2; run++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                final int n = i % wrappers.size();
+                wrappers.get(n).evaluate(values.get(n));
+            }
+            final long cached = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                final int n = i % wrappers.size();
+                final Map<String, Object> context = new HashMap<>(values.get(n));
+                context.put("datasources", new HashMap<>(values.get(n)));
+                context.put("math", new ExpressionConfigWrapper.MathBinding());
+                new JexlEngine().createExpression(wrappers.get(n).getDatasourceExpression()).evaluate(new MapContext(context));
+            }
+            final long parsed = System.nanoTime() - start;
+
+            LOG.info("{} evaluations of {} expressions: cached in {}ms, parsed on every evaluation in {}ms",
+                    BENCHMARK_ITERATIONS, wrappers.size(), cached / 1000000, parsed / 1000000);
+        }
+    }
 }